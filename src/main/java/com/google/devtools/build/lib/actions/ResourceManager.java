@@ -19,13 +19,14 @@ import static com.google.devtools.build.lib.profiler.AutoProfiler.profiled;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
-import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
@@ -54,6 +55,11 @@ import java.util.concurrent.CountDownLatch;
  * guarantees that at least one thread will always be able to acquire any amount of requested
  * resources (even if it is greater than amount of available resources). Therefore, assuming that
  * threads correctly release acquired resources, Blaze will never be fully blocked.
+ *
+ * <p>Waiting requests are granted in order of arrival, but a request that fits may overtake
+ * earlier ones that don't. To keep large requests from starving, the oldest waiting request can be
+ * overtaken only {@link #MAX_BYPASSES} times; after that, no other request is granted until it
+ * was. While nobody waits, resources are acquired and released without taking the lock.
  */
 @ThreadSafe
 public class ResourceManager {
@@ -115,32 +121,98 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
   private static final double MIN_NECESSARY_IO_RATIO = 1.0;
 
-  // List of blocked threads. Associated CountDownLatch object will always
-  // be initialized to 1 during creation in the acquire() method.
-  private final List<Pair<ResourceSet, CountDownLatch>> requestList;
+  private static final MetricsRegistry.Histogram waitTimes =
+      MetricsRegistry.instance()
+          .histogram(
+              "resource_manager_wait_nanos",
+              "Time actions waited for local resources, in nanoseconds.");
+
+  // How many times the oldest waiting request may be overtaken by requests that arrived later.
+  @VisibleForTesting static final int MAX_BYPASSES = 32;
+
+  /** A blocked thread waiting for resources. */
+  private static final class Request {
+    final ResourceSet resources;
+    // Counted down once the resources are granted, or when the thread gives up waiting.
+    final CountDownLatch latch = new CountDownLatch(1);
+    // Number of requests that were granted while this one was the oldest waiting request.
+    int bypasses;
+
+    Request(ResourceSet resources) {
+      this.resources = resources;
+    }
+  }
+
+  /**
+   * Amounts of resources in use. Instances are immutable, so that the whole usage can be updated
+   * with a single compare-and-set.
+   */
+  private static final class Usage {
+    static final Usage NONE = new Usage(0, 0, 0, 0);
+
+    // Used amount of CPU capacity (where 1.0 corresponds to the one fully
+    // occupied CPU core. Corresponds to the CPU resource definition in the
+    // ResourceSet class.
+    final double cpu;
+    // Used amount of RAM capacity in MB. Corresponds to the RAM resource
+    // definition in the ResourceSet class.
+    final double ram;
+    // Used amount of I/O resources. Corresponds to the I/O resource
+    // definition in the ResourceSet class.
+    final double io;
+    // Used local test count. Corresponds to the local test count definition in the ResourceSet
+    // class.
+    final int localTestCount;
+
+    Usage(double cpu, double ram, double io, int localTestCount) {
+      this.cpu = cpu;
+      this.ram = ram;
+      this.io = io;
+      this.localTestCount = localTestCount;
+    }
+
+    Usage plus(ResourceSet resources) {
+      return new Usage(
+          cpu + resources.getCpuUsage(),
+          ram + resources.getMemoryMb(),
+          io + resources.getIoUsage(),
+          localTestCount + resources.getLocalTestCount());
+    }
+
+    Usage minus(ResourceSet resources) {
+      // TODO(bazel-team): (2010) rounding error can accumulate and value below can end up being
+      // e.g. 1E-15. So if it is small enough, we set it to 0. But maybe there is a better solution.
+      double epsilon = 0.0001;
+      double newCpu = cpu - resources.getCpuUsage();
+      double newRam = ram - resources.getMemoryMb();
+      double newIo = io - resources.getIoUsage();
+      return new Usage(
+          newCpu < epsilon ? 0 : newCpu,
+          newRam < epsilon ? 0 : newRam,
+          newIo < epsilon ? 0 : newIo,
+          localTestCount - resources.getLocalTestCount());
+    }
+
+    boolean isZero() {
+      return cpu == 0.0 && ram == 0.0 && io == 0.0 && localTestCount == 0;
+    }
+  }
+
+  // List of blocked threads, oldest first. Guarded by this.
+  private final List<Request> requestList;
+
+  // Size of requestList. Written with the lock held, but read without it, so that acquiring and
+  // releasing resources only takes the lock if there are blocked threads.
+  private volatile int waitCount;
 
   // The total amount of resources on the local host. Must be set by
   // an explicit call to setAvailableResources(), often using
   // LocalHostCapacity.getLocalHostCapacity() as an argument.
   private ResourceSet staticResources = null;
 
-  private ResourceSet availableResources = null;
-
-  // Used amount of CPU capacity (where 1.0 corresponds to the one fully
-  // occupied CPU core. Corresponds to the CPU resource definition in the
-  // ResourceSet class.
-  private double usedCpu;
-
-  // Used amount of RAM capacity in MB. Corresponds to the RAM resource
-  // definition in the ResourceSet class.
-  private double usedRam;
+  private volatile ResourceSet availableResources = null;
 
-  // Used amount of I/O resources. Corresponds to the I/O resource
-  // definition in the ResourceSet class.
-  private double usedIo;
-
-  // Used local test count. Corresponds to the local test count definition in the ResourceSet class.
-  private int usedLocalTestCount;
+  private final AtomicReference<Usage> used = new AtomicReference<>(Usage.NONE);
 
   // Specifies how much of the RAM in staticResources we should allow to be used.
   public static final int DEFAULT_RAM_UTILIZATION_PERCENTAGE = 67;
@@ -159,15 +231,13 @@ public class ResourceManager {
    * Note - it does not reset available resources. Use separate call to setAvailableResources().
    */
   public synchronized void resetResourceUsage() {
-    usedCpu = 0;
-    usedRam = 0;
-    usedIo = 0;
-    usedLocalTestCount = 0;
-    for (Pair<ResourceSet, CountDownLatch> request : requestList) {
+    used.set(Usage.NONE);
+    for (Request request : requestList) {
       // CountDownLatch can be set only to 0 or 1.
-      request.second.countDown();
+      request.latch.countDown();
     }
     requestList.clear();
+    waitCount = 0;
   }
 
   /**
@@ -208,7 +278,11 @@ public class ResourceManager {
     try {
       latch = acquire(resources);
       if (latch != null) {
+        long waitStartNanos = System.nanoTime();
         latch.await();
+        waitTimes.record(System.nanoTime() - waitStartNanos);
+      } else {
+        waitTimes.record(0);
       }
     } catch (InterruptedException e) {
       // Synchronize on this to avoid any racing with #processWaitingThreads
@@ -247,13 +321,11 @@ public class ResourceManager {
     Preconditions.checkState(
         !threadHasResources(), "tryAcquire with existing resource lock during %s", owner);
 
-    boolean acquired = false;
+    boolean acquired;
 
     synchronized (this) {
-      if (areResourcesAvailable(resources)) {
-        incrementResources(resources);
-        acquired = true;
-      }
+      // Don't overtake blocked threads.
+      acquired = requestList.isEmpty() && tryIncrementResources(resources);
     }
 
     if (acquired) {
@@ -264,19 +336,24 @@ public class ResourceManager {
     return null;
   }
 
-  private void incrementResources(ResourceSet resources) {
-    usedCpu += resources.getCpuUsage();
-    usedRam += resources.getMemoryMb();
-    usedIo += resources.getIoUsage();
-    usedLocalTestCount += resources.getLocalTestCount();
+  /** Marks the resources as used if they are available. Safe to call without holding the lock. */
+  private boolean tryIncrementResources(ResourceSet resources) {
+    while (true) {
+      Usage current = used.get();
+      if (!areResourcesAvailable(current, resources)) {
+        return false;
+      }
+      if (used.compareAndSet(current, current.plus(resources))) {
+        return true;
+      }
+    }
   }
 
   /**
    * Return true if any resources have been claimed through this manager.
    */
   public synchronized boolean inUse() {
-    return usedCpu != 0.0 || usedRam != 0.0 || usedIo != 0.0 || usedLocalTestCount != 0
-        || !requestList.isEmpty();
+    return !used.get().isZero() || !requestList.isEmpty();
   }
 
 
@@ -313,68 +390,89 @@ public class ResourceManager {
     }
   }
 
-  private synchronized CountDownLatch acquire(ResourceSet resources) {
-    if (areResourcesAvailable(resources)) {
-      incrementResources(resources);
+  /**
+   * Acquires the resources if possible, or queues the request otherwise.
+   *
+   * @return null if the resources were acquired right away, or the latch to wait on otherwise
+   */
+  private CountDownLatch acquire(ResourceSet resources) {
+    // Fast path: nobody is waiting, so there is no one to overtake.
+    if (waitCount == 0 && tryIncrementResources(resources)) {
       return null;
     }
-    Pair<ResourceSet, CountDownLatch> request =
-      new Pair<>(resources, new CountDownLatch(1));
-    requestList.add(request);
-    return request.second;
+    synchronized (this) {
+      if (requestList.isEmpty() && tryIncrementResources(resources)) {
+        return null;
+      }
+      Request request = new Request(resources);
+      requestList.add(request);
+      waitCount = requestList.size();
+      // A concurrent release may not have seen the request yet, so check again. The request may
+      // already be granted when the caller starts waiting.
+      processWaitingThreads();
+      return request.latch;
+    }
   }
 
-  private synchronized boolean release(ResourceSet resources) {
-    usedCpu -= resources.getCpuUsage();
-    usedRam -= resources.getMemoryMb();
-    usedIo -= resources.getIoUsage();
-    usedLocalTestCount -= resources.getLocalTestCount();
-
-    // TODO(bazel-team): (2010) rounding error can accumulate and value below can end up being
-    // e.g. 1E-15. So if it is small enough, we set it to 0. But maybe there is a better solution.
-    double epsilon = 0.0001;
-    if (usedCpu < epsilon) {
-      usedCpu = 0;
-    }
-    if (usedRam < epsilon) {
-      usedRam = 0;
+  private boolean release(ResourceSet resources) {
+    while (true) {
+      Usage current = used.get();
+      if (used.compareAndSet(current, current.minus(resources))) {
+        break;
+      }
     }
-    if (usedIo < epsilon) {
-      usedIo = 0;
+    // Pairs with the write of waitCount in acquire(): either this thread sees the new request, or
+    // the acquiring thread sees the released resources.
+    if (waitCount == 0) {
+      return false;
     }
-    if (!requestList.isEmpty()) {
-      processWaitingThreads();
-      return true;
+    synchronized (this) {
+      if (!requestList.isEmpty()) {
+        processWaitingThreads();
+        return true;
+      }
+      return false;
     }
-    return false;
   }
 
   /**
    * Tries to unblock one or more waiting threads if there are sufficient resources available.
    */
   private synchronized void processWaitingThreads() {
-    Iterator<Pair<ResourceSet, CountDownLatch>> iterator = requestList.iterator();
+    // The oldest request that could not be granted.
+    Request blocked = null;
+    Iterator<Request> iterator = requestList.iterator();
     while (iterator.hasNext()) {
-      Pair<ResourceSet, CountDownLatch> request = iterator.next();
-      if (request.second.getCount() != 0) {
-        if (areResourcesAvailable(request.first)) {
-          incrementResources(request.first);
-          request.second.countDown();
-          iterator.remove();
-        }
-      } else {
+      Request request = iterator.next();
+      if (request.latch.getCount() == 0) {
         // Cancelled by other side.
         iterator.remove();
+        continue;
+      }
+      if (blocked != null && blocked.bypasses >= MAX_BYPASSES) {
+        // Hold back everything else until the oldest request was granted.
+        break;
+      }
+      if (tryIncrementResources(request.resources)) {
+        request.latch.countDown();
+        iterator.remove();
+        if (blocked != null) {
+          blocked.bypasses++;
+        }
+      } else if (blocked == null) {
+        blocked = request;
       }
     }
+    waitCount = requestList.size();
   }
 
   // Method will return true if all requested resources are considered to be available.
-  private boolean areResourcesAvailable(ResourceSet resources) {
+  private boolean areResourcesAvailable(Usage used, ResourceSet resources) {
+    ResourceSet availableResources = this.availableResources;
     Preconditions.checkNotNull(availableResources);
     // Comparison below is robust, since any calculation errors will be fixed
     // by the release() method.
-    if (usedCpu == 0.0 && usedRam == 0.0 && usedIo == 0.0 && usedLocalTestCount == 0) {
+    if (used.isZero()) {
       return true;
     }
     // Use only MIN_NECESSARY_???_RATIO of the resource value to check for
@@ -399,11 +497,11 @@ public class ResourceManager {
     // ensure that at any given time, at least one thread is able to acquire
     // resources even if it requests more than available.
     // 3) If used resource amount is less than total available resource amount.
-    boolean cpuIsAvailable = cpu == 0.0 || usedCpu == 0.0 || usedCpu + cpu <= availableCpu;
-    boolean ramIsAvailable = ram == 0.0 || usedRam == 0.0 || usedRam + ram <= availableRam;
-    boolean ioIsAvailable = io == 0.0 || usedIo == 0.0 || usedIo + io <= availableIo;
-    boolean localTestCountIsAvailable = localTestCount == 0 || usedLocalTestCount == 0
-        || usedLocalTestCount + localTestCount <= availableLocalTestCount;
+    boolean cpuIsAvailable = cpu == 0.0 || used.cpu == 0.0 || used.cpu + cpu <= availableCpu;
+    boolean ramIsAvailable = ram == 0.0 || used.ram == 0.0 || used.ram + ram <= availableRam;
+    boolean ioIsAvailable = io == 0.0 || used.io == 0.0 || used.io + io <= availableIo;
+    boolean localTestCountIsAvailable = localTestCount == 0 || used.localTestCount == 0
+        || used.localTestCount + localTestCount <= availableLocalTestCount;
     return cpuIsAvailable && ramIsAvailable && ioIsAvailable && localTestCountIsAvailable;
   }
 
@@ -414,6 +512,6 @@ public class ResourceManager {
 
   @VisibleForTesting
   synchronized boolean isAvailable(double ram, double cpu, double io, int localTestCount) {
-    return areResourcesAvailable(ResourceSet.create(ram, cpu, io, localTestCount));
+    return areResourcesAvailable(used.get(), ResourceSet.create(ram, cpu, io, localTestCount));
   }
 }
@@ -32,6 +32,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
@@ -54,10 +55,19 @@ import java.util.logging.Level;
  */
 public class DigestUtils {
 
-  // Object to synchronize on when serializing large file reads.
-  private static final Object DIGEST_LOCK = new Object();
+  /** Files up to this size are never subject to the large file concurrency limit. */
+  public static final long DEFAULT_LARGE_FILE_SIZE_THRESHOLD = 4096;
+
   private static final AtomicBoolean MULTI_THREADED_DIGEST = new AtomicBoolean(false);
 
+  // Size above which a file's digest computation counts against largeFileDigestPermits.
+  private static volatile long largeFileSizeThreshold = DEFAULT_LARGE_FILE_SIZE_THRESHOLD;
+
+  // Bounds the number of large files read concurrently. A single permit serializes large file
+  // reads, which is what rotating disks want; machines with SSDs can afford more.
+  private static volatile Semaphore largeFileDigestPermits = new Semaphore(1, /*fair=*/ true);
+  private static int largeFileDigestConcurrency = 1;
+
   /**
    * Keys used to cache the values of the digests for files where we don't have fast digests.
    *
@@ -132,17 +142,19 @@ public class DigestUtils {
   private DigestUtils() {}
 
   /**
-   * Obtain file's MD5 metadata using synchronized method, ensuring that system
-   * is not overloaded in case when multiple threads are requesting MD5
-   * calculations and underlying file system cannot provide it via extended
-   * attribute.
+   * Obtain file's MD5 metadata while holding one of the large file permits, ensuring that system
+   * is not overloaded in case when multiple threads are requesting MD5 calculations and underlying
+   * file system cannot provide it via extended attribute.
    */
-  private static byte[] getDigestInExclusiveMode(Path path)
-      throws IOException {
+  private static byte[] getDigestWithBoundedConcurrency(Path path) throws IOException {
     long startTime = BlazeClock.nanoTime();
-    synchronized (DIGEST_LOCK) {
+    Semaphore permits = largeFileDigestPermits;
+    permits.acquireUninterruptibly();
+    try {
       Profiler.instance().logSimpleTask(startTime, ProfilerTask.WAIT, path.getPathString());
       return getDigestInternal(path);
+    } finally {
+      permits.release();
     }
   }
 
@@ -194,14 +206,37 @@ public class DigestUtils {
     DigestUtils.MULTI_THREADED_DIGEST.set(multiThreadedDigest);
   }
 
+  /**
+   * Configures how digests of large files are computed when multi-threaded digesting is disabled.
+   *
+   * <p>The digest function is inherently sequential, so a single file is always read by a single
+   * thread; what this controls is how many large files may be read at the same time. Threads that
+   * are already digesting a file when this is called keep the permits they were granted.
+   *
+   * @param sizeThreshold files larger than this many bytes are subject to the concurrency limit
+   * @param maxConcurrentDigests how many large files may be digested concurrently
+   */
+  public static void configureLargeFileDigests(long sizeThreshold, int maxConcurrentDigests) {
+    Preconditions.checkArgument(sizeThreshold >= 0, "Negative size threshold: %s", sizeThreshold);
+    Preconditions.checkArgument(
+        maxConcurrentDigests > 0, "Non-positive concurrency: %s", maxConcurrentDigests);
+    largeFileSizeThreshold = sizeThreshold;
+    synchronized (DigestUtils.class) {
+      if (largeFileDigestConcurrency != maxConcurrentDigests) {
+        largeFileDigestConcurrency = maxConcurrentDigests;
+        largeFileDigestPermits = new Semaphore(maxConcurrentDigests, /*fair=*/ true);
+      }
+    }
+  }
+
   /**
    * Get the digest of {@code path}, using a constant-time xattr call if the filesystem supports
    * it, and calculating the digest manually otherwise.
    *
    * @param path Path of the file.
    * @param fileSize size of the file. Used to determine if digest calculation should be done
-   * serially or in parallel. Files larger than a certain threshold will be read serially, in order
-   * to avoid excessive disk seeks.
+   * serially or in parallel. Files larger than a certain threshold will be read with bounded
+   * concurrency (serially by default), in order to avoid excessive disk seeks.
    */
   public static byte[] getDigestOrFail(Path path, long fileSize)
       throws IOException {
@@ -230,14 +265,14 @@ public class DigestUtils {
 
     // All right, we have neither a fast nor a cached digest. Let's go through the costly process of
     // computing it from the file contents.
-    if (fileSize > 4096 && !MULTI_THREADED_DIGEST.get()) {
+    if (fileSize > largeFileSizeThreshold && !MULTI_THREADED_DIGEST.get()) {
       // We'll have to read file content in order to calculate the digest. In that case
-      // it would be beneficial to serialize those calculations since there is a high
-      // probability that MD5 will be requested for multiple output files simultaneously.
-      // Exception is made for small (<=4K) files since they will not likely to introduce
-      // significant delays (at worst they will result in two extra disk seeks by
+      // it would be beneficial to limit the number of concurrent calculations since there is a
+      // high probability that MD5 will be requested for multiple output files simultaneously.
+      // Exception is made for small (<=4K by default) files since they will not likely to
+      // introduce significant delays (at worst they will result in two extra disk seeks by
       // interrupting other reads).
-      digest = getDigestInExclusiveMode(path);
+      digest = getDigestWithBoundedConcurrency(path);
     } else {
       digest = getDigestInternal(path);
     }
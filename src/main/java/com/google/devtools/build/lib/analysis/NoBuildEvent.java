@@ -54,7 +54,7 @@ public final class NoBuildEvent implements BuildEvent {
     if (separateFinishedEvent) {
       return ImmutableList.of(ProgressEvent.INITIAL_PROGRESS_UPDATE, BuildEventId.buildFinished());
     } else {
-      return ImmutableList.of(ProgressEvent.INITIAL_PROGRESS_UPDATE);
+      return ImmutableList.of(ProgressEvent.INITIAL_PROGRESS_UPDATE, BuildEventId.buildMetrics());
     }
   }
 
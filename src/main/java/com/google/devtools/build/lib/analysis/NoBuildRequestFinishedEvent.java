@@ -35,7 +35,7 @@ public final class NoBuildRequestFinishedEvent implements BuildEvent {
 
   @Override
   public Collection<BuildEventId> getChildrenEvents() {
-    return ImmutableList.<BuildEventId>of();
+    return ImmutableList.of(BuildEventId.buildMetrics());
   }
 
   @Override
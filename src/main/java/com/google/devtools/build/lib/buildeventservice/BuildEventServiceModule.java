@@ -207,6 +207,8 @@ public abstract class BuildEventServiceModule<T extends BuildEventServiceOptions
               besOptions.besTimeout,
               besOptions.besBestEffort,
               besOptions.besLifecycleEvents,
+              besOptions.besMaxBufferedBytes,
+              besOptions.besMaxSpilledBytes,
               buildRequestId,
               invocationId,
               moduleEnvironment,
@@ -68,6 +68,31 @@ public class BuildEventServiceOptions extends OptionsBase {
   )
   public boolean besLifecycleEvents;
 
+  @Option(
+    name = "bes_max_buffered_bytes",
+    defaultValue = "33554432",
+    documentationCategory = OptionDocumentationCategory.LOGGING,
+    effectTags = {OptionEffectTag.AFFECTS_OUTPUTS},
+    help =
+        "Specifies the total size in bytes of the build events kept in memory while they wait "
+            + "to be uploaded. Further events are buffered on disk, see --bes_max_spilled_bytes. "
+            + "The same limit applies to the events uploaded but not yet acknowledged by the "
+            + "backend."
+  )
+  public long besMaxBufferedBytes;
+
+  @Option(
+    name = "bes_max_spilled_bytes",
+    defaultValue = "1073741824",
+    documentationCategory = OptionDocumentationCategory.LOGGING,
+    effectTags = {OptionEffectTag.AFFECTS_OUTPUTS},
+    help =
+        "Specifies the total size in bytes of the build events buffered on disk while they wait "
+            + "to be uploaded. Once the limit is reached, the build waits for the upload to catch "
+            + "up. 0 disables buffering on disk."
+  )
+  public long besMaxSpilledBytes;
+
   @Option(
     name = "project_id",
     defaultValue = "null",
@@ -15,6 +15,7 @@
 package com.google.devtools.build.lib.buildeventservice;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 import static com.google.devtools.build.lib.events.EventKind.ERROR;
 import static com.google.devtools.build.lib.events.EventKind.INFO;
@@ -44,6 +45,7 @@ import com.google.devtools.build.lib.buildeventstream.PathConverter;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import com.google.devtools.build.lib.runtime.BlazeModule.ModuleEnvironment;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.Clock;
@@ -54,15 +56,15 @@ import com.google.devtools.build.v1.PublishBuildToolEventStreamResponse;
 import com.google.devtools.build.v1.PublishLifecycleEventRequest;
 import com.google.protobuf.Any;
 import io.grpc.Status;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.Deque;
-import java.util.concurrent.BlockingDeque;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.LockSupport;
@@ -82,6 +84,15 @@ public class BuildEventServiceTransport implements BuildEventTransport {
   /** Max wait time until for the Streaming RPC to finish after all events were enqueued. */
   private static final Duration PUBLISH_EVENT_STREAM_FINISHED_TIMEOUT = Duration.ofSeconds(120);
 
+  /** Max number of events taken from the queue at once and written to the stream back to back. */
+  private static final int MAX_BATCH_SIZE = 100;
+
+  private static final MetricsRegistry.Histogram ackLatency =
+      MetricsRegistry.instance()
+          .histogram(
+              "bes_ack_latency_nanos",
+              "Time between sending a build event to the BES backend and receiving its ack.");
+
   private final ListeningExecutorService uploaderExecutorService;
   private final Duration uploadTimeout;
   private final boolean publishLifecycleEvents;
@@ -93,9 +104,17 @@ public class BuildEventServiceTransport implements BuildEventTransport {
 
   private final PathConverter pathConverter;
   /** Contains all pendingAck events that might be retried in case of failures. */
-  private ConcurrentLinkedDeque<PublishBuildToolEventStreamRequest> pendingAck;
-  /** Contains all events should be sent ordered by sequence number. */
-  private final BlockingDeque<PublishBuildToolEventStreamRequest> pendingSend;
+  private ConcurrentLinkedDeque<SentEvent> pendingAck;
+  /**
+   * The total serialized size of the events in {@link #pendingAck}, beyond which the upload waits
+   * for acks before sending more events.
+   */
+  private final long maxUnackedBytes;
+  /**
+   * Contains all events should be sent ordered by sequence number. Bounded in size, so that
+   * producers wait for the upload instead of buffering an unbounded number of events.
+   */
+  private final SpillingEventQueue<PublishBuildToolEventStreamRequest> pendingSend;
   /** Holds the result status of the BuildEventStreamProtos BuildFinished event. */
   private Result invocationResult;
   /** Used to block until all events have been uploaded. */
@@ -116,6 +135,8 @@ public class BuildEventServiceTransport implements BuildEventTransport {
       Duration uploadTimeout,
       boolean bestEffortUpload,
       boolean publishLifecycleEvents,
+      long maxBufferedBytes,
+      long maxSpilledBytes,
       String buildRequestId,
       String invocationId,
       ModuleEnvironment moduleEnvironment,
@@ -128,6 +149,8 @@ public class BuildEventServiceTransport implements BuildEventTransport {
         uploadTimeout,
         bestEffortUpload,
         publishLifecycleEvents,
+        maxBufferedBytes,
+        maxSpilledBytes,
         moduleEnvironment,
         new BuildEventServiceProtoUtil(buildRequestId, invocationId, projectId, clock),
         pathConverter,
@@ -140,6 +163,8 @@ public class BuildEventServiceTransport implements BuildEventTransport {
       Duration uploadTimeout,
       boolean bestEffortUpload,
       boolean publishLifecycleEvents,
+      long maxBufferedBytes,
+      long maxSpilledBytes,
       ModuleEnvironment moduleEnvironment,
       BuildEventServiceProtoUtil besProtoUtil,
       PathConverter pathConverter,
@@ -150,7 +175,10 @@ public class BuildEventServiceTransport implements BuildEventTransport {
     this.moduleEnvironment = moduleEnvironment;
     this.commandLineReporter = commandLineReporter;
     this.pendingAck = new ConcurrentLinkedDeque<>();
-    this.pendingSend = new LinkedBlockingDeque<>();
+    this.maxUnackedBytes = maxBufferedBytes;
+    this.pendingSend =
+        new SpillingEventQueue<>(
+            PublishBuildToolEventStreamRequest.parser(), maxBufferedBytes, maxSpilledBytes);
     // Setting the thread count to 2 instead of 1 is a hack, but necessary as publishEventStream
     // blocks one thread permanently and thus we can't do any other work on the executor. A proper
     // fix would be to remove the spinning loop from publishEventStream and instead implement the
@@ -311,10 +339,17 @@ public class BuildEventServiceTransport implements BuildEventTransport {
       return;
     }
 
-    pendingSend.add(serialisedEvent);
     if (uploadComplete == null) {
       uploadComplete = uploaderExecutorService.submit(new BuildEventServiceUpload());
     }
+    try {
+      // Blocks if the upload can't keep up. The queue is closed when the upload terminates.
+      pendingSend.add(serialisedEvent);
+    } catch (InterruptedException e) {
+      // The event already has a sequence number, so dropping it would stall the stream.
+      pendingSend.addWithoutLimit(serialisedEvent);
+      Thread.currentThread().interrupt();
+    }
   }
 
   private synchronized Result getInvocationResult() {
@@ -333,6 +368,9 @@ public class BuildEventServiceTransport implements BuildEventTransport {
         try {
           publishEventStream0();
         } finally {
+          // Drop the remaining events and unblock any producer waiting for queue space, which
+          // might hold the lock needed by getInvocationResult().
+          pendingSend.close();
           Result result = getInvocationResult();
           publishInvocationFinishedEvent(result);
           publishBuildFinishedEvent(result);
@@ -400,30 +438,56 @@ public class BuildEventServiceTransport implements BuildEventTransport {
    */
   private Status publishEventStream() throws Exception {
     // Reschedule unacked messages if required, keeping its original order.
-    PublishBuildToolEventStreamRequest unacked;
+    SentEvent unacked;
     while ((unacked = pendingAck.pollLast()) != null) {
-      pendingSend.addFirst(unacked);
+      pendingSend.addFirst(unacked.request);
     }
     pendingAck = new ConcurrentLinkedDeque<>();
 
-    return publishEventStream(pendingAck, pendingSend, besClient)
+    return publishEventStream(pendingAck, new AckWindow(maxUnackedBytes), pendingSend, besClient)
         .get(PUBLISH_EVENT_STREAM_FINISHED_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
   }
 
-  /** Method responsible for a single Streaming RPC. */
+  /**
+   * Method responsible for a single Streaming RPC. Events are taken from the queue in batches and
+   * written to the stream back to back, so that the transport can flush them together. Sending
+   * doesn't block on a slow backend, so the events awaiting their ack are bounded by {@code
+   * ackWindow}, which keeps them from piling up in the stream's buffers and lets the queue push
+   * back on the producers instead.
+   */
   private static ListenableFuture<Status> publishEventStream(
-      final ConcurrentLinkedDeque<PublishBuildToolEventStreamRequest> pendingAck,
-      final BlockingDeque<PublishBuildToolEventStreamRequest> pendingSend,
+      final ConcurrentLinkedDeque<SentEvent> pendingAck,
+      final AckWindow ackWindow,
+      final SpillingEventQueue<PublishBuildToolEventStreamRequest> pendingSend,
       final BuildEventServiceClient besClient)
       throws Exception {
-    PublishBuildToolEventStreamRequest event;
-    ListenableFuture<Status> streamDone = besClient.openStream(ackCallback(pendingAck, besClient));
+    boolean lastEventSent = false;
+    ListenableFuture<Status> streamDone =
+        besClient.openStream(ackCallback(pendingAck, ackWindow, besClient));
+    streamDone.addListener(ackWindow::streamDone, directExecutor());
     try {
       do {
-        event = pendingSend.takeFirst();
-        pendingAck.add(event);
-        besClient.sendOverStream(event);
-      } while (!isLastEvent(event));
+        List<PublishBuildToolEventStreamRequest> batch = pendingSend.takeBatch(MAX_BATCH_SIZE);
+        if (batch.isEmpty()) {
+          throw new IOException("The build event queue was closed.");
+        }
+        int sent = 0;
+        try {
+          for (PublishBuildToolEventStreamRequest event : batch) {
+            ackWindow.awaitRoomFor(event.getSerializedSize());
+            pendingAck.add(new SentEvent(event, System.nanoTime()));
+            sent++;
+            besClient.sendOverStream(event);
+            lastEventSent = isLastEvent(event);
+          }
+        } finally {
+          // Return the events that didn't make it into pendingAck to the head of the queue, so
+          // that a retry sends them after the unacked ones instead of leaving a gap.
+          for (int i = batch.size() - 1; i >= sent; i--) {
+            pendingSend.addFirst(batch.get(i));
+          }
+        }
+      } while (!lastEventSent);
       besClient.closeStream();
       logger.log(Level.INFO, "Closing the build event stream.");
     } catch (Exception e) {
@@ -438,10 +502,12 @@ public class BuildEventServiceTransport implements BuildEventTransport {
   }
 
   private static Function<PublishBuildToolEventStreamResponse, Void> ackCallback(
-      final Deque<PublishBuildToolEventStreamRequest> pendingAck,
+      final Deque<SentEvent> pendingAck,
+      final AckWindow ackWindow,
       final BuildEventServiceClient besClient) {
     return ack -> {
-      long pendingSeq = pendingAck.isEmpty() ? -1 : pendingAck.peekFirst().getSequenceNumber();
+      SentEvent pending = pendingAck.peekFirst();
+      long pendingSeq = pending == null ? -1 : pending.request.getSequenceNumber();
       long ackSeq = ack.getSequenceNumber();
       if (pendingSeq != ackSeq) {
         besClient.abortStream(
@@ -449,11 +515,62 @@ public class BuildEventServiceTransport implements BuildEventTransport {
                 format("Expected ack %s but was %s.", pendingSeq, ackSeq)));
       } else {
         pendingAck.removeFirst();
+        ackWindow.acked(pending.request.getSerializedSize());
+        ackLatency.record(System.nanoTime() - pending.sentNanos);
       }
       return null;
     };
   }
 
+  /** An event sent over the stream, but not yet acknowledged by the server. */
+  private static final class SentEvent {
+    final PublishBuildToolEventStreamRequest request;
+    final long sentNanos;
+
+    SentEvent(PublishBuildToolEventStreamRequest request, long sentNanos) {
+      this.request = request;
+      this.sentNanos = sentNanos;
+    }
+  }
+
+  /**
+   * Bounds the total serialized size of the events sent over a stream but not yet acknowledged. An
+   * event that exceeds the limit on its own is sent once all events before it were acknowledged.
+   */
+  private static final class AckWindow {
+    private final long maxBytes;
+    private long unackedBytes;
+    private int unackedCount;
+    private boolean streamDone;
+
+    AckWindow(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Waits until an event of the given size may be sent, and counts it as unacknowledged. Returns
+     * without waiting once the stream is done, as no more acks will arrive.
+     */
+    synchronized void awaitRoomFor(int size) throws InterruptedException {
+      while (!streamDone && unackedCount > 0 && unackedBytes + size > maxBytes) {
+        wait();
+      }
+      unackedBytes += size;
+      unackedCount++;
+    }
+
+    synchronized void acked(int size) {
+      unackedBytes -= size;
+      unackedCount--;
+      notifyAll();
+    }
+
+    synchronized void streamDone() {
+      streamDone = true;
+      notifyAll();
+    }
+  }
+
   private void retryOnException(Callable<?> c) throws Exception {
     retryOnException(c, 3, 100);
   }
@@ -0,0 +1,263 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.buildeventservice;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A FIFO queue of protocol buffer messages with bounded memory use.
+ *
+ * <p>Messages are kept in memory until their total serialized size reaches a limit. Further
+ * messages are appended to a temporary file, from which they are read back in order once the
+ * messages before them were taken. When the file reaches its own size limit, {@link #add} blocks
+ * until the consumer catches up, which pushes back on the producer instead of growing without
+ * bounds when the consumer is slower.
+ *
+ * <p>The queue is meant for one producer and one consumer thread. Used by {@link
+ * BuildEventServiceTransport} to buffer build events while they are uploaded.
+ */
+final class SpillingEventQueue<T extends MessageLite> {
+
+  private static final Logger logger = Logger.getLogger(SpillingEventQueue.class.getName());
+
+  private static final MetricsRegistry.Gauge queuedEvents =
+      MetricsRegistry.instance()
+          .gauge("bes_queued_events", "Build events waiting to be uploaded to the BES backend.");
+  private static final MetricsRegistry.Counter spilledEvents =
+      MetricsRegistry.instance()
+          .counter("bes_spilled_events", "Build events buffered on disk before their upload.");
+
+  private final Parser<T> parser;
+  private final long maxMemoryBytes;
+  private final long maxSpilledBytes;
+
+  /** Messages that precede all spilled messages. */
+  private final Deque<T> memory = new ArrayDeque<>();
+  private long memoryBytes;
+
+  @Nullable private Path spillFile;
+  @Nullable private OutputStream spillOut;
+  @Nullable private InputStream spillIn;
+  private boolean spillOutFlushed = true;
+  private int spilledCount;
+  private long spilledBytes;
+
+  private boolean closed;
+
+  /**
+   * @param maxMemoryBytes the total serialized size of the messages kept in memory
+   * @param maxSpilledBytes the total serialized size of the messages buffered on disk, or 0 to
+   *     never spill messages to disk
+   */
+  SpillingEventQueue(Parser<T> parser, long maxMemoryBytes, long maxSpilledBytes) {
+    checkArgument(maxMemoryBytes >= 0 && maxSpilledBytes >= 0);
+    this.parser = parser;
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.maxSpilledBytes = maxSpilledBytes;
+  }
+
+  /**
+   * Appends a message to the queue, waiting for space if necessary. A message that exceeds the
+   * limits on its own is accepted once the queue is empty. Messages added after {@link #close} are
+   * discarded.
+   */
+  synchronized void add(T message) throws InterruptedException {
+    while (!closed && !tryAdd(message, /*ignoreLimits=*/ false)) {
+      wait();
+    }
+  }
+
+  /**
+   * Appends a message to the queue without waiting, even if this exceeds the limits. Used for
+   * messages that must not be lost when waiting is interrupted.
+   */
+  synchronized void addWithoutLimit(T message) {
+    if (!closed) {
+      tryAdd(message, /*ignoreLimits=*/ true);
+    }
+  }
+
+  private boolean tryAdd(T message, boolean ignoreLimits) {
+    int size = message.getSerializedSize();
+    if (spilledCount == 0 && (memoryBytes + size <= maxMemoryBytes || memory.isEmpty())) {
+      addToMemory(message, size);
+      return true;
+    }
+    if (maxSpilledBytes > 0
+        && (spilledBytes + size <= maxSpilledBytes || spilledCount == 0 || ignoreLimits)) {
+      try {
+        spill(message, size);
+      } catch (IOException e) {
+        // Losing the message would corrupt the stream, so exceed the memory limit instead.
+        logger.log(Level.WARNING, "Could not buffer build event on disk", e);
+        addToMemory(message, size);
+      }
+      return true;
+    }
+    if (ignoreLimits) {
+      // Nothing is ever spilled without a spill limit, so the message still goes last.
+      addToMemory(message, size);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Inserts a message at the head of the queue, without waiting. Used to retry messages that were
+   * taken but could not be processed.
+   */
+  synchronized void addFirst(T message) {
+    if (closed) {
+      return;
+    }
+    memory.addFirst(message);
+    memoryBytes += message.getSerializedSize();
+    queuedEvents.add(1);
+    notifyAll();
+  }
+
+  /**
+   * Removes up to {@code maxCount} messages from the head of the queue, waiting until there is at
+   * least one.
+   *
+   * @return the messages in queue order, or an empty list if the queue was closed
+   * @throws IOException if a spilled message could not be read back
+   */
+  synchronized List<T> takeBatch(int maxCount) throws InterruptedException, IOException {
+    checkArgument(maxCount > 0);
+    while (!closed && memory.isEmpty() && spilledCount == 0) {
+      wait();
+    }
+    List<T> batch = new ArrayList<>(Math.min(maxCount, size()));
+    while (!closed && batch.size() < maxCount) {
+      T message = memory.pollFirst();
+      if (message != null) {
+        memoryBytes -= message.getSerializedSize();
+      } else if (spilledCount > 0) {
+        message = readSpilled();
+      } else {
+        break;
+      }
+      batch.add(message);
+    }
+    queuedEvents.add(-batch.size());
+    notifyAll();
+    return batch;
+  }
+
+  /** Returns the number of messages in the queue. */
+  synchronized int size() {
+    return memory.size() + spilledCount;
+  }
+
+  @VisibleForTesting
+  synchronized int spilledCount() {
+    return spilledCount;
+  }
+
+  /**
+   * Discards all messages and releases the spill file. Waiting producers return, and consumers get
+   * an empty batch.
+   */
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    queuedEvents.add(-size());
+    memory.clear();
+    memoryBytes = 0;
+    deleteSpillFile();
+    notifyAll();
+  }
+
+  private void addToMemory(T message, int size) {
+    memory.addLast(message);
+    memoryBytes += size;
+    queuedEvents.add(1);
+    notifyAll();
+  }
+
+  private void spill(T message, int size) throws IOException {
+    if (spillFile == null) {
+      spillFile = Files.createTempFile("build-events", ".spill");
+      spillOut = new BufferedOutputStream(Files.newOutputStream(spillFile));
+      spillIn = new BufferedInputStream(Files.newInputStream(spillFile));
+    }
+    message.writeDelimitedTo(spillOut);
+    spillOutFlushed = false;
+    spilledCount++;
+    spilledBytes += size;
+    spilledEvents.increment();
+    queuedEvents.add(1);
+    notifyAll();
+  }
+
+  private T readSpilled() throws IOException {
+    if (!spillOutFlushed) {
+      spillOut.flush();
+      spillOutFlushed = true;
+    }
+    T message = parser.parseDelimitedFrom(spillIn);
+    if (message == null) {
+      throw new IOException("Unexpected end of build event spill file " + spillFile);
+    }
+    spilledCount--;
+    spilledBytes -= message.getSerializedSize();
+    if (spilledCount == 0) {
+      // Start over with an empty file the next time the memory fills up.
+      deleteSpillFile();
+    }
+    return message;
+  }
+
+  private void deleteSpillFile() {
+    if (spillFile == null) {
+      return;
+    }
+    try {
+      spillOut.close();
+      spillIn.close();
+      Files.deleteIfExists(spillFile);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not delete build event spill file " + spillFile, e);
+    }
+    spillFile = null;
+    spillOut = null;
+    spillIn = null;
+    spillOutFlushed = true;
+    spilledCount = 0;
+    spilledBytes = 0;
+  }
+}
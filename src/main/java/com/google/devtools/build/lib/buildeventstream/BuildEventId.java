@@ -232,4 +232,11 @@ public final class BuildEventId implements Serializable {
     return new BuildEventId(
         BuildEventStreamProtos.BuildEventId.newBuilder().setBuildFinished(finishedId).build());
   }
+
+  public static BuildEventId buildMetrics() {
+    BuildEventStreamProtos.BuildEventId.BuildMetricsId metricsId =
+        BuildEventStreamProtos.BuildEventId.BuildMetricsId.getDefaultInstance();
+    return new BuildEventId(
+        BuildEventStreamProtos.BuildEventId.newBuilder().setBuildMetrics(metricsId).build());
+  }
 }
@@ -0,0 +1,56 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.buildeventstream;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildMetrics;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
+import com.google.devtools.build.lib.profiler.MetricsRegistry.HistogramSnapshot;
+import java.util.Map;
+
+/**
+ * A {@link BuildEvent} reporting the values of the {@link MetricsRegistry} at the end of a build.
+ */
+public final class BuildMetricsEvent extends GenericBuildEvent {
+
+  private final MetricsRegistry.Snapshot snapshot;
+
+  public BuildMetricsEvent(MetricsRegistry.Snapshot snapshot) {
+    super(BuildEventId.buildMetrics(), ImmutableList.<BuildEventId>of());
+    this.snapshot = snapshot;
+  }
+
+  @Override
+  public BuildEventStreamProtos.BuildEvent asStreamProto(BuildEventConverters converters) {
+    BuildMetrics.Builder metrics = BuildMetrics.newBuilder();
+    for (Map.Entry<String, Long> counter : snapshot.getCounters().entrySet()) {
+      metrics.addCounterBuilder().setName(counter.getKey()).setValue(counter.getValue());
+    }
+    for (Map.Entry<String, Long> gauge : snapshot.getGauges().entrySet()) {
+      metrics.addGaugeBuilder().setName(gauge.getKey()).setValue(gauge.getValue());
+    }
+    for (Map.Entry<String, HistogramSnapshot> entry : snapshot.getHistograms().entrySet()) {
+      HistogramSnapshot histogram = entry.getValue();
+      metrics
+          .addHistogramBuilder()
+          .setName(entry.getKey())
+          .setCount(histogram.getCount())
+          .setSum(histogram.getSum())
+          .setMax(histogram.getMax())
+          .addAllBucketUpperBound(histogram.getBucketUpperBounds())
+          .addAllBucketCount(histogram.getBucketCounts());
+    }
+    return GenericBuildEvent.protoChaining(this).setBuildMetrics(metrics.build()).build();
+  }
+}
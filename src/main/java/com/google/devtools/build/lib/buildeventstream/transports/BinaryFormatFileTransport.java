@@ -22,7 +22,6 @@ import com.google.devtools.build.lib.buildeventstream.BuildEventConverters;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
 import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
 import com.google.devtools.build.lib.buildeventstream.PathConverter;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
@@ -30,13 +29,13 @@ import java.util.logging.Logger;
 
 /**
  * A simple {@link BuildEventTransport} that writes a varint delimited binary representation of
- * {@link BuildEvent} protocol buffers to a file.
+ * {@link BuildEvent} protocol buffers to a file. Events are serialized directly into the write
+ * buffer of the {@link FileTransport}, without intermediate copies.
  */
 public final class BinaryFormatFileTransport extends FileTransport {
 
   private static final Logger log = Logger.getLogger(BinaryFormatFileTransport.class.getName());
 
-  private static final int MAX_VARINT_BYTES = 9;
   private final PathConverter pathConverter;
 
   BinaryFormatFileTransport(String path, PathConverter pathConverter) {
@@ -65,12 +64,8 @@ public final class BinaryFormatFileTransport extends FileTransport {
     checkNotNull(event);
     BuildEventStreamProtos.BuildEvent protoEvent = event.asStreamProto(converters);
 
-    int maxSerializedSize = MAX_VARINT_BYTES + protoEvent.getSerializedSize();
-    ByteArrayOutputStream out = new ByteArrayOutputStream(maxSerializedSize);
-
     try {
-      protoEvent.writeDelimitedTo(out);
-      writeData(out.toByteArray());
+      writeDelimited(protoEvent);
     } catch (IOException e) {
       log.log(Level.SEVERE, e.getMessage(), e);
       @SuppressWarnings({"unused", "nullness"})
@@ -22,6 +22,8 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.buildeventstream.BuildEvent;
 import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
@@ -36,28 +38,37 @@ import java.util.logging.Logger;
  * Non-blocking file transport.
  *
  * <p>Implementors of this class need to implement {@link #sendBuildEvent(BuildEvent)} which
- * serializes the build event and writes it to file using {@link #writeData(byte[])}.
+ * serializes the build event and writes it to file using {@link #writeData(byte[])} or {@link
+ * #writeDelimited(MessageLite)}.
  */
 abstract class FileTransport implements BuildEventTransport {
 
   /**
-   * We use an {@link AsynchronousFileChannel} to perform non-blocking writes to a file. It get's
-   * tricky when it comes to {@link #close()}, as we may only complete the returned future when
-   * all writes have completed (succeeded or failed). Thus, we use a field
-   * {@link #outstandingWrites} to keep track of the number of writes that have not completed yet.
-   * It's simply incremented before a new write and decremented after a write has completed. When
-   * it's {@code 0} it's safe to complete the close future.
+   * We use an {@link AsynchronousFileChannel} to perform non-blocking writes to a file. At most one
+   * write is in flight at any time. Data handed to the transport while a write is in flight is
+   * appended to {@link #pendingData}, and written with a single write once the previous one
+   * completed. Under load this coalesces many small events into few large writes, without
+   * delaying events while the file keeps up. It get's tricky when it comes to {@link #close()},
+   * as we may only complete the returned future when all data has been written (or a write
+   * failed).
    */
 
   private static final Logger log = Logger.getLogger(FileTransport.class.getName());
 
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  // Buffers grown beyond this size are released once their data is written.
+  private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
   @VisibleForTesting
   final AsynchronousFileChannel ch;
   private final WriteCompletionHandler completionHandler = new WriteCompletionHandler();
   // The offset in the file to begin the next write at.
   private long writeOffset;
-  // Number of writes that haven't completed yet.
-  private long outstandingWrites;
+  // Data not yet passed to the channel, in write mode.
+  private ByteBuffer pendingData = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+  // Data of the write in flight, in read mode. Swapped with pendingData when a write starts.
+  private ByteBuffer writingData = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+  private boolean writeInFlight;
   // The future returned by close()
   private SettableFuture<Void> closeFuture;
 
@@ -72,20 +83,76 @@ abstract class FileTransport implements BuildEventTransport {
 
   synchronized void writeData(byte[] data) {
     checkNotNull(data);
-    if (!ch.isOpen()) {
-      @SuppressWarnings({"unused", "nullness"})
-      Future<?> possiblyIgnoredError = close();
+    if (!canWrite()) {
       return;
     }
-    if (closing()) {
+    ensureCapacity(data.length);
+    pendingData.put(data);
+    maybeStartWrite();
+  }
+
+  /**
+   * Writes the varint delimited binary representation of a message, serializing it directly into
+   * the write buffer.
+   *
+   * <p>The buffers are heap buffers: protobuf's encoder for direct buffers relies on {@code
+   * sun.misc.Unsafe} tricks that aren't safe on all JDKs. The channel copies each coalesced write
+   * into a direct buffer once.
+   */
+  synchronized void writeDelimited(MessageLite message) throws IOException {
+    checkNotNull(message);
+    if (!canWrite()) {
       return;
     }
+    int size = message.getSerializedSize();
+    ensureCapacity(CodedOutputStream.computeUInt32SizeNoTag(size) + size);
+    int start = pendingData.position();
+    try {
+      CodedOutputStream out =
+          CodedOutputStream.newInstance(
+              pendingData.array(), pendingData.arrayOffset() + start, pendingData.remaining());
+      out.writeUInt32NoTag(size);
+      message.writeTo(out);
+      pendingData.position(start + out.getTotalBytesWritten());
+    } catch (IOException e) {
+      // Don't leave a partial message in the file.
+      pendingData.position(start);
+      throw e;
+    }
+    maybeStartWrite();
+  }
 
-    outstandingWrites++;
+  private boolean canWrite() {
+    if (!ch.isOpen()) {
+      @SuppressWarnings({"unused", "nullness"})
+      Future<?> possiblyIgnoredError = close();
+      return false;
+    }
+    return !closing();
+  }
 
-    ch.write(ByteBuffer.wrap(data), writeOffset, null, completionHandler);
+  private void ensureCapacity(int bytes) {
+    if (pendingData.remaining() >= bytes) {
+      return;
+    }
+    int capacity = Math.max(2 * pendingData.capacity(), pendingData.position() + bytes);
+    ByteBuffer grown = ByteBuffer.allocate(capacity);
+    pendingData.flip();
+    grown.put(pendingData);
+    pendingData = grown;
+  }
 
-    writeOffset += data.length;
+  /** Passes the pending data to the channel, unless a write is in flight already. */
+  private void maybeStartWrite() {
+    if (writeInFlight || pendingData.position() == 0) {
+      return;
+    }
+    ByteBuffer data = pendingData;
+    pendingData = writingData;
+    writingData = data;
+    writingData.flip();
+    writeInFlight = true;
+    ch.write(writingData, writeOffset, null, completionHandler);
   }
 
   @Override
@@ -118,7 +185,7 @@ abstract class FileTransport implements BuildEventTransport {
   }
 
   private boolean writesComplete() {
-    return outstandingWrites == 0;
+    return !writeInFlight;
   }
 
   /**
@@ -128,27 +195,42 @@ abstract class FileTransport implements BuildEventTransport {
 
     @Override
     public void completed(Integer result, Void attachment) {
-      countWriteAndTryClose();
+      synchronized (FileTransport.this) {
+        checkState(writeInFlight);
+        writeOffset += result;
+        if (writingData.hasRemaining()) {
+          // Partial write, continue with the rest of the buffer.
+          ch.write(writingData, writeOffset, null, completionHandler);
+          return;
+        }
+        writeInFlight = false;
+        if (writingData.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+          writingData = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        } else {
+          writingData.clear();
+        }
+        maybeStartWrite();
+        tryClose();
+      }
     }
 
     @Override
     public void failed(Throwable exc, Void attachment) {
       log.log(Level.SEVERE, exc.getMessage(), exc);
-      countWriteAndTryClose();
-      // There is no point in trying to continue. Close the transport.
-      @SuppressWarnings({"unused", "nullness"})
-      Future<?> possiblyIgnoredError = close();
-    }
-
-    private void countWriteAndTryClose() {
       synchronized (FileTransport.this) {
-        checkState(outstandingWrites > 0);
-
-        outstandingWrites--;
+        checkState(writeInFlight);
+        writeInFlight = false;
+        // There is no point in trying to continue. Drop the pending data and close the transport.
+        pendingData.clear();
+        @SuppressWarnings({"unused", "nullness"})
+        Future<?> possiblyIgnoredError = close();
+        tryClose();
+      }
+    }
 
-        if (closing() && writesComplete()) {
-          doClose();
-        }
+    private void tryClose() {
+      if (closing() && writesComplete() && !closeFuture.isDone()) {
+        doClose();
       }
     }
   }
@@ -86,10 +86,13 @@ import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.skyframe.AspectValue;
 import com.google.devtools.build.lib.skyframe.Builder;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
+import com.google.devtools.build.lib.unix.UnixBatchStat;
+import com.google.devtools.build.lib.unix.UnixFileSystem;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.LoggingUtil;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
@@ -109,6 +112,7 @@ import java.util.TreeMap;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * This class manages the execution phase. The entry point is {@link #executeBuild}.
@@ -681,12 +685,28 @@ public class ExecutionTool {
         request.getPackageCacheOptions().checkOutputFiles
             ? modifiedOutputFiles
             : ModifiedFileSet.NOTHING_MODIFIED,
+        getBatchStatter(),
         options.finalizeActions,
         fileCache,
         prefetcher,
         request.getBuildOptions().progressReportInterval);
   }
 
+  /**
+   * Returns the {@link BatchStat} used to check the output tree for external modifications, or
+   * null to stat the output files one by one.
+   */
+  @Nullable
+  private BatchStat getBatchStatter() {
+    OutputService outputService = env.getOutputService();
+    if (outputService != null) {
+      return outputService.getBatchStatter();
+    }
+    // Stat the local output files with one native call per batch.
+    Path execRoot = env.getExecRoot();
+    return execRoot.getFileSystem() instanceof UnixFileSystem ? new UnixBatchStat(execRoot) : null;
+  }
+
   private void configureResourceManager(BuildRequest request) {
     ResourceManager resourceMgr = ResourceManager.instance();
     ExecutionOptions options = request.getOptions(ExecutionOptions.class);
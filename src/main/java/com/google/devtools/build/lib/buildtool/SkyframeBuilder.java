@@ -44,6 +44,7 @@ import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.LoggingUtil;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.skyframe.CycleInfo;
 import com.google.devtools.build.skyframe.ErrorInfo;
@@ -71,22 +72,31 @@ public class SkyframeBuilder implements Builder {
   private final int numJobs;
   private final boolean finalizeActionsToOutputService;
   private final ModifiedFileSet modifiedOutputFiles;
+  @Nullable private final BatchStat batchStatter;
   private final ActionInputFileCache fileCache;
   private final ActionInputPrefetcher actionInputPrefetcher;
   private final ActionCacheChecker actionCacheChecker;
   private final int progressReportInterval;
 
   @VisibleForTesting
-  public SkyframeBuilder(SkyframeExecutor skyframeExecutor, ActionCacheChecker actionCacheChecker,
-      boolean keepGoing, int numJobs, ModifiedFileSet modifiedOutputFiles,
-      boolean finalizeActionsToOutputService, ActionInputFileCache fileCache,
-      ActionInputPrefetcher actionInputPrefetcher, int progressReportInterval) {
+  public SkyframeBuilder(
+      SkyframeExecutor skyframeExecutor,
+      ActionCacheChecker actionCacheChecker,
+      boolean keepGoing,
+      int numJobs,
+      ModifiedFileSet modifiedOutputFiles,
+      @Nullable BatchStat batchStatter,
+      boolean finalizeActionsToOutputService,
+      ActionInputFileCache fileCache,
+      ActionInputPrefetcher actionInputPrefetcher,
+      int progressReportInterval) {
     this.skyframeExecutor = skyframeExecutor;
     this.actionCacheChecker = actionCacheChecker;
     this.keepGoing = keepGoing;
     this.numJobs = numJobs;
     this.finalizeActionsToOutputService = finalizeActionsToOutputService;
     this.modifiedOutputFiles = modifiedOutputFiles;
+    this.batchStatter = batchStatter;
     this.fileCache = fileCache;
     this.actionInputPrefetcher = actionInputPrefetcher;
     this.progressReportInterval = progressReportInterval;
@@ -107,7 +117,7 @@ public class SkyframeBuilder implements Builder {
       @Nullable Range<Long> lastExecutionTimeRange,
       TopLevelArtifactContext topLevelArtifactContext)
       throws BuildFailedException, AbruptExitException, TestExecException, InterruptedException {
-    skyframeExecutor.prepareExecution(modifiedOutputFiles, lastExecutionTimeRange);
+    skyframeExecutor.prepareExecution(modifiedOutputFiles, batchStatter, lastExecutionTimeRange);
     skyframeExecutor.configureActionExecutor(fileCache, actionInputPrefetcher);
     // Note that executionProgressReceiver accesses builtTargets concurrently (after wrapping in a
     // synchronized collection), so unsynchronized access to this variable is unsafe while it runs.
@@ -55,7 +55,7 @@ public final class BuildCompleteEvent implements BuildEvent {
 
   @Override
   public Collection<BuildEventId> getChildrenEvents() {
-    return ImmutableList.of();
+    return ImmutableList.of(BuildEventId.buildMetrics());
   }
 
   @Override
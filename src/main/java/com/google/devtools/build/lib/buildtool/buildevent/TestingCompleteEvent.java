@@ -54,7 +54,7 @@ public class TestingCompleteEvent implements BuildEvent {
 
   @Override
   public Collection<BuildEventId> getChildrenEvents() {
-    return ImmutableList.of();
+    return ImmutableList.of(BuildEventId.buildMetrics());
   }
 
   @Override
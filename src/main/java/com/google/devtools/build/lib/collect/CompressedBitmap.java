@@ -0,0 +1,474 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect;
+
+import com.google.devtools.build.lib.util.Preconditions;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A mutable set of non-negative ints, stored as a compressed bitmap.
+ *
+ * <p>The values are split into chunks of 2^16 by their high bits. Each non-empty chunk is stored
+ * as a sorted array of its low bits while it has at most {@value #MAX_ARRAY_SIZE} elements, and as
+ * a plain bitmap of 2^16 bits otherwise, so both sparse and dense sets take little memory. The set
+ * operations work a chunk at a time, on whole words for dense chunks.
+ *
+ * <p>This class is not thread-safe.
+ */
+public final class CompressedBitmap {
+
+  /** The maximum number of elements of a chunk stored as an array. */
+  private static final int MAX_ARRAY_SIZE = 4096;
+
+  private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+
+  /** The high bits of the non-empty chunks, in increasing order. */
+  private char[] keys = new char[0];
+  /** The chunks of {@link #keys}. */
+  private Container[] containers = new Container[0];
+  private int size;
+
+  /** Adds {@code value} to this set, returning whether it was absent. */
+  public boolean add(int value) {
+    Preconditions.checkArgument(value >= 0, value);
+    char key = highBits(value);
+    int index = indexOf(key);
+    if (index < 0) {
+      index = -index - 1;
+      insertContainerAt(index, key, new ArrayContainer());
+    }
+    Container container = containers[index];
+    int cardinality = container.cardinality();
+    containers[index] = container.add(lowBits(value));
+    return containers[index].cardinality() != cardinality;
+  }
+
+  /** Removes {@code value} from this set, returning whether it was present. */
+  public boolean remove(int value) {
+    if (value < 0) {
+      return false;
+    }
+    int index = indexOf(highBits(value));
+    if (index < 0) {
+      return false;
+    }
+    Container container = containers[index];
+    int cardinality = container.cardinality();
+    containers[index] = container.remove(lowBits(value));
+    if (containers[index].cardinality() == cardinality) {
+      return false;
+    }
+    if (containers[index].cardinality() == 0) {
+      removeContainerAt(index);
+    }
+    return true;
+  }
+
+  public boolean contains(int value) {
+    if (value < 0) {
+      return false;
+    }
+    int index = indexOf(highBits(value));
+    return index >= 0 && containers[index].contains(lowBits(value));
+  }
+
+  /** Returns the number of values in this set. */
+  public int cardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < size; i++) {
+      cardinality += containers[i].cardinality();
+    }
+    return cardinality;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Adds all the values of {@code other} to this set. */
+  public void or(CompressedBitmap other) {
+    char[] newKeys = new char[size + other.size];
+    Container[] newContainers = new Container[size + other.size];
+    int newSize = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size || j < other.size) {
+      if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+        newKeys[newSize] = keys[i];
+        newContainers[newSize++] = containers[i++];
+      } else if (i == size || other.keys[j] < keys[i]) {
+        newKeys[newSize] = other.keys[j];
+        newContainers[newSize++] = other.containers[j++].copy();
+      } else {
+        newKeys[newSize] = keys[i];
+        newContainers[newSize++] = containers[i++].or(other.containers[j++]);
+      }
+    }
+    keys = newKeys;
+    containers = newContainers;
+    size = newSize;
+  }
+
+  /** Removes from this set the values not in {@code other}. */
+  public void and(CompressedBitmap other) {
+    int newSize = 0;
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      while (j < other.size && other.keys[j] < keys[i]) {
+        j++;
+      }
+      if (j < other.size && other.keys[j] == keys[i]) {
+        Container container = containers[i].and(other.containers[j]);
+        if (container.cardinality() > 0) {
+          keys[newSize] = keys[i];
+          containers[newSize++] = container;
+        }
+      }
+    }
+    truncate(newSize);
+  }
+
+  /** Removes from this set the values in {@code other}. */
+  public void andNot(CompressedBitmap other) {
+    int newSize = 0;
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      while (j < other.size && other.keys[j] < keys[i]) {
+        j++;
+      }
+      Container container = containers[i];
+      if (j < other.size && other.keys[j] == keys[i]) {
+        container = container.andNot(other.containers[j]);
+      }
+      if (container.cardinality() > 0) {
+        keys[newSize] = keys[i];
+        containers[newSize++] = container;
+      }
+    }
+    truncate(newSize);
+  }
+
+  /** Passes the values of this set to {@code consumer}, in increasing order. */
+  public void forEach(IntConsumer consumer) {
+    for (int i = 0; i < size; i++) {
+      containers[i].forEach(keys[i] << 16, consumer);
+    }
+  }
+
+  /** Returns the values of this set, in increasing order. */
+  public int[] toArray() {
+    int[] result = new int[cardinality()];
+    int[] next = new int[1];
+    forEach(value -> result[next[0]++] = value);
+    return result;
+  }
+
+  private int indexOf(char key) {
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  private void insertContainerAt(int index, char key, Container container) {
+    if (size == keys.length) {
+      int newLength = Math.max(4, size * 2);
+      keys = Arrays.copyOf(keys, newLength);
+      containers = Arrays.copyOf(containers, newLength);
+    }
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(containers, index, containers, index + 1, size - index);
+    keys[index] = key;
+    containers[index] = container;
+    size++;
+  }
+
+  private void removeContainerAt(int index) {
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+    truncate(size - 1);
+  }
+
+  private void truncate(int newSize) {
+    Arrays.fill(containers, newSize, size, null);
+    size = newSize;
+  }
+
+  private static char highBits(int value) {
+    return (char) (value >>> 16);
+  }
+
+  private static char lowBits(int value) {
+    return (char) value;
+  }
+
+  /**
+   * The low bits of the values of a chunk. The mutating methods may modify the receiver, never
+   * their argument, and return the container holding the result.
+   */
+  private abstract static class Container {
+    abstract int cardinality();
+
+    abstract boolean contains(char value);
+
+    abstract Container add(char value);
+
+    abstract Container remove(char value);
+
+    abstract Container or(Container other);
+
+    abstract Container and(Container other);
+
+    abstract Container andNot(Container other);
+
+    abstract Container copy();
+
+    abstract void forEach(int highBits, IntConsumer consumer);
+  }
+
+  private static final class ArrayContainer extends Container {
+    private char[] values;
+    private int cardinality;
+
+    ArrayContainer() {
+      this(new char[4], 0);
+    }
+
+    private ArrayContainer(char[] values, int cardinality) {
+      this.values = values;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+
+    @Override
+    Container add(char value) {
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        return this;
+      }
+      if (cardinality == MAX_ARRAY_SIZE) {
+        return toBitmap().add(value);
+      }
+      index = -index - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, cardinality * 2));
+      }
+      System.arraycopy(values, index, values, index + 1, cardinality - index);
+      values[index] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    Container or(Container other) {
+      if (other instanceof BitmapContainer) {
+        return other.copy().or(this);
+      }
+      ArrayContainer that = (ArrayContainer) other;
+      char[] merged = new char[cardinality + that.cardinality];
+      int size = 0;
+      int i = 0;
+      int j = 0;
+      while (i < cardinality || j < that.cardinality) {
+        if (j == that.cardinality || (i < cardinality && values[i] < that.values[j])) {
+          merged[size++] = values[i++];
+        } else if (i == cardinality || that.values[j] < values[i]) {
+          merged[size++] = that.values[j++];
+        } else {
+          merged[size++] = values[i++];
+          j++;
+        }
+      }
+      ArrayContainer result = new ArrayContainer(merged, size);
+      return size > MAX_ARRAY_SIZE ? result.toBitmap() : result;
+    }
+
+    @Override
+    Container and(Container other) {
+      int size = 0;
+      for (int i = 0; i < cardinality; i++) {
+        if (other.contains(values[i])) {
+          values[size++] = values[i];
+        }
+      }
+      cardinality = size;
+      return this;
+    }
+
+    @Override
+    Container andNot(Container other) {
+      int size = 0;
+      for (int i = 0; i < cardinality; i++) {
+        if (!other.contains(values[i])) {
+          values[size++] = values[i];
+        }
+      }
+      cardinality = size;
+      return this;
+    }
+
+    @Override
+    Container copy() {
+      return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+    }
+
+    @Override
+    void forEach(int highBits, IntConsumer consumer) {
+      for (int i = 0; i < cardinality; i++) {
+        consumer.accept(highBits | values[i]);
+      }
+    }
+
+    private BitmapContainer toBitmap() {
+      BitmapContainer bitmap = new BitmapContainer(new long[BITMAP_WORDS], 0);
+      for (int i = 0; i < cardinality; i++) {
+        bitmap.add(values[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  private static final class BitmapContainer extends Container {
+    private final long[] words;
+    private int cardinality;
+
+    private BitmapContainer(long[] words, int cardinality) {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(char value) {
+      long word = words[value >>> 6];
+      long newWord = word | (1L << value);
+      if (word != newWord) {
+        words[value >>> 6] = newWord;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      long word = words[value >>> 6];
+      long newWord = word & ~(1L << value);
+      if (word != newWord) {
+        words[value >>> 6] = newWord;
+        cardinality--;
+      }
+      return cardinality <= MAX_ARRAY_SIZE ? toArrayContainer() : this;
+    }
+
+    @Override
+    Container or(Container other) {
+      if (other instanceof ArrayContainer) {
+        ArrayContainer that = (ArrayContainer) other;
+        for (int i = 0; i < that.cardinality; i++) {
+          add(that.values[i]);
+        }
+        return this;
+      }
+      long[] otherWords = ((BitmapContainer) other).words;
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        words[i] |= otherWords[i];
+      }
+      return recount();
+    }
+
+    @Override
+    Container and(Container other) {
+      if (other instanceof ArrayContainer) {
+        return other.copy().and(this);
+      }
+      long[] otherWords = ((BitmapContainer) other).words;
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        words[i] &= otherWords[i];
+      }
+      return recount();
+    }
+
+    @Override
+    Container andNot(Container other) {
+      if (other instanceof ArrayContainer) {
+        ArrayContainer that = (ArrayContainer) other;
+        for (int i = 0; i < that.cardinality; i++) {
+          char value = that.values[i];
+          words[value >>> 6] &= ~(1L << value);
+        }
+      } else {
+        long[] otherWords = ((BitmapContainer) other).words;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+          words[i] &= ~otherWords[i];
+        }
+      }
+      return recount();
+    }
+
+    @Override
+    Container copy() {
+      return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    @Override
+    void forEach(int highBits, IntConsumer consumer) {
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        for (long word = words[i]; word != 0; word &= word - 1) {
+          consumer.accept(highBits | (i << 6) | Long.numberOfTrailingZeros(word));
+        }
+      }
+    }
+
+    private Container recount() {
+      cardinality = 0;
+      for (long word : words) {
+        cardinality += Long.bitCount(word);
+      }
+      return cardinality <= MAX_ARRAY_SIZE ? toArrayContainer() : this;
+    }
+
+    private ArrayContainer toArrayContainer() {
+      char[] values = new char[Math.max(cardinality, 1)];
+      int[] size = new int[1];
+      forEach(0, value -> values[size[0]++] = (char) value);
+      return new ArrayContainer(values, cardinality);
+    }
+  }
+}
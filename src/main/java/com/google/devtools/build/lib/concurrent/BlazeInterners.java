@@ -42,5 +42,13 @@ public class BlazeInterners {
   public static <T> Interner<T> newStrongInterner() {
     return setConcurrencyLevel(Interners.newBuilder().strong()).build();
   }
+
+  /**
+   * Returns a strong interner for strings that keeps no per-entry objects. See {@link
+   * CompactStringInterner}.
+   */
+  public static Interner<String> newCompactStringInterner() {
+    return new CompactStringInterner(CONCURRENCY_LEVEL);
+  }
 }
 
@@ -0,0 +1,117 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import com.google.common.collect.Interner;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Preconditions;
+
+/**
+ * A strong {@link Interner} for {@link String}s that stores its entries in open-addressed arrays.
+ *
+ * <p>Guava's interners allocate an entry object per interned value (plus a {@link
+ * java.lang.ref.WeakReference} for weak interners), which for the millions of short strings
+ * interned for labels and path segments costs several times the size of the table slots
+ * themselves. This interner only keeps one array slot per entry, at the price of never releasing
+ * interned strings.
+ */
+@ThreadSafe
+public final class CompactStringInterner implements Interner<String> {
+
+  private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+  private final Stripe[] stripes;
+  private final int stripeShift;
+
+  public CompactStringInterner(int concurrencyLevel) {
+    Preconditions.checkArgument(concurrencyLevel > 0, concurrencyLevel);
+    // Use a few stripes per thread so that contention stays low.
+    int stripeBits = 32 - Integer.numberOfLeadingZeros(Math.max(concurrencyLevel * 4 - 1, 1));
+    this.stripes = new Stripe[1 << stripeBits];
+    this.stripeShift = 32 - stripeBits;
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  @Override
+  public String intern(String sample) {
+    Preconditions.checkNotNull(sample);
+    int hash = spread(sample.hashCode());
+    // The high bits pick the stripe, the low bits the slot within the stripe's table.
+    Stripe stripe = stripes[hash >>> stripeShift];
+    return stripe.intern(sample, hash);
+  }
+
+  /** Returns the number of distinct strings interned so far. */
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  private static int spread(int hashCode) {
+    // Mixes the bits of String#hashCode, which are poorly distributed for short strings.
+    int h = hashCode * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /** A linearly probed hash table guarded by its own monitor. */
+  private static final class Stripe {
+    private String[] table = new String[INITIAL_STRIPE_CAPACITY];
+    private int size;
+
+    synchronized String intern(String sample, int hash) {
+      int mask = table.length - 1;
+      int index = hash & mask;
+      while (true) {
+        String existing = table[index];
+        if (existing == null) {
+          table[index] = sample;
+          size++;
+          if (size * 3 > table.length * 2) {
+            resize();
+          }
+          return sample;
+        }
+        if (existing.equals(sample)) {
+          return existing;
+        }
+        index = (index + 1) & mask;
+      }
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    private void resize() {
+      String[] oldTable = table;
+      String[] newTable = new String[oldTable.length * 2];
+      int mask = newTable.length - 1;
+      for (String entry : oldTable) {
+        if (entry != null) {
+          int index = spread(entry.hashCode()) & mask;
+          while (newTable[index] != null) {
+            index = (index + 1) & mask;
+          }
+          newTable[index] = entry;
+        }
+      }
+      table = newTable;
+    }
+  }
+}
@@ -26,7 +26,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -557,8 +556,10 @@ public final class Digraph<T> implements Cloneable {
   /**
    * Finds the shortest directed path from "fromNode" to "toNode".  The path is
    * returned as an ordered list of nodes, including both endpoints.  Returns
-   * null if there is no path.  Uses breadth-first search.  Running time is
-   * O(n).
+   * null if there is no path.  Uses a bidirectional breadth-first search,
+   * which always grows the smaller of the forward and backward frontiers, so
+   * it usually visits far fewer nodes than a search from one end.  Running
+   * time is O(n).
    */
   public List<Node<T>> getShortestPath(Node<T> fromNode,
                                            Node<T> toNode) {
@@ -569,29 +570,55 @@ public final class Digraph<T> implements Cloneable {
       return Collections.singletonList(fromNode);
     }
 
-    Map<Node<T>, Node<T>> pathPredecessor = new HashMap<>();
-
-    Set<Node<T>> marked = new HashSet<>();
-
-    LinkedList<Node<T>> queue = new LinkedList<>();
-    queue.addLast(fromNode);
-    marked.add(fromNode);
-
-    while (!queue.isEmpty()) {
-      Node<T> u = queue.removeFirst();
-      for (Node<T> v: u.getSuccessors()) {
-        if (marked.add(v)) {
-          pathPredecessor.put(v, u);
-          if (v == toNode) {
-            return getPathToTreeNode(pathPredecessor, v); // found a path
+    // Maps each node reached from "fromNode" to its predecessor on the path, and
+    // each node reaching "toNode" to its successor on the path.
+    Map<Node<T>, Node<T>> forwardParent = new HashMap<>();
+    Map<Node<T>, Node<T>> backwardParent = new HashMap<>();
+    forwardParent.put(fromNode, null);
+    backwardParent.put(toNode, null);
+    List<Node<T>> forwardFrontier = Collections.singletonList(fromNode);
+    List<Node<T>> backwardFrontier = Collections.singletonList(toNode);
+
+    while (!forwardFrontier.isEmpty() && !backwardFrontier.isEmpty()) {
+      // The first node reached by both searches is on a shortest path: the
+      // frontiers grow one level at a time, so no shorter path was missed.
+      boolean forward = forwardFrontier.size() <= backwardFrontier.size();
+      Map<Node<T>, Node<T>> parent = forward ? forwardParent : backwardParent;
+      Map<Node<T>, Node<T>> otherParent = forward ? backwardParent : forwardParent;
+      List<Node<T>> nextFrontier = new ArrayList<>();
+      for (Node<T> u : forward ? forwardFrontier : backwardFrontier) {
+        for (Node<T> v : forward ? u.getSuccessors() : u.getPredecessors()) {
+          if (!parent.containsKey(v)) {
+            parent.put(v, u);
+            if (otherParent.containsKey(v)) {
+              return joinPaths(forwardParent, backwardParent, v);
+            }
+            nextFrontier.add(v);
           }
-          queue.addLast(v);
         }
       }
+      if (forward) {
+        forwardFrontier = nextFrontier;
+      } else {
+        backwardFrontier = nextFrontier;
+      }
     }
     return null; // no path
   }
 
+  /**
+   * Returns the path through "meetingNode" made of the path to it in the
+   * forward tree and the path from it in the backward tree.
+   */
+  private static <X> List<X> joinPaths(
+      Map<X, X> forwardParent, Map<X, X> backwardParent, X meetingNode) {
+    List<X> path = getPathToTreeNode(forwardParent, meetingNode);
+    for (X node = backwardParent.get(meetingNode); node != null; node = backwardParent.get(node)) {
+      path.add(node);
+    }
+    return path;
+  }
+
   /**
    * Given a tree (expressed as a map from each node to its parent), and a
    * starting node, returns the path from the root of the tree to 'node' as a
@@ -14,8 +14,16 @@
 package com.google.devtools.build.lib.packages;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.util.Pair;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
@@ -30,13 +38,24 @@ import javax.annotation.Nullable;
  * <p>This class provides the lowest-level access to attribute information. It is *not*
  * intended to be a robust public interface, but rather just an input to {@link AttributeMap}
  * instances. Use those instances for all domain-level attribute access.
+ *
+ * <p>While its package is being built, a container stores one value per attribute of its rule
+ * class. Once the package is complete, {@link #compact} moves the values that most rules of the
+ * same class share (typically the defaults) into a row shared by all of them, and only keeps the
+ * values that differ from that row.
  */
 public class AttributeContainer {
 
   private final RuleClass ruleClass;
 
-  // Attribute values, keyed by attribute index:
-  private final Object[] attributeValues;
+  // Attribute values, keyed by attribute index, or null once the container is compacted:
+  @Nullable private Object[] attributeValues;
+
+  // Once compacted, the values shared by the rules of this class in the package, keyed by
+  // attribute index, and the indices and values of the attributes whose value differs from them.
+  @Nullable private Object[] sharedValues;
+  private byte[] overrideIndices;
+  private Object[] overrideValues;
 
   // Holds two lists of attribute indices.
   // The first byte gives the length of the first list.
@@ -73,6 +92,8 @@ public class AttributeContainer {
 
   private static final byte[] EMPTY_STATE = {0};
   private static final Location[] EMPTY_LOCATIONS = {};
+  private static final byte[] EMPTY_INDICES = {};
+  private static final Object[] EMPTY_VALUES = {};
 
   /**
    * Returns an attribute value by name, or null on no match.
@@ -80,7 +101,7 @@ public class AttributeContainer {
   @Nullable
   public Object getAttr(String attrName) {
     Integer idx = ruleClass.getAttributeIndex(attrName);
-    return idx != null ? attributeValues[idx] : null;
+    return idx != null ? getAttributeValue(idx) : null;
   }
 
   /**
@@ -182,7 +203,15 @@ public class AttributeContainer {
   }
 
   Object getAttributeValue(int index) {
-    return attributeValues[index];
+    if (attributeValues != null) {
+      return attributeValues[index];
+    }
+    for (int i = 0; i < overrideIndices.length; i++) {
+      if ((0xff & overrideIndices[i]) == index) {
+        return overrideValues[i];
+      }
+    }
+    return sharedValues[index];
   }
 
   void setAttributeValue(Attribute attribute, Object value, boolean explicit) {
@@ -191,6 +220,16 @@ public class AttributeContainer {
     if (!explicit && getExplicit(index)) {
       throw new IllegalArgumentException("attribute " + name + " already explicitly set");
     }
+    if (attributeValues == null) {
+      Object[] values = new Object[ruleClass.getAttributeCount()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = getAttributeValue(i);
+      }
+      attributeValues = values;
+      sharedValues = null;
+      overrideIndices = null;
+      overrideValues = null;
+    }
     attributeValues[index] = value;
     if (explicit) {
       setExplicit(index);
@@ -224,4 +263,114 @@ public class AttributeContainer {
     Integer index = ruleClass.getAttributeIndex(attribute.getName());
     setAttributeLocation(index, location);
   }
+
+  /**
+   * Returns the number of attribute values stored by this container, excluding those in a row
+   * shared with other containers.
+   */
+  @VisibleForTesting
+  int getStoredValueCount() {
+    return attributeValues != null ? attributeValues.length : overrideValues.length;
+  }
+
+  /**
+   * Compacts the given containers, typically those of all the rules of a package, which must not
+   * be modified concurrently. Each container keeps working as before: values are only shared
+   * between containers of the same rule class, and only if they are equal and immutable.
+   *
+   * <p>For each rule class, the shared row holds, for each attribute, the first value that was not
+   * set explicitly (or the first value if all were), so that it usually holds the defaults. Equal
+   * immutable values, for example identical label lists in different rules, are replaced by a
+   * single instance.
+   */
+  static void compact(Iterable<AttributeContainer> containers) {
+    Map<Object, Object> canonicalValues = new HashMap<>();
+    Map<RuleClass, SharedRow> rows = new HashMap<>();
+    for (AttributeContainer container : containers) {
+      if (container.attributeValues == null) {
+        continue;
+      }
+      SharedRow row = rows.get(container.ruleClass);
+      if (row == null) {
+        row = new SharedRow(container.ruleClass.getAttributeCount());
+        rows.put(container.ruleClass, row);
+      }
+      Object[] values = container.attributeValues;
+      for (int i = 0; i < values.length; i++) {
+        values[i] = canonicalize(canonicalValues, values[i]);
+        if (!row.isDefault.get(i) && (!row.isSet.get(i) || !container.getExplicit(i))) {
+          row.values[i] = values[i];
+          row.isSet.set(i);
+          row.isDefault.set(i, !container.getExplicit(i));
+        }
+      }
+    }
+
+    for (AttributeContainer container : containers) {
+      Object[] values = container.attributeValues;
+      if (values == null) {
+        continue;
+      }
+      Object[] shared = rows.get(container.ruleClass).values;
+      int count = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != shared[i]) {
+          count++;
+        }
+      }
+      byte[] indices = count == 0 ? EMPTY_INDICES : new byte[count];
+      Object[] overrides = count == 0 ? EMPTY_VALUES : new Object[count];
+      count = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != shared[i]) {
+          indices[count] = (byte) i;
+          overrides[count] = values[i];
+          count++;
+        }
+      }
+      container.sharedValues = shared;
+      container.overrideIndices = indices;
+      container.overrideValues = overrides;
+      container.attributeValues = null;
+    }
+  }
+
+  /** The values shared by the containers of a rule class, while they are being compacted. */
+  private static final class SharedRow {
+    final Object[] values;
+    final BitSet isSet = new BitSet();
+    final BitSet isDefault = new BitSet();
+
+    SharedRow(int size) {
+      this.values = new Object[size];
+    }
+  }
+
+  /**
+   * Returns the single instance of the values equal to {@code value} if it is of an immutable
+   * type, or {@code value} itself. Plain lists, which is what list values are converted to, are
+   * first copied to immutable lists, so that no rule can modify a list shared with others.
+   */
+  private static Object canonicalize(Map<Object, Object> canonicalValues, Object value) {
+    if (value != null && value.getClass() == ArrayList.class && !((List<?>) value).contains(null)) {
+      value = ImmutableList.copyOf((List<?>) value);
+    }
+    // Since equality does not look at the class of a list, it is part of the key so that no
+    // GlobList is replaced by an immutable list.
+    if (!(value instanceof String
+        || value instanceof Label
+        || value instanceof Integer
+        || value instanceof Boolean
+        || value instanceof TriState
+        || value instanceof ImmutableList)) {
+      return value;
+    }
+    Pair<Class<?>, Object> key = Pair.<Class<?>, Object>of(value.getClass(), value);
+    Object canonical = canonicalValues.get(key);
+    if (canonical == null) {
+      canonicalValues.put(key, value);
+      return value;
+    }
+    return canonical;
+  }
 }
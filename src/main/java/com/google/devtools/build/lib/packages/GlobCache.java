@@ -35,6 +35,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -72,6 +73,14 @@ public class GlobCache {
    */
   private final Predicate<Path> childDirectoryPredicate;
 
+  /**
+   * Whether each directory below {@link #packageDirectory} visited so far belongs to this package,
+   * i.e. is not the root of a subpackage. Shared by all the globs of the package, which typically
+   * walk the same directories (e.g. a recursive include and a recursive exclude), so that each
+   * subpackage boundary is looked up only once.
+   */
+  private final ConcurrentHashMap<Path, Boolean> directoryInPackage = new ConcurrentHashMap<>();
+
   /**
    * System call caching layer.
    */
@@ -114,13 +123,17 @@ public class GlobCache {
           if (directory.equals(packageDirectory)) {
             return true;
           }
-          PackageIdentifier subPackageId =
-              PackageIdentifier.create(
-                  packageId.getRepository(),
-                  packageId
-                      .getPackageFragment()
-                      .getRelative(directory.relativeTo(packageDirectory)));
-          return locator.getBuildFileForPackage(subPackageId) == null;
+          return directoryInPackage.computeIfAbsent(
+              directory,
+              dir -> {
+                PackageIdentifier subPackageId =
+                    PackageIdentifier.create(
+                        packageId.getRepository(),
+                        packageId
+                            .getPackageFragment()
+                            .getRelative(dir.relativeTo(packageDirectory)));
+                return locator.getBuildFileForPackage(subPackageId) == null;
+              });
         };
   }
 
@@ -1379,6 +1379,10 @@ public class Package {
       defaultDistributionSet =
           Collections.unmodifiableSet(defaultDistributionSet);
 
+      // Share the attribute values that the rules of each rule class have in common.
+      AttributeContainer.compact(
+          Iterables.transform(getTargets(Rule.class), Rule::getAttributeContainer));
+
       // Now all targets have been loaded, so we validate the group's member environments.
       for (EnvironmentGroup envGroup : ImmutableSet.copyOf(environmentGroups.values())) {
         Collection<Event> errors = envGroup.processMemberEnvironments(targets);
@@ -36,12 +36,16 @@ import com.google.devtools.build.lib.packages.RuleFactory.BuildLangTypedAttribut
 import com.google.devtools.build.lib.skylarkinterface.Param;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkSignature;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkValue;
+import com.google.devtools.build.lib.syntax.AbstractComprehension;
+import com.google.devtools.build.lib.syntax.Argument;
 import com.google.devtools.build.lib.syntax.AssignmentStatement;
 import com.google.devtools.build.lib.syntax.BaseFunction;
 import com.google.devtools.build.lib.syntax.BazelLibrary;
+import com.google.devtools.build.lib.syntax.BinaryOperatorExpression;
 import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.BuiltinFunction;
 import com.google.devtools.build.lib.syntax.ClassObject;
+import com.google.devtools.build.lib.syntax.ConditionalExpression;
 import com.google.devtools.build.lib.syntax.Environment;
 import com.google.devtools.build.lib.syntax.Environment.Extension;
 import com.google.devtools.build.lib.syntax.Environment.Phase;
@@ -52,8 +56,12 @@ import com.google.devtools.build.lib.syntax.FuncallExpression;
 import com.google.devtools.build.lib.syntax.FunctionSignature;
 import com.google.devtools.build.lib.syntax.GlobList;
 import com.google.devtools.build.lib.syntax.Identifier;
+import com.google.devtools.build.lib.syntax.IntegerLiteral;
+import com.google.devtools.build.lib.syntax.ListLiteral;
 import com.google.devtools.build.lib.syntax.Mutability;
+import com.google.devtools.build.lib.syntax.Operator;
 import com.google.devtools.build.lib.syntax.ParserInputSource;
+import com.google.devtools.build.lib.syntax.PersistentParseCache;
 import com.google.devtools.build.lib.syntax.Runtime;
 import com.google.devtools.build.lib.syntax.SkylarkDict;
 import com.google.devtools.build.lib.syntax.SkylarkList;
@@ -62,6 +70,8 @@ import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
 import com.google.devtools.build.lib.syntax.SkylarkSignatureProcessor;
 import com.google.devtools.build.lib.syntax.SkylarkUtils;
 import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.syntax.StringLiteral;
+import com.google.devtools.build.lib.syntax.SyntaxTreeVisitor;
 import com.google.devtools.build.lib.syntax.Type;
 import com.google.devtools.build.lib.syntax.Type.ConversionException;
 import com.google.devtools.build.lib.util.Preconditions;
@@ -1346,6 +1356,25 @@ public final class PackageFactory {
     return buildFileAST;
   }
 
+  /**
+   * Like {@link #parseBuildFile(PackageIdentifier, ParserInputSource, List, ExtendedEventHandler)},
+   * but looks up and stores the result of parsing in the given {@link PersistentParseCache}.
+   */
+  public static BuildFileAST parseBuildFile(
+      PackageIdentifier packageId,
+      ParserInputSource in,
+      byte[] contentDigest,
+      List<Statement> preludeStatements,
+      ExtendedEventHandler eventHandler,
+      PersistentParseCache parseCache) {
+    LOG.fine("Starting to parse " + packageId);
+    BuildFileAST buildFileAST =
+        BuildFileAST.parseBuildFile(
+            in, contentDigest, preludeStatements, eventHandler, parseCache);
+    LOG.fine("Finished parsing of " + packageId);
+    return buildFileAST;
+  }
+
   public Package.Builder createPackageFromPreprocessingAst(
       String workspaceName,
       PackageIdentifier packageId,
@@ -1732,7 +1761,94 @@ public final class PackageFactory {
     return pkgBuilder;
   }
 
-  /** Visit all targets and expand the globs in parallel. */
+  /**
+   * Starts the globs of a BUILD file whose arguments are all literals, so that they are computed
+   * in parallel with each other and with the loading of the imports of the file, rather than one
+   * at a time when the evaluation of the file reaches them. Their results are fetched from the
+   * globber by the evaluation.
+   *
+   * <p>Starting a glob may add it to the dependencies of the package, so globs that the evaluation
+   * may not reach, e.g. in a branch of a conditional expression or in a comprehension, are not
+   * started. Invalid globs are ignored here and reported by the evaluation.
+   */
+  public static void prefetchGlobs(BuildFileAST buildFileAST, final Globber globber)
+      throws InterruptedException {
+    final List<FuncallExpression> globCalls = new ArrayList<>();
+    new SyntaxTreeVisitor() {
+      @Override
+      public void visit(FuncallExpression node) {
+        if (node.getObject() == null && node.getFunction().getName().equals("glob")) {
+          globCalls.add(node);
+        }
+        super.visit(node);
+      }
+
+      @Override
+      public void visit(BinaryOperatorExpression node) {
+        visit(node.getLhs());
+        if (node.getOperator() != Operator.AND && node.getOperator() != Operator.OR) {
+          visit(node.getRhs());
+        }
+      }
+
+      @Override
+      public void visit(ConditionalExpression node) {
+        visit(node.getCondition());
+      }
+
+      @Override
+      public void visit(AbstractComprehension node) {}
+    }.visit(buildFileAST);
+
+    for (FuncallExpression globCall : globCalls) {
+      List<String> includes = null;
+      List<String> excludes = ImmutableList.of();
+      boolean excludeDirs = true;
+      boolean literalArguments = true;
+      for (Argument.Passed arg : globCall.getArguments()) {
+        String name = arg.isPositional() ? "include" : arg.getName();
+        if (name == null) {
+          // *args or **kwargs.
+          literalArguments = false;
+        } else if (name.equals("include") && includes == null) {
+          includes = getStringListLiteral(arg.getValue());
+          literalArguments &= includes != null;
+        } else if (name.equals("exclude")) {
+          excludes = getStringListLiteral(arg.getValue());
+          literalArguments &= excludes != null;
+        } else if (name.equals("exclude_directories")
+            && arg.getValue() instanceof IntegerLiteral) {
+          excludeDirs = ((IntegerLiteral) arg.getValue()).getValue() != 0;
+        } else {
+          literalArguments = false;
+        }
+      }
+      if (literalArguments && includes != null) {
+        try {
+          @SuppressWarnings({"unused", "nullness"})
+          Globber.Token possiblyIgnoredToken = globber.runAsync(includes, excludes, excludeDirs);
+        } catch (BadGlobException e) {
+          // Reported when the glob is evaluated.
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private static List<String> getStringListLiteral(Expression expression) {
+    if (!(expression instanceof ListLiteral)) {
+      return null;
+    }
+    List<String> strings = new ArrayList<>();
+    for (Expression element : ((ListLiteral) expression).getElements()) {
+      if (!(element instanceof StringLiteral)) {
+        return null;
+      }
+      strings.add(((StringLiteral) element).getValue());
+    }
+    return strings;
+  }
+
   /**
    * Tests a build AST to ensure that it contains no assignment statements that redefine built-in
    * build rules.
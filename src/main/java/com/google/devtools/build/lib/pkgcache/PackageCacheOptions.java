@@ -148,6 +148,31 @@ public class PackageCacheOptions extends OptionsBase {
   )
   public int maxDirectoriesToEagerlyVisitInGlobbing;
 
+  @Option(
+    name = "experimental_persistent_parse_cache",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+    help =
+        "If enabled, the syntax trees of parsed BUILD and .bzl files are cached in the output "
+            + "base, so that a new server does not need to parse the files that did not change. "
+            + "When a server starts using the cache, it deletes the entries written by other "
+            + "binaries, and the least recently used entries beyond 256MB."
+  )
+  public boolean persistentParseCache;
+
+  @Option(
+    name = "experimental_prefetch_globs",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+    help =
+        "If enabled, the globs of a BUILD file whose arguments are literals are started as soon "
+            + "as the file is parsed, in parallel with each other and with the loading of the "
+            + ".bzl files it loads."
+  )
+  public boolean prefetchGlobs;
+
   @Option(
     name = "fetch",
     defaultValue = "true",
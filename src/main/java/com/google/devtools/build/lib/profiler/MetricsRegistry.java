@@ -0,0 +1,405 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.devtools.build.lib.util.Preconditions;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of cheap, always-on build metrics: counters, gauges and histograms.
+ *
+ * <p>Unlike the {@link Profiler}, which records every task and has to be enabled explicitly,
+ * recording a metric only costs a few uncontended atomic operations, so the instrumented code
+ * updates its metrics unconditionally. Metrics are created on first use and live as long as the
+ * server; {@link #reset} clears the recorded values at the beginning of each command, and a
+ * {@link Snapshot} of the values is reported at its end.
+ *
+ * <p>Callers should keep the metric objects returned by this class in (static) fields rather than
+ * looking them up by name every time a value is recorded.
+ */
+//@ThreadSafe - commented out to avoid cyclic dependency with lib.util.
+public final class MetricsRegistry {
+
+  private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+  private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+  public static MetricsRegistry instance() {
+    return INSTANCE;
+  }
+
+  /** A monotonically increasing count, e.g. of cache hits. */
+  public static final class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+      value.increment();
+    }
+
+    public void add(long delta) {
+      value.add(delta);
+    }
+
+    public long get() {
+      return value.sum();
+    }
+  }
+
+  /**
+   * A value that goes up and down, e.g. the number of busy workers. Also tracks the highest value
+   * it reached since the last reset.
+   */
+  public static final class Gauge {
+    private final AtomicLong value = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+
+    public void add(long delta) {
+      updatePeak(value.addAndGet(delta));
+    }
+
+    public void set(long newValue) {
+      value.set(newValue);
+      updatePeak(newValue);
+    }
+
+    public long get() {
+      return value.get();
+    }
+
+    public long getPeak() {
+      return peak.get();
+    }
+
+    private void updatePeak(long current) {
+      long previous = peak.get();
+      while (current > previous && !peak.compareAndSet(previous, current)) {
+        previous = peak.get();
+      }
+    }
+
+    private void reset() {
+      // The value tracks state that outlives the command, only the peak starts over.
+      peak.set(value.get());
+    }
+  }
+
+  /**
+   * A distribution of non-negative values, e.g. durations in nanoseconds.
+   *
+   * <p>Values are counted in log-linear buckets in the manner of HdrHistogram: every power of two
+   * is split into {@link #SUB_BUCKETS} equally sized buckets, so the bucket a value falls into
+   * determines it within a relative error of 1/{@value #SUB_BUCKETS}, over the whole range of
+   * {@code long}, with a fixed amount of memory and without locking.
+   */
+  public static final class Histogram {
+    static final int SUB_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int BUCKET_COUNT = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Records a value; negative values are recorded as 0. */
+    public void record(long value) {
+      if (value < 0) {
+        value = 0;
+      }
+      buckets.incrementAndGet(bucketIndex(value));
+      sum.add(value);
+      long previous = max.get();
+      while (value > previous && !max.compareAndSet(previous, value)) {
+        previous = max.get();
+      }
+    }
+
+    static int bucketIndex(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) value;
+      }
+      // Shift the value so that it has exactly SUB_BUCKET_BITS + 1 significant bits.
+      int shift = 63 - SUB_BUCKET_BITS - Long.numberOfLeadingZeros(value);
+      return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /** Returns the largest value that falls into the bucket with the given index. */
+    static long bucketUpperBound(int index) {
+      if (index < SUB_BUCKETS) {
+        return index;
+      }
+      int shift = index / SUB_BUCKETS - 1;
+      long subBucket = index % SUB_BUCKETS + SUB_BUCKETS + 1;
+      // The last bucket ends at 2^63, which does not fit.
+      return subBucket << shift == Long.MIN_VALUE ? Long.MAX_VALUE : (subBucket << shift) - 1;
+    }
+
+    private void reset() {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        buckets.set(i, 0);
+      }
+      sum.reset();
+      max.set(0);
+    }
+
+    private HistogramSnapshot snapshot() {
+      ImmutableList.Builder<Long> upperBounds = ImmutableList.builder();
+      ImmutableList.Builder<Long> counts = ImmutableList.builder();
+      long count = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        long bucketCount = buckets.get(i);
+        if (bucketCount > 0) {
+          upperBounds.add(bucketUpperBound(i));
+          counts.add(bucketCount);
+          count += bucketCount;
+        }
+      }
+      return new HistogramSnapshot(
+          count, sum.sum(), max.get(), upperBounds.build(), counts.build());
+    }
+  }
+
+  /**
+   * The values of a {@link Histogram} at some point in time. Only buckets that contain values are
+   * included.
+   */
+  public static final class HistogramSnapshot {
+    private final long count;
+    private final long sum;
+    private final long max;
+    private final ImmutableList<Long> upperBounds;
+    private final ImmutableList<Long> counts;
+
+    private HistogramSnapshot(
+        long count,
+        long sum,
+        long max,
+        ImmutableList<Long> upperBounds,
+        ImmutableList<Long> counts) {
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+      this.upperBounds = upperBounds;
+      this.counts = counts;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSum() {
+      return sum;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    /** Returns the inclusive upper bounds of the non-empty buckets, in increasing order. */
+    public ImmutableList<Long> getBucketUpperBounds() {
+      return upperBounds;
+    }
+
+    /** Returns the number of values in each bucket of {@link #getBucketUpperBounds}. */
+    public ImmutableList<Long> getBucketCounts() {
+      return counts;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile (0 to 100) of the recorded values, which is
+     * at most 1/{@value Histogram#SUB_BUCKETS} above the exact one, or 0 if there are no values.
+     */
+    public long getValueAtPercentile(double percentile) {
+      Preconditions.checkArgument(percentile >= 0 && percentile <= 100);
+      long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < counts.size(); i++) {
+        seen += counts.get(i);
+        if (seen >= rank) {
+          return Math.min(upperBounds.get(i), max);
+        }
+      }
+      return 0;
+    }
+  }
+
+  /** The values of all metrics of the registry at some point in time, sorted by name. */
+  public static final class Snapshot {
+    private final ImmutableSortedMap<String, Long> counters;
+    private final ImmutableSortedMap<String, Long> gauges;
+    private final ImmutableSortedMap<String, HistogramSnapshot> histograms;
+    private final ImmutableSortedMap<String, String> help;
+
+    private Snapshot(
+        ImmutableSortedMap<String, Long> counters,
+        ImmutableSortedMap<String, Long> gauges,
+        ImmutableSortedMap<String, HistogramSnapshot> histograms,
+        ImmutableSortedMap<String, String> help) {
+      this.counters = counters;
+      this.gauges = gauges;
+      this.histograms = histograms;
+      this.help = help;
+    }
+
+    public ImmutableSortedMap<String, Long> getCounters() {
+      return counters;
+    }
+
+    /** Returns the gauge values, including a {@code <name>_peak} entry for each {@link Gauge}. */
+    public ImmutableSortedMap<String, Long> getGauges() {
+      return gauges;
+    }
+
+    public ImmutableSortedMap<String, HistogramSnapshot> getHistograms() {
+      return histograms;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format. Following its naming
+     * conventions, the names of counters get a {@code _total} suffix.
+     */
+    public void writePrometheusText(PrintStream out) {
+      for (Map.Entry<String, Long> counter : counters.entrySet()) {
+        String name =
+            counter.getKey().endsWith("_total") ? counter.getKey() : counter.getKey() + "_total";
+        printHeader(out, name, help.get(counter.getKey()), "counter");
+        out.println(name + " " + counter.getValue());
+      }
+      for (Map.Entry<String, Long> gauge : gauges.entrySet()) {
+        printHeader(out, gauge.getKey(), help.get(gauge.getKey()), "gauge");
+        out.println(gauge.getKey() + " " + gauge.getValue());
+      }
+      for (Map.Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+        String name = entry.getKey();
+        HistogramSnapshot histogram = entry.getValue();
+        printHeader(out, name, help.get(name), "histogram");
+        long cumulativeCount = 0;
+        for (int i = 0; i < histogram.upperBounds.size(); i++) {
+          cumulativeCount += histogram.counts.get(i);
+          out.println(
+              name + "_bucket{le=\"" + histogram.upperBounds.get(i) + "\"} " + cumulativeCount);
+        }
+        out.println(name + "_bucket{le=\"+Inf\"} " + histogram.count);
+        out.println(name + "_sum " + histogram.sum);
+        out.println(name + "_count " + histogram.count);
+      }
+    }
+
+    private static void printHeader(PrintStream out, String name, String text, String type) {
+      if (text != null) {
+        out.println("# HELP " + name + " " + text.replace("\\", "\\\\").replace("\n", "\\n"));
+      }
+      out.println("# TYPE " + name + " " + type);
+    }
+  }
+
+  private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+  private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+  private final Map<String, LongSupplier> gaugeSuppliers = new ConcurrentHashMap<>();
+  private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+  private final Map<String, String> help = new ConcurrentHashMap<>();
+
+  private MetricsRegistry() {}
+
+  /** Returns the counter with the given name, creating it if necessary. */
+  public Counter counter(String name, String description) {
+    return counters.computeIfAbsent(name, key -> register(new Counter(), key, description));
+  }
+
+  /** Returns the gauge with the given name, creating it if necessary. */
+  public Gauge gauge(String name, String description) {
+    return gauges.computeIfAbsent(name, key -> register(new Gauge(), key, description));
+  }
+
+  /**
+   * Registers a gauge whose value is computed whenever a snapshot is taken, replacing any gauge
+   * previously registered under that name with this method.
+   */
+  public void registerGauge(String name, String description, LongSupplier value) {
+    checkName(name);
+    Preconditions.checkArgument(!gauges.containsKey(name), "Duplicate gauge: %s", name);
+    help.put(name, description);
+    gaugeSuppliers.put(name, value);
+  }
+
+  /** Returns the histogram with the given name, creating it if necessary. */
+  public Histogram histogram(String name, String description) {
+    return histograms.computeIfAbsent(name, key -> register(new Histogram(), key, description));
+  }
+
+  private <T> T register(T metric, String name, String description) {
+    checkName(name);
+    help.put(name, description);
+    return metric;
+  }
+
+  private static void checkName(String name) {
+    Preconditions.checkArgument(NAME_PATTERN.matcher(name).matches(), "Invalid name: %s", name);
+  }
+
+  /**
+   * Clears the values of all counters and histograms, and the peaks of all gauges. Values
+   * recorded concurrently with the reset may or may not survive it.
+   */
+  public void reset() {
+    for (Counter counter : counters.values()) {
+      counter.value.reset();
+    }
+    for (Gauge gauge : gauges.values()) {
+      gauge.reset();
+    }
+    for (Histogram histogram : histograms.values()) {
+      histogram.reset();
+    }
+  }
+
+  /** Returns the current values of all metrics. */
+  public Snapshot snapshot() {
+    ImmutableSortedMap.Builder<String, Long> counterValues = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+      counterValues.put(counter.getKey(), counter.getValue().get());
+    }
+    ImmutableSortedMap.Builder<String, Long> gaugeValues = ImmutableSortedMap.naturalOrder();
+    ImmutableSortedMap.Builder<String, String> helpValues = ImmutableSortedMap.naturalOrder();
+    helpValues.putAll(help);
+    for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+      gaugeValues.put(gauge.getKey(), gauge.getValue().get());
+      gaugeValues.put(gauge.getKey() + "_peak", gauge.getValue().getPeak());
+      helpValues.put(
+          gauge.getKey() + "_peak",
+          "Highest value of " + gauge.getKey() + " since the start of the command.");
+    }
+    for (Map.Entry<String, LongSupplier> gauge : gaugeSuppliers.entrySet()) {
+      gaugeValues.put(gauge.getKey(), gauge.getValue().getAsLong());
+    }
+    ImmutableSortedMap.Builder<String, HistogramSnapshot> histogramValues =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+      histogramValues.put(histogram.getKey(), histogram.getValue().snapshot());
+    }
+    return new Snapshot(
+        counterValues.build(),
+        gaugeValues.build(),
+        histogramValues.build(),
+        helpValues.build());
+  }
+}
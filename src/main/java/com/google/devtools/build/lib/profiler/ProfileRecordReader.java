@@ -0,0 +1,270 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the records of a Blaze profile file one at a time.
+ *
+ * <p>Only the current record and the table of task descriptions are kept in memory, so callers
+ * that do not need the whole task tree (e.g. statistics that can be aggregated on the fly, or
+ * format converters) can process arbitrarily large profiles. {@link ProfileInfo#loadProfile}
+ * uses this reader to build its in-memory representation.
+ *
+ * <p>Records are returned in the order they were written, which is the order in which the
+ * tasks completed: all recorded subtasks of a task precede the task itself.
+ */
+public final class ProfileRecordReader implements Closeable {
+
+  private final DataInputStream in;
+  private final String comment;
+  private final List<ProfilerTask> typeList;
+  private final boolean hasUnknownTypes;
+  private final List<String> descriptions = new ArrayList<>(10000);
+  private boolean corruptedOrIncomplete = false;
+
+  // Fields of the current record.
+  private long threadId;
+  private int id;
+  private int parentId;
+  private long startTime;
+  private long durationNanos;
+  private ProfilerTask type;
+  private int descIndex;
+  @Nullable private byte[] stats;
+
+  private ProfileRecordReader(
+      DataInputStream in, String comment, List<ProfilerTask> typeList, boolean hasUnknownTypes) {
+    this.in = in;
+    this.comment = comment;
+    this.typeList = typeList;
+    this.hasUnknownTypes = hasUnknownTypes;
+  }
+
+  /**
+   * Opens the profile file and reads its header.
+   *
+   * @throws UnsupportedEncodingException if the file format is invalid
+   * @throws IOException if the file can't be read
+   */
+  public static ProfileRecordReader open(Path profileFile) throws IOException {
+    // It is extremely important to wrap InflaterInputStream using
+    // BufferedInputStream because majority of reads would be done using
+    // readInt()/readLong() methods and InflaterInputStream is very inefficient
+    // in handling small read requests (performance difference with 1MB buffer
+    // used below is almost 10x).
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new InflaterInputStream(
+        profileFile.getInputStream(), new Inflater(false), 65536), 1024 * 1024));
+    try {
+      if (in.readInt() != Profiler.MAGIC) {
+        throw new UnsupportedEncodingException("Invalid profile datafile format");
+      }
+      if (in.readInt() != Profiler.VERSION) {
+        throw new UnsupportedEncodingException("Incompatible profile datafile version");
+      }
+      String fileComment = in.readUTF();
+
+      // Read list of used record types
+      int typeCount = in.readInt();
+      boolean hasUnknownTypes = false;
+      Set<String> supportedTasks = new HashSet<>();
+      for (ProfilerTask task : ProfilerTask.values()) {
+        supportedTasks.add(task.toString());
+      }
+      List<ProfilerTask> typeList = new ArrayList<>();
+      for (int i = 0; i < typeCount; i++) {
+        String name = in.readUTF();
+        if (supportedTasks.contains(name)) {
+          typeList.add(ProfilerTask.valueOf(name));
+        } else {
+          hasUnknownTypes = true;
+          typeList.add(ProfilerTask.UNKNOWN);
+        }
+      }
+      return new ProfileRecordReader(in, fileComment, typeList, hasUnknownTypes);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /** Returns the comment stored in the profile header. */
+  public String getComment() {
+    return comment;
+  }
+
+  /**
+   * Advances to the next record.
+   *
+   * @return false once the end marker is reached or the rest of the file could not be read, in
+   *     which case {@link #isCorruptedOrIncomplete} returns true
+   */
+  public boolean next() {
+    try {
+      int size = in.readInt();
+      if (size == Profiler.EOF_MARKER) {
+        return false;
+      }
+      byte[] backingArray = new byte[size];
+      in.readFully(backingArray);
+      ByteBuffer buffer = ByteBuffer.wrap(backingArray);
+      threadId = VarInt.getVarLong(buffer);
+      id = VarInt.getVarInt(buffer);
+      parentId = VarInt.getVarInt(buffer);
+      startTime = VarInt.getVarLong(buffer);
+      durationNanos = VarInt.getVarLong(buffer);
+      descIndex = VarInt.getVarInt(buffer) - 1;
+      if (descIndex == -1) {
+        String desc = in.readUTF();
+        descIndex = descriptions.size();
+        descriptions.add(desc);
+      }
+      type = typeList.get(buffer.get());
+      stats = null;
+      if (buffer.hasRemaining()) {
+        // Copy aggregated stats.
+        int offset = buffer.position();
+        stats = Arrays.copyOfRange(backingArray, offset, size);
+        if (hasUnknownTypes) {
+          while (buffer.hasRemaining()) {
+            byte attrType = buffer.get();
+            if (typeList.get(attrType) == ProfilerTask.UNKNOWN) {
+              // We're dealing with unknown aggregated type - update stats array to
+              // use ProfilerTask.UNKNOWN.ordinal() value.
+              stats[buffer.position() - 1 - offset] = (byte) ProfilerTask.UNKNOWN.ordinal();
+            }
+            VarInt.getVarInt(buffer);
+            VarInt.getVarLong(buffer);
+          }
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      corruptedOrIncomplete = true;
+      return false;
+    }
+  }
+
+  /**
+   * Returns true if the profile datafile was corrupted or incomplete and false otherwise. Only
+   * meaningful once {@link #next} returned false.
+   */
+  public boolean isCorruptedOrIncomplete() {
+    return corruptedOrIncomplete;
+  }
+
+  public long getThreadId() {
+    return threadId;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public int getParentId() {
+    return parentId;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  public ProfilerTask getType() {
+    return type;
+  }
+
+  /** Returns the index of the current record's description in {@link #getDescriptions}. */
+  public int getDescriptionIndex() {
+    return descIndex;
+  }
+
+  public String getDescription() {
+    return descriptions.get(descIndex);
+  }
+
+  /** Returns all descriptions read so far, indexed by {@link #getDescriptionIndex}. */
+  public List<String> getDescriptions() {
+    return Collections.unmodifiableList(descriptions);
+  }
+
+  /**
+   * Returns the aggregated statistics of the current record's subtasks in the encoding used by
+   * {@link ProfileInfo.CompactStatistics}, or null if there are none.
+   */
+  @Nullable
+  byte[] getStats() {
+    return stats;
+  }
+
+  /**
+   * Returns the total duration of the current record's subtasks, i.e. the duration the task
+   * inherited from them.
+   */
+  public long getInheritedDuration() {
+    return new ProfileInfo.CompactStatistics(stats).getTotalTime();
+  }
+
+  /**
+   * Adds the aggregated statistics of the current record's subtasks to the given arrays, which
+   * are indexed by {@link ProfilerTask#ordinal}.
+   *
+   * @return the total duration of the subtasks, see {@link #getInheritedDuration}
+   */
+  public long addStats(long[] counts, long[] durations) {
+    Preconditions.checkArgument(counts.length == ProfilerTask.TASK_COUNT);
+    Preconditions.checkArgument(durations.length == ProfilerTask.TASK_COUNT);
+    if (stats == null) {
+      return 0;
+    }
+    long totalTime = 0;
+    ByteBuffer source = ByteBuffer.wrap(stats);
+    while (source.hasRemaining()) {
+      byte attrType = source.get();
+      int count = VarInt.getVarInt(source);
+      long time = VarInt.getVarLong(source);
+      counts[attrType] += count;
+      durations[attrType] += time;
+      totalTime += time;
+    }
+    return totalTime;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
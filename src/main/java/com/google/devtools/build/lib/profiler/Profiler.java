@@ -30,6 +30,7 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -40,6 +41,7 @@ import java.util.TimerTask;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Logger;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
@@ -51,8 +53,9 @@ import java.util.zip.DeflaterOutputStream;
  * Implemented as singleton so any caller should use Profiler.instance() to
  * obtain reference.
  * <p>
- * Internally, profiler uses two data structures - ThreadLocal task stack to track
- * nested tasks and single ConcurrentLinkedQueue to gather all completed tasks.
+ * Internally, profiler uses two per-thread data structures - a ThreadLocal task
+ * stack to track nested tasks and a lock-free {@link TaskRecordBuffer} to gather
+ * the thread's completed tasks, which the save thread drains periodically.
  * <p>
  * Also, due to the nature of the provided functionality (instrumentation of all
  * Blaze components), build.lib.profiler package will be used by almost every
@@ -149,10 +152,10 @@ public final class Profiler {
     final Object object;
     ProfilerTask type;
 
-    private SlowTask(TaskData taskData) {
-      this.durationNanos = taskData.duration;
-      this.object = taskData.object;
-      this.type = taskData.type;
+    private SlowTask(long durationNanos, Object object, ProfilerTask type) {
+      this.durationNanos = durationNanos;
+      this.object = object;
+      this.type = type;
     }
 
     @Override
@@ -292,6 +295,39 @@ public final class Profiler {
         : object.toString();
   }
 
+  /**
+   * Gives every thread its own {@link TaskRecordBuffer} and keeps track of all of them, so that
+   * {@link Profiler#save} can drain the buffers without the recording threads taking any lock.
+   */
+  //@ThreadSafe - commented out to avoid cyclic dependency with lib.util.
+  private static final class TaskBuffers extends ThreadLocal<TaskRecordBuffer> {
+    private final Queue<TaskRecordBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    @Override
+    protected TaskRecordBuffer initialValue() {
+      TaskRecordBuffer buffer = new TaskRecordBuffer(Thread.currentThread());
+      buffers.add(buffer);
+      return buffer;
+    }
+
+    /**
+     * Passes all records added so far to the sink. Buffers of terminated threads are forgotten
+     * once they have been drained.
+     */
+    void drain(TaskRecordBuffer.RecordSink sink) throws IOException {
+      Iterator<TaskRecordBuffer> iterator = buffers.iterator();
+      while (iterator.hasNext()) {
+        TaskRecordBuffer buffer = iterator.next();
+        // Check before draining so that no record can be added after the final drain.
+        boolean terminated = buffer.isOwnerTerminated();
+        buffer.drain(sink);
+        if (terminated) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
   /**
    * Implements datastore for object description indices. Intended to be used
    * only by the Profiler.save() method.
@@ -335,7 +371,8 @@ public final class Profiler {
    *
    * <p><code>priorityQueues</p> is sharded so that all threads need not compete for the same
    * lock if they do the same operation at the same time. Access to the individual queues is
-   * synchronized on the queue objects themselves.
+   * synchronized on the queue objects themselves. Once a queue is full, tasks faster than its
+   * fastest element are rejected without taking the lock at all.
    */
   private final class SlowestTaskAggregator {
     private static final int SHARDS = 16;
@@ -343,31 +380,43 @@ public final class Profiler {
 
     @SuppressWarnings({"unchecked", "rawtypes"})
     private final PriorityQueue<SlowTask>[] priorityQueues = new PriorityQueue[SHARDS];
+    // Duration of the fastest task in each full queue, or -1 while the queue is not full. Only
+    // written while holding the queue's lock; may be stale when read without it, in which case
+    // the lock is taken and the duration checked again.
+    private final AtomicLongArray minimumDurations = new AtomicLongArray(SHARDS);
 
     SlowestTaskAggregator(int size) {
       this.size = size;
 
       for (int i = 0; i < SHARDS; i++) {
         priorityQueues[i] = new PriorityQueue<>(size + 1);
+        minimumDurations.set(i, -1);
       }
     }
 
     // @ThreadSafe
-    void add(TaskData taskData) {
-      PriorityQueue<SlowTask> queue =
-          priorityQueues[(int) (Thread.currentThread().getId() % SHARDS)];
+    void add(long duration, Object object, ProfilerTask type) {
+      int shard = (int) (Thread.currentThread().getId() % SHARDS);
+      if (duration < minimumDurations.get(shard)) {
+        // Optimization: we are faster than the fastest element of a full queue, so we would be
+        // the ones to fall off the end of it.
+        return;
+      }
+      PriorityQueue<SlowTask> queue = priorityQueues[shard];
       synchronized (queue) {
         if (queue.size() == size) {
-          // Optimization: check if we are faster than the fastest element. If we are, we would
-          // be the ones to fall off the end of the queue, therefore, we can safely return early.
-          if (queue.peek().getDurationNanos() > taskData.duration) {
+          // Check again under the lock, the queue may have changed in the meantime.
+          if (queue.peek().getDurationNanos() > duration) {
             return;
           }
 
-          queue.add(new SlowTask(taskData));
+          queue.add(new SlowTask(duration, object, type));
           queue.remove();
         } else {
-          queue.add(new SlowTask(taskData));
+          queue.add(new SlowTask(duration, object, type));
+        }
+        if (queue.size() == size) {
+          minimumDurations.set(shard, queue.peek().getDurationNanos());
         }
       }
     }
@@ -378,6 +427,7 @@ public final class Profiler {
         PriorityQueue<SlowTask> queue = priorityQueues[i];
         synchronized (queue) {
           queue.clear();
+          minimumDurations.set(i, -1);
         }
       }
     }
@@ -454,11 +504,13 @@ public final class Profiler {
   private AtomicInteger taskId = new AtomicInteger();
 
   private TaskStack taskStack;
-  private Queue<TaskData> taskQueue;
+  private TaskBuffers taskBuffers;
   private DataOutputStream out;
   private Timer timer;
   private IOException saveException;
   private ObjectDescriber describer;
+  // Only used by the save thread; allocated once to avoid GC.
+  private final ByteBuffer saveBuffer = ByteBuffer.allocate(1024);
   @SuppressWarnings("unchecked")
   private final SlowestTaskAggregator[] slowestTasks =
   new SlowestTaskAggregator[ProfilerTask.values().length];
@@ -531,7 +583,7 @@ public final class Profiler {
       throws IOException {
     Preconditions.checkState(!isActive(), "Profiler already active");
     taskStack = new TaskStack();
-    taskQueue = new ConcurrentLinkedQueue<>();
+    taskBuffers = new TaskBuffers();
     describer = new ObjectDescriber();
 
     this.profiledTaskKinds = profiledTaskKinds;
@@ -634,7 +686,7 @@ public final class Profiler {
   }
 
   /**
-   * Saves all gathered information from taskQueue queue to the file.
+   * Saves all gathered information from the per-thread task buffers to the file.
    * Method is invoked internally by the Timer-based thread and at the end of
    * profiling session.
    */
@@ -643,44 +695,7 @@ public final class Profiler {
       return;
     }
     try {
-      // Allocate the sink once to avoid GC
-      ByteBuffer sink = ByteBuffer.allocate(1024);
-      while (!taskQueue.isEmpty()) {
-        sink.clear();
-        TaskData data = taskQueue.poll();
-
-        VarInt.putVarLong(data.threadId, sink);
-        VarInt.putVarInt(data.id, sink);
-        VarInt.putVarInt(data.parentId, sink);
-        VarInt.putVarLong(data.startTime - profileStartTime, sink);
-        VarInt.putVarLong(data.duration, sink);
-
-        // To save space (and improve performance), convert all description
-        // strings to the canonical object and use IdentityHashMap to assign
-        // unique numbers for each string.
-        int descIndex = describer.getDescriptionIndex(data.object);
-        VarInt.putVarInt(descIndex + 1, sink); // Add 1 to avoid encoding negative values.
-
-        // Save types using their ordinal() value
-        sink.put((byte) data.type.ordinal());
-
-        // Save aggregated data stats.
-        if (data.counts != null) {
-          for (int i = 0; i < TASK_COUNT; i++) {
-            if (data.counts[i] > 0) {
-              sink.put((byte) i); // aggregated type ordinal value
-              VarInt.putVarInt(data.counts[i], sink);
-              VarInt.putVarLong(data.durations[i], sink);
-            }
-          }
-        }
-
-        this.out.writeInt(sink.position());
-        this.out.write(sink.array(), 0, sink.position());
-        if (describer.isUnassigned(descIndex)) {
-          this.out.writeUTF(describer.getDescription(data.object));
-        }
-      }
+      taskBuffers.drain(this::writeTask);
       this.out.flush();
     } catch (IOException e) {
       saveException = e;
@@ -693,6 +708,56 @@ public final class Profiler {
     }
   }
 
+  /**
+   * Writes a single task record to the file. Only called by {@link #save}.
+   */
+  private void writeTask(
+      long threadId,
+      int id,
+      int parentId,
+      long startTime,
+      long duration,
+      ProfilerTask type,
+      Object object,
+      int[] counts,
+      long[] durations)
+      throws IOException {
+    ByteBuffer sink = saveBuffer;
+    sink.clear();
+
+    VarInt.putVarLong(threadId, sink);
+    VarInt.putVarInt(id, sink);
+    VarInt.putVarInt(parentId, sink);
+    VarInt.putVarLong(startTime - profileStartTime, sink);
+    VarInt.putVarLong(duration, sink);
+
+    // To save space (and improve performance), convert all description
+    // strings to the canonical object and use IdentityHashMap to assign
+    // unique numbers for each string.
+    int descIndex = describer.getDescriptionIndex(object);
+    VarInt.putVarInt(descIndex + 1, sink); // Add 1 to avoid encoding negative values.
+
+    // Save types using their ordinal() value
+    sink.put((byte) type.ordinal());
+
+    // Save aggregated data stats.
+    if (counts != null) {
+      for (int i = 0; i < TASK_COUNT; i++) {
+        if (counts[i] > 0) {
+          sink.put((byte) i); // aggregated type ordinal value
+          VarInt.putVarInt(counts[i], sink);
+          VarInt.putVarLong(durations[i], sink);
+        }
+      }
+    }
+
+    this.out.writeInt(sink.position());
+    this.out.write(sink.array(), 0, sink.position());
+    if (describer.isUnassigned(descIndex)) {
+      this.out.writeUTF(describer.getDescription(object));
+    }
+  }
+
   private synchronized void clear() {
     initHistograms();
     profileStartTime = 0L;
@@ -701,7 +766,7 @@ public final class Profiler {
       timer = null;
     }
     taskStack = null;
-    taskQueue = null;
+    taskBuffers = null;
     describer = null;
 
     // Note that slowest task aggregator are not cleared here because clearing happens
@@ -737,8 +802,8 @@ public final class Profiler {
     tasksHistograms[type.ordinal()].addStat((int) TimeUnit.NANOSECONDS.toMillis(duration), object);
     // Store instance fields as local variables so they are not nulled out from under us by #clear.
     TaskStack localStack = taskStack;
-    Queue<TaskData> localQueue = taskQueue;
-    if (localStack == null || localQueue == null) {
+    TaskBuffers localBuffers = taskBuffers;
+    if (localStack == null || localBuffers == null) {
       // Variables have been nulled out by #clear in between the check the caller made and this
       // point in the code. Probably due to an asynchronous crash.
       LOG.severe("Variables null in profiler for " + type + ", probably due to async crash");
@@ -749,16 +814,18 @@ public final class Profiler {
       parent.aggregateChild(type, duration);
     }
     if (wasTaskSlowEnoughToRecord(type, duration)) {
-      TaskData data = localStack.create(startTime, type, object);
-      data.duration = duration;
+      // Simple tasks go straight into the thread's buffer without a TaskData instance.
+      int id = taskId.incrementAndGet();
       if (out != null) {
-        localQueue.add(data);
+        localBuffers
+            .get()
+            .add(id, parent == null ? 0 : parent.id, startTime, duration, type, object, null, null);
       }
 
       SlowestTaskAggregator aggregator = slowestTasks[type.ordinal()];
 
       if (aggregator != null) {
-        aggregator.add(data);
+        aggregator.add(duration, object, type);
       }
     }
   }
@@ -877,14 +944,24 @@ public final class Profiler {
       }
       boolean shouldRecordTask = wasTaskSlowEnoughToRecord(type, data.duration);
       if (out != null && (shouldRecordTask || data.counts != null)) {
-        taskQueue.add(data);
+        taskBuffers
+            .get()
+            .add(
+                data.id,
+                data.parentId,
+                data.startTime,
+                data.duration,
+                data.type,
+                data.object,
+                data.counts,
+                data.durations);
       }
 
       if (shouldRecordTask) {
         SlowestTaskAggregator aggregator = slowestTasks[type.ordinal()];
 
         if (aggregator != null) {
-          aggregator.add(data);
+          aggregator.add(data.duration, data.object, data.type);
         }
       }
     }
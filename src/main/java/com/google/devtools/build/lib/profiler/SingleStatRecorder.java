@@ -22,55 +22,93 @@ import com.google.devtools.build.lib.util.Preconditions;
 /**
  * A stat recorder that can record time histograms, count of calls, average time, Std. Deviation
  * and max time.
+ *
+ * <p>Stats are recorded into one of several shards chosen by the calling thread, so that threads
+ * recording the same kind of task rarely contend for the same lock. Snapshots merge the shards.
  */
 @ThreadSafe
 public class SingleStatRecorder implements StatRecorder {
 
+  private static final int SHARDS = 16;
+
   private final int buckets;
   private final Object description;
-  private int[] histogram;
-  private int count = 0;
-  private double avg = 0.0;
-  private double m2 = 0.0;
-  private int max = -1;
+  private final Shard[] shards = new Shard[SHARDS];
+
+  /** Stats recorded by a subset of the threads. All fields are guarded by the shard itself. */
+  private static final class Shard {
+    final int[] histogram;
+    int count = 0;
+    double avg = 0.0;
+    double m2 = 0.0;
+    int max = -1;
+
+    Shard(int buckets) {
+      histogram = new int[buckets];
+    }
+  }
 
   public SingleStatRecorder(Object description, int buckets) {
     this.description = description;
     Preconditions.checkArgument(buckets > 1, "At least two buckets (one for bellow start and one"
         + "for above start) are required");
     this.buckets = buckets;
-    histogram = new int[buckets];
+    for (int i = 0; i < SHARDS; i++) {
+      shards[i] = new Shard(buckets);
+    }
   }
 
   /** Create an snapshot of the the stats recorded up to now. */
   public MetricData snapshot() {
-    synchronized (this) {
-      ImmutableList.Builder<HistogramElement> result = ImmutableList.builder();
-      result.add(new HistogramElement(Range.closedOpen(0, 1), histogram[0]));
-      int from = 1;
-      for (int i = 1; i < histogram.length - 1; i++) {
-        int to = from << 1;
-        result.add(new HistogramElement(Range.closedOpen(from, to), histogram[i]));
-        from = to;
+    int[] histogram = new int[buckets];
+    int count = 0;
+    double avg = 0.0;
+    double m2 = 0.0;
+    int max = -1;
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        if (shard.count == 0) {
+          continue;
+        }
+        for (int i = 0; i < buckets; i++) {
+          histogram[i] += shard.histogram[i];
+        }
+        // Combine the running means and sums of squared differences of both sets, see
+        // https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Parallel_algorithm
+        int total = count + shard.count;
+        double delta = shard.avg - avg;
+        avg += delta * shard.count / total;
+        m2 += shard.m2 + delta * delta * count * shard.count / total;
+        count = total;
+        max = Math.max(max, shard.max);
       }
-      result.add(new HistogramElement(Range.atLeast(from), histogram[histogram.length - 1]));
-      return new MetricData(description, result.build(), count, avg,
-          Math.sqrt(m2 / (double) count), max);
     }
+    ImmutableList.Builder<HistogramElement> result = ImmutableList.builder();
+    result.add(new HistogramElement(Range.closedOpen(0, 1), histogram[0]));
+    int from = 1;
+    for (int i = 1; i < histogram.length - 1; i++) {
+      int to = from << 1;
+      result.add(new HistogramElement(Range.closedOpen(from, to), histogram[i]));
+      from = to;
+    }
+    result.add(new HistogramElement(Range.atLeast(from), histogram[histogram.length - 1]));
+    return new MetricData(description, result.build(), count, avg,
+        Math.sqrt(m2 / (double) count), max);
   }
 
   @Override
   public void addStat(int duration, Object obj) {
     int histogramBucket = Math.min(32 - Integer.numberOfLeadingZeros(duration), buckets - 1);
-    synchronized (this) {
-      count++;
-      double delta = duration - avg;
-      avg += delta / count;
-      m2 += delta * (duration - avg);
-      if (duration > max) {
-        max = duration;
+    Shard shard = shards[(int) (Thread.currentThread().getId() % SHARDS)];
+    synchronized (shard) {
+      shard.count++;
+      double delta = duration - shard.avg;
+      shard.avg += delta / shard.count;
+      shard.m2 += delta * (duration - shard.avg);
+      if (duration > shard.max) {
+        shard.max = duration;
       }
-      histogram[histogramBucket]++;
+      shard.histogram[histogramBucket]++;
     }
   }
 
@@ -0,0 +1,159 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer of completed task records written by a single thread and read by a single other
+ * thread, without locks.
+ *
+ * <p>Records are stored field by field in arrays of fixed size chunks, so adding a record does
+ * not allocate anything except for a new chunk every {@link #CHUNK_SIZE} records. The owner
+ * thread publishes each record with an ordered write of the record count; the reader consumes
+ * all records published so far in the order they were added.
+ *
+ * <p>Only the owner thread may call {@link #add}, and only one thread at a time may call
+ * {@link #drain}. Used by the {@link Profiler}, which keeps one buffer per recording thread and
+ * drains them all from its save thread.
+ */
+//@ThreadSafe - commented out to avoid cyclic dependency with lib.util.
+final class TaskRecordBuffer {
+
+  static final int CHUNK_SIZE = 1024;
+
+  /**
+   * Receives the drained records.
+   */
+  interface RecordSink {
+    void accept(
+        long threadId,
+        int id,
+        int parentId,
+        long startTime,
+        long duration,
+        ProfilerTask type,
+        Object object,
+        int[] counts,
+        long[] durations)
+        throws IOException;
+  }
+
+  private static final class Chunk {
+    final int[] ids = new int[CHUNK_SIZE];
+    final int[] parentIds = new int[CHUNK_SIZE];
+    final long[] startTimes = new long[CHUNK_SIZE];
+    final long[] durations = new long[CHUNK_SIZE];
+    final ProfilerTask[] types = new ProfilerTask[CHUNK_SIZE];
+    final Object[] objects = new Object[CHUNK_SIZE];
+    // Aggregated subtask statistics; null for tasks without subtasks.
+    final int[][] childCounts = new int[CHUNK_SIZE][];
+    final long[][] childDurations = new long[CHUNK_SIZE][];
+    volatile Chunk next;
+  }
+
+  private final Thread owner;
+  private final long threadId;
+  // Number of records added so far; written by the owner thread only.
+  private final AtomicLong published = new AtomicLong();
+
+  // Owner thread state.
+  private Chunk tail = new Chunk();
+  private int tailIndex = 0;
+  private long added = 0;
+
+  // Reader state.
+  private Chunk head = tail;
+  private int headIndex = 0;
+  private long consumed = 0;
+
+  TaskRecordBuffer(Thread owner) {
+    this.owner = owner;
+    this.threadId = owner.getId();
+  }
+
+  /**
+   * Appends a record. Must only be called by the owner thread.
+   */
+  void add(
+      int id,
+      int parentId,
+      long startTime,
+      long duration,
+      ProfilerTask type,
+      Object object,
+      int[] counts,
+      long[] durations) {
+    if (tailIndex == CHUNK_SIZE) {
+      Chunk chunk = new Chunk();
+      tail.next = chunk;
+      tail = chunk;
+      tailIndex = 0;
+    }
+    Chunk chunk = tail;
+    int index = tailIndex++;
+    chunk.ids[index] = id;
+    chunk.parentIds[index] = parentId;
+    chunk.startTimes[index] = startTime;
+    chunk.durations[index] = duration;
+    chunk.types[index] = type;
+    chunk.objects[index] = object;
+    chunk.childCounts[index] = counts;
+    chunk.childDurations[index] = durations;
+    // Makes the record visible to the reader; cheaper than a volatile write.
+    published.lazySet(++added);
+  }
+
+  /**
+   * Passes all records published so far to the sink, in the order they were added, and releases
+   * them.
+   */
+  void drain(RecordSink sink) throws IOException {
+    long available = published.get();
+    while (consumed < available) {
+      if (headIndex == CHUNK_SIZE) {
+        head = head.next;
+        headIndex = 0;
+      }
+      Chunk chunk = head;
+      int index = headIndex++;
+      consumed++;
+      Object object = chunk.objects[index];
+      int[] counts = chunk.childCounts[index];
+      long[] durations = chunk.childDurations[index];
+      // Release the references right away, the chunk is not reused.
+      chunk.objects[index] = null;
+      chunk.childCounts[index] = null;
+      chunk.childDurations[index] = null;
+      sink.accept(
+          threadId,
+          chunk.ids[index],
+          chunk.parentIds[index],
+          chunk.startTimes[index],
+          chunk.durations[index],
+          chunk.types[index],
+          object,
+          counts,
+          durations);
+    }
+  }
+
+  /**
+   * Returns whether the owner thread has terminated, in which case no more records will be added.
+   */
+  boolean isOwnerTerminated() {
+    return !owner.isAlive();
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler.output;
+
+import com.google.devtools.build.lib.profiler.ProfileRecordReader;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Converts a profile into the JSON array format of the Chrome trace event profiler, which can be
+ * loaded into chrome://tracing. Every task becomes one complete ("X") event; records are
+ * converted one at a time as they are read, so the profile is never loaded as a whole.
+ */
+public final class ChromeTraceJson extends TextPrinter {
+
+  private final ProfileRecordReader reader;
+
+  public ChromeTraceJson(PrintStream out, ProfileRecordReader reader) {
+    super(out);
+    this.reader = reader;
+  }
+
+  /**
+   * Prints all remaining records of the reader as trace events.
+   */
+  public void print() {
+    print("[");
+    boolean first = true;
+    while (reader.next()) {
+      if (!first) {
+        print(",");
+      }
+      first = false;
+      printLn();
+      printEvent();
+    }
+    printLn();
+    print("]");
+    printLn();
+  }
+
+  private void printEvent() {
+    StringBuilder event = new StringBuilder("{\"name\":");
+    appendString(event, reader.getDescription());
+    event.append(",\"cat\":");
+    appendString(event, reader.getType().name());
+    // The trace event format uses microseconds, profiles nanoseconds.
+    event
+        .append(",\"ph\":\"X\",\"ts\":")
+        .append(String.format(Locale.US, "%.3f", reader.getStartTime() / 1000.0))
+        .append(",\"dur\":")
+        .append(String.format(Locale.US, "%.3f", reader.getDurationNanos() / 1000.0))
+        .append(",\"pid\":1,\"tid\":")
+        .append(reader.getThreadId())
+        .append(",\"args\":{\"id\":")
+        .append(reader.getId())
+        .append(",\"parent\":")
+        .append(reader.getParentId())
+        .append("}}");
+    print(event);
+  }
+
+  private static void appendString(StringBuilder builder, String value) {
+    builder.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            builder.append(String.format("\\u%04x", (int) c));
+          } else {
+            builder.append(c);
+          }
+      }
+    }
+    builder.append('"');
+  }
+}
@@ -20,6 +20,7 @@ import com.google.devtools.build.lib.profiler.ProfileInfo.CriticalPathEntry;
 import com.google.devtools.build.lib.profiler.ProfileInfo.Task;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.util.Preconditions;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -120,6 +121,22 @@ public final class CriticalPathStatistics implements Iterable<Pair<String, Doubl
     criticalPathDurations = getCriticalPathDurations(info);
   }
 
+  /**
+   * Creates statistics for the critical path recorded by the build itself, which consists of
+   * {@link ProfilerTask#CRITICAL_PATH_COMPONENT} tasks and comes without wait times or
+   * per-filter durations.
+   *
+   * @see ProfileInfo#getCriticalPathNewVersion()
+   */
+  public CriticalPathStatistics(@Nullable CriticalPathEntry recordedPath) {
+    Preconditions.checkArgument(recordedPath == null || recordedPath.isComponent());
+    totalPath = recordedPath;
+    optimalPath = recordedPath;
+    workerWaitTime = 0;
+    mainThreadWaitTime = 0;
+    criticalPathDurations = Collections.emptyList();
+  }
+
   /**
    * @return the critical path obtained by not filtering out any {@link ProfilerTask}
    */
@@ -63,9 +63,7 @@ public final class PhaseStatistics implements Iterable<ProfilerTask> {
       if (vfsStatistics != null) {
         vfsStatistics.addProfileInfo(workSpaceName, info);
       }
-      wasExecuted = true;
       long infoPhaseDuration = info.getPhaseDuration(phaseTask);
-      phaseDurationNanos += infoPhaseDuration;
       List<Task> taskList = info.getTasksForPhase(phaseTask);
       long duration = infoPhaseDuration;
       for (Task task : taskList) {
@@ -74,14 +72,35 @@ public final class PhaseStatistics implements Iterable<ProfilerTask> {
           duration += task.durationNanos;
         }
       }
-      totalDurationNanos += duration;
+      long[] counts = new long[ProfilerTask.TASK_COUNT];
+      long[] durations = new long[ProfilerTask.TASK_COUNT];
       for (ProfilerTask type : ProfilerTask.values()) {
         AggregateAttr attr = info.getStatsForType(type, taskList);
-        long totalTime = Math.max(0, attr.totalTime);
-        long count = Math.max(0, attr.count);
-        add(taskCounts, type, count);
-        add(taskDurations, type, totalTime);
+        counts[type.ordinal()] = attr.count;
+        durations[type.ordinal()] = attr.totalTime;
       }
+      addPhaseExecution(infoPhaseDuration, duration, counts, durations);
+    }
+  }
+
+  /**
+   * Add the statistics of a single execution of the phase, without VFS statistics.
+   *
+   * @param phaseDurationNanos wall time of the phase
+   * @param totalDurationNanos wall time of the phase plus the duration of the root tasks run on
+   *     other threads during the phase
+   * @param counts number of tasks run during the phase, indexed by {@link ProfilerTask#ordinal}
+   * @param durations time spent in tasks run during the phase, indexed by
+   *     {@link ProfilerTask#ordinal}
+   */
+  public void addPhaseExecution(
+      long phaseDurationNanos, long totalDurationNanos, long[] counts, long[] durations) {
+    wasExecuted = true;
+    this.phaseDurationNanos += phaseDurationNanos;
+    this.totalDurationNanos += totalDurationNanos;
+    for (ProfilerTask type : ProfilerTask.values()) {
+      add(taskCounts, type, Math.max(0, counts[type.ordinal()]));
+      add(taskDurations, type, Math.max(0, durations[type.ordinal()]));
     }
   }
 
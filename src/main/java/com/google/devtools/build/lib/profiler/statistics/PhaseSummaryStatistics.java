@@ -46,13 +46,19 @@ public final class PhaseSummaryStatistics implements Iterable<ProfilePhase> {
     for (ProfilePhase phase : ProfilePhase.values()) {
       ProfileInfo.Task phaseTask = info.getPhaseTask(phase);
       if (phaseTask != null) {
-        long phaseDuration = info.getPhaseDuration(phaseTask);
-        totalDurationNanos += phaseDuration;
-        durations.put(phase, phaseDuration);
+        addPhase(phase, info.getPhaseDuration(phaseTask));
       }
     }
   }
 
+  /**
+   * Adds the duration of a single executed {@link ProfilePhase}.
+   */
+  public void addPhase(ProfilePhase phase, long phaseDurationNanos) {
+    totalDurationNanos += phaseDurationNanos;
+    durations.put(phase, phaseDurationNanos);
+  }
+
   /**
    * @return whether the given {@link ProfilePhase} was executed
    */
@@ -0,0 +1,253 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler.statistics;
+
+import static com.google.devtools.build.lib.profiler.ProfilerTask.TASK_COUNT;
+
+import com.google.common.base.Optional;
+import com.google.devtools.build.lib.profiler.ProfileInfo;
+import com.google.devtools.build.lib.profiler.ProfileInfo.CriticalPathEntry;
+import com.google.devtools.build.lib.profiler.ProfileInfo.InfoListener;
+import com.google.devtools.build.lib.profiler.ProfileInfo.Task;
+import com.google.devtools.build.lib.profiler.ProfilePhase;
+import com.google.devtools.build.lib.profiler.ProfileRecordReader;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the phase and critical path statistics of a single profile file by streaming over its
+ * records, without building the task tree of {@link ProfileInfo}.
+ *
+ * <p>The file is read twice: the first pass only keeps the phase markers and the critical path
+ * recorded by the build, the second one folds every record into the statistics of the phase its
+ * root task was started in. Since subtasks are written before their parents, memory use is
+ * bounded by the number of tasks that were running at the same time rather than by the size of
+ * the profile. The results match the ones computed from {@link ProfileInfo}, except that VFS
+ * statistics and the critical path computed from the action graph are not available. Skylark
+ * statistics are only rendered in the HTML output, which needs the full task tree, so they are not
+ * computed either.
+ */
+public final class StreamingProfileStatistics {
+
+  private static final EnumSet<ProfilerTask> MARKER_TYPES =
+      EnumSet.of(
+          ProfilerTask.PHASE, ProfilerTask.CRITICAL_PATH, ProfilerTask.CRITICAL_PATH_COMPONENT);
+
+  /** Task counts and durations, indexed by {@link ProfilerTask#ordinal}. */
+  private static final class Aggregate {
+    final long[] counts = new long[TASK_COUNT];
+    final long[] durations = new long[TASK_COUNT];
+    // Duration of the root tasks run on other threads than the phase marker.
+    long otherThreadsDuration;
+
+    void add(Aggregate other) {
+      for (int i = 0; i < TASK_COUNT; i++) {
+        counts[i] += other.counts[i];
+        durations[i] += other.durations[i];
+      }
+    }
+  }
+
+  private final PhaseSummaryStatistics summaryStatistics = new PhaseSummaryStatistics();
+  private final EnumMap<ProfilePhase, PhaseStatistics> phaseStatistics =
+      new EnumMap<>(ProfilePhase.class);
+  private final Optional<CriticalPathStatistics> criticalPathStatistics;
+  private final boolean corruptedOrIncomplete;
+  private final int recordCount;
+
+  // Per phase marker state of the second pass, indexed like the phase tasks.
+  private final List<Task> phaseTasks;
+  private final int[] phaseIds;
+  private final Aggregate[] phaseAggregates;
+  // Statistics of the subtrees of tasks whose record has not been read yet, keyed by task id.
+  private final Map<Integer, Aggregate> pendingParents = new HashMap<>();
+  private long lastRootTaskEnd;
+  private int lastRootTaskId = -1;
+
+  private StreamingProfileStatistics(Path profileFile, InfoListener listener) throws IOException {
+    ProfileInfo markers = ProfileInfo.loadProfile(profileFile, MARKER_TYPES);
+    markers.calculateStats();
+    phaseTasks = markers.phaseTasks;
+    phaseIds = new int[phaseTasks.size()];
+    phaseAggregates = new Aggregate[phaseTasks.size()];
+    EnumMap<ProfilePhase, Integer> phaseIndices = new EnumMap<>(ProfilePhase.class);
+    for (int i = 0; i < phaseTasks.size(); i++) {
+      phaseIds[i] = phaseTasks.get(i).id;
+      ProfilePhase phase = getProfilePhase(phaseTasks.get(i).getDescription());
+      // Like ProfileInfo#getPhaseTask, only the first marker of each phase counts.
+      if (phase != null && !phaseIndices.containsKey(phase)) {
+        phaseIndices.put(phase, i);
+        phaseAggregates[i] = new Aggregate();
+      }
+    }
+
+    try (ProfileRecordReader reader = ProfileRecordReader.open(profileFile)) {
+      int records = 0;
+      while (reader.next()) {
+        records++;
+        addRecord(reader);
+      }
+      recordCount = records;
+      corruptedOrIncomplete = reader.isCorruptedOrIncomplete();
+    }
+    if (corruptedOrIncomplete) {
+      listener.warn("Profile file is incomplete or corrupted - not all records were parsed");
+    }
+    listener.info(markers.comment + ", " + recordCount + " record(s)");
+
+    for (ProfilePhase phase : ProfilePhase.values()) {
+      PhaseStatistics statistics = new PhaseStatistics(phase, false);
+      Integer index = phaseIndices.get(phase);
+      if (index != null) {
+        long phaseDuration = getPhaseDuration(index);
+        Aggregate aggregate = phaseAggregates[index];
+        summaryStatistics.addPhase(phase, phaseDuration);
+        statistics.addPhaseExecution(
+            phaseDuration,
+            phaseDuration + aggregate.otherThreadsDuration,
+            aggregate.counts,
+            aggregate.durations);
+      }
+      phaseStatistics.put(phase, statistics);
+    }
+
+    CriticalPathEntry criticalPath = markers.getCriticalPathNewVersion();
+    criticalPathStatistics =
+        criticalPath != null
+            ? Optional.of(new CriticalPathStatistics(criticalPath))
+            : Optional.<CriticalPathStatistics>absent();
+  }
+
+  /**
+   * Reads the given profile file and computes its statistics.
+   *
+   * @throws java.io.UnsupportedEncodingException if the file format is invalid
+   * @throws IOException if the file can't be read
+   */
+  public static StreamingProfileStatistics create(Path profileFile, InfoListener listener)
+      throws IOException {
+    listener.info("Streaming " + profileFile.getPathString());
+    return new StreamingProfileStatistics(profileFile, listener);
+  }
+
+  public PhaseSummaryStatistics getSummaryStatistics() {
+    return summaryStatistics;
+  }
+
+  public EnumMap<ProfilePhase, PhaseStatistics> getPhaseStatistics() {
+    return phaseStatistics;
+  }
+
+  /**
+   * Returns the statistics of the critical path recorded by the build, if there is one.
+   */
+  public Optional<CriticalPathStatistics> getCriticalPathStatistics() {
+    return criticalPathStatistics;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  public boolean isCorruptedOrIncomplete() {
+    return corruptedOrIncomplete;
+  }
+
+  /**
+   * Folds the current record into the statistics of its parent, or of its phase if it is a root
+   * task. This mirrors {@link ProfileInfo#getStatsForType}, which combines the aggregated
+   * statistics of all tasks of a root task's tree.
+   */
+  private void addRecord(ProfileRecordReader reader) {
+    ProfilerTask type = reader.getType();
+    long duration = reader.getDurationNanos();
+    boolean isRoot = reader.getParentId() == 0;
+    Aggregate subtree = pendingParents.remove(reader.getId());
+
+    Aggregate target;
+    if (isRoot) {
+      int phaseIndex = getPhaseIndex(reader.getId());
+      target = phaseIndex >= 0 ? phaseAggregates[phaseIndex] : null;
+      if (target != null && reader.getThreadId() != phaseTasks.get(phaseIndex).threadId) {
+        target.otherThreadsDuration += duration;
+      }
+      if (reader.getId() > lastRootTaskId) {
+        lastRootTaskId = reader.getId();
+        lastRootTaskEnd = reader.getStartTime() + duration;
+      }
+    } else {
+      target = pendingParents.get(reader.getParentId());
+      if (target == null) {
+        target = new Aggregate();
+        pendingParents.put(reader.getParentId(), target);
+      }
+    }
+
+    if (target != null) {
+      long inheritedDuration = reader.addStats(target.counts, target.durations);
+      if (isRoot) {
+        target.counts[type.ordinal()]++;
+        target.durations[type.ordinal()] += duration - inheritedDuration;
+      } else {
+        // The parent's statistics already account for this task's total duration.
+        target.durations[type.ordinal()] -= inheritedDuration;
+      }
+      if (subtree != null) {
+        target.add(subtree);
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the last phase marker started before the task with the given id, or -1
+   * if the task precedes all phases. Task ids increase with time, so this is the phase the task
+   * was started in.
+   */
+  private int getPhaseIndex(int taskId) {
+    int index = Arrays.binarySearch(phaseIds, taskId);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /**
+   * @see ProfileInfo#getPhaseDuration
+   */
+  private long getPhaseDuration(int phaseIndex) {
+    Task phaseTask = phaseTasks.get(phaseIndex);
+    long duration;
+    if (phaseIndex + 1 < phaseTasks.size()) {
+      duration = phaseTasks.get(phaseIndex + 1).startTime - phaseTask.startTime;
+    } else {
+      duration = lastRootTaskEnd - phaseTask.startTime;
+    }
+    Preconditions.checkState(duration >= 0);
+    return duration;
+  }
+
+  private static ProfilePhase getProfilePhase(String description) {
+    for (ProfilePhase phase : ProfilePhase.values()) {
+      if (phase.description.equals(description)) {
+        return phase;
+      }
+    }
+    return null;
+  }
+}
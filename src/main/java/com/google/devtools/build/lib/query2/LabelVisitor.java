@@ -44,10 +44,13 @@ import com.google.devtools.build.lib.pkgcache.TargetEdgeObserver;
 import com.google.devtools.build.lib.pkgcache.TargetProvider;
 import java.util.Collection;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 /**
  * <p>Visit the transitive closure of a label. Primarily used to "fault in"
@@ -210,12 +213,44 @@ final class LabelVisitor {
     visitedMap.clear();
     visitedTargets.clear();
 
-    Visitor visitor = new Visitor(eventHandler, keepGoing, parallelThreads, maxDepth, observers);
+    if (maxDepth == Integer.MAX_VALUE) {
+      Visitor visitor =
+          new Visitor(eventHandler, keepGoing, parallelThreads, maxDepth, null, observers);
+      return runVisitation(visitor, () -> visitor.visitTargets(visitation.targetsToVisit));
+    }
+
+    // With a depth bound, a target first reached through a long path has to be visited again
+    // when a shorter path to it is found. Visiting one level at a time, each level in parallel,
+    // reaches every target at its minimum depth first, so it is visited exactly once.
+    boolean result = true;
+    Collection<PendingVisit> level = null;
+    do {
+      Queue<PendingVisit> nextLevel = new ConcurrentLinkedQueue<>();
+      Visitor visitor =
+          new Visitor(eventHandler, keepGoing, parallelThreads, maxDepth, nextLevel, observers);
+      Collection<PendingVisit> currentLevel = level;
+      result &=
+          runVisitation(
+              visitor,
+              () -> {
+                if (currentLevel == null) {
+                  visitor.visitTargets(visitation.targetsToVisit);
+                } else {
+                  visitor.visitPending(currentLevel);
+                }
+              });
+      level = nextLevel;
+    } while (!level.isEmpty() && (result || keepGoing));
+    return result;
+  }
 
+  /** Starts the given visitation and waits for it to finish, returning whether it succeeded. */
+  private static boolean runVisitation(Visitor visitor, Visitation visitation)
+      throws InterruptedException {
     Throwable uncaught = null;
     boolean result;
     try {
-      visitor.visitTargets(visitation.targetsToVisit);
+      visitation.start();
     } catch (Throwable t) {
       visitor.stopNewActions();
       uncaught = t;
@@ -227,6 +262,25 @@ final class LabelVisitor {
     return result;
   }
 
+  private interface Visitation {
+    void start() throws InterruptedException;
+  }
+
+  /** An edge to a target of the next level of a level-synchronous visitation. */
+  private static final class PendingVisit {
+    private final Target from;
+    private final Attribute attribute;
+    private final Label label;
+    private final int depth;
+
+    private PendingVisit(Target from, Attribute attribute, Label label, int depth) {
+      this.from = from;
+      this.attribute = attribute;
+      this.label = label;
+      this.depth = depth;
+    }
+  }
+
   boolean hasVisited(Label target) {
     return visitedTargets.containsKey(target);
   }
@@ -241,12 +295,15 @@ final class LabelVisitor {
     private final Iterable<TargetEdgeObserver> observers;
     private final TargetEdgeErrorObserver errorObserver;
     private final AtomicBoolean stopNewActions = new AtomicBoolean(false);
+    // If not null, edges to the next level are added here instead of being followed.
+    @Nullable private final Queue<PendingVisit> nextLevel;
 
     public Visitor(
         ExtendedEventHandler eventHandler,
         boolean keepGoing,
         int parallelThreads,
         int maxDepth,
+        @Nullable Queue<PendingVisit> nextLevel,
         TargetEdgeObserver... observers) {
       // Observing the loading phase of a typical large package (with all subpackages) shows
       // maximum thread-level concurrency of ~20. Limiting the total number of threads to 200 is
@@ -261,6 +318,7 @@ final class LabelVisitor {
           ErrorClassifier.DEFAULT);
       this.eventHandler = eventHandler;
       this.maxDepth = maxDepth;
+      this.nextLevel = nextLevel;
       this.errorObserver = new TargetEdgeErrorObserver();
       ImmutableList.Builder<TargetEdgeObserver> builder = ImmutableList.builder();
       builder.add(observers);
@@ -281,6 +339,13 @@ final class LabelVisitor {
       }
     }
 
+    /** Follows the given edges, which were collected by the visitor of the previous level. */
+    private void visitPending(Iterable<PendingVisit> pendingVisits) {
+      for (PendingVisit pending : pendingVisits) {
+        execute(newVisitRunnable(pending.from, pending.attribute, pending.label, pending.depth, 0));
+      }
+    }
+
     @ThreadSafe
     public boolean finish() throws InterruptedException {
       awaitQuiescence(/*interruptWorkers=*/ true);
@@ -305,6 +370,11 @@ final class LabelVisitor {
         return;
       }
 
+      if (nextLevel != null) {
+        nextLevel.add(new PendingVisit(from, attr, label, depth));
+        return;
+      }
+
       // Avoid thread-related overhead when not crossing packages.
       // Can start a new thread when count reaches 100, to prevent infinite recursion.
       if (from != null && from.getLabel().getPackageFragment() == label.getPackageFragment() &&
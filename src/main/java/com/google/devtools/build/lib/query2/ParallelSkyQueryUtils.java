@@ -43,6 +43,7 @@ import com.google.devtools.build.skyframe.SkyKey;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -80,6 +81,81 @@ class ParallelSkyQueryUtils {
             new AllRdepsUnboundedVisitor.Factory(env, callback, packageSemaphore)));
   }
 
+  /**
+   * Variant of {@link #getAllRdepsUnboundedParallel} that walks the given {@link
+   * TargetGraphIndex} instead of the Skyframe graph. Only the targets in the result are loaded, in
+   * batches of {@link #VISIT_BATCH_SIZE}. The reverse deps of targets that are not in the index are
+   * visited in the Skyframe graph, like {@link #getAllRdepsUnboundedParallel} does.
+   */
+  static QueryTaskFuture<Void> getAllRdepsUnboundedWithIndex(
+      SkyQueryEnvironment env,
+      TargetGraphIndex index,
+      QueryExpression expression,
+      VariableContext<Target> context,
+      Callback<Target> callback,
+      MultisetSemaphore<PackageIdentifier> packageSemaphore) {
+    // Shared by all the batches of targets the expression evaluates to, so that each target is
+    // visited once.
+    TargetGraphIndex.AtomicBitSet visited = index.newAtomicBitSet();
+    Callback<Target> unindexedCallback =
+        ParallelVisitor.createParallelVisitorCallback(
+            new AllRdepsUnboundedVisitor.Factory(env, callback, packageSemaphore));
+    return env.eval(
+        expression,
+        context,
+        targets -> {
+          List<SkyKey> keys = new ArrayList<>();
+          List<Target> unindexedTargets = new ArrayList<>();
+          for (Target target : targets) {
+            SkyKey key = SkyQueryEnvironment.TARGET_TO_SKY_KEY.apply(target);
+            if (index.getId(key) >= 0) {
+              keys.add(key);
+            } else {
+              unindexedTargets.add(target);
+            }
+          }
+          if (!unindexedTargets.isEmpty()) {
+            unindexedCallback.process(unindexedTargets);
+          }
+          int[] closure =
+              index.getReverseTransitiveClosure(
+                  Preconditions.checkNotNull(index.getIds(keys)), visited, Integer.MAX_VALUE);
+          for (int from = 0; from < closure.length; from += VISIT_BATCH_SIZE) {
+            processTargetKeys(
+                env,
+                index.getKeys(closure, from, Math.min(closure.length, from + VISIT_BATCH_SIZE)),
+                callback,
+                packageSemaphore);
+          }
+        });
+  }
+
+  /**
+   * Passes the targets of the given keys to the callback, holding the semaphore permits of their
+   * packages while doing so.
+   */
+  private static void processTargetKeys(
+      SkyQueryEnvironment env,
+      Iterable<SkyKey> keys,
+      Callback<Target> callback,
+      MultisetSemaphore<PackageIdentifier> packageSemaphore)
+      throws QueryException, InterruptedException {
+    Multimap<SkyKey, SkyKey> packageKeyToTargetKeyMap = env.makePackageKeyToTargetKeyMap(keys);
+    Set<PackageIdentifier> pkgIdsNeededForResult =
+        packageKeyToTargetKeyMap
+            .keySet()
+            .stream()
+            .map(SkyQueryEnvironment.PACKAGE_SKYKEY_TO_PACKAGE_IDENTIFIER)
+            .collect(toImmutableSet());
+    packageSemaphore.acquireAll(pkgIdsNeededForResult);
+    try {
+      callback.process(
+          env.makeTargetsFromPackageKeyToTargetKeyMap(packageKeyToTargetKeyMap).values());
+    } finally {
+      packageSemaphore.releaseAll(pkgIdsNeededForResult);
+    }
+  }
+
   /** Specialized parallel variant of {@link SkyQueryEnvironment#getRBuildFiles}. */
   static void getRBuildFilesParallel(
       SkyQueryEnvironment env,
@@ -273,21 +349,7 @@ class ParallelSkyQueryUtils {
     protected void processResultantTargets(
         Iterable<SkyKey> keysToUseForResult, Callback<Target> callback)
             throws QueryException, InterruptedException {
-      Multimap<SkyKey, SkyKey> packageKeyToTargetKeyMap =
-          env.makePackageKeyToTargetKeyMap(keysToUseForResult);
-      Set<PackageIdentifier> pkgIdsNeededForResult =
-          packageKeyToTargetKeyMap
-              .keySet()
-              .stream()
-              .map(SkyQueryEnvironment.PACKAGE_SKYKEY_TO_PACKAGE_IDENTIFIER)
-              .collect(toImmutableSet());
-      packageSemaphore.acquireAll(pkgIdsNeededForResult);
-      try {
-        callback.process(
-            env.makeTargetsFromPackageKeyToTargetKeyMap(packageKeyToTargetKeyMap).values());
-      } finally {
-        packageSemaphore.releaseAll(pkgIdsNeededForResult);
-      }
+      processTargetKeys(env, keysToUseForResult, callback, packageSemaphore);
     }
 
     @Override
@@ -69,6 +69,7 @@ import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.FunctionExpression;
 import com.google.devtools.build.lib.query2.engine.KeyExtractor;
 import com.google.devtools.build.lib.query2.engine.MinDepthUniquifier;
+import com.google.devtools.build.lib.query2.engine.NumberedTargetsQueryEnvironment;
 import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
@@ -110,6 +111,7 @@ import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
@@ -126,6 +128,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * {@link AbstractBlazeQueryEnvironment} that introspects the Skyframe graph to find forward and
@@ -138,7 +141,7 @@ import java.util.logging.Logger;
  * asynchronous evaluation model yields parallel query evaluation.
  */
 public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
-    implements StreamableQueryEnvironment<Target> {
+    implements StreamableQueryEnvironment<Target>, NumberedTargetsQueryEnvironment<Target> {
   // 10k is likely a good balance between using batch efficiently and not blowing up memory.
   // TODO(janakr): Unify with RecursivePackageProviderBackedTargetPatternResolver's constant.
   static final int BATCH_CALLBACK_SIZE = 10000;
@@ -164,6 +167,9 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   private GraphBackedRecursivePackageProvider graphBackedRecursivePackageProvider;
   private ListeningExecutorService executor;
   private RecursivePackageProviderBackedTargetPatternResolver resolver;
+  // Built on first use by #getGraphIndex if Setting.EXPERIMENTAL_GRAPH_INDEX is enabled.
+  @Nullable private volatile TargetGraphIndex graphIndex;
+  private final Object graphIndexLock = new Object();
   private final SkyKey universeKey;
   private final ImmutableList<TargetPatternKey> universeTargetPatternKeys;
 
@@ -420,6 +426,31 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     return super.evaluateQuery(expr, batchCallback);
   }
 
+  /**
+   * Returns the index of the target graph of the universe, or null if {@link
+   * Setting#EXPERIMENTAL_GRAPH_INDEX} is disabled. The index is built by the first traversal that
+   * uses it, so that queries without one don't pay for walking the whole universe.
+   */
+  @Nullable
+  private TargetGraphIndex getGraphIndex() throws InterruptedException {
+    if (!settings.contains(Setting.EXPERIMENTAL_GRAPH_INDEX)) {
+      return null;
+    }
+    TargetGraphIndex index = graphIndex;
+    if (index == null || !index.isIndexOf(graph)) {
+      synchronized (graphIndexLock) {
+        index = graphIndex;
+        if (index == null || !index.isIndexOf(graph)) {
+          try (AutoProfiler p = AutoProfiler.logged("building target graph index", LOG)) {
+            index = TargetGraphIndex.build(this, graph, universeKey);
+          }
+          graphIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
   private Map<SkyKey, Collection<Target>> targetifyValues(
       Map<SkyKey, ? extends Iterable<SkyKey>> input) throws InterruptedException {
     return targetifyValues(
@@ -454,7 +485,7 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     return targetifyValues(graph.getReverseDeps(transitiveTraversalKeys));
   }
 
-  private Set<Label> getAllowedDeps(Rule rule) throws InterruptedException {
+  Set<Label> getAllowedDeps(Rule rule) throws InterruptedException {
     Set<Label> allowedLabels = new HashSet<>(rule.getTransitions(dependencyFilter).values());
     allowedLabels.addAll(rule.getVisibility().getDependencyLabels());
     // We should add deps from aspects, otherwise they are going to be filtered out.
@@ -554,6 +585,17 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   @Override
   public ThreadSafeMutableSet<Target> getTransitiveClosure(ThreadSafeMutableSet<Target> targets)
       throws InterruptedException {
+    TargetGraphIndex index = getGraphIndex();
+    int[] ids = getGraphIndexIds(index, targets);
+    if (ids != null) {
+      ThreadSafeMutableSet<Target> result = createThreadSafeMutableSet();
+      int[] closure = index.getTransitiveClosure(ids, index.newAtomicBitSet());
+      for (int from = 0; from < closure.length; from += BATCH_CALLBACK_SIZE) {
+        int to = Math.min(closure.length, from + BATCH_CALLBACK_SIZE);
+        result.addAll(makeTargetsFromSkyKeys(index.getKeys(closure, from, to)).values());
+      }
+      return result;
+    }
     ThreadSafeMutableSet<Target> visited = createThreadSafeMutableSet();
     ThreadSafeMutableSet<Target> current = targets;
     while (!current.isEmpty()) {
@@ -569,6 +611,21 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   @Override
   public ImmutableList<Target> getNodesOnPath(Target from, Target to)
       throws InterruptedException {
+    TargetGraphIndex index = getGraphIndex();
+    int[] ids = getGraphIndexIds(index, ImmutableList.of(from, to));
+    if (ids != null) {
+      int[] path = index.getPath(ids[0], ids[1]);
+      if (path == null) {
+        return null;
+      }
+      List<SkyKey> keys = index.getKeys(path, 0, path.length);
+      Map<SkyKey, Target> targets = makeTargetsFromSkyKeys(keys);
+      ImmutableList.Builder<Target> targetPathBuilder = ImmutableList.builder();
+      for (SkyKey key : keys) {
+        targetPathBuilder.add(Preconditions.checkNotNull(targets.get(key), key));
+      }
+      return targetPathBuilder.build();
+    }
     // Tree of nodes visited so far.
     Map<Label, Label> nodeToParent = new HashMap<>();
     Map<Label, Target> labelToTarget = new HashMap<>();
@@ -601,6 +658,26 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     return null;
   }
 
+  @Override
+  public boolean hasTargetNumbers() {
+    return settings.contains(Setting.EXPERIMENTAL_GRAPH_INDEX);
+  }
+
+  @Override
+  public int getTargetNumber(Target target) throws InterruptedException {
+    return getGraphIndex().getId(TARGET_TO_SKY_KEY.apply(target));
+  }
+
+  /**
+   * Returns the numbers of the given targets in the graph index, or null if there is no index or
+   * one of the targets is not in it.
+   */
+  @Nullable
+  private static int[] getGraphIndexIds(
+      @Nullable TargetGraphIndex index, Collection<Target> targets) {
+    return index == null ? null : index.getIds(Collections2.transform(targets, TARGET_TO_SKY_KEY));
+  }
+
   private <R> ListenableFuture<R> safeSubmit(Callable<R> callable) {
     try {
       return executor.submit(callable);
@@ -1267,6 +1344,13 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
       QueryExpression expression,
       VariableContext<Target> context,
       Callback<Target> callback) {
+    if (settings.contains(Setting.EXPERIMENTAL_GRAPH_INDEX)) {
+      return transformAsync(
+          executeAsync(this::getGraphIndex),
+          index ->
+              ParallelSkyQueryUtils.getAllRdepsUnboundedWithIndex(
+                  this, index, expression, context, callback, packageSemaphore));
+    }
     return ParallelSkyQueryUtils.getAllRdepsUnboundedParallel(
         this, expression, context, callback, packageSemaphore);
   }
@@ -1297,12 +1381,107 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
       int depth,
       int batchSize) {
     MinDepthUniquifier<Target> minDepthUniquifier = createMinDepthUniquifier();
+    if (settings.contains(Setting.EXPERIMENTAL_GRAPH_INDEX)) {
+      return transformAsync(
+          executeAsync(this::getGraphIndex),
+          index ->
+              eval(
+                  expression,
+                  context,
+                  new IndexedAllRdepsCallback(
+                      index, minDepthUniquifier, universe, callback, depth, batchSize)));
+    }
     return eval(
         expression,
         context,
         new BatchAllRdepsCallback(minDepthUniquifier, universe, callback, depth, batchSize));
   }
 
+  /**
+   * Computes bounded reverse dependencies by walking a {@link TargetGraphIndex}. The reverse
+   * dependencies of targets that are not in the index are computed by a {@link
+   * BatchAllRdepsCallback} instead.
+   */
+  private class IndexedAllRdepsCallback implements Callback<Target> {
+    private final TargetGraphIndex index;
+    private final MinDepthUniquifier<Target> minDepthUniquifier;
+    private final Predicate<Target> universe;
+    private final Callback<Target> callback;
+    private final int depth;
+    private final int batchSize;
+    private final BatchAllRdepsCallback unindexedCallback;
+
+    private IndexedAllRdepsCallback(
+        TargetGraphIndex index,
+        MinDepthUniquifier<Target> minDepthUniquifier,
+        Predicate<Target> universe,
+        Callback<Target> callback,
+        int depth,
+        int batchSize) {
+      this.index = index;
+      this.minDepthUniquifier = minDepthUniquifier;
+      this.universe = universe;
+      this.callback = callback;
+      this.depth = depth;
+      this.batchSize = batchSize;
+      this.unindexedCallback =
+          new BatchAllRdepsCallback(minDepthUniquifier, universe, callback, depth, batchSize);
+    }
+
+    @Override
+    public void process(Iterable<Target> targets) throws QueryException, InterruptedException {
+      List<Target> indexedTargets = new ArrayList<>();
+      List<Target> unindexedTargets = new ArrayList<>();
+      for (Target target : targets) {
+        if (index.getId(TARGET_TO_SKY_KEY.apply(target)) >= 0) {
+          indexedTargets.add(target);
+        } else {
+          unindexedTargets.add(target);
+        }
+      }
+      if (!unindexedTargets.isEmpty()) {
+        unindexedCallback.process(unindexedTargets);
+      }
+      ImmutableList<Target> uniqueTargets =
+          minDepthUniquifier.uniqueAtDepthLessThanOrEqualTo(
+              Iterables.filter(indexedTargets, universe), 0);
+      callback.process(uniqueTargets);
+      int[] frontier = getIndexedIds(uniqueTargets);
+      for (int curDepth = 1; curDepth <= depth && frontier.length > 0; curDepth++) {
+        // Only the targets of the reverse deps are loaded, in batches, since the universe
+        // predicate and the uniquifier work on targets.
+        int[] reverseDeps = index.getReverseDeps(frontier);
+        int[] next = new int[reverseDeps.length];
+        int nextSize = 0;
+        for (int from = 0; from < reverseDeps.length; from += batchSize) {
+          int to = Math.min(reverseDeps.length, from + batchSize);
+          Collection<Target> children =
+              makeTargetsFromSkyKeys(index.getKeys(reverseDeps, from, to)).values();
+          ImmutableList<Target> uniqueChildren =
+              minDepthUniquifier.uniqueAtDepthLessThanOrEqualTo(
+                  Iterables.filter(children, universe), curDepth);
+          callback.process(uniqueChildren);
+          for (int id : getIndexedIds(uniqueChildren)) {
+            next[nextSize++] = id;
+          }
+        }
+        frontier = Arrays.copyOf(next, nextSize);
+      }
+    }
+
+    private int[] getIndexedIds(Collection<Target> targets) {
+      int[] ids = new int[targets.size()];
+      int size = 0;
+      for (Target target : targets) {
+        int id = index.getId(TARGET_TO_SKY_KEY.apply(target));
+        if (id >= 0) {
+          ids[size++] = id;
+        }
+      }
+      return Arrays.copyOf(ids, size);
+    }
+  }
+
   private class BatchAllRdepsCallback implements Callback<Target> {
     private final MinDepthUniquifier<Target> minDepthUniquifier;
     private final Predicate<Target> universe;
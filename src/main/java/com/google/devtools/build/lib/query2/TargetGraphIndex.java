@@ -0,0 +1,398 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.skyframe.SkyFunctions;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.WalkableGraph;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A snapshot of the target-level dependency graph of the universe of a {@link
+ * SkyQueryEnvironment}, in which targets are numbered densely and the edges in both directions are
+ * stored as compressed sparse rows of ints.
+ *
+ * <p>Building the index walks the universe once, targetifying every node to keep only the edges
+ * that {@link SkyQueryEnvironment#getFwdDeps} would keep. Afterwards, traversals such as
+ * {@code allrdeps}, {@code rdeps} or {@code somepath} only touch arrays of ints, and only the
+ * targets of their results are loaded from the graph.
+ */
+@ThreadSafe
+final class TargetGraphIndex {
+
+  /** The functions of the nodes leading from the universe key to the targets it contains. */
+  private static final ImmutableSet<SkyFunctionName> UNIVERSE_FUNCTIONS =
+      ImmutableSet.of(
+          SkyFunctions.PREPARE_DEPS_OF_PATTERNS,
+          SkyFunctions.PREPARE_DEPS_OF_PATTERN,
+          SkyFunctions.PREPARE_DEPS_OF_TARGETS_UNDER_DIRECTORY,
+          SkyFunctions.COLLECT_TARGETS_IN_PACKAGE);
+
+  private final WalkableGraph graph;
+  private final SkyKey[] keys;
+  private final Map<SkyKey, Integer> ids;
+  private final int[] depOffsets;
+  private final int[] deps;
+  private final int[] rdepOffsets;
+  private final int[] rdeps;
+
+  private TargetGraphIndex(
+      WalkableGraph graph,
+      SkyKey[] keys,
+      Map<SkyKey, Integer> ids,
+      int[] depOffsets,
+      int[] deps) {
+    this.graph = graph;
+    this.keys = keys;
+    this.ids = ids;
+    this.depOffsets = depOffsets;
+    this.deps = deps;
+    // Invert the edges: count the reverse deps of every node, turn the counts into offsets, and
+    // fill the rows.
+    this.rdepOffsets = new int[keys.length + 1];
+    for (int dep : deps) {
+      rdepOffsets[dep + 1]++;
+    }
+    for (int i = 0; i < keys.length; i++) {
+      rdepOffsets[i + 1] += rdepOffsets[i];
+    }
+    this.rdeps = new int[deps.length];
+    int[] fill = Arrays.copyOf(rdepOffsets, keys.length);
+    for (int node = 0; node < keys.length; node++) {
+      for (int i = depOffsets[node]; i < depOffsets[node + 1]; i++) {
+        rdeps[fill[deps[i]]++] = node;
+      }
+    }
+  }
+
+  /** Selects the dependency edges of the targets that are kept in the index. */
+  interface DepFilter {
+    /**
+     * Returns, for each of the given keys whose target exists, a predicate that accepts the labels
+     * of the dependencies to keep. The edges of keys without an entry are dropped.
+     */
+    Map<SkyKey, Predicate<Label>> getAllowedDeps(List<SkyKey> keys) throws InterruptedException;
+  }
+
+  /**
+   * Builds the index of the targets that the evaluation of {@code universeKey} visited in {@code
+   * env}'s graph, and of their transitive dependencies.
+   */
+  static TargetGraphIndex build(SkyQueryEnvironment env, WalkableGraph graph, SkyKey universeKey)
+      throws InterruptedException {
+    return build(
+        graph,
+        universeKey,
+        keys -> {
+          Map<SkyKey, Predicate<Label>> result = new HashMap<>();
+          for (Map.Entry<SkyKey, Target> entry : env.makeTargetsFromSkyKeys(keys).entrySet()) {
+            Target target = entry.getValue();
+            result.put(
+                entry.getKey(),
+                target instanceof Rule
+                    ? Predicates.in(env.getAllowedDeps((Rule) target))
+                    : Predicates.<Label>alwaysTrue());
+          }
+          return result;
+        });
+  }
+
+  /**
+   * Builds the index of the targets that the evaluation of {@code universeKey} visited in {@code
+   * graph}, and of their transitive dependencies through the edges accepted by {@code depFilter}.
+   */
+  @VisibleForTesting
+  static TargetGraphIndex build(WalkableGraph graph, SkyKey universeKey, DepFilter depFilter)
+      throws InterruptedException {
+    List<SkyKey> keys = new ArrayList<>();
+    Map<SkyKey, Integer> ids = new HashMap<>();
+
+    // Find the targets of the universe by walking down from the universe key.
+    Set<SkyKey> visited = new HashSet<>();
+    List<SkyKey> toVisit = new ArrayList<>();
+    toVisit.add(universeKey);
+    visited.add(universeKey);
+    while (!toVisit.isEmpty()) {
+      List<SkyKey> next = new ArrayList<>();
+      for (Iterable<SkyKey> children : graph.getDirectDeps(toVisit).values()) {
+        for (SkyKey child : children) {
+          if (SkyQueryEnvironment.SKYKEY_TO_LABEL.apply(child) != null) {
+            addNode(child, keys, ids);
+          } else if (UNIVERSE_FUNCTIONS.contains(child.functionName()) && visited.add(child)) {
+            next.add(child);
+          }
+        }
+      }
+      toVisit = next;
+    }
+
+    // Number the transitive dependencies of those targets in breadth-first order, and record the
+    // dependencies of each node as soon as it is visited, in the order of the numbering.
+    int[] depOffsets = new int[16];
+    int[] deps = new int[64];
+    int edgeCount = 0;
+    for (int start = 0; start < keys.size(); ) {
+      int end = Math.min(keys.size(), start + SkyQueryEnvironment.BATCH_CALLBACK_SIZE);
+      // Copied, since visiting the batch appends to keys.
+      List<SkyKey> batch = new ArrayList<>(keys.subList(start, end));
+      Map<SkyKey, Iterable<SkyKey>> directDeps = graph.getDirectDeps(batch);
+      Map<SkyKey, Predicate<Label>> allowedDeps = depFilter.getAllowedDeps(batch);
+      for (int node = start; node < end; node++) {
+        SkyKey key = keys.get(node);
+        Iterable<SkyKey> children = directDeps.get(key);
+        Predicate<Label> isAllowed = allowedDeps.get(key);
+        if (children != null && isAllowed != null) {
+          for (SkyKey child : children) {
+            Label label = SkyQueryEnvironment.SKYKEY_TO_LABEL.apply(child);
+            if (label == null || !isAllowed.apply(label)) {
+              continue;
+            }
+            if (edgeCount == deps.length) {
+              deps = Arrays.copyOf(deps, deps.length * 2);
+            }
+            deps[edgeCount++] = addNode(child, keys, ids);
+          }
+        }
+        if (node + 1 >= depOffsets.length) {
+          depOffsets = Arrays.copyOf(depOffsets, Math.max(depOffsets.length * 2, node + 2));
+        }
+        depOffsets[node + 1] = edgeCount;
+      }
+      start = end;
+    }
+    return new TargetGraphIndex(
+        graph,
+        keys.toArray(new SkyKey[0]),
+        ids,
+        Arrays.copyOf(depOffsets, keys.size() + 1),
+        Arrays.copyOf(deps, edgeCount));
+  }
+
+  private static int addNode(SkyKey key, List<SkyKey> keys, Map<SkyKey, Integer> ids) {
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = keys.size();
+      ids.put(key, id);
+      keys.add(key);
+    }
+    return id;
+  }
+
+  /** Returns whether this index was built from the given graph. */
+  boolean isIndexOf(WalkableGraph graph) {
+    return this.graph == graph;
+  }
+
+  /** Returns the number of targets in the index. */
+  int size() {
+    return keys.length;
+  }
+
+  /** Returns the number of the target with the given key, or -1 if it is not in the universe. */
+  int getId(SkyKey key) {
+    Integer id = ids.get(key);
+    return id == null ? -1 : id;
+  }
+
+  /** Returns the key of the given target. */
+  SkyKey getKey(int id) {
+    return keys[id];
+  }
+
+  /** Returns the keys of the given targets. */
+  List<SkyKey> getKeys(int[] ids, int from, int to) {
+    List<SkyKey> result = new ArrayList<>(to - from);
+    for (int i = from; i < to; i++) {
+      result.add(keys[ids[i]]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the numbers of the targets with the given keys, or null if any of them is not in the
+   * universe.
+   */
+  int[] getIds(Collection<SkyKey> keys) {
+    int[] result = new int[keys.size()];
+    int i = 0;
+    for (SkyKey key : keys) {
+      int id = getId(key);
+      if (id < 0) {
+        return null;
+      }
+      result[i++] = id;
+    }
+    return result;
+  }
+
+  /**
+   * Adds the targets reachable from {@code from} by following {@code depth} reverse edges or
+   * fewer to {@code visited}, and returns those that were not in it already, in breadth-first
+   * order.
+   */
+  int[] getReverseTransitiveClosure(int[] from, AtomicBitSet visited, int depth) {
+    return visit(from, visited, depth, rdepOffsets, rdeps);
+  }
+
+  /**
+   * Adds the targets reachable from {@code from} by following dependency edges to {@code
+   * visited}, and returns those that were not in it already.
+   */
+  int[] getTransitiveClosure(int[] from, AtomicBitSet visited) {
+    return visit(from, visited, Integer.MAX_VALUE, depOffsets, deps);
+  }
+
+  /** Returns the targets that depend directly on one of the given ones, without duplicates. */
+  int[] getReverseDeps(int[] from) {
+    BitSet seen = new BitSet(keys.length);
+    IntList result = new IntList();
+    for (int node : from) {
+      for (int i = rdepOffsets[node]; i < rdepOffsets[node + 1]; i++) {
+        if (!seen.get(rdeps[i])) {
+          seen.set(rdeps[i]);
+          result.add(rdeps[i]);
+        }
+      }
+    }
+    return result.toArray();
+  }
+
+  /**
+   * Returns the targets of a shortest dependency path from {@code from} to {@code to}, both
+   * included, or null if there is none.
+   */
+  int[] getPath(int from, int to) {
+    int[] parent = new int[keys.length];
+    Arrays.fill(parent, -1);
+    parent[from] = from;
+    IntList queue = new IntList();
+    queue.add(from);
+    for (int head = 0; head < queue.size && parent[to] < 0; head++) {
+      int node = queue.elements[head];
+      for (int i = depOffsets[node]; i < depOffsets[node + 1]; i++) {
+        if (parent[deps[i]] < 0) {
+          parent[deps[i]] = node;
+          queue.add(deps[i]);
+        }
+      }
+    }
+    if (parent[to] < 0) {
+      return null;
+    }
+    IntList path = new IntList();
+    for (int node = to; node != from; node = parent[node]) {
+      path.add(node);
+    }
+    path.add(from);
+    int[] result = path.toArray();
+    for (int i = 0, j = result.length - 1; i < j; i++, j--) {
+      int tmp = result[i];
+      result[i] = result[j];
+      result[j] = tmp;
+    }
+    return result;
+  }
+
+  private static int[] visit(
+      int[] from, AtomicBitSet visited, int depth, int[] offsets, int[] edges) {
+    IntList result = new IntList();
+    for (int node : from) {
+      if (visited.add(node)) {
+        result.add(node);
+      }
+    }
+    int levelStart = 0;
+    for (int level = 0; level < depth && levelStart < result.size; level++) {
+      int levelEnd = result.size;
+      for (int n = levelStart; n < levelEnd; n++) {
+        int node = result.elements[n];
+        for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+          if (visited.add(edges[i])) {
+            result.add(edges[i]);
+          }
+        }
+      }
+      levelStart = levelEnd;
+    }
+    return result.toArray();
+  }
+
+  /** Returns a set able to hold the numbers of all the targets of this index. */
+  AtomicBitSet newAtomicBitSet() {
+    return new AtomicBitSet(keys.length);
+  }
+
+  /**
+   * A thread-safe set of target numbers, used to visit each target of the index once even when
+   * several visitations run concurrently.
+   */
+  @ThreadSafe
+  static final class AtomicBitSet {
+    private final AtomicLongArray words;
+
+    private AtomicBitSet(int size) {
+      this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /** Adds {@code id} to the set, and returns whether it was not in it already. */
+    boolean add(int id) {
+      int word = id >>> 6;
+      long bit = 1L << id;
+      while (true) {
+        long current = words.get(word);
+        if ((current & bit) != 0) {
+          return false;
+        }
+        if (words.compareAndSet(word, current, current | bit)) {
+          return true;
+        }
+      }
+    }
+  }
+
+  /** A growable array of ints. */
+  private static final class IntList {
+    int[] elements = new int[16];
+    int size;
+
+    void add(int value) {
+      if (size == elements.length) {
+        elements = Arrays.copyOf(elements, size * 2);
+      }
+      elements[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(elements, size);
+    }
+  }
+}
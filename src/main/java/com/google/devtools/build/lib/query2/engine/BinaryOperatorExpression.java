@@ -64,10 +64,16 @@ public class BinaryOperatorExpression extends QueryExpression {
         return evalPlus(operands, env, context, callback);
       case MINUS:
       case EXCEPT:
-        return evalMinus(operands, env, context, callback);
+        return hasTargetNumbers(env)
+            ? evalMinusWithNumberedTargets(
+                operands, (NumberedTargetsQueryEnvironment<T>) env, context, callback)
+            : evalMinus(operands, env, context, callback);
       case INTERSECT:
       case CARET:
-        return evalIntersect(env, context, callback);
+        return hasTargetNumbers(env)
+            ? evalIntersectWithNumberedTargets(
+                (NumberedTargetsQueryEnvironment<T>) env, context, callback)
+            : evalIntersect(env, context, callback);
       default:
         throw new IllegalStateException(operator.toString());
     }
@@ -129,6 +135,80 @@ public class BinaryOperatorExpression extends QueryExpression {
     return env.transformAsync(lhsValueFuture, subtractAsyncFunction);
   }
 
+  private static boolean hasTargetNumbers(QueryEnvironment<?> env) {
+    return env instanceof NumberedTargetsQueryEnvironment<?>
+        && ((NumberedTargetsQueryEnvironment<?>) env).hasTargetNumbers();
+  }
+
+  /**
+   * Variant of {@link #evalMinus} that collects the right-hand side operands into a bitmap of
+   * target numbers and then streams the left-hand side operand through it, so that no operand is
+   * ever held as a set of targets.
+   */
+  private static <T> QueryTaskFuture<Void> evalMinusWithNumberedTargets(
+      ImmutableList<QueryExpression> operands,
+      NumberedTargetsQueryEnvironment<T> env,
+      VariableContext<T> context,
+      Callback<T> callback) {
+    NumberedTargetSet<T> rhsValue = new NumberedTargetSet<>(env);
+    QueryTaskFuture<Void> rhsEvaluatedFuture =
+        evalPlus(operands.subList(1, operands.size()), env, context, rhsValue);
+    return env.transformAsync(
+        rhsEvaluatedFuture,
+        unused -> {
+          rhsValue.finish();
+          return env.eval(
+              operands.get(0),
+              context,
+              partialResult -> {
+                List<T> result = new ArrayList<>();
+                for (T target : partialResult) {
+                  if (!rhsValue.contains(target)) {
+                    result.add(target);
+                  }
+                }
+                callback.process(result);
+              });
+        });
+  }
+
+  /**
+   * Variant of {@link #evalIntersect} that evaluates all the right-hand side operands in parallel
+   * into bitmaps of target numbers, intersects them, and then streams the left-hand side operand
+   * through the result.
+   */
+  private <T> QueryTaskFuture<Void> evalIntersectWithNumberedTargets(
+      NumberedTargetsQueryEnvironment<T> env, VariableContext<T> context, Callback<T> callback) {
+    List<NumberedTargetSet<T>> rhsValues = new ArrayList<>(operands.size() - 1);
+    List<QueryTaskFuture<Void>> rhsEvaluatedFutures = new ArrayList<>(operands.size() - 1);
+    for (QueryExpression operand : operands.subList(1, operands.size())) {
+      NumberedTargetSet<T> rhsValue = new NumberedTargetSet<>(env);
+      rhsValues.add(rhsValue);
+      rhsEvaluatedFutures.add(env.eval(operand, context, rhsValue));
+    }
+    return env.transformAsync(
+        env.whenAllSucceed(rhsEvaluatedFutures),
+        unused -> {
+          NumberedTargetSet<T> rhsValue = rhsValues.get(0);
+          for (NumberedTargetSet<T> otherRhsValue : rhsValues.subList(1, rhsValues.size())) {
+            rhsValue.retainAll(otherRhsValue);
+          }
+          rhsValue.finish();
+          return env.eval(
+              operands.get(0),
+              context,
+              partialResult -> {
+                List<T> result = new ArrayList<>();
+                for (T target : partialResult) {
+                  if (rhsValue.contains(target)) {
+                    result.add(target);
+                  }
+                }
+                callback.process(result);
+              });
+        });
+  }
+
   private <T> QueryTaskFuture<Void> evalIntersect(
       final QueryEnvironment<T> env,
       final VariableContext<T> context,
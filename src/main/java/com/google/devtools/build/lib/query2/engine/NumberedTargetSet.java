@@ -0,0 +1,83 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import com.google.devtools.build.lib.collect.CompressedBitmap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ThreadSafeMutableSet;
+import com.google.devtools.build.lib.util.Preconditions;
+import javax.annotation.Nullable;
+
+/**
+ * A set of targets that only supports membership tests, filled as a {@link Callback}. The targets
+ * with a number in a {@link NumberedTargetsQueryEnvironment} are stored as a bitmap of their
+ * numbers; only the few others are kept as targets.
+ *
+ * <p>Once filled, the set must be {@linkplain #finish finished} before testing membership. The
+ * bitmap doesn't change after that, so {@link #contains} reads it without locking.
+ */
+@ThreadSafe
+final class NumberedTargetSet<T> implements Callback<T> {
+  private final NumberedTargetsQueryEnvironment<T> env;
+  /** The numbers added while the set is filled, guarded by itself. */
+  private final CompressedBitmap numbers = new CompressedBitmap();
+  /** {@link #numbers}, published by {@link #finish}. */
+  @Nullable private volatile CompressedBitmap finishedNumbers;
+  private final ThreadSafeMutableSet<T> unnumberedTargets;
+
+  NumberedTargetSet(NumberedTargetsQueryEnvironment<T> env) {
+    this.env = env;
+    this.unnumberedTargets = env.createThreadSafeMutableSet();
+  }
+
+  @Override
+  public void process(Iterable<T> partialResult) throws InterruptedException {
+    Preconditions.checkState(finishedNumbers == null, "Set already finished");
+    for (T target : partialResult) {
+      int number = env.getTargetNumber(target);
+      if (number < 0) {
+        unnumberedTargets.add(target);
+      } else {
+        synchronized (numbers) {
+          numbers.add(number);
+        }
+      }
+    }
+  }
+
+  /** Removes from this set the targets not in {@code other}. Both sets must not be finished. */
+  void retainAll(NumberedTargetSet<T> other) {
+    synchronized (numbers) {
+      synchronized (other.numbers) {
+        numbers.and(other.numbers);
+      }
+    }
+    unnumberedTargets.retainAll(other.unnumberedTargets);
+  }
+
+  /** Ends the filling of this set. Must be called once all targets were added. */
+  void finish() {
+    synchronized (numbers) {
+      finishedNumbers = numbers;
+    }
+  }
+
+  boolean contains(T target) throws InterruptedException {
+    int number = env.getTargetNumber(target);
+    if (number < 0) {
+      return unnumberedTargets.contains(target);
+    }
+    return finishedNumbers.contains(number);
+  }
+}
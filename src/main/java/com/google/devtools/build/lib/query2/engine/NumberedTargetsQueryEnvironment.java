@@ -0,0 +1,32 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+/**
+ * The environment of a Blaze query which numbers the targets of its universe densely, so that
+ * large sets of them can be stored as bitmaps of their numbers instead of as sets of targets.
+ *
+ * @param <T> the node type of the dependency graph
+ */
+public interface NumberedTargetsQueryEnvironment<T> extends QueryEnvironment<T> {
+
+  /** Returns whether targets are numbered. */
+  boolean hasTargetNumbers();
+
+  /**
+   * Returns the non-negative number of the given target, or -1 if it has none, e.g. because it is
+   * not in the universe. May number the targets of the universe on first use.
+   */
+  int getTargetNumber(T target) throws InterruptedException;
+}
@@ -446,7 +446,14 @@ public interface QueryEnvironment<T> {
     /**
      * Do not consider nodep attributes when traversing dependency edges.
      */
-    NO_NODEP_DEPS;
+    NO_NODEP_DEPS,
+
+    /**
+     * Evaluate the dependency traversals of a {@code SkyQueryEnvironment} on an index of the
+     * target graph of its universe, built by the first traversal of the query that uses it.
+     * Ignored by other environments.
+     */
+    EXPERIMENTAL_GRAPH_INDEX;
   }
 
   /**
@@ -265,13 +265,13 @@ public final class QueryUtil {
         AtomicInteger previousDepth =
             alreadySeenAtDepth.putIfAbsent(extractor.extractKey(element), newDepth);
         if (previousDepth != null) {
-          if (depth < previousDepth.get()) {
-            synchronized (previousDepth) {
-              if (depth < previousDepth.get()) {
-                // We've seen the element before, but never at a depth this shallow.
-                previousDepth.set(depth);
-                result.add(element);
-              }
+          for (int seenDepth = previousDepth.get();
+              depth < seenDepth;
+              seenDepth = previousDepth.get()) {
+            if (previousDepth.compareAndSet(seenDepth, depth)) {
+              // We've seen the element before, but never at a depth this shallow.
+              result.add(element);
+              break;
             }
           }
         } else {
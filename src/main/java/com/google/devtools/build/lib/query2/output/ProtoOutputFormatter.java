@@ -21,11 +21,17 @@ import static com.google.devtools.build.lib.query2.proto.proto2api.Build.Target.
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.graph.Digraph;
 import com.google.devtools.build.lib.packages.Attribute;
@@ -48,18 +54,22 @@ import com.google.devtools.build.lib.query2.output.OutputFormatter.AbstractUnord
 import com.google.devtools.build.lib.query2.output.QueryOptions.OrderOutput;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build.GeneratedFile;
-import com.google.devtools.build.lib.query2.proto.proto2api.Build.QueryResult.Builder;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build.SourceFile;
 import com.google.devtools.build.lib.syntax.Environment;
 import com.google.devtools.build.lib.syntax.Type;
+import com.google.protobuf.CodedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import javax.annotation.Nullable;
 
 /**
@@ -81,6 +91,12 @@ public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
           Type.INTEGER, Type.STRING, BuildType.LABEL, BuildType.NODEP_LABEL, BuildType.OUTPUT,
           Type.BOOLEAN, BuildType.TRISTATE, BuildType.LICENSE);
 
+  /** The number of threads converting large batches of targets to protos. */
+  private static final int CONVERSION_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /** Batches smaller than this are converted by the thread processing them. */
+  private static final int MIN_PARALLEL_CONVERSION_SIZE = 256;
+
   private boolean relativeLocations = false;
   protected boolean includeDefaultValues = true;
 
@@ -105,27 +121,78 @@ public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
       final OutputStream out, final QueryOptions options) {
     return new OutputFormatterCallback<Target>() {
 
-      private Builder queryResult;
+      private CodedOutputStream codedOut;
+      private ListeningExecutorService executor;
 
       @Override
       public void start() {
-        queryResult = Build.QueryResult.newBuilder();
+        codedOut = CodedOutputStream.newInstance(out);
+        executor =
+            MoreExecutors.listeningDecorator(
+                Executors.newFixedThreadPool(
+                    CONVERSION_THREADS,
+                    new ThreadFactoryBuilder()
+                        .setNameFormat("proto-output %d")
+                        .setDaemon(true)
+                        .build()));
       }
 
       @Override
       public void processOutput(Iterable<Target> partialResult)
           throws IOException, InterruptedException {
-
-        for (Target target : partialResult) {
-          queryResult.addTarget(toTargetProtoBuffer(target));
+        // Each target is written as an element of the repeated QueryResult.target field as soon
+        // as it is converted, so that the concatenated output parses as a single QueryResult
+        // without it ever being held in memory.
+        for (Build.Target targetPb : toTargetProtoBuffers(ImmutableList.copyOf(partialResult))) {
+          codedOut.writeMessage(Build.QueryResult.TARGET_FIELD_NUMBER, targetPb);
         }
+        codedOut.flush();
       }
 
       @Override
       public void close(boolean failFast) throws IOException {
+        executor.shutdownNow();
         if (!failFast) {
-          queryResult.build().writeTo(out);
+          codedOut.flush();
+        }
+      }
+
+      /**
+       * Converts the given targets, in order. Large batches are split into chunks converted
+       * concurrently.
+       */
+      private List<Build.Target> toTargetProtoBuffers(List<Target> targets)
+          throws InterruptedException {
+        if (targets.size() < MIN_PARALLEL_CONVERSION_SIZE) {
+          return convert(targets);
+        }
+        int chunkSize = (targets.size() + CONVERSION_THREADS - 1) / CONVERSION_THREADS;
+        List<ListenableFuture<List<Build.Target>>> futures = new ArrayList<>();
+        for (List<Target> chunk : Lists.partition(targets, chunkSize)) {
+          futures.add(executor.submit(() -> convert(chunk)));
+        }
+        List<Build.Target> result = new ArrayList<>(targets.size());
+        try {
+          for (ListenableFuture<List<Build.Target>> future : futures) {
+            result.addAll(future.get());
+          }
+        } catch (ExecutionException e) {
+          Throwables.propagateIfPossible(e.getCause(), InterruptedException.class);
+          throw new IllegalStateException(e);
+        } finally {
+          for (ListenableFuture<List<Build.Target>> future : futures) {
+            future.cancel(/*mayInterruptIfRunning=*/ true);
+          }
+        }
+        return result;
+      }
+
+      private List<Build.Target> convert(List<Target> targets) throws InterruptedException {
+        List<Build.Target> result = new ArrayList<>(targets.size());
+        for (Target target : targets) {
+          result.add(toTargetProtoBuffer(target));
         }
+        return result;
       }
     };
   }
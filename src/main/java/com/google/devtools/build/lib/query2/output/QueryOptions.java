@@ -271,6 +271,19 @@ public class QueryOptions extends OptionsBase {
   )
   public List<String> universeScope;
 
+  @Option(
+    name = "experimental_graph_index",
+    defaultValue = "false",
+    category = "query",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "If true, queries with --universe_scope first snapshot the target graph of the universe "
+            + "into a compact index, and evaluate rdeps, allrdeps, somepath and the transitive "
+            + "closures they need on it."
+  )
+  public boolean useGraphIndex;
+
   @Option(
     name = "relative_locations",
     defaultValue = "false",
@@ -338,6 +351,9 @@ public class QueryOptions extends OptionsBase {
     if (!includeImplicitDeps) {
       settings.add(Setting.NO_IMPLICIT_DEPS);
     }
+    if (useGraphIndex) {
+      settings.add(Setting.EXPERIMENTAL_GRAPH_INDEX);
+    }
     return settings;
   }
 }
@@ -36,10 +36,12 @@ import com.google.devtools.build.lib.query2.output.OutputFormatter.AbstractUnord
 import com.google.devtools.build.lib.syntax.Type;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
@@ -57,6 +59,11 @@ import org.w3c.dom.Element;
  * An output formatter that prints the result as XML.
  */
 class XmlOutputFormatter extends AbstractUnorderedFormatter {
+  private static final byte[] XML_HEADER =
+      "<?xml version=\"1.1\" encoding=\"UTF-8\" standalone=\"no\"?>\n<query version=\"2\">\n"
+          .getBytes(StandardCharsets.UTF_8);
+  private static final byte[] XML_FOOTER = "</query>\n".getBytes(StandardCharsets.UTF_8);
+
   @Override
   public String getName() {
     return "xml";
@@ -72,45 +79,53 @@ class XmlOutputFormatter extends AbstractUnorderedFormatter {
   @Override
   public OutputFormatterCallback<Target> createPostFactoStreamCallback(
       final OutputStream out, final QueryOptions options) {
+    // The <query> element is written by hand around the target elements, each of which is built
+    // and serialized on its own as it arrives, so that the whole document is never in memory.
     return new OutputFormatterCallback<Target>() {
 
-      private Document doc;
-      private Element queryElem;
+      private DocumentBuilder documentBuilder;
+      private Transformer transformer;
 
       @Override
-      public void start() {
+      public void start() throws IOException {
         try {
-          DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-          doc = factory.newDocumentBuilder().newDocument();
-        } catch (ParserConfigurationException e) {
+          documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+          transformer = TransformerFactory.newInstance().newTransformer();
+        } catch (ParserConfigurationException
+            | TransformerFactoryConfigurationError
+            | TransformerException e) {
           // This shouldn't be possible: all the configuration is hard-coded.
           throw new IllegalStateException("XML output failed", e);
         }
-        doc.setXmlVersion("1.1");
-        queryElem = doc.createElement("query");
-        queryElem.setAttribute("version", "2");
-        doc.appendChild(queryElem);
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.VERSION, "1.1");
+        out.write(XML_HEADER);
       }
 
       @Override
       public void processOutput(Iterable<Target> partialResult)
           throws IOException, InterruptedException {
+        // A fresh document per batch, so that the elements of earlier batches can be collected.
+        Document doc = documentBuilder.newDocument();
+        doc.setXmlVersion("1.1");
         for (Target target : partialResult) {
-          queryElem.appendChild(createTargetElement(doc, target));
+          try {
+            transformer.transform(
+                new DOMSource(createTargetElement(doc, target)), new StreamResult(out));
+          } catch (TransformerException e) {
+            // This shouldn't be possible: all the configuration is hard-coded.
+            throw new IllegalStateException("XML output failed", e);
+          }
         }
+        out.flush();
       }
 
       @Override
       public void close(boolean failFast) throws IOException {
         if (!failFast) {
-          try {
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.transform(new DOMSource(doc), new StreamResult(out));
-          } catch (TransformerFactoryConfigurationError | TransformerException e) {
-            // This shouldn't be possible: all the configuration is hard-coded.
-            throw new IllegalStateException("XML output failed", e);
-          }
+          out.write(XML_FOOTER);
+          out.flush();
         }
       }
     };
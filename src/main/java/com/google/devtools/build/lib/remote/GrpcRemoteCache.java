@@ -27,6 +27,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import com.google.devtools.build.lib.remote.Digests.ActionKey;
 import com.google.devtools.build.lib.remote.TreeNodeRepository.TreeNode;
 import com.google.devtools.build.lib.util.Preconditions;
@@ -68,6 +69,20 @@ import java.util.concurrent.TimeUnit;
 /** A RemoteActionCache implementation that uses gRPC calls to a remote cache server. */
 @ThreadSafe
 public class GrpcRemoteCache implements RemoteActionCache {
+  private static final MetricsRegistry.Counter uploadedBytes =
+      MetricsRegistry.instance()
+          .counter("remote_cache_uploaded_bytes", "Bytes of blobs uploaded to the remote cache.");
+  private static final MetricsRegistry.Counter downloadedBytes =
+      MetricsRegistry.instance()
+          .counter(
+              "remote_cache_downloaded_bytes", "Bytes of blobs downloaded from the remote cache.");
+  private static final MetricsRegistry.Counter actionCacheHits =
+      MetricsRegistry.instance()
+          .counter("remote_action_cache_hits", "Action results found in the remote cache.");
+  private static final MetricsRegistry.Counter actionCacheMisses =
+      MetricsRegistry.instance()
+          .counter("remote_action_cache_misses", "Action results not found in the remote cache.");
+
   private final RemoteOptions options;
   private final ChannelOptions channelOptions;
   private final Channel channel;
@@ -181,6 +196,16 @@ public class GrpcRemoteCache implements RemoteActionCache {
       }
       uploader.uploadBlobs(inputsToUpload);
     }
+    // Only counted once uploaded, so that failed uploads are not reported.
+    uploadedBytes.add(totalSize(missingDigests));
+  }
+
+  private static long totalSize(Iterable<Digest> digests) {
+    long size = 0;
+    for (Digest digest : digests) {
+      size += digest.getSizeBytes();
+    }
+    return size;
   }
 
   /**
@@ -210,6 +235,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
           try (OutputStream stream = path.getOutputStream()) {
             file.getContent().writeTo(stream);
           }
+          downloadedBytes.add(file.getContent().size());
         } else {
           try {
             retrier.execute(
@@ -231,6 +257,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
             Throwables.throwIfInstanceOf(e.getCause(), CacheNotFoundException.class);
             throw e;
           }
+          downloadedBytes.add(digest.getSizeBytes());
         }
       }
       path.setExecutable(file.getIsExecutable());
@@ -245,6 +272,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
   private void downloadOutErr(ActionResult result, FileOutErr outErr)
       throws IOException, InterruptedException, CacheNotFoundException {
     if (!result.getStdoutRaw().isEmpty()) {
+      downloadedBytes.add(result.getStdoutRaw().size());
       result.getStdoutRaw().writeTo(outErr.getOutputStream());
       outErr.getOutputStream().flush();
     } else if (result.hasStdoutDigest()) {
@@ -253,6 +281,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
       outErr.getOutputStream().flush();
     }
     if (!result.getStderrRaw().isEmpty()) {
+      downloadedBytes.add(result.getStderrRaw().size());
       result.getStderrRaw().writeTo(outErr.getErrorStream());
       outErr.getErrorStream().flush();
     } else if (result.hasStderrDigest()) {
@@ -351,6 +380,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
     }
     if (!filesToUpload.isEmpty()) {
       uploader.uploadBlobs(filesToUpload);
+      uploadedBytes.add(totalSize(digestsToUpload));
     }
 
     // TODO(olaola): inline small stdout/stderr here.
@@ -375,6 +405,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
     ImmutableSet<Digest> missing = getMissingDigests(ImmutableList.of(digest));
     if (!missing.isEmpty()) {
       uploader.uploadBlob(new Chunker(file));
+      uploadedBytes.add(digest.getSizeBytes());
     }
     return digest;
   }
@@ -391,6 +422,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
     ImmutableSet<Digest> missing = getMissingDigests(ImmutableList.of(digest));
     if (!missing.isEmpty()) {
       uploader.uploadBlob(new Chunker(input, inputCache, execRoot));
+      uploadedBytes.add(digest.getSizeBytes());
     }
     return digest;
   }
@@ -400,6 +432,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
     ImmutableSet<Digest> missing = getMissingDigests(ImmutableList.of(digest));
     if (!missing.isEmpty()) {
       uploader.uploadBlob(new Chunker(blob));
+      uploadedBytes.add(digest.getSizeBytes());
     }
     return digest;
   }
@@ -427,6 +460,7 @@ public class GrpcRemoteCache implements RemoteActionCache {
       Throwables.throwIfInstanceOf(e.getCause(), CacheNotFoundException.class);
       throw e;
     }
+    downloadedBytes.add(digest.getSizeBytes());
     return result;
   }
 
@@ -436,16 +470,20 @@ public class GrpcRemoteCache implements RemoteActionCache {
   public ActionResult getCachedActionResult(ActionKey actionKey)
       throws IOException, InterruptedException {
     try {
-      return retrier.execute(
-          () ->
-              acBlockingStub()
-                  .getActionResult(
-                      GetActionResultRequest.newBuilder()
-                          .setInstanceName(options.remoteInstanceName)
-                          .setActionDigest(actionKey.getDigest())
-                          .build()));
+      ActionResult result =
+          retrier.execute(
+              () ->
+                  acBlockingStub()
+                      .getActionResult(
+                          GetActionResultRequest.newBuilder()
+                              .setInstanceName(options.remoteInstanceName)
+                              .setActionDigest(actionKey.getDigest())
+                              .build()));
+      actionCacheHits.increment();
+      return result;
     } catch (RetryException e) {
       if (e.causedByStatusCode(Status.Code.NOT_FOUND)) {
+        actionCacheMisses.increment();
         // Return null to indicate that it was a cache miss.
         return null;
       }
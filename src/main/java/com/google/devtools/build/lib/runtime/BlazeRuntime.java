@@ -38,6 +38,7 @@ import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.MemoryProfiler;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import com.google.devtools.build.lib.profiler.ProfilePhase;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.Profiler.ProfiledTaskKinds;
@@ -55,6 +56,7 @@ import com.google.devtools.build.lib.server.signal.InterruptSignalHandler;
 import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
 import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.syntax.SkylarkCpuProfiler;
 import com.google.devtools.build.lib.unix.UnixFileSystem;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.BlazeClock;
@@ -86,6 +88,7 @@ import com.google.devtools.common.options.TriState;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -136,6 +139,8 @@ public final class BlazeRuntime {
   private final ImmutableList<OutputFormatter> queryOutputFormatters;
 
   private final AtomicInteger storedExitCode = new AtomicInteger();
+  // The build metrics of the previous command, saved before they are reset for the current one.
+  private volatile MetricsRegistry.Snapshot previousCommandMetrics;
 
   // We pass this through here to make it available to the MasterLogWriter.
   private final OptionsProvider startupOptionsProvider;
@@ -364,6 +369,8 @@ public final class BlazeRuntime {
    */
   void beforeCommand(CommandEnvironment env, CommonCommandOptions options, long execStartTimeNanos)
       throws AbruptExitException {
+    startMetrics();
+
     // Conditionally enable profiling
     // We need to compensate for launchTimeNanos (measurements taken outside of the jvm).
     long startupTimeNanos = options.startupTime * 1000000L;
@@ -389,10 +396,53 @@ public final class BlazeRuntime {
       }
     }
 
+    if (options.skylarkCpuProfilePath != null) {
+      Path skylarkCpuProfilePath =
+          env.getWorkingDirectory().getRelative(options.skylarkCpuProfilePath);
+      try {
+        SkylarkCpuProfiler.start(
+            skylarkCpuProfilePath.getOutputStream(), options.skylarkCpuProfilePeriodMillis);
+      } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+        env.getReporter().handle(
+            Event.error("Error while starting the Skylark CPU profiler: " + e.getMessage()));
+      }
+    }
+
     // Initialize exit code to dummy value for afterCommand.
     storedExitCode.set(ExitCode.RESERVED.getNumericExitCode());
   }
 
+  /**
+   * Clears the values of the build metrics recorded by the previous command, and starts measuring
+   * the garbage collections of this one.
+   */
+  private void startMetrics() {
+    MetricsRegistry metrics = MetricsRegistry.instance();
+    previousCommandMetrics = metrics.snapshot();
+    metrics.reset();
+    GCStatsRecorder gcStats = new GCStatsRecorder(ManagementFactory.getGarbageCollectorMXBeans());
+    metrics.registerGauge(
+        "gc_collections",
+        "Garbage collections since the beginning of the command.",
+        () -> {
+          long collections = 0;
+          for (GCStatsRecorder.GCStat stat : gcStats.getCurrentGcStats()) {
+            collections += stat.getNumCollections();
+          }
+          return collections;
+        });
+    metrics.registerGauge(
+        "gc_time_millis",
+        "Time spent in garbage collection since the beginning of the command, in milliseconds.",
+        () -> {
+          long millis = 0;
+          for (GCStatsRecorder.GCStat stat : gcStats.getCurrentGcStats()) {
+            millis += stat.getTotalTimeInMs();
+          }
+          return millis;
+        });
+  }
+
   /**
    * Posts the {@link CommandCompleteEvent}, so that listeners can tidy up. Called by {@link
    * #afterCommand}, and by BugReport when crashing from an exception in an async thread.
@@ -430,6 +480,12 @@ public final class BlazeRuntime {
     } catch (IOException e) {
       env.getReporter().handle(Event.error("Error while writing profile file: " + e.getMessage()));
     }
+    try {
+      SkylarkCpuProfiler.stop();
+    } catch (IOException e) {
+      env.getReporter().handle(
+          Event.error("Error while writing Skylark CPU profile file: " + e.getMessage()));
+    }
     env.getReporter().clearEventBus();
   }
 
@@ -446,6 +502,14 @@ public final class BlazeRuntime {
     templateLogger.info("Log level: " + templateLogger.getLevel());
   }
 
+  /**
+   * Returns the build metrics recorded by the previous command, or since the server was started
+   * if this is its first command.
+   */
+  public MetricsRegistry.Snapshot getPreviousCommandMetrics() {
+    return previousCommandMetrics;
+  }
+
   /**
    * Returns the Clock-instance used for the entire build. Before,
    * individual classes (such as Profiler) used to specify the type
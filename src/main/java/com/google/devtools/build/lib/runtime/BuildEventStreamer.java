@@ -43,6 +43,7 @@ import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
 import com.google.devtools.build.lib.buildeventstream.BuildEventTransportClosedEvent;
 import com.google.devtools.build.lib.buildeventstream.BuildEventWithConfiguration;
 import com.google.devtools.build.lib.buildeventstream.BuildEventWithOrderConstraint;
+import com.google.devtools.build.lib.buildeventstream.BuildMetricsEvent;
 import com.google.devtools.build.lib.buildeventstream.LastBuildEvent;
 import com.google.devtools.build.lib.buildeventstream.NullConfiguration;
 import com.google.devtools.build.lib.buildeventstream.ProgressEvent;
@@ -56,9 +57,11 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSetView;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import com.google.devtools.build.lib.rules.extra.ExtraAction;
 import com.google.devtools.build.lib.util.Pair;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -120,6 +123,11 @@ public class BuildEventStreamer implements EventHandler {
 
   private static class CountingArtifactGroupNamer implements ArtifactGroupNamer {
     private final Map<Object, Long> reportedArtifactNames = new HashMap<>();
+    /**
+     * Names of the reported artifact groups by their contents. Equal nested sets are often built
+     * independently of each other, e.g., by several rules or aspects; those are only reported once.
+     */
+    private final Map<ArtifactGroupContents, Long> namesByContents = new HashMap<>();
     private long nextArtifactName;
 
     @Override
@@ -134,21 +142,70 @@ public class BuildEventStreamer implements EventHandler {
       return NamedSetOfFilesId.newBuilder().setId(name.toString()).build();
     }
 
+    synchronized boolean isNamed(NestedSetView<Artifact> view) {
+      return reportedArtifactNames.containsKey(view.identifier());
+    }
+
     /**
      * If the {@link NestedSetView} has no name already, return a new name for it. Return null
-     * otherwise.
+     * otherwise, or if a group with the same contents already has a name, which the view then
+     * shares. All transitive members of the view must have been named before.
      */
     synchronized String maybeName(NestedSetView<Artifact> view) {
       if (reportedArtifactNames.containsKey(view.identifier())) {
         return null;
       }
-      Long name = nextArtifactName;
+      Set<NestedSetView<Artifact>> transitives = view.transitives();
+      long[] transitiveNames = new long[transitives.size()];
+      int i = 0;
+      for (NestedSetView<Artifact> transitive : transitives) {
+        transitiveNames[i++] = reportedArtifactNames.get(transitive.identifier());
+      }
+      ArtifactGroupContents contents = new ArtifactGroupContents(view.directs(), transitiveNames);
+      Long name = namesByContents.get(contents);
+      if (name != null) {
+        reportedArtifactNames.put(view.identifier(), name);
+        return null;
+      }
+      name = nextArtifactName;
       nextArtifactName++;
       reportedArtifactNames.put(view.identifier(), name);
+      namesByContents.put(contents, name);
       return name.toString();
     }
   }
 
+  /** The direct artifacts and the names of the transitive groups of a reported artifact group. */
+  private static final class ArtifactGroupContents {
+    private final Set<Artifact> directs;
+    private final long[] transitiveNames;
+    private final int hashCode;
+
+    ArtifactGroupContents(Set<Artifact> directs, long[] transitiveNames) {
+      this.directs = directs;
+      // Equal sets may list their members in a different order.
+      Arrays.sort(transitiveNames);
+      this.transitiveNames = transitiveNames;
+      this.hashCode = 31 * directs.hashCode() + Arrays.hashCode(transitiveNames);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof ArtifactGroupContents)) {
+        return false;
+      }
+      ArtifactGroupContents that = (ArtifactGroupContents) other;
+      return hashCode == that.hashCode
+          && Arrays.equals(transitiveNames, that.transitiveNames)
+          && directs.equals(that.directs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
   public BuildEventStreamer(Collection<BuildEventTransport> transports, Reporter reporter) {
     checkArgument(transports.size() > 0);
     this.transports = transports;
@@ -336,13 +393,17 @@ public class BuildEventStreamer implements EventHandler {
   }
 
   private void maybeReportArtifactSet(NestedSetView<Artifact> view) {
-    String name = artifactGroupNamer.maybeName(view);
-    if (name == null) {
+    if (artifactGroupNamer.isNamed(view)) {
       return;
     }
+    // Name the transitive members first, so that sets with equal contents get the same name.
     for (NestedSetView<Artifact> transitive : view.transitives()) {
       maybeReportArtifactSet(transitive);
     }
+    String name = artifactGroupNamer.maybeName(view);
+    if (name == null) {
+      return;
+    }
     post(new NamedArtifactGroup(name, view));
   }
 
@@ -461,6 +522,7 @@ public class BuildEventStreamer implements EventHandler {
 
   private void buildComplete() {
     clearPendingEvents();
+    post(new BuildMetricsEvent(MetricsRegistry.instance().snapshot()));
     String out = null;
     String err = null;
     if (outErrProvider != null) {
@@ -273,6 +273,27 @@ public class CommonCommandOptions extends OptionsBase {
   )
   public PathFragment memoryProfilePath;
 
+  @Option(
+    name = "experimental_skylark_cpu_profile",
+    defaultValue = "null",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.AFFECTS_OUTPUTS, OptionEffectTag.BAZEL_MONITORING},
+    converter = OptionsUtils.PathFragmentConverter.class,
+    help =
+        "If set, sample the CPU time and allocations of Skylark evaluation and write them to the "
+            + "specified file as a gzipped pprof profile, attributed to Skylark call stacks."
+  )
+  public PathFragment skylarkCpuProfilePath;
+
+  @Option(
+    name = "experimental_skylark_cpu_profile_period_ms",
+    defaultValue = "10",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.BAZEL_MONITORING},
+    help = "The sampling period of --experimental_skylark_cpu_profile, in milliseconds."
+  )
+  public int skylarkCpuProfilePeriodMillis;
+
   @Deprecated
   @Option(
     name = "gc_watchdog",
@@ -113,6 +113,16 @@ public class DumpCommand implements BlazeCommand {
       help = "Dump Skyframe graph: 'off', 'summary', or 'detailed'."
     )
     public SkyframeDumpOption dumpSkyframe;
+
+    @Option(
+      name = "metrics",
+      defaultValue = "false",
+      category = "verbosity",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help = "Dump the build metrics of the previous command in the Prometheus text format."
+    )
+    public boolean dumpMetrics;
   }
 
   /**
@@ -146,7 +156,8 @@ public class DumpCommand implements BlazeCommand {
             || dumpOptions.dumpVfs
             || dumpOptions.dumpActionCache
             || dumpOptions.dumpRuleClasses
-            || (dumpOptions.dumpSkyframe != SkyframeDumpOption.OFF);
+            || (dumpOptions.dumpSkyframe != SkyframeDumpOption.OFF)
+            || dumpOptions.dumpMetrics;
     if (!anyOutput) {
       Map<String, String> categories = new HashMap<>();
       categories.put("verbosity", "Options that control what internal state is dumped");
@@ -197,6 +208,11 @@ public class DumpCommand implements BlazeCommand {
         out.println();
       }
 
+      if (dumpOptions.dumpMetrics) {
+        runtime.getPreviousCommandMetrics().writePrometheusText(out);
+        out.println();
+      }
+
       return success ? ExitCode.SUCCESS : ExitCode.ANALYSIS_FAILURE;
 
     } finally {
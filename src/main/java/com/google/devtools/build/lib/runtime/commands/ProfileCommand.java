@@ -22,13 +22,16 @@ import com.google.devtools.build.lib.profiler.ProfileInfo;
 import com.google.devtools.build.lib.profiler.ProfileInfo.InfoListener;
 import com.google.devtools.build.lib.profiler.ProfileInfo.Task;
 import com.google.devtools.build.lib.profiler.ProfilePhase;
+import com.google.devtools.build.lib.profiler.ProfileRecordReader;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.profiler.output.ChromeTraceJson;
 import com.google.devtools.build.lib.profiler.output.HtmlCreator;
 import com.google.devtools.build.lib.profiler.output.PhaseText;
 import com.google.devtools.build.lib.profiler.statistics.CriticalPathStatistics;
 import com.google.devtools.build.lib.profiler.statistics.MultiProfileStatistics;
 import com.google.devtools.build.lib.profiler.statistics.PhaseStatistics;
 import com.google.devtools.build.lib.profiler.statistics.PhaseSummaryStatistics;
+import com.google.devtools.build.lib.profiler.statistics.StreamingProfileStatistics;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
@@ -63,7 +66,7 @@ public final class ProfileCommand implements BlazeCommand {
 
   public static class DumpConverter extends Converters.StringSetConverter {
     public DumpConverter() {
-      super("text", "raw", "text-unsorted", "raw-unsorted");
+      super("text", "raw", "text-unsorted", "raw-unsorted", "chrome");
     }
   }
 
@@ -100,10 +103,23 @@ public final class ProfileCommand implements BlazeCommand {
       effectTags = {OptionEffectTag.UNKNOWN},
       help =
           "output full profile data dump either in human-readable 'text' format or"
-              + " script-friendly 'raw' format, either sorted or unsorted."
+              + " script-friendly 'raw' format, either sorted or unsorted, or convert it to the"
+              + " 'chrome' trace event format."
     )
     public String dumpMode;
 
+    @Option(
+      name = "experimental_streaming_analysis",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If present, the text summary is computed while streaming over the profile records"
+              + " instead of loading all tasks into memory. Only the critical path recorded by"
+              + " the build is reported, and VFS statistics are not available."
+    )
+    public boolean streamingAnalysis;
+
     @Option(
       name = "html",
       defaultValue = "false",
@@ -261,6 +277,26 @@ public final class ProfileCommand implements BlazeCommand {
         for (String name : options.getResidue()) {
           Path profileFile = env.getWorkingDirectory().getRelative(name);
           try {
+            if ("chrome".equals(opts.dumpMode)) {
+              dumpChromeTrace(env, profileFile, out);
+              continue;
+            }
+
+            if (opts.streamingAnalysis && opts.dumpMode == null && opts.taskTree == null
+                && !opts.html) {
+              StreamingProfileStatistics statistics =
+                  StreamingProfileStatistics.create(profileFile, getInfoListener(env));
+              new PhaseText(
+                      out,
+                      statistics.getSummaryStatistics(),
+                      statistics.getPhaseStatistics(),
+                      statistics.getCriticalPathStatistics(),
+                      0,
+                      0)
+                  .print();
+              continue;
+            }
+
             ProfileInfo info = ProfileInfo.loadProfileVerbosely(profileFile, getInfoListener(env));
 
             if (opts.dumpMode == null || !opts.dumpMode.contains("unsorted")) {
@@ -356,6 +392,20 @@ public final class ProfileCommand implements BlazeCommand {
     }
   }
 
+  /**
+   * Converts the profile to the Chrome trace event format, one record at a time.
+   */
+  private void dumpChromeTrace(CommandEnvironment env, Path profileFile, PrintStream out)
+      throws IOException {
+    try (ProfileRecordReader reader = ProfileRecordReader.open(profileFile)) {
+      new ChromeTraceJson(out, reader).print();
+      if (reader.isCorruptedOrIncomplete()) {
+        env.getReporter().handle(Event.warn(
+            "Profile file is incomplete or corrupted - not all records were parsed"));
+      }
+    }
+  }
+
   /**
    * Dumps all tasks in the requested format.
    */
@@ -19,6 +19,7 @@ import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Mutability;
+import com.google.devtools.build.lib.syntax.PersistentParseCache;
 import com.google.devtools.build.lib.syntax.Runtime;
 import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
 import com.google.devtools.build.lib.vfs.Path;
@@ -30,6 +31,7 @@ import com.google.devtools.build.skyframe.SkyFunctionException.Transience;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
 /**
@@ -43,9 +45,17 @@ import javax.annotation.Nullable;
 public class ASTFileLookupFunction implements SkyFunction {
 
   private final RuleClassProvider ruleClassProvider;
+  private final AtomicReference<PersistentParseCache> persistentParseCache;
 
   public ASTFileLookupFunction(RuleClassProvider ruleClassProvider) {
+    this(ruleClassProvider, new AtomicReference<PersistentParseCache>());
+  }
+
+  public ASTFileLookupFunction(
+      RuleClassProvider ruleClassProvider,
+      AtomicReference<PersistentParseCache> persistentParseCache) {
     this.ruleClassProvider = ruleClassProvider;
+    this.persistentParseCache = persistentParseCache;
   }
 
   @Override
@@ -125,7 +135,12 @@ public class ASTFileLookupFunction implements SkyFunction {
                     /*importMap=*/ null)
                 .setupDynamic(Runtime.PKG_NAME, Runtime.NONE)
                 .setupDynamic(Runtime.REPOSITORY_NAME, Runtime.NONE);
-          ast = BuildFileAST.parseSkylarkFile(path, astFileSize, env.getListener());
+          PersistentParseCache parseCache = persistentParseCache.get();
+          ast =
+              parseCache == null
+                  ? BuildFileAST.parseSkylarkFile(path, astFileSize, env.getListener())
+                  : BuildFileAST.parseSkylarkFile(
+                      path, astFileSize, env.getListener(), parseCache);
           ast = ast.validate(validationEnv, env.getListener());
         }
     } catch (IOException e) {
@@ -51,6 +51,7 @@ import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Environment.Extension;
 import com.google.devtools.build.lib.syntax.EvalException;
 import com.google.devtools.build.lib.syntax.ParserInputSource;
+import com.google.devtools.build.lib.syntax.PersistentParseCache;
 import com.google.devtools.build.lib.syntax.SkylarkImport;
 import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
 import com.google.devtools.build.lib.syntax.Statement;
@@ -82,6 +83,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
 /**
@@ -105,6 +107,10 @@ public class PackageFunction implements SkyFunction {
 
   private final ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile;
 
+  private final AtomicReference<PersistentParseCache> persistentParseCache;
+
+  private final AtomicBoolean prefetchGlobs;
+
   static final PathFragment DEFAULTS_PACKAGE_NAME = PathFragment.create("tools/defaults");
 
   public PackageFunction(
@@ -116,7 +122,9 @@ public class PackageFunction implements SkyFunction {
       AtomicInteger numPackagesLoaded,
       @Nullable SkylarkImportLookupFunction skylarkImportLookupFunctionForInlining,
       @Nullable PackageProgressReceiver packageProgress,
-      ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile) {
+      ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile,
+      AtomicReference<PersistentParseCache> persistentParseCache,
+      AtomicBoolean prefetchGlobs) {
     this.skylarkImportLookupFunctionForInlining = skylarkImportLookupFunctionForInlining;
     // Can be null in tests.
     this.preludeLabel = packageFactory == null
@@ -130,6 +138,32 @@ public class PackageFunction implements SkyFunction {
     this.numPackagesLoaded = numPackagesLoaded;
     this.packageProgress = packageProgress;
     this.actionOnIOExceptionReadingBuildFile = actionOnIOExceptionReadingBuildFile;
+    this.persistentParseCache = persistentParseCache;
+    this.prefetchGlobs = prefetchGlobs;
+  }
+
+  public PackageFunction(
+      PackageFactory packageFactory,
+      CachingPackageLocator pkgLocator,
+      AtomicBoolean showLoadingProgress,
+      Cache<PackageIdentifier, CacheEntryWithGlobDeps<Package.Builder>> packageFunctionCache,
+      Cache<PackageIdentifier, CacheEntryWithGlobDeps<AstAfterPreprocessing>> astCache,
+      AtomicInteger numPackagesLoaded,
+      @Nullable SkylarkImportLookupFunction skylarkImportLookupFunctionForInlining,
+      @Nullable PackageProgressReceiver packageProgress,
+      ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile) {
+    this(
+        packageFactory,
+        pkgLocator,
+        showLoadingProgress,
+        packageFunctionCache,
+        astCache,
+        numPackagesLoaded,
+        skylarkImportLookupFunctionForInlining,
+        packageProgress,
+        actionOnIOExceptionReadingBuildFile,
+        new AtomicReference<PersistentParseCache>(),
+        new AtomicBoolean());
   }
 
   public PackageFunction(
@@ -1207,7 +1241,10 @@ public class PackageFunction implements SkyFunction {
               buildFilePath.getParentDirectory(), packageId, packageLocator);
           SkyframeHybridGlobber skyframeGlobber = new SkyframeHybridGlobber(packageId, packageRoot,
               env, legacyGlobber);
+          PersistentParseCache parseCache = persistentParseCache.get();
           ParserInputSource input;
+          // Only set if the parse cache is enabled and the contents were read from the BUILD file.
+          byte[] buildFileDigest = null;
           if (replacementContents == null) {
             Preconditions.checkNotNull(buildFileValue, packageId);
             byte[] buildFileBytes = null;
@@ -1233,16 +1270,32 @@ public class PackageFunction implements SkyFunction {
                 ParserInputSource.create(
                     FileSystemUtils.convertFromLatin1(buildFileBytes),
                     buildFilePath.asFragment());
+            if (parseCache != null) {
+              buildFileDigest = PersistentParseCache.digestContent(buildFileBytes);
+            }
           } else {
             input = ParserInputSource.create(replacementContents, buildFilePath.asFragment());
           }
           StoredEventHandler astParsingEventHandler = new StoredEventHandler();
           BuildFileAST ast =
-              PackageFactory.parseBuildFile(
-                  packageId, input, preludeStatements, astParsingEventHandler);
-          // If no globs were fetched during preprocessing, then there's no need to reuse the
-          // legacy globber instance during BUILD file evaluation since the performance argument
-          // below does not apply.
+              buildFileDigest != null
+                  ? PackageFactory.parseBuildFile(
+                      packageId,
+                      input,
+                      buildFileDigest,
+                      preludeStatements,
+                      astParsingEventHandler,
+                      parseCache)
+                  : PackageFactory.parseBuildFile(
+                      packageId, input, preludeStatements, astParsingEventHandler);
+          if (prefetchGlobs.get()) {
+            // Start the globs of the BUILD file now, so that they are computed while its imports
+            // are loaded.
+            PackageFactory.prefetchGlobs(ast, skyframeGlobber);
+          }
+          // If no globs were prefetched, then there's no need to reuse the legacy globber
+          // instance during BUILD file evaluation since the performance argument below does not
+          // apply.
           Set<SkyKey> globDepsRequested = skyframeGlobber.getGlobDepsRequested();
           LegacyGlobber legacyGlobberToStore = globDepsRequested.isEmpty() ? null : legacyGlobber;
           astCacheEntry =
@@ -1273,9 +1326,9 @@ public class PackageFunction implements SkyFunction {
           return null;
         }
         astCache.invalidate(packageId);
-        // If a legacy globber was used to evaluate globs during preprocessing, it's important that
-        // we reuse that globber during BUILD file evaluation for performance, in the case that
-        // globs were fetched lazily during preprocessing. See Preprocessor.Factory#considersGlobs.
+        // If a legacy globber was used to prefetch globs, it's important that we reuse that
+        // globber during BUILD file evaluation for performance, since it holds the results of the
+        // prefetched globs that Skyframe had not computed yet.
         LegacyGlobber legacyGlobber = astCacheEntry.legacyGlobber != null
             ? astCacheEntry.legacyGlobber
             : packageFactory.createLegacyGlobber(
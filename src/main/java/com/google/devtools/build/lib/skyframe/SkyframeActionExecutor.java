@@ -67,6 +67,7 @@ import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.exec.OutputService;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Pair;
@@ -111,6 +112,15 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
   // more detail.
   private static final Striped<Lock> outputDirectoryDeletionLock = Striped.lock(64);
 
+  private static final MetricsRegistry.Counter actionCacheHits =
+      MetricsRegistry.instance()
+          .counter(
+              "action_cache_hits", "Actions whose outputs were up to date in the action cache.");
+  private static final MetricsRegistry.Counter actionCacheMisses =
+      MetricsRegistry.instance()
+          .counter(
+              "action_cache_misses", "Actions that had to be executed after the cache check.");
+
   private Reporter reporter;
   private final AtomicReference<EventBus> eventBus;
   private Map<String, String> clientEnv = ImmutableMap.of();
@@ -490,6 +500,7 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
             action, resolvedCacheArtifacts, clientEnv, explain ? reporter : null, metadataHandler);
     profiler.completeTask(ProfilerTask.ACTION_CHECK);
     if (token == null) {
+      actionCacheHits.increment();
       boolean eventPosted = false;
       // Notify BlazeRuntimeStatistics about the action middleman 'execution'.
       if (action.getActionType().isMiddleman()) {
@@ -528,6 +539,8 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
       if (!eventPosted) {
         postEvent(new CachedActionEvent(action, actionStartTime));
       }
+    } else {
+      actionCacheMisses.increment();
     }
     return token;
   }
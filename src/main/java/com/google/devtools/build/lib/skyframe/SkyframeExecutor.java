@@ -35,6 +35,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Range;
 import com.google.common.eventbus.EventBus;
+import com.google.common.hash.HashCode;
 import com.google.devtools.build.lib.actions.ActionAnalysisMetadata;
 import com.google.devtools.build.lib.actions.ActionCacheChecker;
 import com.google.devtools.build.lib.actions.ActionExecutionContextFactory;
@@ -120,6 +121,7 @@ import com.google.devtools.build.lib.skyframe.PackageLookupValue.BuildFileName;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ActionCompletedReceiver;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ProgressSupplier;
 import com.google.devtools.build.lib.skyframe.TargetPatternValue.TargetPatternKey;
+import com.google.devtools.build.lib.syntax.PersistentParseCache;
 import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.ExitCode;
@@ -225,6 +227,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   // AtomicReferences are used here as mutable boxes shared with value builders.
   private final AtomicBoolean showLoadingProgress = new AtomicBoolean();
+  private final AtomicReference<PersistentParseCache> persistentParseCache =
+      new AtomicReference<>();
+  private final AtomicBoolean prefetchGlobs = new AtomicBoolean();
   protected final AtomicReference<UnixGlob.FilesystemCalls> syscalls =
       new AtomicReference<>(UnixGlob.DEFAULT_SYSCALLS);
   protected final AtomicReference<PathPackageLocator> pkgLocator =
@@ -298,6 +303,12 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   private static final Logger LOG = Logger.getLogger(SkyframeExecutor.class.getName());
 
+  /** The directory of the output base holding the {@link PersistentParseCache}. */
+  private static final String PARSE_CACHE_DIRECTORY = "parse-cache";
+
+  /** The size the {@link PersistentParseCache} is pruned to when a server starts using it. */
+  private static final long PARSE_CACHE_MAX_BYTES = 256L << 20;
+
   protected SkyframeExecutor(
       EvaluatorSupplier evaluatorSupplier,
       PackageFactory pkgFactory,
@@ -377,7 +388,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         new PackageLookupFunction(
             deletedPackages, crossRepositoryLabelViolationStrategy, buildFilesByPriority));
     map.put(SkyFunctions.CONTAINING_PACKAGE_LOOKUP, new ContainingPackageLookupFunction());
-    map.put(SkyFunctions.AST_FILE_LOOKUP, new ASTFileLookupFunction(ruleClassProvider));
+    map.put(
+        SkyFunctions.AST_FILE_LOOKUP,
+        new ASTFileLookupFunction(ruleClassProvider, persistentParseCache));
     map.put(
         SkyFunctions.SKYLARK_IMPORTS_LOOKUP,
         newSkylarkImportLookupFunction(ruleClassProvider, pkgFactory));
@@ -486,7 +499,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         numPackagesLoaded,
         null,
         packageProgress,
-        actionOnIOExceptionReadingBuildFile);
+        actionOnIOExceptionReadingBuildFile,
+        persistentParseCache,
+        prefetchGlobs);
   }
 
   protected SkyFunction newSkylarkImportLookupFunction(
@@ -756,6 +771,21 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     showLoadingProgress.set(showLoadingProgressValue);
   }
 
+  private void setPersistentParseCacheEnabled(boolean enabled) {
+    HashCode installMD5 = directories.getInstallMD5();
+    if (!enabled || installMD5 == null) {
+      // Without the identity of the binary, entries written by an older one could be misread.
+      persistentParseCache.set(null);
+    } else if (persistentParseCache.get() == null) {
+      PersistentParseCache cache =
+          new PersistentParseCache(
+              directories.getOutputBase().getChild(PARSE_CACHE_DIRECTORY), installMD5.toString());
+      // Drop the entries of other binaries, and the least recently used ones beyond the limit.
+      cache.prune(PARSE_CACHE_MAX_BYTES);
+      persistentParseCache.set(cache);
+    }
+  }
+
   @VisibleForTesting
   public void setCommandId(UUID commandId) {
     PrecomputedValue.BUILD_ID.set(injectable(), commandId);
@@ -984,6 +1014,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.clientEnv.set(clientEnv);
     setBlacklistedPackagePrefixesFile(getBlacklistedPackagePrefixesFile());
     setShowLoadingProgress(packageCacheOptions.showLoadingProgress);
+    setPersistentParseCacheEnabled(packageCacheOptions.persistentParseCache);
+    prefetchGlobs.set(packageCacheOptions.prefetchGlobs);
     setDefaultVisibility(packageCacheOptions.defaultVisibility);
     setSkylarkSemantics(skylarkSemanticsOptions);
     setupDefaultPackage(defaultsPackageContents);
@@ -1967,15 +1999,18 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.statusReporterRef.set(statusReporter);
   }
 
+  /**
+   * Prepares the execution phase, detecting external modifications of the output tree with the
+   * given {@link BatchStat}, or with a stat call per file if it is null.
+   */
   public void prepareExecution(ModifiedFileSet modifiedOutputFiles,
-      @Nullable Range<Long> lastExecutionTimeRange)
+      @Nullable BatchStat batchStatter, @Nullable Range<Long> lastExecutionTimeRange)
           throws AbruptExitException, InterruptedException {
     maybeInjectEmbeddedArtifacts();
 
     // Detect external modifications in the output tree.
     FilesystemValueChecker fsvc =
         new FilesystemValueChecker(Preconditions.checkNotNull(tsgm.get()), lastExecutionTimeRange);
-    BatchStat batchStatter = outputService == null ? null : outputService.getBatchStatter();
     invalidateDirtyActions(fsvc.getDirtyActionValues(memoizingEvaluator.getValues(),
         batchStatter, modifiedOutputFiles));
     modifiedFiles += fsvc.getNumberOfModifiedOutputFiles();
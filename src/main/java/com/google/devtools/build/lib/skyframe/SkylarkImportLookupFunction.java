@@ -14,6 +14,8 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -28,6 +30,7 @@ import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.events.ExtendedEventHandler.Postable;
 import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
@@ -56,6 +59,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import javax.annotation.Nullable;
 
 /**
@@ -73,6 +77,15 @@ public class SkylarkImportLookupFunction implements SkyFunction {
   private final RuleClassProvider ruleClassProvider;
   private final PackageFactory packageFactory;
 
+  /**
+   * The extensions evaluated by this function, so that re-evaluating a file is skipped when
+   * Skyframe recomputes it with unchanged contents, imports and semantics, e.g. after the
+   * semantics options changed and changed back, or after the graph was discarded. Values are soft,
+   * since most extensions are also referenced by the graph.
+   */
+  private final Cache<CachedExtensionKey, CachedExtension> extensionCache =
+      CacheBuilder.newBuilder().softValues().build();
+
   public SkylarkImportLookupFunction(
     RuleClassProvider ruleClassProvider, PackageFactory packageFactory) {
     this.ruleClassProvider = ruleClassProvider;
@@ -372,6 +385,17 @@ public class SkylarkImportLookupFunction implements SkyFunction {
       Environment env,
       boolean inWorkspace)
       throws SkylarkImportFailedException, InterruptedException {
+    CachedExtensionKey cacheKey = null;
+    if (ast.getContentHashCode() != null) {
+      cacheKey =
+          new CachedExtensionKey(
+              extensionLabel, inWorkspace, ast.getContentHashCode(), skylarkSemantics);
+      CachedExtension cached = extensionCache.getIfPresent(cacheKey);
+      if (cached != null && cached.hasImports(importMap)) {
+        cached.replayOn(env.getListener());
+        return cached.extension;
+      }
+    }
     StoredEventHandler eventHandler = new StoredEventHandler();
     // TODO(bazel-team): this method overestimates the changes which can affect the
     // Skylark RuleClass. For example changes to comments or unused functions can modify the hash.
@@ -394,7 +418,14 @@ public class SkylarkImportLookupFunction implements SkyFunction {
       if (eventHandler.hasErrors()) {
         throw SkylarkImportFailedException.errors(extensionFile);
       }
-      return new Extension(extensionEnv);
+      Extension extension = new Extension(extensionEnv);
+      if (cacheKey != null) {
+        extensionCache.put(
+            cacheKey,
+            new CachedExtension(
+                extension, importMap, eventHandler.getEvents(), eventHandler.getPosts()));
+      }
+      return extension;
     }
   }
 
@@ -436,6 +467,89 @@ public class SkylarkImportLookupFunction implements SkyFunction {
     return null;
   }
 
+  /** Identifies an evaluation of an extension file, except for its imports. */
+  private static final class CachedExtensionKey {
+    private final Label label;
+    private final boolean inWorkspace;
+    private final String contentHashCode;
+    private final SkylarkSemanticsOptions semantics;
+
+    CachedExtensionKey(
+        Label label,
+        boolean inWorkspace,
+        String contentHashCode,
+        SkylarkSemanticsOptions semantics) {
+      this.label = label;
+      this.inWorkspace = inWorkspace;
+      this.contentHashCode = contentHashCode;
+      this.semantics = semantics;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof CachedExtensionKey)) {
+        return false;
+      }
+      CachedExtensionKey other = (CachedExtensionKey) obj;
+      return label.equals(other.label)
+          && inWorkspace == other.inWorkspace
+          && contentHashCode.equals(other.contentHashCode)
+          && semantics.equals(other.semantics);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(label, inWorkspace, contentHashCode, semantics);
+    }
+  }
+
+  /** The result of a successful evaluation of an extension file. */
+  private static final class CachedExtension {
+    private final Extension extension;
+    private final ImmutableMap<String, Extension> imports;
+    private final ImmutableList<Event> events;
+    private final ImmutableList<Postable> posts;
+
+    CachedExtension(
+        Extension extension,
+        Map<String, Extension> imports,
+        ImmutableList<Event> events,
+        ImmutableList<Postable> posts) {
+      this.extension = extension;
+      this.imports = ImmutableMap.copyOf(imports);
+      this.events = events;
+      this.posts = posts;
+    }
+
+    /**
+     * Returns true if the extension was evaluated with the same imported extensions. Imports are
+     * compared by identity rather than by content hash: the bindings of the extension may refer to
+     * objects of its imports, such as providers, which must be the same objects as those seen by
+     * the other users of the imports.
+     */
+    boolean hasImports(Map<String, Extension> otherImports) {
+      if (imports.size() != otherImports.size()) {
+        return false;
+      }
+      for (Map.Entry<String, Extension> entry : imports.entrySet()) {
+        if (otherImports.get(entry.getKey()) != entry.getValue()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void replayOn(ExtendedEventHandler listener) {
+      Event.replayEventsOn(listener, events);
+      for (Postable post : posts) {
+        listener.post(post);
+      }
+    }
+  }
+
   static final class SkylarkImportFailedException extends Exception {
     private SkylarkImportFailedException(String errorMessage) {
       super(errorMessage);
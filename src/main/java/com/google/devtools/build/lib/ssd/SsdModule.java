@@ -17,6 +17,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.cache.DigestUtils;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.util.AbruptExitException;
+import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.common.options.OptionsBase;
 
 /**
@@ -30,10 +32,19 @@ public final class SsdModule extends BlazeModule {
   }
 
   @Override
-  public void beforeCommand(CommandEnvironment env) {
+  public void beforeCommand(CommandEnvironment env) throws AbruptExitException {
     SsdOptions options = env.getOptions().getOptions(SsdOptions.class);
+    if (options.experimentalLargeFileDigestThreshold < 0
+        || options.experimentalLargeFileDigestJobs < 1) {
+      throw new AbruptExitException(
+          "--experimental_large_file_digest_threshold must be non-negative and "
+              + "--experimental_large_file_digest_jobs must be positive",
+          ExitCode.COMMAND_LINE_ERROR);
+    }
     if (options.experimentalMultiThreadedDigest) {
       DigestUtils.setMultiThreadedDigest(options.experimentalMultiThreadedDigest);
     }
+    DigestUtils.configureLargeFileDigests(
+        options.experimentalLargeFileDigestThreshold, options.experimentalLargeFileDigestJobs);
   }
 }
@@ -33,4 +33,29 @@ public class SsdOptions extends OptionsBase {
             + "performance when using an SSD."
   )
   public boolean experimentalMultiThreadedDigest;
+
+  @Option(
+    name = "experimental_large_file_digest_threshold",
+    defaultValue = "4096",
+    documentationCategory = OptionDocumentationCategory.BUILD_TIME_OPTIMIZATION,
+    effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+    help =
+        "Files larger than this many bytes are considered large when computing their digests. "
+            + "Digests of large files are computed with a limited number of concurrent reads "
+            + "(see --experimental_large_file_digest_jobs) unless "
+            + "--experimental_multi_threaded_digest is set."
+  )
+  public long experimentalLargeFileDigestThreshold;
+
+  @Option(
+    name = "experimental_large_file_digest_jobs",
+    defaultValue = "1",
+    documentationCategory = OptionDocumentationCategory.BUILD_TIME_OPTIMIZATION,
+    effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+    help =
+        "How many large files may have their digests computed concurrently. The default of 1 "
+            + "serializes large file reads, which avoids excessive seeks on rotating disks; "
+            + "higher values might improve performance when using an SSD."
+  )
+  public int experimentalLargeFileDigestJobs;
 }
@@ -312,7 +312,7 @@ public abstract class AbstractComprehension extends Expression {
     // Create a new scope so that loop variables do not leak outside the comprehension.
     ValidationEnvironment env =
         parentEnv.getSemantics().incompatibleComprehensionVariablesDoNotLeak
-            ? new ValidationEnvironment(parentEnv)
+            ? parentEnv.newNestedScope()
             : parentEnv;
 
     for (Clause clause : clauses) {
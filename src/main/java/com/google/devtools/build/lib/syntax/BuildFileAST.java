@@ -276,6 +276,28 @@ public class BuildFileAST extends ASTNode {
     return create(preludeStatements, result, /*contentHashCode=*/ null, eventHandler);
   }
 
+  /**
+   * Like {@link #parseBuildFile(ParserInputSource, List, EventHandler)}, but reuses the result of
+   * a previous parse of the same contents from {@code cache} if there is one, or stores the result
+   * in it otherwise.
+   *
+   * @param contentDigest the {@link PersistentParseCache#digestContent digest} of the contents of
+   *     {@code input}
+   */
+  public static BuildFileAST parseBuildFile(
+      ParserInputSource input,
+      byte[] contentDigest,
+      List<Statement> preludeStatements,
+      EventHandler eventHandler,
+      PersistentParseCache cache) {
+    Parser.ParseResult result = cache.get(BUILD, input.getPath(), contentDigest);
+    if (result == null) {
+      result = Parser.parseFile(input, eventHandler, BUILD);
+      cache.put(BUILD, input.getPath(), contentDigest, result);
+    }
+    return create(preludeStatements, result, /*contentHashCode=*/ null, eventHandler);
+  }
+
   public static BuildFileAST parseBuildFile(ParserInputSource input, EventHandler eventHandler) {
     Parser.ParseResult result = Parser.parseFile(input, eventHandler, BUILD);
     return create(ImmutableList.<Statement>of(), result, /*contentHashCode=*/ null, eventHandler);
@@ -301,6 +323,24 @@ public class BuildFileAST extends ASTNode {
         HashCode.fromBytes(file.getDigest()).toString(), eventHandler);
   }
 
+  /**
+   * Like {@link #parseSkylarkFile(Path, long, EventHandler)}, but reuses the result of a previous
+   * parse of the same contents from {@code cache} if there is one, in which case the file is not
+   * read, or stores the result in it otherwise.
+   */
+  public static BuildFileAST parseSkylarkFile(
+      Path file, long fileSize, EventHandler eventHandler, PersistentParseCache cache)
+      throws IOException {
+    byte[] digest = file.getDigest();
+    Parser.ParseResult result = cache.get(SKYLARK, file.asFragment(), digest);
+    if (result == null) {
+      ParserInputSource input = ParserInputSource.create(file, fileSize);
+      result = Parser.parseFile(input, eventHandler, SKYLARK);
+      cache.put(SKYLARK, file.asFragment(), digest, result);
+    }
+    return create(ImmutableList.of(), result, HashCode.fromBytes(digest).toString(), eventHandler);
+  }
+
   /**
    * Parse the specified non-build Skylark file but avoid the validation of the imports, returning
    * its AST. All errors during scanning or parsing will be reported to the reporter.
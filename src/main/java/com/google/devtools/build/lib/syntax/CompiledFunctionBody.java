@@ -0,0 +1,277 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.syntax.IfStatement.ConditionalStatements;
+import com.google.devtools.build.lib.util.Preconditions;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The body of a {@link UserDefinedFunction} compiled to a flat sequence of instructions.
+ *
+ * <p>The control flow of the body ({@code if}, {@code for}, {@code break}, {@code continue} and
+ * {@code return}) is turned into jumps executed by a single loop, instead of recursive {@link
+ * Statement#exec} calls that signal {@code return}, {@code break} and {@code continue} by throwing
+ * exceptions. All other statements, and all expressions, are still evaluated by walking their
+ * syntax tree, so errors and their stack traces are exactly those of the tree-walking interpreter.
+ *
+ * <p>Enabled by {@code --experimental_compile_skylark_functions}.
+ */
+@Immutable
+final class CompiledFunctionBody {
+
+  /** Executes the statement {@code nodes[pc]}. */
+  private static final byte EXEC = 0;
+  /** Jumps to {@code targets[pc]} if the expression {@code nodes[pc]} is false. */
+  private static final byte BRANCH_IF_FALSE = 1;
+  /** Jumps to {@code targets[pc]}. */
+  private static final byte JUMP = 2;
+  /** Returns the value of the expression {@code nodes[pc]}. */
+  private static final byte RETURN = 3;
+  /** Evaluates and locks the collection of the for statement {@code nodes[pc]}. */
+  private static final byte FOR_START = 4;
+  /**
+   * Assigns the next element of the innermost loop to the variable of the for statement {@code
+   * nodes[pc]}, or ends the loop and jumps to {@code targets[pc]} if there is none.
+   */
+  private static final byte FOR_NEXT = 5;
+  /** Ends the innermost loop and jumps to {@code targets[pc]}. */
+  private static final byte BREAK = 6;
+
+  private final byte[] ops;
+  private final ASTNode[] nodes;
+  private final int[] targets;
+  private final int maxLoopDepth;
+
+  private CompiledFunctionBody(byte[] ops, ASTNode[] nodes, int[] targets, int maxLoopDepth) {
+    this.ops = ops;
+    this.nodes = nodes;
+    this.targets = targets;
+    this.maxLoopDepth = maxLoopDepth;
+  }
+
+  /** Compiles the given function body. */
+  static CompiledFunctionBody compile(List<Statement> statements) {
+    Compiler compiler = new Compiler();
+    compiler.compileBlock(statements, null);
+    return compiler.build();
+  }
+
+  /**
+   * Executes the body in the given environment, whose current scope must be that of the function.
+   *
+   * @return the value returned by the function, {@link Runtime#NONE} if it has no return statement
+   */
+  Object execute(Environment env) throws EvalException, InterruptedException {
+    ForStatement[] loops = new ForStatement[maxLoopDepth];
+    Object[] loopCollections = new Object[maxLoopDepth];
+    @SuppressWarnings("unchecked")
+    Iterator<Object>[] loopIterators = new Iterator[maxLoopDepth];
+    int loopDepth = 0;
+    int pc = 0;
+    try {
+      while (pc < ops.length) {
+        ASTNode node = nodes[pc];
+        switch (ops[pc]) {
+          case EXEC:
+            ((Statement) node).exec(env);
+            pc++;
+            break;
+
+          case BRANCH_IF_FALSE:
+            pc = EvalUtils.toBoolean(((Expression) node).eval(env)) ? pc + 1 : targets[pc];
+            break;
+
+          case JUMP:
+            pc = targets[pc];
+            break;
+
+          case RETURN:
+            return ((Expression) node).eval(env);
+
+          case FOR_START:
+            {
+              ForStatement loop = (ForStatement) node;
+              Object collection = loop.getCollection().eval(env);
+              Iterable<?> iterable;
+              try {
+                iterable = EvalUtils.toIterable(collection, loop.getLocation(), env);
+              } catch (EvalException e) {
+                throw loop.maybeTransformException(e);
+              }
+              EvalUtils.lock(collection, loop.getLocation());
+              loops[loopDepth] = loop;
+              loopCollections[loopDepth] = collection;
+              @SuppressWarnings("unchecked")
+              Iterator<Object> iterator = (Iterator<Object>) iterable.iterator();
+              loopIterators[loopDepth] = iterator;
+              loopDepth++;
+              pc++;
+              break;
+            }
+
+          case FOR_NEXT:
+            {
+              Iterator<Object> iterator = loopIterators[loopDepth - 1];
+              if (iterator.hasNext()) {
+                ForStatement loop = (ForStatement) node;
+                try {
+                  loop.getVariable().assign(env, loop.getLocation(), iterator.next());
+                } catch (EvalException e) {
+                  throw loop.maybeTransformException(e);
+                }
+                pc++;
+              } else {
+                loopDepth--;
+                endLoop(loops, loopCollections, loopIterators, loopDepth);
+                pc = targets[pc];
+              }
+              break;
+            }
+
+          case BREAK:
+            loopDepth--;
+            endLoop(loops, loopCollections, loopIterators, loopDepth);
+            pc = targets[pc];
+            break;
+
+          default:
+            throw new IllegalStateException("Unknown opcode " + ops[pc]);
+        }
+      }
+      return Runtime.NONE;
+    } finally {
+      // Unlock the collections of the loops left by a return statement or an exception.
+      while (loopDepth > 0) {
+        loopDepth--;
+        EvalUtils.unlock(loopCollections[loopDepth], loops[loopDepth].getLocation());
+      }
+    }
+  }
+
+  private static void endLoop(
+      ForStatement[] loops,
+      Object[] loopCollections,
+      Iterator<Object>[] loopIterators,
+      int loopDepth) {
+    EvalUtils.unlock(loopCollections[loopDepth], loops[loopDepth].getLocation());
+    loops[loopDepth] = null;
+    loopCollections[loopDepth] = null;
+    loopIterators[loopDepth] = null;
+  }
+
+  /** Translates statements to instructions. */
+  private static final class Compiler {
+    private final List<Byte> ops = new ArrayList<>();
+    private final List<ASTNode> nodes = new ArrayList<>();
+    private final List<Integer> targets = new ArrayList<>();
+    private int loopDepth;
+    private int maxLoopDepth;
+
+    /** The jump targets of the innermost loop being compiled. */
+    private static final class Loop {
+      final int continuePc;
+      final List<Integer> breakInstructions = new ArrayList<>();
+
+      Loop(int continuePc) {
+        this.continuePc = continuePc;
+      }
+    }
+
+    private int emit(byte op, ASTNode node) {
+      ops.add(op);
+      nodes.add(node);
+      targets.add(-1);
+      return ops.size() - 1;
+    }
+
+    private void patch(int instruction, int target) {
+      targets.set(instruction, target);
+    }
+
+    private int nextPc() {
+      return ops.size();
+    }
+
+    void compileBlock(List<Statement> statements, Loop loop) {
+      for (Statement statement : statements) {
+        compile(statement, loop);
+      }
+    }
+
+    private void compile(Statement statement, Loop loop) {
+      if (statement instanceof ReturnStatement) {
+        emit(RETURN, ((ReturnStatement) statement).getReturnExpression());
+      } else if (statement instanceof IfStatement) {
+        compileIf((IfStatement) statement, loop);
+      } else if (statement instanceof ForStatement) {
+        compileFor((ForStatement) statement);
+      } else if (statement instanceof FlowStatement && loop != null) {
+        if (((FlowStatement) statement).getKind() == FlowStatement.Kind.BREAK) {
+          loop.breakInstructions.add(emit(BREAK, statement));
+        } else {
+          patch(emit(JUMP, statement), loop.continuePc);
+        }
+      } else {
+        // Includes break and continue outside of a loop, which fail as they would when
+        // tree-walking.
+        emit(EXEC, statement);
+      }
+    }
+
+    private void compileIf(IfStatement statement, Loop loop) {
+      List<Integer> jumpsToEnd = new ArrayList<>();
+      for (ConditionalStatements block : statement.getThenBlocks()) {
+        int branch = emit(BRANCH_IF_FALSE, block.getCondition());
+        compileBlock(block.getStatements(), loop);
+        jumpsToEnd.add(emit(JUMP, block));
+        patch(branch, nextPc());
+      }
+      compileBlock(statement.getElseBlock(), loop);
+      for (int jump : jumpsToEnd) {
+        patch(jump, nextPc());
+      }
+    }
+
+    private void compileFor(ForStatement statement) {
+      emit(FOR_START, statement);
+      int next = emit(FOR_NEXT, statement);
+      Loop loop = new Loop(next);
+      loopDepth++;
+      maxLoopDepth = Math.max(maxLoopDepth, loopDepth);
+      compileBlock(statement.getBlock(), loop);
+      loopDepth--;
+      patch(emit(JUMP, statement), next);
+      patch(next, nextPc());
+      for (int breakInstruction : loop.breakInstructions) {
+        patch(breakInstruction, nextPc());
+      }
+    }
+
+    CompiledFunctionBody build() {
+      Preconditions.checkState(loopDepth == 0);
+      byte[] opArray = new byte[ops.size()];
+      int[] targetArray = new int[ops.size()];
+      for (int i = 0; i < opArray.length; i++) {
+        opArray[i] = ops.get(i);
+        targetArray[i] = targets.get(i);
+      }
+      return new CompiledFunctionBody(
+          opArray, nodes.toArray(new ASTNode[0]), targetArray, maxLoopDepth);
+    }
+  }
+}
@@ -217,8 +217,10 @@ public final class Environment implements Freezable {
      * @return the value bound to the variable, or null if no binding is found
      */
     public Object get(String varname) {
-      if (bindings.containsKey(varname)) {
-        return bindings.get(varname);
+      // Values are never null, so a single lookup suffices for bound variables.
+      Object value = bindings.get(varname);
+      if (value != null || bindings.containsKey(varname)) {
+        return value;
       }
       if (parent != null) {
         return parent.get(varname);
@@ -260,7 +262,7 @@ public final class Environment implements Freezable {
   /**
    * A Continuation contains data saved during a function call and restored when the function exits.
    */
-  private static final class Continuation {
+  static final class Continuation {
     /** The {@link BaseFunction} being evaluated that will return into this Continuation. */
     final BaseFunction function;
 
@@ -279,19 +281,29 @@ public final class Environment implements Freezable {
     /** The set of known global variables of the caller. */
     @Nullable final Set<String> knownGlobalVariables;
 
+    /** The slots of the local variables of the caller. */
+    @Nullable final LocalSlots localSlots;
+
+    /** The values of the local variables of the caller. */
+    @Nullable final Object[] localValues;
+
     Continuation(
         Continuation continuation,
         BaseFunction function,
         FuncallExpression caller,
         Frame lexicalFrame,
         Frame globalFrame,
-        Set<String> knownGlobalVariables) {
+        Set<String> knownGlobalVariables,
+        LocalSlots localSlots,
+        Object[] localValues) {
       this.continuation = continuation;
       this.function = function;
       this.caller = caller;
       this.lexicalFrame = lexicalFrame;
       this.globalFrame = globalFrame;
       this.knownGlobalVariables = knownGlobalVariables;
+      this.localSlots = localSlots;
+      this.localValues = localValues;
     }
   }
 
@@ -401,6 +413,15 @@ public final class Environment implements Freezable {
    */
   @Nullable private Set<String> knownGlobalVariables;
 
+  /**
+   * When in a lexical (Skylark) Frame of a function whose body was resolved during validation, the
+   * slots of its local variables. Those variables are stored in {@link #localValues} instead of the
+   * lexical Frame; a null value means the variable is currently unbound.
+   */
+  @Nullable private LocalSlots localSlots;
+
+  @Nullable private Object[] localValues;
+
   /**
    * When in a lexical (Skylark) frame, this lists the names of the functions in the call stack.
    * We currently use it to artificially disable recursion.
@@ -421,15 +442,37 @@ public final class Environment implements Freezable {
    * @param globals the global Frame that this function closes over from its definition Environment
    */
   void enterScope(BaseFunction function, FuncallExpression caller, Frame globals) {
+    enterScope(function, caller, globals, null);
+  }
+
+  /**
+   * Enters a scope by saving state to a new Continuation
+   * @param function the function whose scope to enter
+   * @param caller the source AST node for the caller
+   * @param globals the global Frame that this function closes over from its definition Environment
+   * @param slots the slots of the function's local variables, or null if they were not resolved
+   */
+  void enterScope(
+      BaseFunction function, FuncallExpression caller, Frame globals, @Nullable LocalSlots slots) {
     continuation =
         new Continuation(
-            continuation, function, caller, lexicalFrame, globalFrame, knownGlobalVariables);
+            continuation,
+            function,
+            caller,
+            lexicalFrame,
+            globalFrame,
+            knownGlobalVariables,
+            localSlots,
+            localValues);
     // TODO(bazel-team): What if instead of tracking both the lexical and global frames from the
     // Environment, we instead just tracked the current lexical frame, and made the global frame its
     // parent?
     lexicalFrame = new Frame(mutability(), null);
     globalFrame = globals;
     knownGlobalVariables = new HashSet<>();
+    localSlots = slots;
+    localValues = slots == null ? null : new Object[slots.size()];
+    SkylarkCpuProfiler.setCallStack(continuation);
   }
 
   /**
@@ -440,7 +483,10 @@ public final class Environment implements Freezable {
     lexicalFrame = continuation.lexicalFrame;
     globalFrame = continuation.globalFrame;
     knownGlobalVariables = continuation.knownGlobalVariables;
+    localSlots = continuation.localSlots;
+    localValues = continuation.localValues;
     continuation = continuation.continuation;
+    SkylarkCpuProfiler.setCallStack(continuation);
   }
 
   private final String transitiveHashCode;
@@ -514,6 +560,11 @@ public final class Environment implements Freezable {
     return builder.build().reverse();
   }
 
+  /** Returns the Continuations of the functions being evaluated, innermost first. */
+  @Nullable
+  Continuation getContinuation() {
+    return continuation;
+  }
 
   /**
    * Returns the FuncallExpression and the BaseFunction for the top-level call being evaluated.
@@ -681,7 +732,7 @@ public final class Environment implements Freezable {
           String.format("Trying to bind dynamic variable '%s' but it is already bound",
               varname));
     }
-    if (lexicalFrame != null && lexicalFrame.get(varname) != null) {
+    if (lexicalFrame != null && lookupLexical(varname) != null) {
       throw new AssertionError(
           String.format("Trying to bind dynamic variable '%s' but it is already bound lexically",
               varname));
@@ -706,6 +757,11 @@ public final class Environment implements Freezable {
 
   /** Remove variable from local bindings. */
   void removeLocalBinding(String varname) {
+    int slot = localSlots == null ? -1 : localSlots.indexOf(varname);
+    if (slot >= 0) {
+      localValues[slot] = null;
+      return;
+    }
     try {
       currentFrame().remove(this, varname);
     } catch (MutabilityException e) {
@@ -723,16 +779,12 @@ public final class Environment implements Freezable {
    * @return this Environment, in fluid style
    */
   public Environment update(String varname, Object value) throws EvalException {
-    Preconditions.checkNotNull(value, "update(value == null)");
-    // prevents clashes between static and dynamic variables.
-    if (dynamicFrame.get(varname) != null) {
-      throw new EvalException(
-          null, String.format("Trying to update special read-only global variable '%s'", varname));
-    }
-    if (isKnownGlobalVariable(varname)) {
-      throw new EvalException(
-          null, String.format("Trying to update read-only global variable '%s'", varname));
+    int slot = localSlots == null ? -1 : localSlots.indexOf(varname);
+    if (slot >= 0) {
+      updateLocal(slot, varname, value);
+      return this;
     }
+    checkUpdate(varname, value);
     try {
       currentFrame().put(this, varname, Preconditions.checkNotNull(value));
     } catch (MutabilityException e) {
@@ -748,6 +800,39 @@ public final class Environment implements Freezable {
     return this;
   }
 
+  /**
+   * Modifies the binding of a local variable that was resolved to the given slot of the current
+   * function. Equivalent to {@link #update} if the current function does not hold the variable in
+   * that slot.
+   */
+  void updateLocal(int slot, String varname, Object value) throws EvalException {
+    if (localSlots == null || !localSlots.holds(slot, varname)) {
+      update(varname, value);
+      return;
+    }
+    checkUpdate(varname, value);
+    try {
+      Mutability.checkMutable(lexicalFrame, this);
+    } catch (MutabilityException e) {
+      throw new AssertionError(
+          Printer.format("Can't update %s to %r in frozen environment", varname, value), e);
+    }
+    localValues[slot] = value;
+  }
+
+  private void checkUpdate(String varname, Object value) throws EvalException {
+    Preconditions.checkNotNull(value, "update(value == null)");
+    // prevents clashes between static and dynamic variables.
+    if (dynamicFrame.get(varname) != null) {
+      throw new EvalException(
+          null, String.format("Trying to update special read-only global variable '%s'", varname));
+    }
+    if (isKnownGlobalVariable(varname)) {
+      throw new EvalException(
+          null, String.format("Trying to update read-only global variable '%s'", varname));
+    }
+  }
+
   public boolean hasVariable(String varname) {
     return lookup(varname) != null;
   }
@@ -787,11 +872,40 @@ public final class Environment implements Freezable {
   public Object lookup(String varname) {
     // Lexical frame takes precedence, then globals, then dynamics.
     if (lexicalFrame != null) {
-      Object lexicalValue = lexicalFrame.get(varname);
+      Object lexicalValue = lookupLexical(varname);
       if (lexicalValue != null) {
         return lexicalValue;
       }
     }
+    return lookupNonLexical(varname);
+  }
+
+  /**
+   * Returns the value of a local variable that was resolved to the given slot of the current
+   * function, looking it up like {@link #lookup} if it is unbound or if the current function does
+   * not hold the variable in that slot.
+   */
+  Object lookupLocal(int slot, String varname) {
+    if (localSlots != null && localSlots.holds(slot, varname)) {
+      Object value = localValues[slot];
+      if (value != null) {
+        return value;
+      }
+      // The variable may be read before it is assigned, in which case it refers to a global.
+      return lookupNonLexical(varname);
+    }
+    return lookup(varname);
+  }
+
+  private Object lookupLexical(String varname) {
+    int slot = localSlots == null ? -1 : localSlots.indexOf(varname);
+    if (slot >= 0 && localValues[slot] != null) {
+      return localValues[slot];
+    }
+    return lexicalFrame.get(varname);
+  }
+
+  private Object lookupNonLexical(String varname) {
     Object globalValue = globalFrame.get(varname);
     Object dynamicValue = dynamicFrame.get(varname);
     if (globalValue == null && dynamicValue == null) {
@@ -828,6 +942,13 @@ public final class Environment implements Freezable {
     if (lexicalFrame != null) {
       vars.addAll(lexicalFrame.getTransitiveBindings().keySet());
     }
+    if (localSlots != null) {
+      for (int slot = 0; slot < localValues.length; slot++) {
+        if (localValues[slot] != null) {
+          vars.add(localSlots.getName(slot));
+        }
+      }
+    }
     vars.addAll(globalFrame.getTransitiveBindings().keySet());
     vars.addAll(dynamicFrame.getTransitiveBindings().keySet());
     return vars;
@@ -34,7 +34,9 @@ import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.util.StringUtilities;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Collections;
@@ -45,6 +47,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import javax.annotation.Nullable;
 
 /**
@@ -55,20 +58,85 @@ public final class FuncallExpression extends Expression {
   /**
    * A value class to store Methods with their corresponding SkylarkCallable annotations.
    * This is needed because the annotation is sometimes in a superclass.
+   *
+   * <p>It also holds what is needed to call the method without repeating reflective work on every
+   * call: a {@link MethodHandle} taking the receiver and an argument array, the Skylark types of
+   * the annotated parameters, and their default values once they have been evaluated.
    */
   public static final class MethodDescriptor {
+    private static final MethodType INVOKER_TYPE =
+        MethodType.methodType(Object.class, Object.class, Object[].class);
+
     private final Method method;
     private final SkylarkCallable annotation;
+    private final MethodHandle invoker;
+    private final boolean returnsVoid;
+    private final SkylarkType[] parameterTypes;
+    // Evaluated lazily, as evaluating the default value of a parameter is expensive.
+    private final AtomicReferenceArray<Object> defaultValues;
 
     private MethodDescriptor(Method method, SkylarkCallable annotation) {
       this.method = method;
       this.annotation = annotation;
+      this.returnsVoid = method.getReturnType().equals(Void.TYPE);
+      Param[] params = annotation.parameters();
+      this.parameterTypes = new SkylarkType[params.length];
+      for (int i = 0; i < params.length; i++) {
+        SkylarkType type = getType(params[i]);
+        parameterTypes[i] =
+            params[i].noneable() ? SkylarkType.Union.of(type, SkylarkType.NONE) : type;
+      }
+      this.defaultValues = new AtomicReferenceArray<>(params.length);
+      // This happens when the interface is public but the implementation classes
+      // have reduced visibility.
+      method.setAccessible(true);
+      MethodHandle handle;
+      try {
+        handle = MethodHandles.lookup().unreflect(method);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException("Cannot access " + method, e);
+      }
+      if (Modifier.isStatic(method.getModifiers())) {
+        handle = MethodHandles.dropArguments(handle, 0, Object.class);
+      }
+      this.invoker =
+          handle
+              .asSpreader(Object[].class, method.getParameterTypes().length)
+              .asType(INVOKER_TYPE);
     }
 
     Method getMethod() {
       return method;
     }
 
+    /**
+     * Calls the method on the given receiver, which is ignored for static methods. Exceptions
+     * thrown by the method are propagated as is.
+     */
+    Object invoke(Object obj, Object[] args) throws Throwable {
+      return invoker.invokeExact(obj, args);
+    }
+
+    boolean returnsVoid() {
+      return returnsVoid;
+    }
+
+    /** Returns the Skylark type of the i-th annotated parameter, including None if noneable. */
+    SkylarkType getParameterType(int i) {
+      return parameterTypes[i];
+    }
+
+    /** Returns the default value of the i-th annotated parameter. */
+    Object getDefaultValue(int i) {
+      Object value = defaultValues.get(i);
+      if (value == null) {
+        // Default values are evaluated in a frozen environment, so they can be shared by calls.
+        value = SkylarkSignatureProcessor.getDefaultValue(annotation.parameters()[i], null);
+        defaultValues.compareAndSet(i, null, value);
+      }
+      return value;
+    }
+
     /**
      * Returns the SkylarkCallable annotation corresponding to this method.
      */
@@ -186,6 +254,20 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  /** The methods found for the last receiver class of a call site. */
+  private static final class CallSiteCache {
+    final Class<?> objClass;
+    final String methodName;
+    @Nullable final List<MethodDescriptor> methods;
+
+    CallSiteCache(
+        Class<?> objClass, String methodName, @Nullable List<MethodDescriptor> methods) {
+      this.objClass = objClass;
+      this.methodName = methodName;
+      this.methods = methods;
+    }
+  }
+
   @Nullable private final Expression object;
 
   private final Identifier function;
@@ -194,6 +276,9 @@ public final class FuncallExpression extends Expression {
 
   private final int numPositionalArgs;
 
+  // Monomorphic inline cache of the Java methods called by this expression.
+  @Nullable private transient volatile CallSiteCache callSiteCache;
+
   public FuncallExpression(@Nullable Expression object, Identifier function,
                            List<Argument.Passed> arguments) {
     this.object = object;
@@ -308,53 +393,48 @@ public final class FuncallExpression extends Expression {
 
   static Object callMethod(MethodDescriptor methodDescriptor, String methodName, Object obj,
       Object[] args, Location loc, Environment env) throws EvalException {
-    try {
-      Method method = methodDescriptor.getMethod();
-      if (obj == null && !Modifier.isStatic(method.getModifiers())) {
-        throw new EvalException(loc, "method '" + methodName + "' is not static");
-      }
-      // This happens when the interface is public but the implementation classes
-      // have reduced visibility.
-      method.setAccessible(true);
-      Object result = method.invoke(obj, args);
-      if (method.getReturnType().equals(Void.TYPE)) {
+    Method method = methodDescriptor.getMethod();
+    if (obj == null && !Modifier.isStatic(method.getModifiers())) {
+      throw new EvalException(loc, "method '" + methodName + "' is not static");
+    }
+    Object result = invoke(methodDescriptor, obj, args, loc);
+    if (methodDescriptor.returnsVoid()) {
+      return Runtime.NONE;
+    }
+    if (result == null) {
+      if (methodDescriptor.getAnnotation().allowReturnNones()) {
         return Runtime.NONE;
-      }
-      if (result == null) {
-        if (methodDescriptor.getAnnotation().allowReturnNones()) {
-          return Runtime.NONE;
-        } else {
-          throw new EvalException(
-              loc,
-              "method invocation returned None, please file a bug report: "
-                  + methodName
-                  + Printer.printAbbreviatedList(
-                      ImmutableList.copyOf(args), "(", ", ", ")", null));
-        }
-      }
-      // TODO(bazel-team): get rid of this, by having everyone use the Skylark data structures
-      result = SkylarkType.convertToSkylark(result, method, env);
-      if (result != null && !EvalUtils.isSkylarkAcceptable(result.getClass())) {
+      } else {
         throw new EvalException(
             loc,
-            Printer.format(
-                "method '%s' returns an object of invalid type %r", methodName, result.getClass()));
-      }
-      return result;
-    } catch (IllegalAccessException e) {
-      // TODO(bazel-team): Print a nice error message. Maybe the method exists
-      // and an argument is missing or has the wrong type.
-      throw new EvalException(loc, "Method invocation failed: " + e);
-    } catch (InvocationTargetException e) {
-      if (e.getCause() instanceof FuncallException) {
-        throw new EvalException(loc, e.getCause().getMessage());
-      } else if (e.getCause() != null) {
-        throw new EvalExceptionWithJavaCause(loc, e.getCause());
-      } else {
-        // This is unlikely to happen
-        throw new EvalException(loc, "method invocation failed: " + e);
+            "method invocation returned None, please file a bug report: "
+                + methodName
+                + Printer.printAbbreviatedList(
+                    ImmutableList.copyOf(args), "(", ", ", ")", null));
       }
     }
+    // TODO(bazel-team): get rid of this, by having everyone use the Skylark data structures
+    result = SkylarkType.convertToSkylark(result, method, env);
+    if (result != null && !EvalUtils.isSkylarkAcceptable(result.getClass())) {
+      throw new EvalException(
+          loc,
+          Printer.format(
+              "method '%s' returns an object of invalid type %r", methodName, result.getClass()));
+    }
+    return result;
+  }
+
+  /** Invokes the method, wrapping any exception it throws in an {@link EvalException}. */
+  private static Object invoke(
+      MethodDescriptor methodDescriptor, Object obj, Object[] args, Location loc)
+      throws EvalException {
+    try {
+      return methodDescriptor.invoke(obj, args);
+    } catch (FuncallException e) {
+      throw new EvalException(loc, e.getMessage());
+    } catch (Throwable e) {
+      throw new EvalExceptionWithJavaCause(loc, e);
+    }
   }
 
   // TODO(bazel-team): If there's exactly one usable method, this works. If there are multiple
@@ -365,7 +445,7 @@ public final class FuncallExpression extends Expression {
       Class<?> objClass, String methodName, List<Object> args, Map<String, Object> kwargs)
       throws EvalException {
     Pair<MethodDescriptor, List<Object>> matchingMethod = null;
-    List<MethodDescriptor> methods = getMethods(objClass, methodName);
+    List<MethodDescriptor> methods = getCachedMethods(objClass, methodName);
     ArgumentListConversionResult argumentListConversionResult = null;
     if (methods != null) {
       for (MethodDescriptor method : methods) {
@@ -411,6 +491,21 @@ public final class FuncallExpression extends Expression {
     return matchingMethod;
   }
 
+  /**
+   * Returns the methods of the given class with the given name, using this call site's cache if
+   * it was last used with the same class, as is almost always the case.
+   */
+  @Nullable
+  private List<MethodDescriptor> getCachedMethods(Class<?> objClass, String methodName) {
+    CallSiteCache cache = callSiteCache;
+    if (cache != null && cache.objClass == objClass && cache.methodName.equals(methodName)) {
+      return cache.methods;
+    }
+    List<MethodDescriptor> methods = getMethods(objClass, methodName);
+    callSiteCache = new CallSiteCache(objClass, methodName, methods);
+    return methods;
+  }
+
   private static SkylarkType getType(Param param) {
     SkylarkType type =
         param.generic1() != Object.class
@@ -461,12 +556,13 @@ public final class FuncallExpression extends Expression {
     }
 
     // Then the parameters specified in callable.parameters()
-    Set<String> keys = new LinkedHashSet<>(kwargs.keySet());
-    for (Param param : callable.parameters()) {
-      SkylarkType type = getType(param);
-      if (param.noneable()) {
-        type = SkylarkType.Union.of(type, SkylarkType.NONE);
-      }
+    Set<String> keys = kwargs.isEmpty()
+        ? Collections.<String>emptySet()
+        : new LinkedHashSet<>(kwargs.keySet());
+    Param[] parameters = callable.parameters();
+    for (int p = 0; p < parameters.length; p++) {
+      Param param = parameters[p];
+      SkylarkType type = method.getParameterType(p);
       Object value = null;
       if (i < args.size()) {
         value = args.get(i);
@@ -479,7 +575,7 @@ public final class FuncallExpression extends Expression {
                   "Cannot convert parameter '%s' to type %s", param.name(), type.toString()));
         }
         i++;
-      } else if (param.named() && keys.remove(param.name())) {
+      } else if (param.named() && !keys.isEmpty() && keys.remove(param.name())) {
         // Named parameters
         value = kwargs.get(param.name());
         if (!type.contains(value)) {
@@ -493,7 +589,7 @@ public final class FuncallExpression extends Expression {
           return ArgumentListConversionResult.fromError(
               String.format("parameter '%s' has no default value", param.name()));
         }
-        value = SkylarkSignatureProcessor.getDefaultValue(param, null);
+        value = method.getDefaultValue(p);
       }
       builder.add(value);
       if (!param.noneable() && value instanceof NoneType) {
@@ -668,20 +764,7 @@ public final class FuncallExpression extends Expression {
           call.findJavaMethod(objClass, method, positionalArgs, keyWordArgs);
       if (javaMethod.first.getAnnotation().structField()) {
         // Not a method but a callable attribute
-        try {
-          return callFunction(javaMethod.first.getMethod().invoke(obj), env);
-        } catch (IllegalAccessException e) {
-          throw new EvalException(getLocation(), "method invocation failed: " + e);
-        } catch (InvocationTargetException e) {
-          if (e.getCause() instanceof FuncallException) {
-            throw new EvalException(getLocation(), e.getCause().getMessage());
-          } else if (e.getCause() != null) {
-            throw new EvalExceptionWithJavaCause(getLocation(), e.getCause());
-          } else {
-            // This is unlikely to happen
-            throw new EvalException(getLocation(), "method invocation failed: " + e);
-          }
-        }
+        return callFunction(invoke(javaMethod.first, obj, new Object[0], getLocation()), env);
       }
       return callMethod(javaMethod.first, method, obj, javaMethod.second.toArray(), location, env);
     }
@@ -17,6 +17,7 @@ import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Syntax node for a function definition.
@@ -28,6 +29,14 @@ public final class FunctionDefStatement extends Statement {
   private final ImmutableList<Statement> statements;
   private final ImmutableList<Parameter<Expression, Expression>> parameters;
 
+  // The slots of the local variables of the body, computed by validate(), or null if the function
+  // was not validated.
+  @Nullable private transient LocalSlots localSlots;
+
+  // The compiled body, created the first time the function is defined with
+  // --experimental_compile_skylark_functions.
+  @Nullable private transient volatile CompiledFunctionBody compiledBody;
+
   public FunctionDefStatement(Identifier identifier,
       Iterable<Parameter<Expression, Expression>> parameters,
       FunctionSignature.WithValues<Expression, Expression> signature,
@@ -65,7 +74,19 @@ public final class FunctionDefStatement extends Statement {
             identifier,
             FunctionSignature.WithValues.create(sig, defaultValues, /*types=*/null),
             statements,
-            env.getGlobals()));
+            env.getGlobals(),
+            localSlots,
+            env.getSemantics().experimentalCompileSkylarkFunctions ? getCompiledBody() : null));
+  }
+
+  private CompiledFunctionBody getCompiledBody() {
+    CompiledFunctionBody body = compiledBody;
+    if (body == null) {
+      // Compiling is deterministic, so racing threads may each compile without harm.
+      body = CompiledFunctionBody.compile(statements);
+      compiledBody = body;
+    }
+    return body;
   }
 
   @Override
@@ -140,5 +161,20 @@ public final class FunctionDefStatement extends Statement {
     for (Statement stmts : statements) {
       stmts.validate(localEnv);
     }
+    resolveLocals(LocalSlots.of(localEnv.getFunctionLocals()));
+  }
+
+  /**
+   * Stamps every identifier of the body that refers to a local variable with its slot, so that it
+   * is accessed without a hash lookup when the function is called.
+   */
+  private void resolveLocals(final LocalSlots slots) {
+    new SyntaxTreeVisitor() {
+      @Override
+      public void visit(Identifier node) {
+        node.setLocalSlot(slots.indexOf(node.getName()));
+      }
+    }.visitAll(statements);
+    localSlots = slots;
   }
 }
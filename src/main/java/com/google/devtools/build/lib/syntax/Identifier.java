@@ -15,17 +15,16 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.devtools.build.lib.util.SpellChecker;
+import com.google.devtools.build.lib.util.StringCanonicalizer;
 import java.io.IOException;
 import java.util.Set;
 import javax.annotation.Nullable;
 
 // TODO(bazel-team): for extra performance:
-// (1) intern the strings, so we can use == to compare, and have .equals use the assumption.
-// Then have Argument and Parameter use Identifier again instead of String as keys.
+// (1) Have Argument and Parameter use Identifier again instead of String as keys.
 // (2) Use Identifier, not String, as keys in the Environment, which will be cleaner.
-// (3) For performance, avoid doing HashMap lookups at runtime, and compile local variable access
-// into array reference with a constant index. Variable lookups are currently a speed bottleneck,
-// as previously measured in an experiment.
+// (3) Resolve global variables to slots as well; only local variables of validated function
+// bodies are currently accessed with a constant index (see LocalSlots).
 /**
  * Syntax node for an identifier.
  *
@@ -37,8 +36,13 @@ public final class Identifier extends Expression {
 
   private final String name;
 
+  // The slot of this variable in the enclosing function's LocalSlots, or -1 if it is not known to
+  // be a local variable.
+  private int localSlot = -1;
+
   public Identifier(String name) {
-    this.name = name;
+    // Interned so that comparisons against the names of LocalSlots are identity checks.
+    this.name = StringCanonicalizer.intern(name);
   }
 
   /**
@@ -48,6 +52,15 @@ public final class Identifier extends Expression {
     return name;
   }
 
+  /** Returns the slot assigned to this local variable, or -1 if it is not a resolved local. */
+  int getLocalSlot() {
+    return localSlot;
+  }
+
+  void setLocalSlot(int localSlot) {
+    this.localSlot = localSlot;
+  }
+
   public boolean isPrivate() {
     return name.startsWith("_");
   }
@@ -73,7 +86,7 @@ public final class Identifier extends Expression {
 
   @Override
   Object doEval(Environment env) throws EvalException {
-    Object value = env.lookup(name);
+    Object value = localSlot >= 0 ? env.lookupLocal(localSlot, name) : env.lookup(name);
     if (value == null) {
       throw createInvalidIdentifierException(env.getVariableNames());
     }
@@ -193,7 +193,11 @@ public final class LValue extends ASTNode {
                   + "The variable is defined in the global scope.",
               ident.getName()));
     }
-    env.update(ident.getName(), result);
+    if (ident.getLocalSlot() >= 0) {
+      env.updateLocal(ident.getLocalSlot(), ident.getName(), result);
+    } else {
+      env.update(ident.getName(), result);
+    }
   }
 
   @Override
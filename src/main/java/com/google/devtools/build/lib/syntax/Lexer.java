@@ -14,7 +14,6 @@
 
 package com.google.devtools.build.lib.syntax;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
@@ -25,11 +24,11 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Stack;
 
 /**
  * A tokenizer for the BUILD language.
@@ -42,20 +41,24 @@ import java.util.Stack;
  */
 public final class Lexer {
 
-  // Characters that can come immediately prior to an '=' character to generate
-  // a different token
-  private static final ImmutableMap<Character, TokenKind> EQUAL_TOKENS =
-      ImmutableMap.<Character, TokenKind>builder()
-          .put('=', TokenKind.EQUALS_EQUALS)
-          .put('!', TokenKind.NOT_EQUALS)
-          .put('>', TokenKind.GREATER_EQUALS)
-          .put('<', TokenKind.LESS_EQUALS)
-          .put('+', TokenKind.PLUS_EQUALS)
-          .put('-', TokenKind.MINUS_EQUALS)
-          .put('*', TokenKind.STAR_EQUALS)
-          .put('/', TokenKind.SLASH_EQUALS)
-          .put('%', TokenKind.PERCENT_EQUALS)
-          .build();
+  /**
+   * Returns the token made of the given character followed by an '=' character, or null if there
+   * is none.
+   */
+  private static TokenKind equalToken(char c) {
+    switch (c) {
+      case '=': return TokenKind.EQUALS_EQUALS;
+      case '!': return TokenKind.NOT_EQUALS;
+      case '>': return TokenKind.GREATER_EQUALS;
+      case '<': return TokenKind.LESS_EQUALS;
+      case '+': return TokenKind.PLUS_EQUALS;
+      case '-': return TokenKind.MINUS_EQUALS;
+      case '*': return TokenKind.STAR_EQUALS;
+      case '/': return TokenKind.SLASH_EQUALS;
+      case '%': return TokenKind.PERCENT_EQUALS;
+      default: return null;
+    }
+  }
 
   private final EventHandler eventHandler;
 
@@ -82,7 +85,11 @@ public final class Lexer {
 
   // The stack of enclosing indentation levels; always contains '0' at the
   // bottom.
-  private final Stack<Integer> indentStack = new Stack<>();
+  private int[] indentStack = new int[8];
+  private int indentStackSize = 1;
+
+  // The identifiers and keywords seen so far in the input.
+  private final NameTable nameTable = new NameTable();
 
   private final List<Token> tokens;
 
@@ -105,7 +112,6 @@ public final class Lexer {
     this.eventHandler = eventHandler;
     this.locationInfo = new LocationInfo(input.getPath(), lineNumberTable);
 
-    indentStack.push(0);
     long startTime = Profiler.nanoTimeMaybe();
     tokenize();
     Profiler.instance().logSimpleTask(startTime, ProfilerTask.SKYLARK_LEXER, getFilename());
@@ -273,16 +279,19 @@ public final class Lexer {
       indentLen = 0;
     } // trailing space on last line
 
-    int peekedIndent = indentStack.peek();
+    int peekedIndent = indentStack[indentStackSize - 1];
     if (peekedIndent < indentLen) { // push a level
-      indentStack.push(indentLen);
+      if (indentStackSize == indentStack.length) {
+        indentStack = Arrays.copyOf(indentStack, indentStackSize * 2);
+      }
+      indentStack[indentStackSize++] = indentLen;
       addToken(new Token(TokenKind.INDENT, pos - 1, pos));
 
     } else if (peekedIndent > indentLen) { // pop one or more levels
       while (peekedIndent > indentLen) {
-        indentStack.pop();
+        indentStackSize--;
         addToken(new Token(TokenKind.OUTDENT, pos - 1, pos));
-        peekedIndent = indentStack.peek();
+        peekedIndent = indentStack[indentStackSize - 1];
       }
 
       if (peekedIndent < indentLen) {
@@ -550,15 +559,16 @@ public final class Lexer {
    */
   private Token identifierOrKeyword() {
     int oldPos = pos - 1;
-    String id = scanIdentifier();
-    TokenKind kind = keywordMap.get(id);
-    return (kind == null)
-        ? new Token(TokenKind.IDENTIFIER, oldPos, pos, id)
+    scanIdentifier();
+    int slot = nameTable.lookup(buffer, oldPos, pos);
+    TokenKind kind = nameTable.kinds[slot];
+    return (kind == TokenKind.IDENTIFIER)
+        ? new Token(TokenKind.IDENTIFIER, oldPos, pos, nameTable.names[slot])
         : new Token(kind, oldPos, pos, null);
   }
 
-  private String scanIdentifier() {
-    int oldPos = pos - 1;
+  /** Advances 'pos' past the remaining characters of an identifier. */
+  private void scanIdentifier() {
     while (pos < buffer.length) {
       switch (buffer[pos]) {
         case '_':
@@ -577,35 +587,36 @@ public final class Lexer {
           pos++;
           break;
        default:
-          return bufferSlice(oldPos, pos);
+          return;
       }
     }
-    return bufferSlice(oldPos, pos);
+  }
+
+  private static boolean isIntegerChar(char c) {
+    switch (c) {
+      case 'X': case 'x': // for hexadecimal prefix
+      case 'O': case 'o': // for octal prefix
+      case 'a': case 'A':
+      case 'b': case 'B':
+      case 'c': case 'C':
+      case 'd': case 'D':
+      case 'e': case 'E':
+      case 'f': case 'F':
+      case '0': case '1':
+      case '2': case '3':
+      case '4': case '5':
+      case '6': case '7':
+      case '8': case '9':
+        return true;
+      default:
+        return false;
+    }
   }
 
   private String scanInteger() {
     int oldPos = pos - 1;
-    while (pos < buffer.length) {
-      char c = buffer[pos];
-      switch (c) {
-        case 'X': case 'x': // for hexadecimal prefix
-        case 'O': case 'o': // for octal prefix
-        case 'a': case 'A':
-        case 'b': case 'B':
-        case 'c': case 'C':
-        case 'd': case 'D':
-        case 'e': case 'E':
-        case 'f': case 'F':
-        case '0': case '1':
-        case '2': case '3':
-        case '4': case '5':
-        case '6': case '7':
-        case '8': case '9':
-          pos++;
-          break;
-        default:
-          return bufferSlice(oldPos, pos);
-      }
+    while (pos < buffer.length && isIntegerChar(buffer[pos])) {
+      pos++;
     }
     // TODO(bazel-team): (2009) to do roundtripping when we evaluate the integer
     // constants, we must save the actual text of the tokens, not just their
@@ -624,6 +635,19 @@ public final class Lexer {
    */
   private Token integer() {
     int oldPos = pos - 1;
+    // Fast path for short decimal literals, which are parsed without creating a string.
+    if (buffer[oldPos] >= '1' && buffer[oldPos] <= '9') {
+      int value = buffer[oldPos] - '0';
+      int end = pos;
+      while (end < buffer.length && end - oldPos < 9 && buffer[end] >= '0' && buffer[end] <= '9') {
+        value = value * 10 + (buffer[end] - '0');
+        end++;
+      }
+      if (end == buffer.length || !isIntegerChar(buffer[end])) {
+        pos = end;
+        return new Token(TokenKind.INT, oldPos, pos, value);
+      }
+    }
     String literal = scanInteger();
 
     final String substring;
@@ -664,7 +688,7 @@ public final class Lexer {
     char c2 = buffer[pos + 1];
     TokenKind tok = null;
     if (c2 == '=') {
-      tok = EQUAL_TOKENS.get(c1);
+      tok = equalToken(c1);
     } else if (c2 == '*' && c1 == '*') {
       tok = TokenKind.STAR_STAR;
     }
@@ -846,10 +870,10 @@ public final class Lexer {
       } // switch
     } // while
 
-    if (indentStack.size() > 1) { // top of stack is always zero
+    if (indentStackSize > 1) { // top of stack is always zero
       addToken(new Token(TokenKind.NEWLINE, pos - 1, pos));
-      while (indentStack.size() > 1) {
-        indentStack.pop();
+      while (indentStackSize > 1) {
+        indentStackSize--;
         addToken(new Token(TokenKind.OUTDENT, pos - 1, pos));
       }
     }
@@ -884,4 +908,105 @@ public final class Lexer {
     return new String(this.buffer, start, end - start);
   }
 
+  /**
+   * A hash table of the keywords and identifiers of a file, looked up by their characters in the
+   * input buffer. Each distinct identifier is thus copied out of the buffer once, and keywords
+   * never are.
+   */
+  private static final class NameTable {
+    private static final NameTable KEYWORDS = new NameTable(128);
+
+    static {
+      for (Map.Entry<String, TokenKind> keyword : keywordMap.entrySet()) {
+        char[] chars = keyword.getKey().toCharArray();
+        int slot = KEYWORDS.lookup(chars, 0, chars.length);
+        KEYWORDS.kinds[slot] = keyword.getValue();
+      }
+    }
+
+    private String[] names;
+    private TokenKind[] kinds;
+    private int[] hashes;
+    private int size;
+
+    private NameTable(int capacity) {
+      names = new String[capacity];
+      kinds = new TokenKind[capacity];
+      hashes = new int[capacity];
+    }
+
+    /** Creates a table that initially contains the keywords. */
+    NameTable() {
+      this(KEYWORDS);
+    }
+
+    private NameTable(NameTable other) {
+      names = other.names.clone();
+      kinds = other.kinds.clone();
+      hashes = other.hashes.clone();
+      size = other.size;
+    }
+
+    /**
+     * Returns the slot of the name {@code buffer[start, end)}, adding it as an identifier if it is
+     * not in the table yet.
+     */
+    int lookup(char[] buffer, int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + buffer[i];
+      }
+      int mask = names.length - 1;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (names[slot] != null) {
+        if (hashes[slot] == hash && matches(names[slot], buffer, start, end)) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      if (2 * (size + 1) > names.length) {
+        grow();
+        return lookup(buffer, start, end);
+      }
+      names[slot] = new String(buffer, start, end - start);
+      kinds[slot] = TokenKind.IDENTIFIER;
+      hashes[slot] = hash;
+      size++;
+      return slot;
+    }
+
+    private static boolean matches(String name, char[] buffer, int start, int end) {
+      if (name.length() != end - start) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        if (name.charAt(i - start) != buffer[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void grow() {
+      String[] oldNames = names;
+      TokenKind[] oldKinds = kinds;
+      int[] oldHashes = hashes;
+      names = new String[oldNames.length * 2];
+      kinds = new TokenKind[oldNames.length * 2];
+      hashes = new int[oldNames.length * 2];
+      int mask = names.length - 1;
+      for (int i = 0; i < oldNames.length; i++) {
+        if (oldNames[i] != null) {
+          int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+          while (names[slot] != null) {
+            slot = (slot + 1) & mask;
+          }
+          names[slot] = oldNames[i];
+          kinds[slot] = oldKinds[i];
+          hashes[slot] = oldHashes[i];
+        }
+      }
+    }
+  }
+
 }
@@ -19,7 +19,6 @@ import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
-import com.google.devtools.build.lib.util.StringUtilities;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.Serializable;
 import java.nio.CharBuffer;
@@ -56,13 +55,40 @@ public abstract class LineNumberTable implements Serializable {
    */
   abstract PathFragment getPath(int offset);
 
+  private static final char[] HASH_LINE_MARKER = "#line ".toCharArray();
+
   static LineNumberTable create(char[] buffer, PathFragment path) {
-    // If #line appears within a BUILD file, we assume it has been preprocessed
-    // by gconfig2blaze.  We ignore all actual newlines and compute the logical
-    // LNT based only on the presence of #line markers.
-    return StringUtilities.containsSubarray(buffer, "\n#line ".toCharArray())
-        ? new HashLine(buffer, path)
-        : new Regular(buffer, path);
+    // Record the offsets of the line starts and look for #line markers in a single pass over the
+    // buffer. The initial capacity is a guess of one line per 32 characters.
+    int[] linestart = new int[buffer.length / 32 + 2];
+    int size = 2; // See Regular.linestart.
+    for (int i = 0; i < buffer.length; i++) {
+      if (buffer[i] == '\n') {
+        // If #line appears within a BUILD file, we assume it has been preprocessed
+        // by gconfig2blaze.  We ignore all actual newlines and compute the logical
+        // LNT based only on the presence of #line markers.
+        if (isHashLineMarker(buffer, i + 1)) {
+          return new HashLine(buffer, path);
+        }
+        if (size == linestart.length) {
+          linestart = Arrays.copyOf(linestart, size * 2);
+        }
+        linestart[size++] = i + 1;
+      }
+    }
+    return new Regular(Arrays.copyOf(linestart, size), path, buffer.length);
+  }
+
+  private static boolean isHashLineMarker(char[] buffer, int offset) {
+    if (offset + HASH_LINE_MARKER.length > buffer.length) {
+      return false;
+    }
+    for (int i = 0; i < HASH_LINE_MARKER.length; i++) {
+      if (buffer[offset + i] != HASH_LINE_MARKER[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -74,38 +100,19 @@ public abstract class LineNumberTable implements Serializable {
 
     /**
      * A mapping from line number (line >= 1) to character offset into the file.
+     *
+     * <p>The 0th line does not exist - so we fill something in to make sure the start pos for the
+     * 1st line ends up at linestart[1]. Using 0 is useful for tables that are completely empty.
+     * The first line ("line 1") starts at offset 0.
      */
     private final int[] linestart;
     private final PathFragment path;
     private final int bufferLength;
 
-    public Regular(char[] buffer, PathFragment path) {
-      // Compute the size.
-      int size = 2;
-      for (int i = 0; i < buffer.length; i++) {
-        if (buffer[i] == '\n') {
-          size++;
-        }
-      }
-      linestart = new int[size];
-
-      int index = 0;
-      linestart[index++] = 0; // The 0th line does not exist - so we fill something in
-      // to make sure the start pos for the 1st line ends up at
-      // linestart[1]. Using 0 is useful for tables that are
-      // completely empty.
-      linestart[index++] = 0; // The first line ("line 1") starts at offset 0.
-
-      // Scan the buffer and record the offset of each line start. Doing this
-      // once upfront is faster than checking each char as it is pulled from
-      // the buffer.
-      for (int i = 0; i < buffer.length; i++) {
-        if (buffer[i] == '\n') {
-          linestart[index++] = i + 1;
-        }
-      }
-      this.bufferLength = buffer.length;
+    private Regular(int[] linestart, PathFragment path, int bufferLength) {
+      this.linestart = linestart;
       this.path = path;
+      this.bufferLength = bufferLength;
     }
 
     private int getLineAt(int offset) {
@@ -0,0 +1,70 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import java.util.Collection;
+
+/**
+ * The local variables of a function body, each assigned a constant index into the array of values
+ * that {@link Environment} allocates for every call of the function.
+ *
+ * <p>Slots are computed during validation (see {@link FunctionDefStatement#validate}), which also
+ * stamps the {@link Identifier}s of the body with their slot, so that reading or assigning a local
+ * variable is an array access rather than a hash map lookup.
+ */
+@Immutable
+final class LocalSlots {
+
+  private final ImmutableList<String> names;
+  private final ImmutableMap<String, Integer> indices;
+
+  private LocalSlots(ImmutableList<String> names) {
+    this.names = names;
+    ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+    for (int i = 0; i < names.size(); i++) {
+      builder.put(names.get(i), i);
+    }
+    this.indices = builder.build();
+  }
+
+  /** Creates a layout with one slot per name, in iteration order. Names must be distinct. */
+  static LocalSlots of(Collection<String> names) {
+    return new LocalSlots(ImmutableList.copyOf(names));
+  }
+
+  /** Returns the number of slots. */
+  int size() {
+    return names.size();
+  }
+
+  /** Returns the name of the variable stored in the given slot. */
+  String getName(int slot) {
+    return names.get(slot);
+  }
+
+  /** Returns the slot of the given variable, or -1 if it is not a local variable. */
+  int indexOf(String varname) {
+    Integer index = indices.get(varname);
+    return index == null ? -1 : index;
+  }
+
+  /** Returns true if the given slot of this layout holds the variable {@code varname}. */
+  boolean holds(int slot, String varname) {
+    // Identifier names are interned, so the equality check is almost always an identity check.
+    return slot < names.size() && names.get(slot).equals(varname);
+  }
+}
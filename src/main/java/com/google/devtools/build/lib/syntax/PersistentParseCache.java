@@ -0,0 +1,240 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of the syntax trees of parsed BUILD and Skylark files, so that a new server
+ * does not have to lex and parse the files that did not change since a previous one did.
+ *
+ * <p>Entries are keyed by the path of the file, the digest of its contents, the dialect it was
+ * parsed with and a version string identifying the binary that wrote them (the path is part of the
+ * key because it is recorded in the locations of the tree). Only files that parsed without errors
+ * are stored, since a parse with errors reports events that a cache hit could not replay.
+ *
+ * <p>The cached trees are those produced by the {@link Parser}, before validation: validation
+ * depends on the environment the file is evaluated in and mutates the tree, so it is done again
+ * on every tree read from the cache.
+ *
+ * <p>Reading or writing an entry never fails: an entry that can't be read, for example because it
+ * was written by an incompatible binary or is truncated, is treated as a miss.
+ *
+ * <p>The names of the entries start with a prefix identifying the version, so that {@link #prune}
+ * can delete the entries that other binaries wrote, along with the least recently used ones.
+ */
+@ThreadSafe
+public final class PersistentParseCache {
+
+  private static final Logger logger = Logger.getLogger(PersistentParseCache.class.getName());
+
+  /** Change whenever the serialized form of the syntax tree changes incompatibly. */
+  private static final int FORMAT_VERSION = 1;
+
+  private static final String TMP_FILE_INFIX = ".tmp.";
+
+  private final Path directory;
+  /** The prefix of the names of the entries of this version. */
+  private final String entryPrefix;
+  private final AtomicLong tmpFileCounter = new AtomicLong();
+
+  /**
+   * Creates a cache storing its entries in {@code directory}, which is created if needed.
+   *
+   * @param version identifies the binary using the cache, e.g. the MD5 of the install base
+   */
+  public PersistentParseCache(Path directory, String version) {
+    this.directory = Preconditions.checkNotNull(directory);
+    this.entryPrefix =
+        new Fingerprint()
+                .addInt(FORMAT_VERSION)
+                .addString(Preconditions.checkNotNull(version))
+                .hexDigestAndReset()
+            + "-";
+  }
+
+  /** Returns the digest identifying the given file contents in calls to this cache. */
+  public static byte[] digestContent(byte[] content) {
+    return new Fingerprint().addBytes(content).digestAndReset();
+  }
+
+  /**
+   * Returns the cached result of parsing the file {@code path} with the given contents, or null
+   * if there is none.
+   */
+  @Nullable
+  Parser.ParseResult get(Parser.Dialect dialect, PathFragment path, byte[] contentDigest) {
+    Path entry = entryPath(dialect, path, contentDigest);
+    Parser.ParseResult result;
+    try (InputStream in = new BufferedInputStream(entry.getInputStream());
+        ObjectInputStream objectIn = new ObjectInputStream(in)) {
+      result = ((Entry) objectIn.readObject()).toParseResult();
+    } catch (IOException | ClassNotFoundException | RuntimeException e) {
+      // Missing, truncated or incompatible entries are all misses.
+      return null;
+    }
+    try {
+      // Record the use for prune().
+      entry.setLastModifiedTime(-1L);
+    } catch (IOException e) {
+      // Best effort.
+    }
+    return result;
+  }
+
+  /**
+   * Stores the result of parsing the file {@code path} with the given contents. Results that
+   * contain errors are not stored.
+   */
+  void put(
+      Parser.Dialect dialect, PathFragment path, byte[] contentDigest, Parser.ParseResult result) {
+    if (result.containsErrors) {
+      return;
+    }
+    Path entry = entryPath(dialect, path, contentDigest);
+    // Write to a temporary file and rename it, so that concurrent readers and writers of the same
+    // entry, possibly in different servers, never see a partial file.
+    Path tmp =
+        directory.getChild(
+            entry.getBaseName() + TMP_FILE_INFIX + Thread.currentThread().getId() + "."
+                + tmpFileCounter.incrementAndGet());
+    try {
+      directory.createDirectory();
+      try (OutputStream out = new BufferedOutputStream(tmp.getOutputStream());
+          ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+        objectOut.writeObject(new Entry(result));
+      }
+      tmp.renameTo(entry);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to write parse cache entry for " + path, e);
+      try {
+        tmp.delete();
+      } catch (IOException ignored) {
+        // Best effort.
+      }
+    }
+  }
+
+  private Path entryPath(Parser.Dialect dialect, PathFragment path, byte[] contentDigest) {
+    String key =
+        new Fingerprint()
+            .addString(dialect.name())
+            .addPath(path)
+            .addBytes(contentDigest)
+            .hexDigestAndReset();
+    return directory.getChild(entryPrefix + key);
+  }
+
+  /**
+   * Deletes the entries written by other versions, the temporary files left behind by writers that
+   * didn't finish, and then the least recently used entries until the remaining ones take at most
+   * {@code maxBytes}. Must not run concurrently with {@link #put}, e.g. call it before the cache is
+   * first used.
+   */
+  public void prune(long maxBytes) {
+    try {
+      if (!directory.isDirectory()) {
+        return;
+      }
+      List<StoredEntry> entries = new ArrayList<>();
+      long totalBytes = 0;
+      for (Path child : directory.getDirectoryEntries()) {
+        String name = child.getBaseName();
+        FileStatus stat = child.statIfFound(Symlinks.NOFOLLOW);
+        if (stat == null) {
+          continue;
+        }
+        if (!stat.isFile() || !name.startsWith(entryPrefix) || name.contains(TMP_FILE_INFIX)) {
+          delete(child);
+        } else {
+          entries.add(new StoredEntry(child, stat.getSize(), stat.getLastModifiedTime()));
+          totalBytes += stat.getSize();
+        }
+      }
+      Collections.sort(entries, Comparator.comparingLong(entry -> entry.lastModifiedTime));
+      for (StoredEntry entry : entries) {
+        if (totalBytes <= maxBytes) {
+          break;
+        }
+        delete(entry.path);
+        totalBytes -= entry.size;
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to prune the parse cache in " + directory, e);
+    }
+  }
+
+  private static void delete(Path path) throws IOException {
+    if (path.isDirectory(Symlinks.NOFOLLOW)) {
+      FileSystemUtils.deleteTree(path);
+    } else {
+      path.delete();
+    }
+  }
+
+  /** An entry file found by {@link #prune}. */
+  private static final class StoredEntry {
+    final Path path;
+    final long size;
+    final long lastModifiedTime;
+
+    StoredEntry(Path path, long size, long lastModifiedTime) {
+      this.path = path;
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+    }
+  }
+
+  /** The serialized form of a {@link Parser.ParseResult} without errors. */
+  private static final class Entry implements Serializable {
+    private final ImmutableList<Statement> statements;
+    private final ImmutableList<Comment> comments;
+    private final Location location;
+
+    Entry(Parser.ParseResult result) {
+      this.statements = ImmutableList.copyOf(result.statements);
+      this.comments = ImmutableList.copyOf(result.comments);
+      this.location = result.location;
+    }
+
+    Parser.ParseResult toParseResult() {
+      return new Parser.ParseResult(statements, comments, location, /*containsErrors=*/ false);
+    }
+  }
+}
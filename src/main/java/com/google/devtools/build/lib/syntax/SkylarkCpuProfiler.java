@@ -0,0 +1,454 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.protobuf.CodedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * A sampling profiler attributing CPU time and allocated bytes to Skylark call stacks.
+ *
+ * <p>While the profiler runs, every {@link Environment} publishes the call stack of its thread,
+ * that is, the immutable chain of {@link Environment.Continuation}s, whenever it enters or exits a
+ * function. A daemon thread wakes up periodically, reads the CPU time and the allocated bytes of
+ * every thread that published a stack, and charges the increase since the previous sample to the
+ * stack the thread is currently in. Nothing is recorded per call, so the overhead is that of a
+ * {@link ThreadLocal} lookup and a few volatile accesses per call, and of the sampler thread; when
+ * the profiler is stopped it is a single volatile read per call.
+ *
+ * <p>The profile is written as a gzipped <a
+ * href="https://github.com/google/pprof/blob/master/proto/profile.proto">pprof</a> protocol
+ * buffer, with the sample types {@code samples/count}, {@code cpu/nanoseconds} and {@code
+ * alloc_space/bytes}. Each frame of a stack is a function with the file it is defined in, at the
+ * line of the call to the next frame; the outermost frame is the top-level code of the BUILD or
+ * .bzl file that made the first call. Since a sample charges everything the thread did since the
+ * previous one to its current stack, the profile is statistical, and only accurate for threads
+ * that spend most of their time evaluating Skylark.
+ */
+@ThreadSafe
+public final class SkylarkCpuProfiler {
+
+  /** The name of the outermost frame, standing for the top-level statements of a file. */
+  static final String TOP_LEVEL = "<toplevel>";
+
+  @Nullable private static volatile SkylarkCpuProfiler instance;
+
+  private final OutputStream out;
+  private final long periodNanos;
+  private final long startTimeNanos;
+  private final long startWallTimeNanos;
+  private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  @Nullable private final com.sun.management.ThreadMXBean allocationBean;
+  /** The threads that published a stack to this profiler. */
+  private final ConcurrentLinkedQueue<ThreadState> threads = new ConcurrentLinkedQueue<>();
+  private final Thread sampler;
+
+  /** Accumulated {samples, CPU nanoseconds, allocated bytes} per stack. Guarded by this. */
+  private final Map<List<StackFrame>, long[]> samples = new HashMap<>();
+
+  /**
+   * The state of each thread, shared by all profilers so that a thread holds a single one however
+   * often profiling is started. The state is only registered with the running profiler once the
+   * thread evaluates Skylark.
+   */
+  private static final ThreadLocal<ThreadState> threadState =
+      ThreadLocal.withInitial(ThreadState::new);
+
+  /** The call stack a thread currently evaluates, and its counters at the previous sample. */
+  private static final class ThreadState {
+    // Weak, so that the profiler doesn't keep threads that died alive.
+    final WeakReference<Thread> thread = new WeakReference<>(Thread.currentThread());
+    final long threadId = Thread.currentThread().getId();
+    /** The profiler the thread is registered with. */
+    @Nullable volatile SkylarkCpuProfiler profiler;
+    @Nullable volatile Environment.Continuation stack;
+    long lastCpuNanos;
+    long lastAllocatedBytes;
+  }
+
+  private SkylarkCpuProfiler(OutputStream out, long periodMillis) {
+    this.out = out;
+    this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+    this.startTimeNanos = System.nanoTime();
+    this.startWallTimeNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    com.sun.management.ThreadMXBean allocationBean = null;
+    if (threadBean instanceof com.sun.management.ThreadMXBean) {
+      allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+      if (!allocationBean.isThreadAllocatedMemorySupported()
+          || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+        allocationBean = null;
+      }
+    }
+    this.allocationBean = allocationBean;
+    this.sampler = new Thread(this::run, "skylark-cpu-profiler");
+    sampler.setDaemon(true);
+  }
+
+  /**
+   * Starts profiling all Skylark evaluation in this JVM, sampling every {@code periodMillis}
+   * milliseconds. The profile is written to {@code out} by {@link #stop}.
+   *
+   * @throws IllegalStateException if the profiler is already running
+   */
+  public static synchronized void start(OutputStream out, long periodMillis) {
+    Preconditions.checkState(instance == null, "Skylark CPU profiler already running");
+    Preconditions.checkArgument(periodMillis > 0, "period must be positive");
+    SkylarkCpuProfiler profiler =
+        new SkylarkCpuProfiler(Preconditions.checkNotNull(out), periodMillis);
+    profiler.sampler.start();
+    instance = profiler;
+  }
+
+  /** Returns whether the profiler is running. */
+  public static boolean isRunning() {
+    return instance != null;
+  }
+
+  /**
+   * Stops the profiler, writes the profile and closes its output stream. Does nothing if the
+   * profiler is not running.
+   */
+  public static synchronized void stop() throws IOException {
+    SkylarkCpuProfiler profiler = instance;
+    if (profiler == null) {
+      return;
+    }
+    instance = null;
+    profiler.sampler.interrupt();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        profiler.sampler.join();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    try (OutputStream out = profiler.out) {
+      profiler.sample();
+      // Threads that live on must not keep the environments of their last stack reachable.
+      for (ThreadState state : profiler.threads) {
+        state.profiler = null;
+        state.stack = null;
+      }
+      profiler.writeProfile(out);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Publishes the call stack of the current thread, called whenever it changes. */
+  static void setCallStack(@Nullable Environment.Continuation stack) {
+    SkylarkCpuProfiler profiler = instance;
+    if (profiler != null) {
+      ThreadState state = threadState.get();
+      if (state.profiler != profiler) {
+        profiler.register(state);
+      }
+      state.stack = stack;
+      if (instance != profiler) {
+        // The profiler was stopped meanwhile, and may have missed the stack when clearing it.
+        state.stack = null;
+      }
+    }
+  }
+
+  /** Takes a sample right away. Does nothing if the profiler is not running. */
+  @VisibleForTesting
+  static void sampleNow() {
+    SkylarkCpuProfiler profiler = instance;
+    if (profiler != null) {
+      profiler.sample();
+    }
+  }
+
+  /** Returns the stack the current thread last published to a running profiler. */
+  @VisibleForTesting
+  @Nullable
+  static Environment.Continuation getPublishedStack() {
+    return threadState.get().stack;
+  }
+
+  private void register(ThreadState state) {
+    state.lastCpuNanos = cpuNanos(state.threadId);
+    state.lastAllocatedBytes = allocatedBytes(state.threadId);
+    state.profiler = this;
+    threads.add(state);
+  }
+
+  private void run() {
+    long next = System.nanoTime() + periodNanos;
+    try {
+      while (true) {
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+        next += periodNanos;
+        sample();
+      }
+    } catch (InterruptedException e) {
+      // Stopped.
+    }
+  }
+
+  /** Charges the CPU time and allocations of every thread since the last sample to its stack. */
+  private synchronized void sample() {
+    for (Iterator<ThreadState> it = threads.iterator(); it.hasNext(); ) {
+      ThreadState state = it.next();
+      Thread thread = state.thread.get();
+      long cpu = cpuNanos(state.threadId);
+      if (thread == null || !thread.isAlive() || cpu < 0) {
+        it.remove();
+        continue;
+      }
+      long allocated = allocatedBytes(state.threadId);
+      Environment.Continuation stack = state.stack;
+      if (stack != null) {
+        long[] values = samples.computeIfAbsent(toFrames(stack), k -> new long[3]);
+        values[0]++;
+        values[1] += cpu - state.lastCpuNanos;
+        values[2] += Math.max(0, allocated - state.lastAllocatedBytes);
+      }
+      state.lastCpuNanos = cpu;
+      state.lastAllocatedBytes = allocated;
+    }
+  }
+
+  private long cpuNanos(long threadId) {
+    return threadBean.isThreadCpuTimeSupported() ? threadBean.getThreadCpuTime(threadId) : 0;
+  }
+
+  private long allocatedBytes(long threadId) {
+    return allocationBean == null
+        ? 0
+        : Math.max(0, allocationBean.getThreadAllocatedBytes(threadId));
+  }
+
+  /** Returns the frames of the given stack, innermost first. */
+  static List<StackFrame> toFrames(Environment.Continuation stack) {
+    List<StackFrame> frames = new ArrayList<>();
+    Location callSite = null;
+    for (Environment.Continuation k = stack; k != null; k = k.continuation) {
+      Location definition = k.function.getLocation();
+      frames.add(
+          new StackFrame(
+              k.function.getName(),
+              pathOf(definition),
+              lineOf(definition),
+              callSite != null ? lineOf(callSite) : lineOf(definition)));
+      callSite = k.caller == null ? null : k.caller.getLocation();
+    }
+    if (callSite != null) {
+      frames.add(new StackFrame(TOP_LEVEL, pathOf(callSite), 0, lineOf(callSite)));
+    }
+    return frames;
+  }
+
+  private static String pathOf(@Nullable Location location) {
+    return location == null || location.getPath() == null
+        ? "<builtin>"
+        : location.getPath().getPathString();
+  }
+
+  private static int lineOf(@Nullable Location location) {
+    return location == null || location.getStartLineAndColumn() == null
+        ? 0
+        : location.getStartLineAndColumn().getLine();
+  }
+
+  /** A function and the line being executed in it. */
+  static final class StackFrame {
+    final String function;
+    final String file;
+    final int functionLine;
+    final int line;
+
+    StackFrame(String function, String file, int functionLine, int line) {
+      this.function = function;
+      this.file = file;
+      this.functionLine = functionLine;
+      this.line = line;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof StackFrame)) {
+        return false;
+      }
+      StackFrame that = (StackFrame) other;
+      return function.equals(that.function)
+          && file.equals(that.file)
+          && functionLine == that.functionLine
+          && line == that.line;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(function, file, functionLine, line);
+    }
+
+    @Override
+    public String toString() {
+      return function + ":" + line;
+    }
+  }
+
+  // Field numbers of profile.proto.
+  private static final int PROFILE_SAMPLE_TYPE = 1;
+  private static final int PROFILE_SAMPLE = 2;
+  private static final int PROFILE_LOCATION = 4;
+  private static final int PROFILE_FUNCTION = 5;
+  private static final int PROFILE_STRING_TABLE = 6;
+  private static final int PROFILE_TIME_NANOS = 9;
+  private static final int PROFILE_DURATION_NANOS = 10;
+  private static final int PROFILE_PERIOD_TYPE = 11;
+  private static final int PROFILE_PERIOD = 12;
+  private static final int VALUE_TYPE_TYPE = 1;
+  private static final int VALUE_TYPE_UNIT = 2;
+  private static final int SAMPLE_LOCATION_ID = 1;
+  private static final int SAMPLE_VALUE = 2;
+  private static final int LOCATION_ID = 1;
+  private static final int LOCATION_LINE = 4;
+  private static final int LINE_FUNCTION_ID = 1;
+  private static final int LINE_LINE = 2;
+  private static final int FUNCTION_ID = 1;
+  private static final int FUNCTION_NAME = 2;
+  private static final int FUNCTION_SYSTEM_NAME = 3;
+  private static final int FUNCTION_FILENAME = 4;
+  private static final int FUNCTION_START_LINE = 5;
+
+  /** Writes the samples as a gzipped pprof profile. */
+  private synchronized void writeProfile(OutputStream out) throws IOException {
+    Map<String, Long> strings = new LinkedHashMap<>();
+    strings.put("", 0L);
+    Map<List<Object>, Long> functionIds = new LinkedHashMap<>();
+    Map<StackFrame, Long> locationIds = new LinkedHashMap<>();
+
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    CodedOutputStream profile = CodedOutputStream.newInstance(gzip);
+    String[][] sampleTypes = {
+      {"samples", "count"}, {"cpu", "nanoseconds"}, {"alloc_space", "bytes"}
+    };
+    for (String[] sampleType : sampleTypes) {
+      profile.writeByteArray(
+          PROFILE_SAMPLE_TYPE,
+          valueType(intern(strings, sampleType[0]), intern(strings, sampleType[1])));
+    }
+
+    for (Map.Entry<List<StackFrame>, long[]> entry : samples.entrySet()) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CodedOutputStream sample = CodedOutputStream.newInstance(bytes);
+      for (StackFrame frame : entry.getKey()) {
+        Long locationId = locationIds.get(frame);
+        if (locationId == null) {
+          locationId = (long) locationIds.size() + 1;
+          locationIds.put(frame, locationId);
+        }
+        sample.writeUInt64(SAMPLE_LOCATION_ID, locationId);
+      }
+      for (long value : entry.getValue()) {
+        sample.writeInt64(SAMPLE_VALUE, value);
+      }
+      sample.flush();
+      profile.writeByteArray(PROFILE_SAMPLE, bytes.toByteArray());
+    }
+
+    for (Map.Entry<StackFrame, Long> entry : locationIds.entrySet()) {
+      StackFrame frame = entry.getKey();
+      List<Object> functionKey = Arrays.asList(frame.function, frame.file, frame.functionLine);
+      Long functionId = functionIds.get(functionKey);
+      if (functionId == null) {
+        functionId = (long) functionIds.size() + 1;
+        functionIds.put(functionKey, functionId);
+      }
+      ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+      CodedOutputStream line = CodedOutputStream.newInstance(lineBytes);
+      line.writeUInt64(LINE_FUNCTION_ID, functionId);
+      line.writeInt64(LINE_LINE, frame.line);
+      line.flush();
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CodedOutputStream location = CodedOutputStream.newInstance(bytes);
+      location.writeUInt64(LOCATION_ID, entry.getValue());
+      location.writeByteArray(LOCATION_LINE, lineBytes.toByteArray());
+      location.flush();
+      profile.writeByteArray(PROFILE_LOCATION, bytes.toByteArray());
+    }
+
+    for (Map.Entry<List<Object>, Long> entry : functionIds.entrySet()) {
+      List<Object> key = entry.getKey();
+      long name = intern(strings, (String) key.get(0));
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CodedOutputStream function = CodedOutputStream.newInstance(bytes);
+      function.writeUInt64(FUNCTION_ID, entry.getValue());
+      function.writeInt64(FUNCTION_NAME, name);
+      function.writeInt64(FUNCTION_SYSTEM_NAME, name);
+      function.writeInt64(FUNCTION_FILENAME, intern(strings, (String) key.get(1)));
+      function.writeInt64(FUNCTION_START_LINE, (Integer) key.get(2));
+      function.flush();
+      profile.writeByteArray(PROFILE_FUNCTION, bytes.toByteArray());
+    }
+
+    profile.writeInt64(PROFILE_TIME_NANOS, startWallTimeNanos);
+    profile.writeInt64(PROFILE_DURATION_NANOS, System.nanoTime() - startTimeNanos);
+    profile.writeByteArray(
+        PROFILE_PERIOD_TYPE, valueType(intern(strings, "cpu"), intern(strings, "nanoseconds")));
+    profile.writeInt64(PROFILE_PERIOD, periodNanos);
+    // The string table goes last, once all strings are interned.
+    for (String string : strings.keySet()) {
+      profile.writeString(PROFILE_STRING_TABLE, string);
+    }
+    profile.flush();
+    gzip.finish();
+  }
+
+  private static long intern(Map<String, Long> strings, String string) {
+    Long index = strings.get(string);
+    if (index == null) {
+      index = (long) strings.size();
+      strings.put(string, index);
+    }
+    return index;
+  }
+
+  private static byte[] valueType(long type, long unit) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CodedOutputStream valueType = CodedOutputStream.newInstance(bytes);
+    valueType.writeInt64(VALUE_TYPE_TYPE, type);
+    valueType.writeInt64(VALUE_TYPE_UNIT, unit);
+    valueType.flush();
+    return bytes.toByteArray();
+  }
+}
@@ -21,7 +21,8 @@ import com.google.devtools.build.lib.skylarkinterface.SkylarkModule;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkModuleCategory;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkPrinter;
 import com.google.devtools.build.lib.syntax.SkylarkMutable.MutableCollection;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -279,7 +280,22 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
   )
   public static final class MutableList<E> extends SkylarkList<E> {
 
-    private final ArrayList<E> contents = new ArrayList<>();
+    /**
+     * The elements of this list are the first {@link #size} elements of the buffer.
+     *
+     * <p>To make repeated concatenation ({@code x = x + [...]} or {@code x += [...]}) linear rather
+     * than quadratic, the result of {@link #concat} may reuse the buffer of its left operand and
+     * append the right operand to it, instead of copying both. A buffer may thus be shared by
+     * several lists, each of them seeing a prefix of the elements of the buffer: only the list
+     * seeing all of its elements may append to it, and a list modifying its existing elements
+     * first copies a shared buffer.
+     */
+    private Buffer buffer;
+
+    private int size;
+
+    /** The read-only view of the elements of this list returned by getContentsUnsafe. */
+    private final List<E> view = new View();
 
     // Treat GlobList specially: external code depends on it.
     // TODO(bazel-team): make data structures *and binary operators* extensible
@@ -297,6 +313,7 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
     @SuppressWarnings("unchecked")
     private MutableList(Iterable<? extends E> contents, Mutability mutability) {
       super();
+      this.buffer = new Buffer(0);
       addAllUnsafe(contents);
       if (contents instanceof GlobList) {
         globList = (GlobList<E>) contents;
@@ -310,10 +327,20 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
         MutableList<? extends E> rhs,
         @Nullable Environment env) {
       super();
-      this.contents.ensureCapacity(lhs.size() + rhs.size());
-      this.contents.addAll(lhs);
-      this.contents.addAll(rhs);
+      this.buffer = new Buffer(lhs.size + rhs.size);
       this.mutability = env == null ? Mutability.IMMUTABLE : env.mutability();
+      addAllUnsafe(lhs);
+      addAllUnsafe(rhs);
+    }
+
+    /** Constructor for concat, appending {@code rhs} to the buffer of {@code lhs}. */
+    private MutableList(MutableList<E> lhs, MutableList<? extends E> rhs) {
+      super();
+      this.buffer = lhs.buffer;
+      this.size = lhs.size;
+      this.mutability = lhs.mutability;
+      buffer.shared = true;
+      addAllUnsafe(rhs);
     }
 
     /**
@@ -348,7 +375,42 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
      * Assumes that you already checked for Mutability.
      */
     private void addAllUnsafe(Iterable<? extends E> elements) {
-      Iterables.addAll(contents, elements);
+      if (elements instanceof Collection) {
+        Object[] array = ((Collection<?>) elements).toArray();
+        prepareAppend(array.length);
+        System.arraycopy(array, 0, buffer.elements, size, array.length);
+        size += array.length;
+        buffer.size = size;
+      } else {
+        for (E element : elements) {
+          addUnsafe(element);
+        }
+      }
+    }
+
+    private void addUnsafe(E element) {
+      prepareAppend(1);
+      buffer.elements[size++] = element;
+      buffer.size = size;
+    }
+
+    /**
+     * Makes room for {@code count} more elements at the end of this list, copying the buffer if
+     * another list sharing it has appended elements past the end of this one.
+     */
+    private void prepareAppend(int count) {
+      if (size != buffer.size) {
+        buffer = buffer.copy(size, size + count);
+      } else {
+        buffer.ensureCapacity(size + count);
+      }
+    }
+
+    /** Copies the buffer if it may be shared, before existing elements are modified. */
+    private void prepareModification() {
+      if (buffer.shared) {
+        buffer = buffer.copy(size, size);
+      }
     }
 
     @Override
@@ -375,7 +437,7 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
 
     @Override
     protected List<E> getContentsUnsafe() {
-      return contents;
+      return view;
     }
 
     /**
@@ -385,7 +447,7 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
       if (globList != null) {
         return globList;
       }
-      return contents;
+      return view;
     }
 
     /**
@@ -400,6 +462,11 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
         MutableList<? extends E> right,
         Environment env) {
       if (left.getGlobList() == null && right.getGlobList() == null) {
+        if (left.canShareBufferIn(env)) {
+          @SuppressWarnings("unchecked")
+          MutableList<E> lhs = (MutableList<E>) left;
+          return new MutableList<>(lhs, right);
+        }
         return new MutableList<>(left, right, env);
       }
       return new MutableList<>(
@@ -409,6 +476,20 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
           env);
     }
 
+    /**
+     * Returns true if a list created in {@code env} may append to the buffer of this list.
+     *
+     * <p>The lists must belong to the same mutable environment, since lists of frozen environments
+     * may be read and concatenated by several threads at once, and no other list may have appended
+     * to the buffer past the end of this one.
+     */
+    private boolean canShareBufferIn(@Nullable Environment env) {
+      return env != null
+          && mutability == env.mutability()
+          && !mutability.isFrozen()
+          && size == buffer.size;
+    }
+
     /**
      * Duplicates MutableList n times. For values <= 0, an empty list will be returned.
      *
@@ -447,7 +528,7 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
      */
     public void add(E element, Location loc, Environment env) throws EvalException {
       checkMutable(loc, env);
-      contents.add(element);
+      addUnsafe(element);
     }
 
     /**
@@ -459,12 +540,25 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
      */
     public void add(int index, E element, Location loc, Environment env) throws EvalException {
       checkMutable(loc, env);
-      contents.add(index, element);
+      if (index < 0 || index > size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      prepareModification();
+      prepareAppend(1);
+      Object[] elements = buffer.elements;
+      System.arraycopy(elements, index, elements, index + 1, size - index);
+      elements[index] = element;
+      buffer.size = ++size;
     }
 
     public void remove(int index, Location loc, Environment env) throws EvalException {
       checkMutable(loc, env);
-      contents.remove(index);
+      checkElementIndex(index);
+      prepareModification();
+      Object[] elements = buffer.elements;
+      System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+      elements[--size] = null;
+      buffer.size = size;
     }
 
     /**
@@ -479,9 +573,15 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
       addAllUnsafe(elements);
     }
 
+    private void checkElementIndex(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+    }
+
     @Override
     public ImmutableList<E> getImmutableList() {
-      return ImmutableList.copyOf(contents);
+      return ImmutableList.copyOf(view);
     }
 
     @Override
@@ -494,6 +594,69 @@ public abstract class SkylarkList<E> extends MutableCollection<E>
       return false;
     }
 
+    /** The array holding the elements of one or more lists; see {@link MutableList#buffer}. */
+    private static final class Buffer {
+      private static final Object[] EMPTY_ELEMENTS = {};
+
+      Object[] elements;
+      /** The number of elements in use, i.e. the size of the longest list using the buffer. */
+      int size;
+      /** Whether the buffer may be used by more than one list. */
+      boolean shared;
+
+      Buffer(int capacity) {
+        this.elements = capacity == 0 ? EMPTY_ELEMENTS : new Object[capacity];
+      }
+
+      void ensureCapacity(int capacity) {
+        if (capacity > elements.length) {
+          elements = Arrays.copyOf(elements, Math.max(capacity, elements.length * 3 / 2 + 1));
+        }
+      }
+
+      /** Returns an unshared buffer holding the first {@code length} elements of this one. */
+      Buffer copy(int length, int capacity) {
+        Buffer copy = new Buffer(capacity);
+        System.arraycopy(elements, 0, copy.elements, 0, length);
+        copy.size = length;
+        return copy;
+      }
+    }
+
+    /**
+     * The elements of the list. Unlike those of an {@link java.util.ArrayList}, its iterators do
+     * not fail when another list sharing the buffer appends to it.
+     */
+    private final class View extends AbstractList<E> implements RandomAccess {
+      @Override
+      @SuppressWarnings("unchecked")
+      public E get(int index) {
+        checkElementIndex(index);
+        return (E) buffer.elements[index];
+      }
+
+      /** Only called by {@link SkylarkList#set}, after checking mutability. */
+      @Override
+      @SuppressWarnings("unchecked")
+      public E set(int index, E element) {
+        checkElementIndex(index);
+        prepareModification();
+        E previous = (E) buffer.elements[index];
+        buffer.elements[index] = element;
+        return previous;
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Object[] toArray() {
+        return Arrays.copyOf(buffer.elements, size);
+      }
+    }
+
     /**
      * An empty IMMUTABLE MutableList.
      */
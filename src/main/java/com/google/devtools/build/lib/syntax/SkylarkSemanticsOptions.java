@@ -220,4 +220,17 @@ public class SkylarkSemanticsOptions extends OptionsBase implements Serializable
             + "information that's not supposed to be exposed."
   )
   public boolean incompatibleDescriptiveStringRepresentations;
+
+  @Option(
+    name = "experimental_compile_skylark_functions",
+    defaultValue = "false",
+    category = "experimental",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+    metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+    help =
+        "If set to true, the bodies of Skylark functions are compiled to a flat instruction "
+            + "sequence instead of being executed by walking their syntax tree."
+  )
+  public boolean experimentalCompileSkylarkFunctions;
 }
@@ -19,6 +19,7 @@ import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkPrinter;
+import javax.annotation.Nullable;
 
 /**
  * The actual function registered in the environment. This function is defined in the
@@ -31,15 +32,34 @@ public class UserDefinedFunction extends BaseFunction {
   // we close over the globals at the time of definition
   private final Environment.Frame definitionGlobals;
 
+  // The slots of the local variables, if the body was resolved during validation.
+  @Nullable private final LocalSlots localSlots;
+
+  // The compiled body, if the function is to be executed by CompiledFunctionBody.
+  @Nullable private final CompiledFunctionBody compiledBody;
+
   protected UserDefinedFunction(
       Identifier function,
       FunctionSignature.WithValues<Object, SkylarkType> signature,
       ImmutableList<Statement> statements,
       Environment.Frame definitionGlobals)
       throws EvalException {
+    this(function, signature, statements, definitionGlobals, null, null);
+  }
+
+  UserDefinedFunction(
+      Identifier function,
+      FunctionSignature.WithValues<Object, SkylarkType> signature,
+      ImmutableList<Statement> statements,
+      Environment.Frame definitionGlobals,
+      @Nullable LocalSlots localSlots,
+      @Nullable CompiledFunctionBody compiledBody)
+      throws EvalException {
     super(function.getName(), signature, function.getLocation());
     this.statements = statements;
     this.definitionGlobals = definitionGlobals;
+    this.localSlots = localSlots;
+    this.compiledBody = compiledBody;
   }
 
   public FunctionSignature.WithValues<Object, SkylarkType> getFunctionSignature() {
@@ -64,7 +84,7 @@ public class UserDefinedFunction extends BaseFunction {
 
     Profiler.instance().startTask(ProfilerTask.SKYLARK_USER_FN, getName());
     try {
-      env.enterScope(this, ast, definitionGlobals);
+      env.enterScope(this, ast, definitionGlobals, localSlots);
       ImmutableList<String> names = signature.getSignature().getNames();
 
       // Registering the functions's arguments as variables in the local Environment
@@ -73,6 +93,10 @@ public class UserDefinedFunction extends BaseFunction {
         env.update(name, arguments[i++]);
       }
 
+      if (compiledBody != null) {
+        return compiledBody.execute(env);
+      }
+
       try {
         for (Statement stmt : statements) {
           if (stmt instanceof ReturnStatement) {
@@ -19,6 +19,7 @@ import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.util.Preconditions;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Stack;
@@ -39,6 +40,10 @@ public final class ValidationEnvironment {
 
   private final SkylarkSemanticsOptions semantics;
 
+  // The variables declared anywhere in the enclosing function body, in declaration order, or null
+  // at the top level. Shared with the nested scopes of the function.
+  private final Set<String> functionLocals;
+
   // A stack of variable-sets which are read only but can be assigned in different
   // branches of if-else statements.
   private final Stack<Set<String>> futureReadOnlyVariables = new Stack<>();
@@ -51,13 +56,27 @@ public final class ValidationEnvironment {
     variables.addAll(builtinVariables);
     readOnlyVariables.addAll(builtinVariables);
     semantics = env.getSemantics();
+    functionLocals = null;
   }
 
   /** Creates a local ValidationEnvironment to validate user defined function bodies. */
   ValidationEnvironment(ValidationEnvironment parent) {
+    this(parent, new LinkedHashSet<String>());
+  }
+
+  private ValidationEnvironment(ValidationEnvironment parent, Set<String> functionLocals) {
     // Don't copy readOnlyVariables: Variables may shadow global values.
     this.parent = parent;
     semantics = parent.semantics;
+    this.functionLocals = functionLocals;
+  }
+
+  /**
+   * Creates a ValidationEnvironment for a nested scope, e.g. a comprehension, whose variables are
+   * local to the enclosing function, if any.
+   */
+  ValidationEnvironment newNestedScope() {
+    return new ValidationEnvironment(this, functionLocals);
   }
 
   /** Returns true if this ValidationEnvironment is top level i.e. has no parent. */
@@ -80,6 +99,18 @@ public final class ValidationEnvironment {
       }
     }
     variables.add(varname);
+    if (functionLocals != null) {
+      functionLocals.add(varname);
+    }
+  }
+
+  /**
+   * Returns the variables declared so far in the enclosing function body and its nested scopes,
+   * in declaration order.
+   */
+  Set<String> getFunctionLocals() {
+    Preconditions.checkState(functionLocals != null, "not in a function body");
+    return functionLocals;
   }
 
   private void checkReadonly(String varname, Location location) throws EvalException {
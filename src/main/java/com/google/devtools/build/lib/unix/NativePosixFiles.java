@@ -212,6 +212,18 @@ public final class NativePosixFiles {
    */
   public static native ErrnoFileStatus errnoLstat(String path);
 
+  /**
+   * Native wrapper around a sequence of POSIX stat(2) or lstat(2) syscalls, made in a single JNI
+   * call to amortize its overhead over many paths.
+   *
+   * @param paths the files to stat.
+   * @param followSymlinks whether to use stat(2) rather than lstat(2).
+   * @return an array of ErrnoFileStatus instances corresponding positionally to {@code paths}.
+   *   If there was an error for a path, the corresponding element's hasError() method will
+   *   return true, and all its stat information is undefined.
+   */
+  public static native ErrnoFileStatus[] errnoStatBatch(String[] paths, boolean followSymlinks);
+
   /**
    * Native wrapper around POSIX utime(2) syscall.
    *
@@ -0,0 +1,86 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.unix.UnixFileSystem.UnixFileStatus;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BatchStat} for a {@link UnixFileSystem} that stats all the requested paths in a single
+ * JNI call.
+ *
+ * <p>Digests are never included: callers fall back on {@link Path#getFastDigest()} when the
+ * returned digest is null.
+ */
+public class UnixBatchStat implements BatchStat {
+
+  private final Path execRoot;
+
+  public UnixBatchStat(Path execRoot) {
+    Preconditions.checkArgument(
+        execRoot.getFileSystem() instanceof UnixFileSystem, execRoot.getFileSystem());
+    this.execRoot = execRoot;
+  }
+
+  @Override
+  public List<FileStatusWithDigest> batchStat(
+      boolean includeDigest, boolean includeLinks, Iterable<PathFragment> paths)
+      throws IOException, InterruptedException {
+    Path[] resolved = new Path[Iterables.size(paths)];
+    String[] names = new String[resolved.length];
+    int i = 0;
+    for (PathFragment path : paths) {
+      resolved[i] = execRoot.getRelative(path);
+      names[i] = resolved[i].getPathString();
+      i++;
+    }
+
+    long startTime = Profiler.nanoTimeMaybe();
+    ErrnoFileStatus[] stats = NativePosixFiles.errnoStatBatch(names, !includeLinks);
+    Profiler.instance()
+        .logSimpleTask(startTime, ProfilerTask.VFS_STAT, "batch of " + names.length + " paths");
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+
+    Symlinks symlinks = includeLinks ? Symlinks.NOFOLLOW : Symlinks.FOLLOW;
+    List<FileStatusWithDigest> result = new ArrayList<>(stats.length);
+    for (i = 0; i < stats.length; i++) {
+      ErrnoFileStatus stat = stats[i];
+      if (!stat.hasError()) {
+        result.add(FileStatusWithDigestAdapter.adapt(new UnixFileStatus(stat)));
+      } else if (stat.getErrno() == ErrnoFileStatus.ENOENT
+          || stat.getErrno() == ErrnoFileStatus.ENOTDIR) {
+        result.add(null);
+      } else {
+        // Stat the path again on its own to get the proper exception, or the status if the error
+        // was transient.
+        result.add(FileStatusWithDigestAdapter.adapt(resolved[i].statIfFound(symlinks)));
+      }
+    }
+    return result;
+  }
+}
@@ -19,10 +19,19 @@ import com.google.devtools.build.lib.concurrent.BlazeInterners;
 /**
  * Static singleton holder for the string interning pool.  Doesn't use {@link String#intern}
  * because that consumes permgen space.
+ *
+ * <p>The pool is weak by default. Setting the environment variable {@code
+ * BLAZE_COMPACT_STRING_INTERNER} to {@code 1} switches to a {@link
+ * BlazeInterners#newCompactStringInterner compact} strong pool instead, which uses considerably
+ * less memory per string for servers that keep most interned strings (label names, path segments)
+ * alive anyway.
  */
 public final class StringCanonicalizer {
 
-  private static final Interner<String> interner = BlazeInterners.newWeakInterner();
+  private static final Interner<String> interner =
+      "1".equals(System.getenv("BLAZE_COMPACT_STRING_INTERNER"))
+          ? BlazeInterners.newCompactStringInterner()
+          : BlazeInterners.<String>newWeakInterner();
 
   private StringCanonicalizer() {
   }
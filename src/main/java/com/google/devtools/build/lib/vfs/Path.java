@@ -32,7 +32,6 @@ import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.Collection;
-import java.util.IdentityHashMap;
 import java.util.Objects;
 
 /**
@@ -40,7 +39,7 @@ import java.util.Objects;
  * structure to implement sharing of common prefixes (parent directory names).
  * A node in these trees is something like foo, bar, .., ., or /. If the
  * instance is not a root path, it will have a parent path. A path can also
- * have children, which are indexed by name in a map.
+ * have children, which are indexed by name in a hash table.
  *
  * <p>There is some limited support for Windows-style paths. Most importantly, drive identifiers
  * in front of a path (c:/abc) are supported. However, Windows-style backslash separators
@@ -130,12 +129,10 @@ public class Path implements Comparable<Path>, Serializable {
           Path parent = ref.parent;
           synchronized (parent) {
             // It's possible that since this reference was enqueued for deletion, the Path was
-            // recreated with a new entry in the map. We definitely shouldn't delete that entry, so
-            // check to make sure they're the same.
-            Reference<Path> currentRef = ref.parent.children.get(ref.baseName);
-            if (currentRef == ref) {
-              ref.parent.children.remove(ref.baseName);
-            }
+            // recreated and its new reference replaced this one in the children table, or a resize
+            // of the table already dropped it. removeChildReference only clears a slot that still
+            // holds this very reference.
+            parent.removeChildReference(ref);
           }
         } catch (InterruptedException e) {
           // Ignored.
@@ -153,18 +150,22 @@ public class Path implements Comparable<Path>, Serializable {
    * A mapping from a child file name to the {@link Path} representing it.
    *
    * <p>File names must be a single path segment.  The strings must be
-   * canonical.  We use IdentityHashMap instead of HashMap for reasons of space
-   * efficiency: instances are smaller by a single word.  Also, since all path
+   * canonical, which lets lookups compare names by identity.  Since all path
    * segments are interned, the universe of Paths holds a minimal number of
-   * references to strings.  (It's doubtful that there's any time gain from use
-   * of an IdentityHashMap, since the time saved by avoiding string equality
-   * tests during hash lookups is probably equal to the time spent eagerly
-   * interning strings, unless the collision rate is high.)
+   * references to strings.
+   *
+   * <p>The mapping is an open-addressed, linearly probed hash table of the
+   * weak references themselves, keyed by {@link
+   * PathWeakReferenceForCleanup#baseName}.  Compared to a map this saves the
+   * map instance and the key slots, which matters because there is one table
+   * per directory, and most directories have very few children (66% of Paths
+   * have size == 1, 80% <= 2).  The table length is always a power of two and
+   * at least one slot is always empty.
    *
    * <p>The Paths are stored as weak references to ensure that a live
    * Path for a directory does not hold a strong reference to all of its
    * descendants, which would prevent collection of paths we never intend to
-   * use again.  Stale references in the map must be treated as absent.
+   * use again.  Stale references in the table must be treated as absent.
    *
    * <p>A Path may be recycled once there is no Path that refers to it or
    * to one of its descendants.  This means that any data stored in the
@@ -172,15 +173,13 @@ public class Path implements Comparable<Path>, Serializable {
    * store data in Paths as an optimization, but there must be another
    * source for that data in case the Path is recycled.
    *
-   * <p>We intentionally avoid using the existing library classes for reasons of
-   * space efficiency: while ConcurrentHashMap would reduce our locking
-   * overhead, and ReferenceMap would simplify the code a little, both of those
-   * classes have much higher per-instance overheads than IdentityHashMap.
-   *
    * <p>The Path object must be synchronized while children is being
    * accessed.
    */
-  private volatile IdentityHashMap<String, Reference<Path>> children;
+  private volatile PathWeakReferenceForCleanup[] children;
+
+  /** The number of non-null slots in {@link #children}. Guarded by this. */
+  private int childCount;
 
   /**
    * Create a path instance.
@@ -303,7 +302,7 @@ public class Path implements Comparable<Path>, Serializable {
    * Internal method only intended to be called by {@link PathFactory#getCachedChildPathInternal}.
    */
   public static Path getCachedChildPathInternal(Path parent, String childName, boolean cacheable) {
-    // We get a canonical instance since 'children' is an IdentityHashMap.
+    // We get a canonical instance since 'children' compares names by identity.
     childName = StringCanonicalizer.intern(childName);
     if (!cacheable) {
       // Non-cacheable children won't show up in `children` so applyToChildren won't run for these.
@@ -311,20 +310,114 @@ public class Path implements Comparable<Path>, Serializable {
     }
 
     synchronized (parent) {
-      if (parent.children == null) {
-        // 66% of Paths have size == 1, 80% <= 2
-        parent.children = new IdentityHashMap<>(1);
-      }
-      Reference<Path> childRef = parent.children.get(childName);
+      Reference<Path> childRef = parent.findChildReference(childName);
       Path child;
       if (childRef == null || (child = childRef.get()) == null) {
         child = parent.createChildPath(childName);
-        parent.children.put(childName, new PathWeakReferenceForCleanup(child, REFERENCE_QUEUE));
+        parent.putChildReference(new PathWeakReferenceForCleanup(child, REFERENCE_QUEUE));
       }
       return child;
     }
   }
 
+  private static int childSlot(String childName, int mask) {
+    int h = childName.hashCode() * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  /** Returns the reference to the child named {@code childName}, possibly stale, or null. */
+  private PathWeakReferenceForCleanup findChildReference(String childName) {
+    PathWeakReferenceForCleanup[] table = children;
+    if (table == null) {
+      return null;
+    }
+    int mask = table.length - 1;
+    for (int i = childSlot(childName, mask); ; i = (i + 1) & mask) {
+      PathWeakReferenceForCleanup ref = table[i];
+      if (ref == null || ref.baseName == childName) {
+        return ref;
+      }
+    }
+  }
+
+  /** Adds {@code newRef} to the children, replacing any existing reference with the same name. */
+  private void putChildReference(PathWeakReferenceForCleanup newRef) {
+    PathWeakReferenceForCleanup[] table = children;
+    if (table == null) {
+      table = new PathWeakReferenceForCleanup[2];
+    } else if ((childCount + 1) * 4 > table.length * 3) {
+      table = resizeChildren(table, table.length * 2);
+    }
+    int mask = table.length - 1;
+    int i = childSlot(newRef.baseName, mask);
+    while (table[i] != null && table[i].baseName != newRef.baseName) {
+      i = (i + 1) & mask;
+    }
+    if (table[i] == null) {
+      childCount++;
+    }
+    table[i] = newRef;
+    children = table;
+  }
+
+  /**
+   * Copies the live references of {@code table} into a new table of the given length, dropping
+   * the stale ones.
+   */
+  private PathWeakReferenceForCleanup[] resizeChildren(
+      PathWeakReferenceForCleanup[] table, int newLength) {
+    PathWeakReferenceForCleanup[] newTable = new PathWeakReferenceForCleanup[newLength];
+    int mask = newLength - 1;
+    int count = 0;
+    for (PathWeakReferenceForCleanup ref : table) {
+      if (ref != null && ref.get() != null) {
+        int i = childSlot(ref.baseName, mask);
+        while (newTable[i] != null) {
+          i = (i + 1) & mask;
+        }
+        newTable[i] = ref;
+        count++;
+      }
+    }
+    childCount = count;
+    return newTable;
+  }
+
+  /**
+   * Removes {@code ref} from the children if it is still there; it may have been replaced by a
+   * reference to a recreated Path or dropped by a resize in the meantime.
+   */
+  private void removeChildReference(PathWeakReferenceForCleanup ref) {
+    PathWeakReferenceForCleanup[] table = children;
+    if (table == null) {
+      return;
+    }
+    int mask = table.length - 1;
+    int i = childSlot(ref.baseName, mask);
+    while (table[i] != ref) {
+      if (table[i] == null) {
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    if (--childCount == 0) {
+      children = null;
+      return;
+    }
+    // Shift back the entries that follow in the same probe run, so that lookups, which stop at
+    // the first empty slot, still find them.
+    table[i] = null;
+    for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+      int home = childSlot(table[j].baseName, mask);
+      boolean reachableFromHole = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+      if (reachableFromHole) {
+        table[i] = table[j];
+        table[j] = null;
+        i = j;
+      }
+    }
+  }
+
   /**
    * Applies the specified function to each {@link Path} that is an existing direct
    * descendant of this one.  The Predicate is evaluated only for its
@@ -338,8 +431,8 @@ public class Path implements Comparable<Path>, Serializable {
    */
   protected synchronized void applyToChildren(Predicate<Path> function) {
     if (children != null) {
-      for (Reference<Path> childRef : children.values()) {
-        Path child = childRef.get();
+      for (Reference<Path> childRef : children) {
+        Path child = childRef == null ? null : childRef.get();
         if (child != null) {
           function.apply(child);
         }
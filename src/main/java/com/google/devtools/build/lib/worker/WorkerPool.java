@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.worker;
 
 import com.google.common.base.Throwables;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
@@ -31,6 +32,9 @@ import javax.annotation.concurrent.ThreadSafe;
 @ThreadSafe
 final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
 
+  private static final MetricsRegistry.Gauge activeWorkers =
+      MetricsRegistry.instance().gauge("worker_pool_active", "Workers currently borrowed.");
+
   public WorkerPool(WorkerFactory factory, GenericKeyedObjectPoolConfig config) {
     super(factory, config);
   }
@@ -38,7 +42,9 @@ final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
   @Override
   public Worker borrowObject(WorkerKey key) throws IOException, InterruptedException {
     try {
-      return super.borrowObject(key);
+      Worker worker = super.borrowObject(key);
+      activeWorkers.add(1);
+      return worker;
     } catch (Throwable t) {
       Throwables.propagateIfPossible(t, IOException.class, InterruptedException.class);
       throw new RuntimeException("unexpected", t);
@@ -47,6 +53,7 @@ final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
 
   @Override
   public void invalidateObject(WorkerKey key, Worker obj) throws IOException, InterruptedException {
+    activeWorkers.add(-1);
     try {
       super.invalidateObject(key, obj);
     } catch (Throwable t) {
@@ -54,4 +61,10 @@ final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
       throw new RuntimeException("unexpected", t);
     }
   }
+
+  @Override
+  public void returnObject(WorkerKey key, Worker obj) {
+    activeWorkers.add(-1);
+    super.returnObject(key, obj);
+  }
 }
@@ -20,12 +20,14 @@ import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
 import com.google.devtools.build.lib.concurrent.ErrorClassifier;
 import com.google.devtools.build.lib.concurrent.ForkJoinQuiescingExecutor;
 import com.google.devtools.build.lib.concurrent.QuiescingExecutor;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Threadpool manager for {@link ParallelEvaluator}. Wraps a {@link QuiescingExecutor} and keeps
@@ -50,8 +52,14 @@ class NodeEntryVisitor {
         }
       };
 
+  private static final MetricsRegistry.Gauge queuedEvaluations =
+      MetricsRegistry.instance()
+          .gauge("skyframe_queued_evaluations", "Skyframe nodes waiting for an evaluator thread.");
+
   private final QuiescingExecutor quiescingExecutor;
   private final AtomicBoolean preventNewEvaluations = new AtomicBoolean(false);
+  // Evaluations enqueued by this visitor that haven't started yet; part of queuedEvaluations.
+  private final AtomicLong queued = new AtomicLong();
   private final Set<RuntimeException> crashes = Sets.newConcurrentHashSet();
   private final DirtyTrackingProgressReceiver progressReceiver;
   /**
@@ -90,7 +98,12 @@ class NodeEntryVisitor {
   }
 
   void waitForCompletion() throws InterruptedException {
-    quiescingExecutor.awaitQuiescence(/*interruptWorkers=*/ true);
+    try {
+      quiescingExecutor.awaitQuiescence(/*interruptWorkers=*/ true);
+    } finally {
+      // After an interrupt or a fail-fast error, queued evaluations are dropped without running.
+      queuedEvaluations.add(-queued.getAndSet(0));
+    }
   }
 
   void enqueueEvaluation(SkyKey key) {
@@ -101,7 +114,15 @@ class NodeEntryVisitor {
       return;
     }
     progressReceiver.enqueueing(key);
-    quiescingExecutor.execute(runnableMaker.apply(key));
+    Runnable evaluation = runnableMaker.apply(key);
+    queued.incrementAndGet();
+    queuedEvaluations.add(1);
+    quiescingExecutor.execute(
+        () -> {
+          queued.decrementAndGet();
+          queuedEvaluations.add(-1);
+          evaluation.run();
+        });
   }
 
   /**
@@ -23,6 +23,7 @@ import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.BlazeClock;
@@ -83,6 +84,14 @@ import javax.annotation.Nullable;
 public final class ParallelEvaluator implements Evaluator {
   private static final Logger logger = Logger.getLogger(ParallelEvaluator.class.getName());
 
+  private static final MetricsRegistry.Counter evaluations =
+      MetricsRegistry.instance()
+          .counter("skyframe_evaluations", "Skyframe nodes visited by an evaluator thread.");
+  private static final MetricsRegistry.Histogram computeTimes =
+      MetricsRegistry.instance()
+          .histogram(
+              "skyframe_compute_nanos", "Time spent in SkyFunction#compute, in nanoseconds.");
+
   private final ProcessableGraph graph;
 
   /** An general interface for {@link ParallelEvaluator} to receive objects of type {@code T}. */
@@ -371,6 +380,7 @@ public final class ParallelEvaluator implements Evaluator {
 
     @Override
     public void run() {
+      evaluations.increment();
       try {
         NodeEntry state =
             Preconditions.checkNotNull(graph.get(null, Reason.EVALUATION, skyKey), skyKey);
@@ -400,6 +410,7 @@ public final class ParallelEvaluator implements Evaluator {
             value = factory.compute(skyKey, env);
           } finally {
             long elapsedTimeNanos = BlazeClock.instance().nanoTime() - startTime;
+            computeTimes.record(elapsedTimeNanos);
             if (elapsedTimeNanos > 0) {
               evaluatorContext.getProgressReceiver().computed(skyKey, elapsedTimeNanos);
               Profiler.instance()
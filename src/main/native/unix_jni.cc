@@ -350,7 +350,7 @@ static jobject NewErrnoFileStatus(JNIEnv *env,
   }
 
   if (saved_errno != 0) {
-    return env->NewObject(errno_file_status_class, errorno_ctor, errno);
+    return env->NewObject(errno_file_status_class, errorno_ctor, saved_errno);
   }
   return env->NewObject(
       errno_file_status_class, no_error_ctor, stat_ref.st_mode,
@@ -464,6 +464,53 @@ Java_com_google_devtools_build_lib_unix_NativePosixFiles_errnoLstat(JNIEnv *env,
   return ::StatCommon(env, path, portable_lstat, false);
 }
 
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
+ * Method:    errnoStatBatch
+ * Signature: ([Ljava/lang/String;Z)[Lcom/google/devtools/build/lib/unix/ErrnoFileStatus;
+ */
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixFiles_errnoStatBatch(
+    JNIEnv *env, jclass clazz, jobjectArray paths, jboolean follow_symlinks) {
+  static jclass errno_file_status_class = NULL;
+  if (errno_file_status_class == NULL) {  // note: harmless race condition
+    jclass local = env->FindClass("com/google/devtools/build/lib/unix/ErrnoFileStatus");
+    CHECK(local != NULL);
+    errno_file_status_class = static_cast<jclass>(env->NewGlobalRef(local));
+  }
+
+  int (*stat_function)(const char *, portable_stat_struct *) =
+      follow_symlinks ? portable_stat : portable_lstat;
+  jsize len = env->GetArrayLength(paths);
+  jobjectArray result = env->NewObjectArray(len, errno_file_status_class, NULL);
+  if (result == NULL && env->ExceptionOccurred()) {
+    return NULL;  // async exception!
+  }
+
+  for (jsize ii = 0; ii < len; ++ii) {
+    jstring path = static_cast<jstring>(env->GetObjectArrayElement(paths, ii));
+    portable_stat_struct statbuf;
+    const char *path_chars = GetStringLatin1Chars(env, path);
+    int r;
+    int saved_errno = 0;
+    while ((r = stat_function(path_chars, &statbuf)) == -1 && errno == EINTR) { }
+    if (r == -1) {
+      saved_errno = errno;
+    }
+    ::ReleaseStringLatin1Chars(path_chars);
+    env->DeleteLocalRef(path);
+
+    jobject status = NewErrnoFileStatus(env, saved_errno, statbuf);
+    if (status == NULL && env->ExceptionOccurred()) {
+      return NULL;  // async exception!
+    }
+    env->SetObjectArrayElement(result, ii, status);
+    // Avoid exhausting the local reference table on large batches.
+    env->DeleteLocalRef(status);
+  }
+  return result;
+}
+
 /*
  * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
  * Method:    utime
@@ -47,6 +47,7 @@ public class DigestUtilsTest {
   @After
   public void tearDown() {
     DigestUtils.configureCache(0);
+    DigestUtils.configureLargeFileDigests(DigestUtils.DEFAULT_LARGE_FILE_SIZE_THRESHOLD, 1);
   }
 
   private static void assertDigestCalculationConcurrency(boolean expectConcurrent,
@@ -125,6 +126,19 @@ public class DigestUtilsTest {
     }
   }
 
+  @Test
+  public void testCalculationConcurrencyWithConfiguredThreshold() throws Exception {
+    DigestUtils.configureLargeFileDigests(8192, 1);
+    assertDigestCalculationConcurrency(true, false, 8192, 8192, HashFunction.MD5);
+    assertDigestCalculationConcurrency(false, false, 8193, 8193, HashFunction.MD5);
+  }
+
+  @Test
+  public void testCalculationConcurrencyWithMultipleLargeFileJobs() throws Exception {
+    DigestUtils.configureLargeFileDigests(DigestUtils.DEFAULT_LARGE_FILE_SIZE_THRESHOLD, 2);
+    assertDigestCalculationConcurrency(true, false, 4097, 4097, HashFunction.MD5);
+  }
+
   public void assertRecoverFromMalformedDigest(HashFunction... hashFunctions) throws Exception {
     final byte[] malformed = {0, 0, 0};
     FileSystem myFS = new InMemoryFileSystem(BlazeClock.instance()) {
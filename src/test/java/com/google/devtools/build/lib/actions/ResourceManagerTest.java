@@ -21,6 +21,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
 import com.google.devtools.build.lib.testutil.TestThread;
 import com.google.devtools.build.lib.testutil.TestUtils;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -469,6 +471,91 @@ public class ResourceManagerTest {
     assertThat(rm.inUse()).isFalse();
   }
 
+  @Test
+  public void testLargeRequestIsNotStarved() throws Exception {
+    assertThat(rm.inUse()).isFalse();
+    acquire(600, 0, 0, 0);
+
+    TestThread largeThread =
+        new TestThread() {
+          @Override
+          public void runTest() throws Exception {
+            acquire(900, 0, 0, 0); // Will be blocked by the main thread.
+            validate(1);
+            release(900, 0, 0, 0);
+          }
+        };
+    largeThread.start();
+    while (rm.getWaitCount() == 0) {
+      Thread.yield();
+    }
+
+    // Small requests may overtake the large one, but only a limited number of times.
+    for (int i = 0; i < ResourceManager.MAX_BYPASSES; i++) {
+      TestThread smallThread =
+          new TestThread() {
+            @Override
+            public void runTest() throws Exception {
+              acquire(300, 0, 0, 0);
+              release(300, 0, 0, 0);
+            }
+          };
+      smallThread.start();
+      smallThread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+    }
+    assertThat(rm.isAvailable(300, 0, 0, 0)).isTrue();
+    TestThread heldBackThread =
+        new TestThread() {
+          @Override
+          public void runTest() throws Exception {
+            acquire(300, 0, 0, 0); // Will wait until the large request was granted and released.
+            validate(2);
+            release(300, 0, 0, 0);
+          }
+        };
+    heldBackThread.start();
+    while (rm.getWaitCount() < 2) {
+      Thread.yield();
+    }
+
+    release(600, 0, 0, 0);
+    largeThread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+    heldBackThread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+    assertThat(rm.inUse()).isFalse();
+  }
+
+  @Test
+  public void testManyConcurrentRequests() throws Exception {
+    assertThat(rm.inUse()).isFalse();
+    final AtomicInteger ramInUse = new AtomicInteger();
+    final AtomicInteger maxRamInUse = new AtomicInteger();
+    List<TestThread> threads = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      final int ram = (i % 7 == 0) ? 700 : 50;
+      TestThread thread =
+          new TestThread() {
+            @Override
+            public void runTest() throws Exception {
+              for (int j = 0; j < 20; j++) {
+                try (ResourceHandle handle = acquire(ram, 0, 0, 0)) {
+                  int current = ramInUse.addAndGet(ram);
+                  maxRamInUse.accumulateAndGet(current, Math::max);
+                  ramInUse.addAndGet(-ram);
+                }
+              }
+            }
+          };
+      threads.add(thread);
+      thread.start();
+    }
+    for (TestThread thread : threads) {
+      thread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+    }
+    assertThat(maxRamInUse.get()).isAtMost(1000);
+    assertThat(rm.getWaitCount()).isEqualTo(0);
+    assertThat(rm.inUse()).isFalse();
+  }
+
   private static class ResourceOwnerStub implements ActionExecutionMetadata {
 
     @Override
@@ -0,0 +1,264 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.buildeventservice;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.v1.BuildEvent.EventCase.BAZEL_EVENT;
+import static com.google.devtools.build.v1.BuildEvent.EventCase.COMPONENT_STREAM_FINISHED;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.buildeventservice.client.BuildEventServiceClient;
+import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.PathConverter;
+import com.google.devtools.build.lib.buildeventstream.ProgressEvent;
+import com.google.devtools.build.lib.runtime.BlazeModule.ModuleEnvironment;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.v1.PublishBuildToolEventStreamRequest;
+import com.google.devtools.build.v1.PublishBuildToolEventStreamResponse;
+import com.google.devtools.build.v1.PublishLifecycleEventRequest;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests for {@link BuildEventServiceTransport}. */
+@RunWith(JUnit4.class)
+public class BuildEventServiceTransportTest {
+
+  private static final PathConverter PATH_CONVERTER = path -> path.getPathString();
+
+  /**
+   * An in-process BES backend. Like the gRPC client, sending an event never blocks. Events are
+   * acknowledged in order while there are ack permits, which lets tests simulate a backend that
+   * doesn't keep up.
+   */
+  private static final class FakeBesClient implements BuildEventServiceClient {
+    private final List<PublishBuildToolEventStreamRequest> received = new ArrayList<>();
+    private final Deque<PublishBuildToolEventStreamRequest> unacked = new ArrayDeque<>();
+    private long ackPermits;
+    private CountDownLatch lifecycleEventsAllowed = new CountDownLatch(0);
+    private int failingSend = -1;
+    private Function<PublishBuildToolEventStreamResponse, Void> ackCallback;
+    private SettableFuture<Status> streamDone;
+
+    FakeBesClient(long ackPermits) {
+      this.ackPermits = ackPermits;
+    }
+
+    @Override
+    public Status publish(PublishLifecycleEventRequest lifecycleEvent)
+        throws InterruptedException {
+      lifecycleEventsAllowed.await();
+      return Status.OK;
+    }
+
+    /** Holds the upload at its first lifecycle event until {@link #releaseUpload} is called. */
+    void holdUpload() {
+      lifecycleEventsAllowed = new CountDownLatch(1);
+    }
+
+    void releaseUpload() {
+      lifecycleEventsAllowed.countDown();
+    }
+
+    /**
+     * Makes the given send over the stream fail the way the gRPC client does once the stream was
+     * closed.
+     */
+    synchronized void failSend(int index) {
+      failingSend = index;
+    }
+
+    @Override
+    public synchronized ListenableFuture<Status> openStream(
+        Function<PublishBuildToolEventStreamResponse, Void> ackCallback) {
+      this.ackCallback = ackCallback;
+      this.streamDone = SettableFuture.create();
+      return streamDone;
+    }
+
+    @Override
+    public synchronized void sendOverStream(PublishBuildToolEventStreamRequest buildEvent) {
+      if (failingSend-- == 0) {
+        streamDone.setException(Status.UNAVAILABLE.asException());
+        throw new NullPointerException("Attempting to send over a closed or unopened stream");
+      }
+      received.add(buildEvent);
+      unacked.addLast(buildEvent);
+      sendAcks();
+    }
+
+    synchronized void releaseAcks(long count) {
+      ackPermits += count;
+      sendAcks();
+    }
+
+    private void sendAcks() {
+      while (ackPermits > 0 && !unacked.isEmpty()) {
+        ackPermits--;
+        PublishBuildToolEventStreamRequest buildEvent = unacked.removeFirst();
+        ackCallback.apply(
+            PublishBuildToolEventStreamResponse.newBuilder()
+                .setSequenceNumber(buildEvent.getSequenceNumber())
+                .build());
+        if (buildEvent.getEvent().getEventCase() == COMPONENT_STREAM_FINISHED) {
+          streamDone.set(Status.OK);
+        }
+      }
+    }
+
+    synchronized int getUnackedCount() {
+      return unacked.size();
+    }
+
+    @Override
+    public void closeStream() {}
+
+    @Override
+    public synchronized void abortStream(Status status) {
+      // Like the gRPC client, whose stream fails with the status.
+      streamDone.setException(status.asException());
+    }
+
+    @Override
+    public boolean isStreamActive() {
+      return !streamDone.isDone();
+    }
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public String userReadableError(Throwable t) {
+      return t.getMessage();
+    }
+
+    synchronized List<PublishBuildToolEventStreamRequest> getReceived() {
+      return new ArrayList<>(received);
+    }
+  }
+
+  private static BuildEventServiceTransport newTransport(
+      BuildEventServiceClient besClient, long maxBufferedBytes, long maxSpilledBytes) {
+    return new BuildEventServiceTransport(
+        besClient,
+        Duration.ZERO,
+        /*bestEffortUpload=*/ false,
+        /*publishLifecycleEvents=*/ true,
+        maxBufferedBytes,
+        maxSpilledBytes,
+        Mockito.mock(ModuleEnvironment.class),
+        new BuildEventServiceProtoUtil("buildRequestId", "invocationId", null, new ManualClock()),
+        PATH_CONVERTER,
+        event -> {});
+  }
+
+  private static List<Integer> progressNumbers(List<PublishBuildToolEventStreamRequest> events)
+      throws InvalidProtocolBufferException {
+    List<Integer> numbers = new ArrayList<>();
+    for (PublishBuildToolEventStreamRequest event : events) {
+      if (event.getEvent().getEventCase() == BAZEL_EVENT) {
+        BuildEventStreamProtos.BuildEvent bazelEvent =
+            event.getEvent().getBazelEvent().unpack(BuildEventStreamProtos.BuildEvent.class);
+        numbers.add(bazelEvent.getId().getProgress().getOpaqueCount());
+      }
+    }
+    return numbers;
+  }
+
+  @Test
+  public void testEventsAreUploadedInOrderThroughTheSpillFile() throws Exception {
+    FakeBesClient besClient = new FakeBesClient(Long.MAX_VALUE);
+    BuildEventServiceTransport transport = newTransport(besClient, 1, 1 << 20);
+    ArtifactGroupNamer namer = Mockito.mock(ArtifactGroupNamer.class);
+    for (int i = 0; i < 1000; i++) {
+      transport.sendBuildEvent(ProgressEvent.progressUpdate(i), namer);
+    }
+    transport.close().get();
+
+    List<PublishBuildToolEventStreamRequest> received = besClient.getReceived();
+    assertThat(received).hasSize(1001);
+    for (int i = 0; i < received.size(); i++) {
+      assertThat(received.get(i).getSequenceNumber()).isEqualTo(i + 1);
+    }
+    List<Integer> numbers = progressNumbers(received);
+    assertThat(numbers).hasSize(1000);
+    for (int i = 0; i < numbers.size(); i++) {
+      assertThat(numbers.get(i)).isEqualTo(i);
+    }
+    assertThat(received.get(1000).getEvent().getEventCase()).isEqualTo(COMPONENT_STREAM_FINISHED);
+  }
+
+  @Test
+  public void testSlowBackendBlocksTheProducer() throws Exception {
+    // The backend receives every event right away, but doesn't acknowledge any.
+    FakeBesClient besClient = new FakeBesClient(0);
+    // No spilling, and room for a single event.
+    BuildEventServiceTransport transport = newTransport(besClient, 1, 0);
+    ArtifactGroupNamer namer = Mockito.mock(ArtifactGroupNamer.class);
+    Thread producer =
+        new Thread(
+            () -> {
+              for (int i = 0; i < 10; i++) {
+                transport.sendBuildEvent(ProgressEvent.progressUpdate(i), namer);
+              }
+            });
+    producer.start();
+    producer.join(200);
+    assertThat(producer.isAlive()).isTrue();
+    // Only the single event allowed by the limit was sent without its ack.
+    assertThat(besClient.getUnackedCount()).isEqualTo(1);
+
+    besClient.releaseAcks(Long.MAX_VALUE / 2);
+    producer.join();
+    transport.close().get();
+    assertThat(progressNumbers(besClient.getReceived()))
+        .containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)
+        .inOrder();
+  }
+
+  @Test
+  public void testEventsOfAFailedBatchAreResent() throws Exception {
+    FakeBesClient besClient = new FakeBesClient(Long.MAX_VALUE);
+    besClient.holdUpload();
+    besClient.failSend(3);
+    BuildEventServiceTransport transport = newTransport(besClient, 1 << 20, 0);
+    ArtifactGroupNamer namer = Mockito.mock(ArtifactGroupNamer.class);
+    for (int i = 0; i < 10; i++) {
+      transport.sendBuildEvent(ProgressEvent.progressUpdate(i), namer);
+    }
+    // All events are queued before the stream opens, so the failing send is in the middle of a
+    // batch.
+    besClient.releaseUpload();
+    transport.close().get();
+
+    List<PublishBuildToolEventStreamRequest> received = besClient.getReceived();
+    assertThat(received).hasSize(11);
+    for (int i = 0; i < received.size(); i++) {
+      assertThat(received.get(i).getSequenceNumber()).isEqualTo(i + 1);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.buildeventservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.v1.PublishBuildToolEventStreamRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SpillingEventQueue}. */
+@RunWith(JUnit4.class)
+public class SpillingEventQueueTest {
+
+  private static PublishBuildToolEventStreamRequest event(int sequenceNumber) {
+    return PublishBuildToolEventStreamRequest.newBuilder()
+        .setSequenceNumber(sequenceNumber)
+        .build();
+  }
+
+  private static List<Long> sequenceNumbers(List<PublishBuildToolEventStreamRequest> events) {
+    List<Long> result = new ArrayList<>();
+    for (PublishBuildToolEventStreamRequest event : events) {
+      result.add(event.getSequenceNumber());
+    }
+    return result;
+  }
+
+  private static SpillingEventQueue<PublishBuildToolEventStreamRequest> newQueue(
+      long maxMemoryEvents, long maxSpilledEvents) {
+    long size = event(1).getSerializedSize();
+    return new SpillingEventQueue<>(
+        PublishBuildToolEventStreamRequest.parser(),
+        maxMemoryEvents * size,
+        maxSpilledEvents * size);
+  }
+
+  @Test
+  public void testOrderIsKeptAcrossSpilling() throws Exception {
+    SpillingEventQueue<PublishBuildToolEventStreamRequest> queue = newQueue(2, 100);
+    for (int i = 1; i <= 5; i++) {
+      queue.add(event(i));
+    }
+    assertThat(queue.spilledCount()).isEqualTo(3);
+
+    assertThat(sequenceNumbers(queue.takeBatch(3))).containsExactly(1L, 2L, 3L).inOrder();
+    // Once events were spilled, new events go to disk too, even if the memory has room again.
+    queue.add(event(6));
+    queue.addFirst(event(3));
+    assertThat(queue.size()).isEqualTo(4);
+    assertThat(sequenceNumbers(queue.takeBatch(10)))
+        .containsExactly(3L, 4L, 5L, 6L)
+        .inOrder();
+    assertThat(queue.spilledCount()).isEqualTo(0);
+
+    // The queue starts over in memory once the spilled events were taken.
+    queue.add(event(7));
+    assertThat(queue.spilledCount()).isEqualTo(0);
+    assertThat(sequenceNumbers(queue.takeBatch(10))).containsExactly(7L);
+  }
+
+  @Test
+  public void testAddBlocksWhenFull() throws Exception {
+    SpillingEventQueue<PublishBuildToolEventStreamRequest> queue = newQueue(1, 0);
+    queue.add(event(1));
+    CountDownLatch added = new CountDownLatch(1);
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                queue.add(event(2));
+                added.countDown();
+              } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    producer.start();
+    assertThat(added.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+    assertThat(sequenceNumbers(queue.takeBatch(10))).containsExactly(1L);
+    assertThat(added.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(sequenceNumbers(queue.takeBatch(10))).containsExactly(2L);
+    producer.join();
+  }
+
+  @Test
+  public void testAddWithoutLimitKeepsOrder() throws Exception {
+    SpillingEventQueue<PublishBuildToolEventStreamRequest> queue = newQueue(1, 0);
+    queue.add(event(1));
+    queue.addWithoutLimit(event(2));
+    assertThat(sequenceNumbers(queue.takeBatch(10))).containsExactly(1L, 2L).inOrder();
+
+    queue = newQueue(1, 1);
+    queue.add(event(1));
+    queue.add(event(2));
+    queue.addWithoutLimit(event(3));
+    assertThat(queue.spilledCount()).isEqualTo(2);
+    assertThat(sequenceNumbers(queue.takeBatch(10))).containsExactly(1L, 2L, 3L).inOrder();
+  }
+
+  @Test
+  public void testCloseReleasesWaitingThreads() throws Exception {
+    SpillingEventQueue<PublishBuildToolEventStreamRequest> queue = newQueue(1, 1);
+    queue.add(event(1));
+    queue.add(event(2));
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                queue.add(event(3));
+              } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    producer.start();
+
+    queue.close();
+    producer.join();
+    assertThat(queue.size()).isEqualTo(0);
+    assertThat(queue.takeBatch(10)).isEmpty();
+    queue.add(event(4));
+    assertThat(queue.takeBatch(10)).isEmpty();
+  }
+}
@@ -17,6 +17,7 @@ package com.google.devtools.build.lib.buildeventstream.transports;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.when;
 
+import com.google.common.base.Strings;
 import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
 import com.google.devtools.build.lib.buildeventstream.BuildEvent;
 import com.google.devtools.build.lib.buildeventstream.BuildEventConverters;
@@ -28,6 +29,8 @@ import com.google.devtools.build.lib.buildeventstream.PathConverter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
 import org.junit.After;
 import org.junit.Before;
@@ -96,6 +99,34 @@ public class BinaryFormatFileTransportTest {
     }
   }
 
+  @Test
+  public void testWritesManyEventsInOrder() throws Exception {
+    File output = tmp.newFile();
+    BinaryFormatFileTransport transport =
+        new BinaryFormatFileTransport(output.getAbsolutePath(), pathConverter);
+
+    List<BuildEventStreamProtos.BuildEvent> events = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      // Every 1000th event is larger than the initial write buffer.
+      String stdout = Strings.repeat("x", i % 1000 == 0 ? 100000 : i % 100);
+      BuildEventStreamProtos.BuildEvent progress =
+          BuildEventStreamProtos.BuildEvent.newBuilder()
+              .setProgress(Progress.newBuilder().setStdout(stdout + i))
+              .build();
+      events.add(progress);
+      when(buildEvent.asStreamProto(Matchers.<BuildEventConverters>any())).thenReturn(progress);
+      transport.sendBuildEvent(buildEvent, artifactGroupNamer);
+    }
+
+    transport.close().get();
+    try (InputStream in = new FileInputStream(output)) {
+      for (BuildEventStreamProtos.BuildEvent event : events) {
+        assertThat(BuildEventStreamProtos.BuildEvent.parseDelimitedFrom(in)).isEqualTo(event);
+      }
+      assertThat(in.available()).isEqualTo(0);
+    }
+  }
+
   @Test
   public void testFileDoesNotExist() throws Exception {
     // Get a file that doesn't exist by creating a new file and immediately deleting it.
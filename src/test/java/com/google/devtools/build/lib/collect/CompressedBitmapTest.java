@@ -0,0 +1,123 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.primitives.Ints;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** A test for {@link CompressedBitmap}. */
+@RunWith(JUnit4.class)
+public class CompressedBitmapTest {
+
+  @Test
+  public void addRemoveContains() {
+    CompressedBitmap bitmap = new CompressedBitmap();
+    assertThat(bitmap.isEmpty()).isTrue();
+    assertThat(bitmap.add(3)).isTrue();
+    assertThat(bitmap.add(3)).isFalse();
+    assertThat(bitmap.add(1 << 20)).isTrue();
+    assertThat(bitmap.contains(3)).isTrue();
+    assertThat(bitmap.contains(4)).isFalse();
+    assertThat(bitmap.contains(-1)).isFalse();
+    assertThat(bitmap.toArray()).asList().containsExactly(3, 1 << 20).inOrder();
+
+    assertThat(bitmap.remove(3)).isTrue();
+    assertThat(bitmap.remove(3)).isFalse();
+    assertThat(bitmap.remove(1 << 20)).isTrue();
+    assertThat(bitmap.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void denseChunks() {
+    CompressedBitmap bitmap = new CompressedBitmap();
+    for (int i = 0; i < 20000; i += 2) {
+      bitmap.add(i);
+    }
+    assertThat(bitmap.cardinality()).isEqualTo(10000);
+    assertThat(bitmap.contains(19998)).isTrue();
+    assertThat(bitmap.contains(19999)).isFalse();
+    for (int i = 0; i < 20000; i += 4) {
+      bitmap.remove(i);
+    }
+    assertThat(bitmap.cardinality()).isEqualTo(5000);
+    assertThat(bitmap.toArray()[0]).isEqualTo(2);
+  }
+
+  @Test
+  public void setOperationsMatchTreeSet() {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      // Alternate between sparse and dense values, so that all kinds of chunks meet.
+      int range = round % 2 == 0 ? 1 << 22 : 1 << 17;
+      TreeSet<Integer> left = randomSet(random, range);
+      TreeSet<Integer> right = randomSet(random, range);
+
+      TreeSet<Integer> union = new TreeSet<>(left);
+      union.addAll(right);
+      assertThat(Ints.asList(or(left, right).toArray())).containsExactlyElementsIn(union).inOrder();
+
+      TreeSet<Integer> intersection = new TreeSet<>(left);
+      intersection.retainAll(right);
+      CompressedBitmap and = toBitmap(left);
+      and.and(toBitmap(right));
+      assertThat(Ints.asList(and.toArray())).containsExactlyElementsIn(intersection).inOrder();
+
+      TreeSet<Integer> difference = new TreeSet<>(left);
+      difference.removeAll(right);
+      CompressedBitmap andNot = toBitmap(left);
+      andNot.andNot(toBitmap(right));
+      assertThat(Ints.asList(andNot.toArray())).containsExactlyElementsIn(difference).inOrder();
+      assertThat(andNot.cardinality()).isEqualTo(difference.size());
+    }
+  }
+
+  @Test
+  public void orDoesNotShareChunks() {
+    CompressedBitmap left = new CompressedBitmap();
+    CompressedBitmap right = new CompressedBitmap();
+    right.add(5);
+    left.or(right);
+    left.add(6);
+    assertThat(right.toArray()).asList().containsExactly(5);
+  }
+
+  private static CompressedBitmap or(TreeSet<Integer> left, TreeSet<Integer> right) {
+    CompressedBitmap result = toBitmap(left);
+    result.or(toBitmap(right));
+    return result;
+  }
+
+  private static TreeSet<Integer> randomSet(Random random, int range) {
+    TreeSet<Integer> result = new TreeSet<>();
+    int count = random.nextInt(20000);
+    for (int i = 0; i < count; i++) {
+      result.add(random.nextInt(range));
+    }
+    return result;
+  }
+
+  private static CompressedBitmap toBitmap(Iterable<Integer> values) {
+    CompressedBitmap bitmap = new CompressedBitmap();
+    for (int value : values) {
+      bitmap.add(value);
+    }
+    return bitmap;
+  }
+}
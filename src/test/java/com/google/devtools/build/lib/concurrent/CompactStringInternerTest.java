@@ -0,0 +1,86 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompactStringInterner}. */
+@RunWith(JUnit4.class)
+public class CompactStringInternerTest {
+
+  @Test
+  public void equalStringsAreCanonicalized() {
+    CompactStringInterner interner = new CompactStringInterner(1);
+    String first = interner.intern(new String("foo"));
+    assertThat(interner.intern(new String("foo"))).isSameAs(first);
+    assertThat(interner.intern(new String("bar"))).isNotSameAs(first);
+    assertThat(interner.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void survivesResizing() {
+    CompactStringInterner interner = new CompactStringInterner(2);
+    List<String> canonical = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      canonical.add(interner.intern("segment" + i));
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertThat(interner.intern("segment" + i)).isSameAs(canonical.get(i));
+    }
+    assertThat(interner.size()).isEqualTo(10000);
+  }
+
+  @Test
+  public void concurrentInterningAgreesOnCanonicalInstance() throws Exception {
+    final CompactStringInterner interner = new CompactStringInterner(4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String[]>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(
+            executor.submit(
+                new Callable<String[]>() {
+                  @Override
+                  public String[] call() {
+                    String[] result = new String[1000];
+                    for (int i = 0; i < result.length; i++) {
+                      result[i] = interner.intern("name" + i);
+                    }
+                    return result;
+                  }
+                }));
+      }
+      String[] expected = futures.get(0).get();
+      for (Future<String[]> future : futures) {
+        String[] actual = future.get();
+        for (int i = 0; i < expected.length; i++) {
+          assertThat(actual[i]).isSameAs(expected[i]);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(interner.size()).isEqualTo(1000);
+  }
+}
@@ -151,4 +151,41 @@ public class DigraphTest {
                 Label.create("pkg", "e"),
                 Label.create("pkg", "g")));
   }
+
+  @Test
+  public void testShortestPath() throws Exception {
+    Digraph<String> digraph = new Digraph<>();
+    // a -> b -> c -> d -> e, with shortcuts a -> x -> d and e -> b.
+    digraph.addEdge("a", "b");
+    digraph.addEdge("b", "c");
+    digraph.addEdge("c", "d");
+    digraph.addEdge("d", "e");
+    digraph.addEdge("a", "x");
+    digraph.addEdge("x", "d");
+    digraph.addEdge("e", "b");
+    digraph.createNode("y");
+
+    assertThat(labels(digraph.getShortestPath(node(digraph, "a"), node(digraph, "e"))))
+        .containsExactly("a", "x", "d", "e")
+        .inOrder();
+    assertThat(labels(digraph.getShortestPath(node(digraph, "e"), node(digraph, "c"))))
+        .containsExactly("e", "b", "c")
+        .inOrder();
+    assertThat(labels(digraph.getShortestPath(node(digraph, "c"), node(digraph, "c"))))
+        .containsExactly("c");
+    assertThat(digraph.getShortestPath(node(digraph, "e"), node(digraph, "a"))).isNull();
+    assertThat(digraph.getShortestPath(node(digraph, "a"), node(digraph, "y"))).isNull();
+  }
+
+  private static Node<String> node(Digraph<String> digraph, String label) {
+    return digraph.createNode(label);
+  }
+
+  private static List<String> labels(List<Node<String>> path) {
+    List<String> result = Lists.newArrayList();
+    for (Node<String> node : path) {
+      result.add(node.getLabel());
+    }
+    return result;
+  }
 }
@@ -15,9 +15,13 @@ package com.google.devtools.build.lib.packages;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
+import com.google.devtools.build.lib.syntax.GlobCriteria;
+import com.google.devtools.build.lib.syntax.GlobList;
 import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
@@ -139,4 +143,51 @@ public class AttributeContainerTest {
       }
     }
   }
+
+  @Test
+  public void testCompact() throws Exception {
+    Object sharedValue = new Object();
+    Object otherValue = new Object();
+    AttributeContainer other = new AttributeContainer(ruleClass);
+    container.setAttributeValue(attribute1, sharedValue, false);
+    container.setAttributeValue(attribute2, sharedValue, true);
+    other.setAttributeValue(attribute1, sharedValue, false);
+    other.setAttributeValue(attribute2, otherValue, true);
+
+    AttributeContainer.compact(Arrays.asList(container, other));
+
+    assertThat(container.getAttr(attribute1.getName())).isSameAs(sharedValue);
+    assertThat(container.getAttr(attribute2.getName())).isSameAs(sharedValue);
+    assertThat(other.getAttr(attribute1.getName())).isSameAs(sharedValue);
+    assertThat(other.getAttr(attribute2.getName())).isSameAs(otherValue);
+    assertThat(container.isAttributeValueExplicitlySpecified(attribute2)).isTrue();
+    assertThat(container.getStoredValueCount()).isEqualTo(0);
+    assertThat(other.getStoredValueCount()).isEqualTo(1);
+
+    // Containers can still be modified, without affecting the others.
+    container.setAttributeValue(attribute1, otherValue, true);
+    assertThat(container.getAttr(attribute1.getName())).isSameAs(otherValue);
+    assertThat(container.getAttr(attribute2.getName())).isSameAs(sharedValue);
+    assertThat(other.getAttr(attribute1.getName())).isSameAs(sharedValue);
+  }
+
+  @Test
+  public void testCompactSharesEqualImmutableValues() throws Exception {
+    AttributeContainer other = new AttributeContainer(ruleClass);
+    container.setAttributeValue(attribute1, new ArrayList<>(Arrays.asList("a", "b")), true);
+    other.setAttributeValue(attribute1, new ArrayList<>(Arrays.asList("a", "b")), true);
+    GlobList<String> globList =
+        new GlobList<>(ImmutableList.<GlobCriteria>of(), Arrays.asList("a", "b"));
+    AttributeContainer glob = new AttributeContainer(ruleClass);
+    glob.setAttributeValue(attribute1, globList, true);
+
+    AttributeContainer.compact(Arrays.asList(container, other, glob));
+
+    assertThat(other.getAttr(attribute1.getName()))
+        .isSameAs(container.getAttr(attribute1.getName()));
+    // Shared lists can't be modified through one of the rules.
+    assertThat(container.getAttr(attribute1.getName())).isInstanceOf(ImmutableList.class);
+    assertThat(container.getAttr(attribute1.getName())).isEqualTo(Arrays.asList("a", "b"));
+    assertThat(glob.getAttr(attribute1.getName())).isSameAs(globList);
+  }
 }
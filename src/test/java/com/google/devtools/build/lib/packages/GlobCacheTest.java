@@ -16,7 +16,9 @@ package com.google.devtools.build.lib.packages;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.packages.Globber.BadGlobException;
 import com.google.devtools.build.lib.testutil.Scratch;
@@ -48,6 +50,7 @@ public class GlobCacheTest {
   private Path packageDirectory;
   private Path buildFile;
   private GlobCache cache;
+  private final Multiset<String> locatorLookups = ConcurrentHashMultiset.create();
 
   @Before
   public final void createFiles() throws Exception  {
@@ -95,6 +98,7 @@ public class GlobCacheTest {
               @Override
               public Path getBuildFileForPackage(PackageIdentifier packageId) {
                 String packageName = packageId.getPackageFragment().getPathString();
+                locatorLookups.add(packageName);
                 if (packageName.equals("isolated")) {
                   return scratch.resolve("isolated/BUILD");
                 } else if (packageName.equals("isolated/sub")) {
@@ -194,6 +198,17 @@ public class GlobCacheTest {
         "foo/second.js", "bar/second.js");
   }
 
+  @Test
+  public void testSubpackageBoundariesAreLookedUpOncePerPackage() throws Exception {
+    assertThat(cache.globUnsorted(list("**/*.js"), list("**/second.js"), false))
+        .containsExactly("first.js", "foo/first.js", "bar/first.js");
+    assertThat(cache.globUnsorted(list("**/*.txt"), NONE, false))
+        .containsExactly("first.txt", "second.txt");
+    assertThat(locatorLookups.count("isolated/foo")).isEqualTo(1);
+    assertThat(locatorLookups.count("isolated/bar")).isEqualTo(1);
+    assertThat(locatorLookups.count("isolated/sub")).isEqualTo(1);
+  }
+
   @Test
   public void testSingleFileExclude_Star() throws Exception {
     assertThat(cache.globUnsorted(list("*"), list("first.txt"), false)).containsExactly(
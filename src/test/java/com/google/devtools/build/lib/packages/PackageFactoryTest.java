@@ -26,6 +26,7 @@ import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
 import com.google.devtools.build.lib.packages.util.PackageFactoryTestBase;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.GlobList;
 import com.google.devtools.build.lib.syntax.Type;
 import com.google.devtools.build.lib.testutil.TestUtils;
@@ -1210,6 +1211,76 @@ public class PackageFactoryTest extends PackageFactoryTestBase {
         "package(default_restricted_to=['//foo', '//bar', '//foo'])");
   }
 
+  @Test
+  public void testPrefetchGlobsStartsGlobsWithLiteralArguments() throws Exception {
+    BuildFileAST ast =
+        BuildFileAST.parseBuildString(
+            events.reporter(),
+            "cc_library(name = 'a', srcs = glob(['*.cc'], exclude = ['x.cc']))",
+            "cc_library(name = 'b', srcs = glob(include = ['*.h'], exclude_directories = 0)",
+            "    + select({'//conditions:default': glob(['*.inc'])}))",
+            "cc_library(name = 'c', srcs = glob(['*.c', PATTERN]))",
+            "cc_library(name = 'd', srcs = glob(['*.s']) if True else glob(['*.S']))",
+            "cc_library(name = 'e', srcs = [f for f in glob(['*.o'])])",
+            "cc_library(name = 'f', srcs = glob(['*.a'], exclude = EXCLUDES))");
+    final List<String> started = new ArrayList<>();
+    Globber globber =
+        new Globber() {
+          @Override
+          public Token runAsync(List<String> includes, List<String> excludes, boolean excludeDirs) {
+            started.add(includes + " - " + excludes + (excludeDirs ? "" : " with dirs"));
+            return null;
+          }
+
+          @Override
+          public List<String> fetch(Token token) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public void onInterrupt() {}
+
+          @Override
+          public void onCompletion() {}
+        };
+
+    PackageFactory.prefetchGlobs(ast, globber);
+
+    assertThat(started)
+        .containsExactly("[*.cc] - [x.cc]", "[*.h] - [] with dirs", "[*.inc] - []")
+        .inOrder();
+  }
+
+  @Test
+  public void testRulesOfAClassShareAttributeValues() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      lines.add(
+          String.format(
+              "cc_library(name = 'lib%d', srcs = ['lib%d.cc'], deps = ['//base', '//util'])",
+              i, i));
+    }
+    Path buildFile = scratch.file("/generated/BUILD", lines.toArray(new String[0]));
+    Package pkg = packages.createPackage("generated", buildFile);
+
+    Rule first = pkg.getRule("lib0");
+    int attributeCount = first.getRuleClassObject().getAttributeCount();
+    for (int i = 0; i < 100; i++) {
+      Rule rule = pkg.getRule("lib" + i);
+      // Only the values that depend on the name of the rule are not shared.
+      assertThat(rule.getAttributeContainer().getStoredValueCount()).isLessThan(5);
+      RawAttributeMapper attributes = RawAttributeMapper.of(rule);
+      assertThat(attributes.get("name", Type.STRING)).isEqualTo("lib" + i);
+      assertThat(attributes.get("srcs", BuildType.LABEL_LIST))
+          .containsExactly(Label.parseAbsolute("//generated:lib" + i + ".cc"));
+      assertThat(attributes.get("deps", BuildType.LABEL_LIST))
+          .isSameAs(RawAttributeMapper.of(first).get("deps", BuildType.LABEL_LIST));
+      assertThat(attributes.isAttributeValueExplicitlySpecified("deps")).isTrue();
+      assertThat(attributes.isAttributeValueExplicitlySpecified("copts")).isFalse();
+    }
+    assertThat(attributeCount).isGreaterThan(20);
+  }
+
   /**
    * Test that build files that reassign builtins fail correctly.
    */
@@ -0,0 +1,122 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.profiler.MetricsRegistry.Histogram;
+import com.google.devtools.build.lib.profiler.MetricsRegistry.HistogramSnapshot;
+import com.google.devtools.build.lib.profiler.MetricsRegistry.Snapshot;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link MetricsRegistry}. */
+@RunWith(JUnit4.class)
+public class MetricsRegistryTest {
+
+  @Test
+  public void testHistogramBuckets() {
+    long previousUpperBound = -1;
+    for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+      long upperBound = Histogram.bucketUpperBound(i);
+      assertThat(upperBound).isGreaterThan(previousUpperBound);
+      assertThat(Histogram.bucketIndex(previousUpperBound + 1)).isEqualTo(i);
+      assertThat(Histogram.bucketIndex(upperBound)).isEqualTo(i);
+      // The bucket width bounds the relative error.
+      assertThat(upperBound - previousUpperBound - 1)
+          .isAtMost((previousUpperBound + 1) / Histogram.SUB_BUCKETS);
+      previousUpperBound = upperBound;
+    }
+    assertThat(previousUpperBound).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testSnapshotAndReset() {
+    MetricsRegistry registry = MetricsRegistry.instance();
+    registry.counter("test_counter", "A counter.").add(3);
+    registry.counter("test_counter", "A counter.").increment();
+    MetricsRegistry.Gauge gauge = registry.gauge("test_gauge", "A gauge.");
+    gauge.add(5);
+    gauge.add(-3);
+    registry.registerGauge("test_supplied_gauge", "A supplied gauge.", () -> 42);
+    Histogram histogram = registry.histogram("test_histogram", "A histogram.");
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+
+    Snapshot snapshot = registry.snapshot();
+    assertThat(snapshot.getCounters()).containsEntry("test_counter", 4L);
+    assertThat(snapshot.getGauges()).containsEntry("test_gauge", 2L);
+    assertThat(snapshot.getGauges()).containsEntry("test_gauge_peak", 5L);
+    assertThat(snapshot.getGauges()).containsEntry("test_supplied_gauge", 42L);
+    HistogramSnapshot histogramSnapshot = snapshot.getHistograms().get("test_histogram");
+    assertThat(histogramSnapshot.getCount()).isEqualTo(1000);
+    assertThat(histogramSnapshot.getSum()).isEqualTo(500500);
+    assertThat(histogramSnapshot.getMax()).isEqualTo(1000);
+    assertThat(histogramSnapshot.getValueAtPercentile(100)).isEqualTo(1000);
+    long median = histogramSnapshot.getValueAtPercentile(50);
+    assertThat(median).isAtLeast(500L);
+    assertThat(median).isAtMost(500L + 500 / Histogram.SUB_BUCKETS);
+
+    registry.reset();
+    snapshot = registry.snapshot();
+    assertThat(snapshot.getCounters()).containsEntry("test_counter", 0L);
+    assertThat(snapshot.getGauges()).containsEntry("test_gauge", 2L);
+    assertThat(snapshot.getGauges()).containsEntry("test_gauge_peak", 2L);
+    assertThat(snapshot.getHistograms().get("test_histogram").getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPrometheusText() {
+    MetricsRegistry registry = MetricsRegistry.instance();
+    registry.reset();
+    registry.counter("test_prometheus_counter", "Counts things.").add(7);
+    registry.gauge("test_prometheus_gauge", "Measures things.").add(3);
+    Histogram histogram = registry.histogram("test_prometheus_histogram", "Some values.");
+    histogram.record(1);
+    histogram.record(1);
+    histogram.record(20);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true);
+    registry.snapshot().writePrometheusText(out);
+    String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    assertThat(text)
+        .contains(
+            "# HELP test_prometheus_counter_total Counts things.\n"
+                + "# TYPE test_prometheus_counter_total counter\n"
+                + "test_prometheus_counter_total 7\n");
+    assertThat(text)
+        .contains(
+            "# HELP test_prometheus_gauge Measures things.\n"
+                + "# TYPE test_prometheus_gauge gauge\n"
+                + "test_prometheus_gauge 3\n"
+                + "# HELP test_prometheus_gauge_peak Highest value of test_prometheus_gauge since"
+                + " the start of the command.\n"
+                + "# TYPE test_prometheus_gauge_peak gauge\n"
+                + "test_prometheus_gauge_peak 3\n");
+    assertThat(text)
+        .contains(
+            "# TYPE test_prometheus_histogram histogram\n"
+                + "test_prometheus_histogram_bucket{le=\"1\"} 2\n"
+                + "test_prometheus_histogram_bucket{le=\"20\"} 3\n"
+                + "test_prometheus_histogram_bucket{le=\"+Inf\"} 3\n"
+                + "test_prometheus_histogram_sum 22\n"
+                + "test_prometheus_histogram_count 3\n");
+  }
+}
@@ -17,7 +17,11 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static org.junit.Assert.fail;
 
+import com.google.devtools.build.lib.profiler.ProfileInfo.CriticalPathEntry;
 import com.google.devtools.build.lib.profiler.Profiler.ProfiledTaskKinds;
+import com.google.devtools.build.lib.profiler.output.ChromeTraceJson;
+import com.google.devtools.build.lib.profiler.statistics.PhaseStatistics;
+import com.google.devtools.build.lib.profiler.statistics.StreamingProfileStatistics;
 import com.google.devtools.build.lib.testutil.FoundationTestCase;
 import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.testutil.Suite;
@@ -26,8 +30,10 @@ import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Clock;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
@@ -422,6 +428,100 @@ public class ProfilerTest extends FoundationTestCase {
     assertThat(info.getStatsForType(ProfilerTask.UNKNOWN, info.rootTasksById).count).isEqualTo(2);
   }
 
+  @Test
+  public void testStreamingStatisticsMatchLoadedProfile() throws Exception {
+    Path cacheFile = cacheDir.getRelative("profile5.dat");
+    profiler.start(ProfiledTaskKinds.ALL, cacheFile.getOutputStream(), "streaming test", false,
+        BlazeClock.instance(), BlazeClock.instance().nanoTime());
+    profiler.markPhase(ProfilePhase.LOAD);
+    profiler.startTask(ProfilerTask.SKYLARK_USER_FN, "rule_impl");
+    clock.advanceMillis(5);
+    profiler.logSimpleTask(clock.nanoTime() - 3000000, ProfilerTask.SKYLARK_BUILTIN_FN, "len");
+    profiler.completeTask(ProfilerTask.SKYLARK_USER_FN);
+    Thread worker = new Thread() {
+      @Override public void run() {
+        Profiler.instance().startTask(ProfilerTask.ACTION, "worker action");
+        clock.advanceMillis(20);
+        long start = clock.nanoTime();
+        clock.advanceMillis(15);
+        Profiler.instance().logSimpleTask(start, ProfilerTask.VFS_STAT, "stat");
+        Profiler.instance().completeTask(ProfilerTask.ACTION);
+      }
+    };
+    worker.start();
+    worker.join();
+    profiler.markPhase(ProfilePhase.EXECUTE);
+    profiler.startTask(ProfilerTask.ACTION, "action");
+    profiler.startTask(ProfilerTask.ACTION_EXECUTE, "execute");
+    clock.advanceMillis(30);
+    profiler.completeTask(ProfilerTask.ACTION_EXECUTE);
+    profiler.completeTask(ProfilerTask.ACTION);
+    profiler.startTask(ProfilerTask.CRITICAL_PATH, "critical path");
+    profiler.logSimpleTaskDuration(
+        clock.nanoTime(), 40000000, ProfilerTask.CRITICAL_PATH_COMPONENT, "action");
+    profiler.completeTask(ProfilerTask.CRITICAL_PATH);
+    profiler.stop();
+
+    ProfileInfo info = ProfileInfo.loadProfile(cacheFile);
+    info.calculateStats();
+    StreamingProfileStatistics streamed =
+        StreamingProfileStatistics.create(cacheFile, new ProfileInfo.InfoListener() {
+          @Override
+          public void info(String text) {}
+
+          @Override
+          public void warn(String text) {
+            fail(text);
+          }
+        });
+
+    assertThat(streamed.getRecordCount()).isEqualTo(info.allTasksById.size());
+    for (ProfilePhase phase : ProfilePhase.values()) {
+      PhaseStatistics expected = new PhaseStatistics(phase, info, "workspace", false);
+      PhaseStatistics actual = streamed.getPhaseStatistics().get(phase);
+      assertThat(actual.wasExecuted()).isEqualTo(expected.wasExecuted());
+      assertThat(actual.getPhaseDurationNanos()).isEqualTo(expected.getPhaseDurationNanos());
+      for (ProfilerTask type : ProfilerTask.values()) {
+        assertThat(actual.getCount(type)).named(phase + " " + type)
+            .isEqualTo(expected.getCount(type));
+        assertThat(actual.getTotalDurationNanos(type)).named(phase + " " + type)
+            .isEqualTo(expected.getTotalDurationNanos(type));
+        assertThat(actual.getTotalRelativeDuration(type)).named(phase + " " + type)
+            .isEqualTo(expected.getTotalRelativeDuration(type));
+      }
+    }
+    assertThat(streamed.getPhaseStatistics().get(ProfilePhase.EXECUTE).getCount(
+        ProfilerTask.ACTION_EXECUTE)).isEqualTo(1);
+
+    CriticalPathEntry path = streamed.getCriticalPathStatistics().get().getTotalPath();
+    assertThat(path.task.getDescription()).isEqualTo("action");
+    assertThat(path.cumulativeDuration).isEqualTo(40000000);
+  }
+
+  @Test
+  public void testChromeTraceExport() throws Exception {
+    Path cacheFile = cacheDir.getRelative("profile6.dat");
+    profiler.start(ProfiledTaskKinds.ALL, cacheFile.getOutputStream(), "chrome test", false,
+        BlazeClock.instance(), BlazeClock.instance().nanoTime());
+    profiler.startTask(ProfilerTask.ACTION, "action \"quoted\"");
+    clock.advanceMillis(2);
+    profiler.completeTask(ProfilerTask.ACTION);
+    profiler.stop();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ProfileRecordReader reader = ProfileRecordReader.open(cacheFile);
+        PrintStream out = new PrintStream(bytes, true, "UTF-8")) {
+      new ChromeTraceJson(out, reader).print();
+      assertThat(reader.isCorruptedOrIncomplete()).isFalse();
+    }
+    String trace = bytes.toString("UTF-8");
+    assertThat(trace).startsWith("[");
+    assertThat(trace.trim()).endsWith("]");
+    assertThat(trace).contains(
+        "{\"name\":\"action \\\"quoted\\\"\",\"cat\":\"ACTION\",\"ph\":\"X\"");
+    assertThat(trace).contains("\"dur\":2000.000");
+  }
+
   @Test
   public void testResilenceToNonDecreasingNanoTimes() throws Exception {
     final long initialNanoTime = BlazeClock.instance().nanoTime();
@@ -0,0 +1,70 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SingleStatRecorder}. */
+@RunWith(JUnit4.class)
+public class SingleStatRecorderTest {
+
+  @Test
+  public void testStatsFromManyThreadsAreMerged() throws Exception {
+    SingleStatRecorder recorder = new SingleStatRecorder("test", 5);
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t;
+      threads[t] =
+          new Thread() {
+            @Override
+            public void run() {
+              for (int i = 0; i < 100; i++) {
+                recorder.addStat(offset + i, "stat");
+              }
+            }
+          };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // Durations are offset + i for offset in [0, 8) and i in [0, 100).
+    double sum = 0;
+    double sumOfSquares = 0;
+    for (int offset = 0; offset < 8; offset++) {
+      for (int i = 0; i < 100; i++) {
+        sum += offset + i;
+        sumOfSquares += (offset + i) * (offset + i);
+      }
+    }
+    double mean = sum / 800;
+    double stdDev = Math.sqrt(sumOfSquares / 800 - mean * mean);
+
+    MetricData data = recorder.snapshot();
+    assertThat(data.getCount()).isEqualTo(800);
+    assertThat(data.getAvg()).isWithin(1e-9).of(mean);
+    assertThat(data.getStdDev()).isWithin(1e-9).of(stdDev);
+    assertThat(data.getMax()).isEqualTo(106);
+    int histogramTotal = 0;
+    for (MetricData.HistogramElement element : data.getHistogram()) {
+      histogramTotal += element.getCount();
+    }
+    assertThat(histogramTotal).isEqualTo(800);
+  }
+}
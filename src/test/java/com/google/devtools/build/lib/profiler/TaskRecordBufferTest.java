@@ -0,0 +1,103 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TaskRecordBuffer}. */
+@RunWith(JUnit4.class)
+public class TaskRecordBufferTest {
+
+  @Test
+  public void testDrainAcrossChunks() throws Exception {
+    TaskRecordBuffer buffer = new TaskRecordBuffer(Thread.currentThread());
+    int records = TaskRecordBuffer.CHUNK_SIZE * 2 + 3;
+    int[] counts = new int[ProfilerTask.TASK_COUNT];
+    long[] durations = new long[ProfilerTask.TASK_COUNT];
+    for (int i = 1; i <= records; i++) {
+      buffer.add(i, i - 1, 10L * i, i, ProfilerTask.TEST, "task " + i, counts, durations);
+    }
+
+    List<Integer> ids = new ArrayList<>();
+    buffer.drain(
+        (threadId, id, parentId, startTime, duration, type, object, c, d) -> {
+          assertThat(threadId).isEqualTo(Thread.currentThread().getId());
+          assertThat(parentId).isEqualTo(id - 1);
+          assertThat(startTime).isEqualTo(10L * id);
+          assertThat(duration).isEqualTo((long) id);
+          assertThat(type).isEqualTo(ProfilerTask.TEST);
+          assertThat(object).isEqualTo("task " + id);
+          assertThat(c).isSameAs(counts);
+          assertThat(d).isSameAs(durations);
+          ids.add(id);
+        });
+    assertThat(ids).hasSize(records);
+    assertThat(ids.get(records - 1)).isEqualTo(records);
+
+    // Everything was consumed, and new records are picked up by the next drain.
+    buffer.add(records + 1, 0, 0, 0, ProfilerTask.TEST, "last", null, null);
+    ids.clear();
+    buffer.drain(
+        (threadId, id, parentId, startTime, duration, type, object, c, d) -> {
+          assertThat(c).isNull();
+          ids.add(id);
+        });
+    assertThat(ids).containsExactly(records + 1);
+  }
+
+  @Test
+  public void testConcurrentDrainKeepsOrder() throws Exception {
+    int records = 200000;
+    AtomicReference<TaskRecordBuffer> buffer = new AtomicReference<>();
+    Thread producer =
+        new Thread() {
+          @Override
+          public void run() {
+            buffer.set(new TaskRecordBuffer(this));
+            synchronized (buffer) {
+              buffer.notifyAll();
+            }
+            for (int i = 1; i <= records; i++) {
+              buffer.get().add(i, 0, i, 0, ProfilerTask.TEST, "task", null, null);
+            }
+          }
+        };
+    synchronized (buffer) {
+      producer.start();
+      while (buffer.get() == null) {
+        buffer.wait();
+      }
+    }
+
+    int[] lastId = {0};
+    TaskRecordBuffer.RecordSink sink =
+        (threadId, id, parentId, startTime, duration, type, object, c, d) -> {
+          assertThat(id).isEqualTo(lastId[0] + 1);
+          assertThat(startTime).isEqualTo((long) id);
+          lastId[0] = id;
+        };
+    while (!buffer.get().isOwnerTerminated()) {
+      buffer.get().drain(sink);
+    }
+    buffer.get().drain(sink);
+    assertThat(lastId[0]).isEqualTo(records);
+  }
+}
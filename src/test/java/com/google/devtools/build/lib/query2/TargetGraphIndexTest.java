@@ -0,0 +1,280 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.skyframe.GraphTester;
+import com.google.devtools.build.skyframe.QueryableGraph.Reason;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+import com.google.devtools.build.skyframe.WalkableGraph;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TargetGraphIndex}. */
+@RunWith(JUnit4.class)
+public class TargetGraphIndexTest {
+
+  private static final SkyKey UNIVERSE = GraphTester.skyKey("universe");
+
+  /** An in-memory graph that only knows the direct deps of its nodes. */
+  private static final class FakeGraph implements WalkableGraph {
+    private final Map<SkyKey, List<SkyKey>> directDeps = new LinkedHashMap<>();
+
+    FakeGraph addEdges(SkyKey from, SkyKey... to) {
+      directDeps.computeIfAbsent(from, k -> new ArrayList<>()).addAll(ImmutableList.copyOf(to));
+      for (SkyKey key : to) {
+        directDeps.computeIfAbsent(key, k -> new ArrayList<>());
+      }
+      return this;
+    }
+
+    @Override
+    public Map<SkyKey, Iterable<SkyKey>> getDirectDeps(Iterable<SkyKey> keys) {
+      Map<SkyKey, Iterable<SkyKey>> result = new HashMap<>();
+      for (SkyKey key : keys) {
+        if (directDeps.containsKey(key)) {
+          result.put(key, directDeps.get(key));
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public SkyValue getValue(SkyKey key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<SkyKey, SkyValue> getSuccessfulValues(Iterable<SkyKey> keys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<SkyKey, Exception> getMissingAndExceptions(Iterable<SkyKey> keys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Exception getException(SkyKey key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isCycle(SkyKey key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<SkyKey, Iterable<SkyKey>> getReverseDeps(Iterable<SkyKey> keys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterable<SkyKey> getCurrentlyAvailableNodes(Iterable<SkyKey> keys, Reason reason) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static Label label(String name) {
+    return Label.parseAbsoluteUnchecked("//" + name + ":" + name);
+  }
+
+  private static TargetGraphIndex build(WalkableGraph graph, Predicate<Label> allowedDeps)
+      throws InterruptedException {
+    return TargetGraphIndex.build(
+        graph,
+        UNIVERSE,
+        keys -> {
+          Map<SkyKey, Predicate<Label>> result = new HashMap<>();
+          for (SkyKey key : keys) {
+            result.put(key, allowedDeps);
+          }
+          return result;
+        });
+  }
+
+  /**
+   * Returns the index of a diamond: a depends on b and c, which both depend on d, which depends
+   * on e. The universe consists of a and b.
+   */
+  private static TargetGraphIndex buildDiamond() throws InterruptedException {
+    return build(
+        new FakeGraph()
+            .addEdges(UNIVERSE, label("a"), label("b"))
+            .addEdges(label("a"), label("b"), label("c"))
+            .addEdges(label("b"), label("d"))
+            .addEdges(label("c"), label("d"))
+            .addEdges(label("d"), label("e")),
+        Predicates.<Label>alwaysTrue());
+  }
+
+  private static List<String> names(TargetGraphIndex index, int[] ids) {
+    List<String> names = new ArrayList<>();
+    for (SkyKey key : index.getKeys(ids, 0, ids.length)) {
+      names.add(((Label) key).getName());
+    }
+    return names;
+  }
+
+  private static int[] ids(TargetGraphIndex index, String... names) {
+    List<SkyKey> keys = new ArrayList<>();
+    for (String name : names) {
+      keys.add(label(name));
+    }
+    return index.getIds(keys);
+  }
+
+  @Test
+  public void testTargetsAreNumberedInBreadthFirstOrder() throws Exception {
+    TargetGraphIndex index = buildDiamond();
+    assertThat(index.size()).isEqualTo(5);
+    assertThat(ids(index, "a", "b", "c", "d", "e")).asList().containsExactly(0, 1, 2, 3, 4);
+    assertThat(index.getId(label("f"))).isEqualTo(-1);
+    assertThat(ids(index, "a", "f")).isNull();
+  }
+
+  @Test
+  public void testReverseDepsAreTheInvertedEdges() throws Exception {
+    TargetGraphIndex index = buildDiamond();
+    assertThat(names(index, index.getReverseDeps(ids(index, "a")))).isEmpty();
+    assertThat(names(index, index.getReverseDeps(ids(index, "b")))).containsExactly("a");
+    assertThat(names(index, index.getReverseDeps(ids(index, "c")))).containsExactly("a");
+    assertThat(names(index, index.getReverseDeps(ids(index, "d")))).containsExactly("b", "c");
+    assertThat(names(index, index.getReverseDeps(ids(index, "e")))).containsExactly("d");
+    // Reverse deps shared by several targets are returned once.
+    assertThat(names(index, index.getReverseDeps(ids(index, "b", "c"))))
+        .containsExactly("a");
+  }
+
+  @Test
+  public void testDisallowedAndNonTargetEdgesAreDropped() throws Exception {
+    TargetGraphIndex index =
+        build(
+            new FakeGraph()
+                .addEdges(UNIVERSE, label("a"))
+                .addEdges(label("a"), label("b"), label("c"), GraphTester.skyKey("not a target"))
+                .addEdges(label("b"), label("d")),
+            Predicates.not(Predicates.equalTo(label("c"))));
+    assertThat(index.size()).isEqualTo(3);
+    assertThat(index.getId(label("c"))).isEqualTo(-1);
+    assertThat(names(index, index.getTransitiveClosure(ids(index, "a"), index.newAtomicBitSet())))
+        .containsExactly("a", "b", "d");
+  }
+
+  @Test
+  public void testGetPath() throws Exception {
+    TargetGraphIndex index = buildDiamond();
+    int a = index.getId(label("a"));
+    int c = index.getId(label("c"));
+    int e = index.getId(label("e"));
+    // Both paths through b and through c are shortest, and b is visited first.
+    assertThat(names(index, index.getPath(a, e))).containsExactly("a", "b", "d", "e").inOrder();
+    assertThat(names(index, index.getPath(c, e))).containsExactly("c", "d", "e").inOrder();
+    assertThat(names(index, index.getPath(a, a))).containsExactly("a");
+    assertThat(index.getPath(e, a)).isNull();
+  }
+
+  @Test
+  public void testReverseTransitiveClosureIsBoundedByDepth() throws Exception {
+    TargetGraphIndex index = buildDiamond();
+    int[] e = ids(index, "e");
+    assertThat(names(index, index.getReverseTransitiveClosure(e, index.newAtomicBitSet(), 0)))
+        .containsExactly("e");
+    assertThat(names(index, index.getReverseTransitiveClosure(e, index.newAtomicBitSet(), 1)))
+        .containsExactly("e", "d")
+        .inOrder();
+    List<String> depthTwo =
+        names(index, index.getReverseTransitiveClosure(e, index.newAtomicBitSet(), 2));
+    assertThat(depthTwo.subList(0, 2)).containsExactly("e", "d").inOrder();
+    assertThat(depthTwo.subList(2, 4)).containsExactly("b", "c");
+    assertThat(
+            names(
+                index,
+                index.getReverseTransitiveClosure(e, index.newAtomicBitSet(), Integer.MAX_VALUE)))
+        .containsExactly("a", "b", "c", "d", "e");
+  }
+
+  @Test
+  public void testVisitsSkipTargetsVisitedBefore() throws Exception {
+    TargetGraphIndex index = buildDiamond();
+    TargetGraphIndex.AtomicBitSet visited = index.newAtomicBitSet();
+    assertThat(names(index, index.getReverseTransitiveClosure(ids(index, "b"), visited, 5)))
+        .containsExactly("b", "a")
+        .inOrder();
+    assertThat(names(index, index.getReverseTransitiveClosure(ids(index, "d"), visited, 5)))
+        .containsExactly("d", "c")
+        .inOrder();
+    assertThat(index.getReverseTransitiveClosure(ids(index, "a", "c"), visited, 5)).isEmpty();
+  }
+
+  @Test
+  public void testAtomicBitSet() throws Exception {
+    // A chain long enough to need several words.
+    FakeGraph graph = new FakeGraph().addEdges(UNIVERSE, label("t0"));
+    for (int i = 0; i < 199; i++) {
+      graph.addEdges(label("t" + i), label("t" + (i + 1)));
+    }
+    TargetGraphIndex index = build(graph, Predicates.<Label>alwaysTrue());
+    assertThat(index.size()).isEqualTo(200);
+
+    TargetGraphIndex.AtomicBitSet set = index.newAtomicBitSet();
+    for (int id : new int[] {0, 63, 64, 127, 128, 199}) {
+      assertThat(set.add(id)).isTrue();
+      assertThat(set.add(id)).isFalse();
+    }
+    assertThat(set.add(1)).isTrue();
+    assertThat(set.add(65)).isTrue();
+
+    // Concurrent adds of the same numbers succeed once per number.
+    TargetGraphIndex.AtomicBitSet shared = index.newAtomicBitSet();
+    AtomicInteger added = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int id = 0; id < index.size(); id++) {
+                    if (shared.add(id)) {
+                      added.incrementAndGet();
+                    }
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(added.get()).isEqualTo(200);
+  }
+}
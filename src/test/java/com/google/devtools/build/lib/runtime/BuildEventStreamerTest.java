@@ -29,6 +29,8 @@ import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.EventReportingArtifacts;
 import com.google.devtools.build.lib.actions.Root;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.NoBuildEvent;
+import com.google.devtools.build.lib.analysis.NoBuildRequestFinishedEvent;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.analysis.config.BuildOptions;
 import com.google.devtools.build.lib.analysis.config.FragmentOptions;
@@ -52,6 +54,7 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetView;
 import com.google.devtools.build.lib.testutil.FoundationTestCase;
+import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.util.ArrayList;
@@ -294,15 +297,23 @@ public class BuildEventStreamerTest extends FoundationTestCase {
     streamer.buildEvent(new BuildCompleteEvent(new BuildResult(0)));
 
     List<BuildEvent> finalStream = transport.getEvents();
-    assertThat(finalStream).hasSize(3);
-    assertThat(ImmutableSet.of(finalStream.get(1).getEventId(), finalStream.get(2).getEventId()))
+    assertThat(finalStream).hasSize(4);
+    assertThat(
+            ImmutableSet.of(
+                finalStream.get(1).getEventId(),
+                finalStream.get(2).getEventId(),
+                finalStream.get(3).getEventId()))
         .isEqualTo(
-            ImmutableSet.of(BuildEventId.buildFinished(), ProgressEvent.INITIAL_PROGRESS_UPDATE));
+            ImmutableSet.of(
+                BuildEventId.buildFinished(),
+                BuildEventId.buildMetrics(),
+                ProgressEvent.INITIAL_PROGRESS_UPDATE));
 
     // verify the "last_message" flag.
     assertThat(transport.getEventProtos().get(0).getLastMessage()).isFalse();
     assertThat(transport.getEventProtos().get(1).getLastMessage()).isFalse();
-    assertThat(transport.getEventProtos().get(2).getLastMessage()).isTrue();
+    assertThat(transport.getEventProtos().get(2).getLastMessage()).isFalse();
+    assertThat(transport.getEventProtos().get(3).getLastMessage()).isTrue();
 
     while (!handler.transportSet.isEmpty()) {
       LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
@@ -470,13 +481,57 @@ public class BuildEventStreamerTest extends FoundationTestCase {
     streamer.buildEvent(new BuildCompleteEvent(new BuildResult(0)));
 
     List<BuildEvent> allEventsSeen = transport.getEvents();
-    assertThat(allEventsSeen).hasSize(6);
+    assertThat(allEventsSeen).hasSize(7);
     assertThat(allEventsSeen.get(0).getEventId()).isEqualTo(startEvent.getEventId());
     assertThat(allEventsSeen.get(1).getEventId()).isEqualTo(BuildEventId.buildFinished());
     BuildEvent linkEvent = allEventsSeen.get(2);
     assertThat(linkEvent.getEventId()).isEqualTo(ProgressEvent.INITIAL_PROGRESS_UPDATE);
     assertThat(allEventsSeen.get(3).getEventId()).isEqualTo(rootCauseId);
     assertThat(allEventsSeen.get(4).getEventId()).isEqualTo(failedTarget.getEventId());
+    assertThat(allEventsSeen.get(5).getEventId()).isEqualTo(BuildEventId.buildMetrics());
+  }
+
+  private static void assertAllEventsAnnounced(List<BuildEvent> events) {
+    Set<BuildEventId> announced = new HashSet<>(events.get(0).getChildrenEvents());
+    for (int i = 1; i < events.size(); i++) {
+      assertWithMessage("event %s was not announced", events.get(i).getEventId())
+          .that(announced)
+          .contains(events.get(i).getEventId());
+      announced.addAll(events.get(i).getChildrenEvents());
+    }
+  }
+
+  @Test
+  public void testNoBuildEventAnnouncesBuildMetrics() {
+    // Verify that commands without a build, like query, announce the metrics event they end with.
+
+    RecordingBuildEventTransport transport = new RecordingBuildEventTransport();
+    BuildEventStreamer streamer =
+        new BuildEventStreamer(ImmutableSet.<BuildEventTransport>of(transport), reporter);
+
+    streamer.buildEvent(new NoBuildEvent("query", 1000L, false));
+
+    List<BuildEvent> allEventsSeen = transport.getEvents();
+    assertThat(allEventsSeen).hasSize(3);
+    assertThat(allEventsSeen.get(0).getEventId()).isEqualTo(BuildEventId.buildStartedId());
+    assertThat(allEventsSeen.get(1).getEventId()).isEqualTo(BuildEventId.buildMetrics());
+    assertAllEventsAnnounced(allEventsSeen);
+  }
+
+  @Test
+  public void testNoBuildRequestFinishedEventAnnouncesBuildMetrics() {
+    RecordingBuildEventTransport transport = new RecordingBuildEventTransport();
+    BuildEventStreamer streamer =
+        new BuildEventStreamer(ImmutableSet.<BuildEventTransport>of(transport), reporter);
+
+    streamer.buildEvent(new NoBuildEvent("fetch", 1000L, true));
+    streamer.buildEvent(new NoBuildRequestFinishedEvent(ExitCode.SUCCESS, 2000L));
+
+    List<BuildEvent> allEventsSeen = transport.getEvents();
+    assertThat(allEventsSeen).hasSize(4);
+    assertThat(allEventsSeen.get(1).getEventId()).isEqualTo(BuildEventId.buildFinished());
+    assertThat(allEventsSeen.get(2).getEventId()).isEqualTo(BuildEventId.buildMetrics());
+    assertAllEventsAnnounced(allEventsSeen);
   }
 
   @Test
@@ -553,6 +608,50 @@ public class BuildEventStreamerTest extends FoundationTestCase {
     assertThat(reportedArtifactSets.get(0)).isEqualTo(eventProtos.get(4).getId().getNamedSet());
   }
 
+  @Test
+  public void testEqualArtifactSetsReportedOnce() {
+    // Verify that nested sets with equal contents, built independently of each other, are only
+    // reported once.
+    RecordingBuildEventTransport transport = new RecordingBuildEventTransport();
+    BuildEventStreamer streamer =
+        new BuildEventStreamer(ImmutableSet.<BuildEventTransport>of(transport), reporter);
+
+    BuildEvent startEvent =
+        new GenericBuildEvent(
+            testId("Initial"),
+            ImmutableSet.<BuildEventId>of(ProgressEvent.INITIAL_PROGRESS_UPDATE));
+
+    Artifact a = makeArtifact("path/a");
+    Artifact b = makeArtifact("path/b");
+    Artifact c = makeArtifact("path/c");
+    NestedSet<Artifact> group =
+        NestedSetBuilder.<Artifact>stableOrder()
+            .addTransitive(NestedSetBuilder.<Artifact>stableOrder().add(a).add(b).build())
+            .add(c)
+            .build();
+    NestedSet<Artifact> equalGroup =
+        NestedSetBuilder.<Artifact>stableOrder()
+            .addTransitive(NestedSetBuilder.<Artifact>stableOrder().add(a).add(b).build())
+            .add(c)
+            .build();
+    BuildEvent firstReporting =
+        new GenericArtifactReportingEvent(testId("first"), ImmutableSet.of(group));
+    BuildEvent secondReporting =
+        new GenericArtifactReportingEvent(testId("second"), ImmutableSet.of(equalGroup));
+
+    streamer.buildEvent(startEvent);
+    streamer.buildEvent(firstReporting);
+    streamer.buildEvent(secondReporting);
+
+    List<BuildEvent> allEventsSeen = transport.getEvents();
+    List<BuildEventStreamProtos.BuildEvent> eventProtos = transport.getEventProtos();
+    assertThat(allEventsSeen).hasSize(9);
+    assertThat(allEventsSeen.get(6).getEventId()).isEqualTo(firstReporting.getEventId());
+    assertThat(allEventsSeen.get(8).getEventId()).isEqualTo(secondReporting.getEventId());
+    assertThat(eventProtos.get(8).getNamedSetOfFiles().getFileSetsList())
+        .isEqualTo(eventProtos.get(6).getNamedSetOfFiles().getFileSetsList());
+  }
+
   @Test
   public void testStdoutReported() {
     // Verify that stdout and stderr are reported in the build-event stream on progress
@@ -320,6 +320,47 @@ public class PackageFunctionTest extends BuildViewTestCase {
     assertSrcs(validPackage(skyKey), "foo", "//foo:a.config", "//foo:b.txt");
   }
 
+  @Test
+  public void testPrefetchedGlobs() throws Exception {
+    scratch.file("foo/ext.bzl", "EXCLUDES = ['c.txt']");
+    scratch.file(
+        "foo/BUILD",
+        "load(':ext.bzl', 'EXCLUDES')",
+        "sh_library(name = 'foo', srcs = glob(['*.txt'], exclude = ['b.txt']))",
+        "sh_library(name = 'bar', srcs = glob(['*.txt'], exclude = EXCLUDES))");
+    scratch.file("foo/a.txt");
+    scratch.file("foo/b.txt");
+    scratch.file("foo/c.txt");
+    PackageCacheOptions packageCacheOptions = Options.getDefaults(PackageCacheOptions.class);
+    packageCacheOptions.defaultVisibility = ConstantRuleVisibility.PUBLIC;
+    packageCacheOptions.globbingThreads = 7;
+    packageCacheOptions.prefetchGlobs = true;
+    getSkyframeExecutor()
+        .preparePackageLoading(
+            new PathPackageLocator(outputBase, ImmutableList.<Path>of(rootDirectory)),
+            packageCacheOptions,
+            Options.getDefaults(SkylarkSemanticsOptions.class),
+            "",
+            UUID.randomUUID(),
+            ImmutableMap.<String, String>of(),
+            ImmutableMap.<String, String>of(),
+            tsgm);
+    SkyKey skyKey = PackageValue.key(PackageIdentifier.parse("@//foo"));
+    PackageValue value = validPackage(skyKey);
+    assertSrcs(value, "foo", "//foo:a.txt", "//foo:c.txt");
+    assertSrcs(value, "bar", "//foo:a.txt", "//foo:b.txt");
+
+    scratch.file("foo/d.txt");
+    getSkyframeExecutor()
+        .invalidateFilesUnderPathForTesting(
+            reporter,
+            ModifiedFileSet.builder().modify(PathFragment.create("foo/d.txt")).build(),
+            rootDirectory);
+    value = validPackage(skyKey);
+    assertSrcs(value, "foo", "//foo:a.txt", "//foo:c.txt", "//foo:d.txt");
+    assertSrcs(value, "bar", "//foo:a.txt", "//foo:b.txt", "//foo:d.txt");
+  }
+
   /**
    * Tests that a symlink to a file outside of the package root is handled consistently. If the
    * default behavior of Bazel was changed from {@code
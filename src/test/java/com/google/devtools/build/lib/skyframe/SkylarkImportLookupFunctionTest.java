@@ -24,10 +24,13 @@ import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.skyframe.util.SkyframeExecutorTestUtils;
+import com.google.devtools.build.lib.syntax.Environment.Extension;
 import com.google.devtools.build.lib.syntax.SkylarkSemanticsOptions;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.skyframe.ErrorInfo;
 import com.google.devtools.build.skyframe.EvaluationResult;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -46,6 +49,11 @@ public class SkylarkImportLookupFunctionTest extends BuildViewTestCase {
 
   @Before
   public final void preparePackageLoading() throws Exception  {
+    preparePackageLoading(Options.getDefaults(SkylarkSemanticsOptions.class));
+  }
+
+  private void preparePackageLoading(SkylarkSemanticsOptions skylarkSemanticsOptions)
+      throws Exception {
     Path alternativeRoot = scratch.dir("/root_2");
     PackageCacheOptions packageCacheOptions = Options.getDefaults(PackageCacheOptions.class);
     packageCacheOptions.defaultVisibility = ConstantRuleVisibility.PUBLIC;
@@ -55,7 +63,7 @@ public class SkylarkImportLookupFunctionTest extends BuildViewTestCase {
         .preparePackageLoading(
             new PathPackageLocator(outputBase, ImmutableList.of(rootDirectory, alternativeRoot)),
             packageCacheOptions,
-            Options.getDefaults(SkylarkSemanticsOptions.class),
+            skylarkSemanticsOptions,
             "",
             UUID.randomUUID(),
             ImmutableMap.<String, String>of(),
@@ -152,6 +160,51 @@ public class SkylarkImportLookupFunctionTest extends BuildViewTestCase {
     get(key("//pkg:subdir/ext2.bzl"));
   }
 
+  @Test
+  public void testExtensionIsReusedWhenSemanticsChangeBack() throws Exception {
+    scratch.file("pkg/BUILD");
+    scratch.file("pkg/ext1.bzl", "def f():", "  return 1");
+    // Depsets are only equal to themselves, so a re-evaluated extension is never pruned to the
+    // previous one by change pruning.
+    scratch.file(
+        "pkg/ext2.bzl",
+        "load('ext1', 'f')",
+        "x = depset([f()])",
+        "print('evaluated ext2')");
+    SkyKey ext2 = key("//pkg:ext2.bzl");
+    Extension first = get(ext2).get(ext2).getEnvironmentExtension();
+
+    preparePackageLoading(
+        Options.parse(SkylarkSemanticsOptions.class, "--incompatible_disallow_set_constructor")
+            .getOptions());
+    Extension second = get(ext2).get(ext2).getEnvironmentExtension();
+    assertThat(second).isNotSameAs(first);
+
+    eventCollector.clear();
+    preparePackageLoading(Options.getDefaults(SkylarkSemanticsOptions.class));
+    Extension third = get(ext2).get(ext2).getEnvironmentExtension();
+    assertThat(third).isSameAs(first);
+    assertContainsEvent("evaluated ext2");
+  }
+
+  @Test
+  public void testExtensionIsNotReusedWhenImportChanges() throws Exception {
+    scratch.file("pkg/BUILD");
+    scratch.file("pkg/ext1.bzl", "a = 1");
+    scratch.file("pkg/ext2.bzl", "load('ext1', 'a')", "b = a");
+    SkyKey ext2 = key("//pkg:ext2.bzl");
+    assertThat(get(ext2).get(ext2).getEnvironmentExtension().getBindings().get("b"))
+        .isEqualTo(1);
+
+    scratch.overwriteFile("pkg/ext1.bzl", "a = 2");
+    getSkyframeExecutor()
+        .invalidateFilesUnderPathForTesting(
+            reporter, ModifiedFileSet.builder().modify(PathFragment.create("pkg/ext1.bzl")).build(),
+            rootDirectory);
+    assertThat(get(ext2).get(ext2).getEnvironmentExtension().getBindings().get("b"))
+        .isEqualTo(2);
+  }
+
   private EvaluationResult<SkylarkImportLookupValue> get(SkyKey skylarkImportLookupKey)
       throws Exception {
     EvaluationResult<SkylarkImportLookupValue> result =
@@ -0,0 +1,127 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.syntax.SkylarkList.MutableList;
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompiledFunctionBody}. */
+@RunWith(JUnit4.class)
+public class CompiledFunctionBodyTest extends EvaluationTestCase {
+
+  @Before
+  public final void enableCompilation() throws Exception {
+    env = newEnvironmentWithSkylarkOptions("--experimental_compile_skylark_functions");
+    assertThat(env.getSemantics().experimentalCompileSkylarkFunctions).isTrue();
+  }
+
+  @Test
+  public void testIfElifElse() throws Exception {
+    eval("def classify(x):",
+        "  if x < 0:",
+        "    return 'negative'",
+        "  elif x == 0:",
+        "    result = 'zero'",
+        "  else:",
+        "    result = 'positive'",
+        "  return result",
+        "r = [classify(-1), classify(0), classify(1)]");
+    assertThat(lookup("r")).isEqualTo(MutableList.of(env, "negative", "zero", "positive"));
+  }
+
+  @Test
+  public void testNestedLoopsWithBreakAndContinue() throws Exception {
+    eval("def foo():",
+        "  pairs = []",
+        "  for i in range(4):",
+        "    if i == 1:",
+        "      continue",
+        "    for j in range(4):",
+        "      if j == 2:",
+        "        break",
+        "      pairs.append((i, j))",
+        "    if i == 2:",
+        "      break",
+        "  return pairs",
+        "r = len(foo())");
+    assertThat(lookup("r")).isEqualTo(4);
+  }
+
+  @Test
+  public void testFallingOffTheEndReturnsNone() throws Exception {
+    eval("def foo():",
+        "  for x in [1, 2]:",
+        "    pass",
+        "r = foo()");
+    assertThat(lookup("r")).isEqualTo(Runtime.NONE);
+  }
+
+  @Test
+  public void testReturnFromNestedLoopsUnlocksCollections() throws Exception {
+    eval("def find(xs, ys):",
+        "  for x in xs:",
+        "    for y in ys:",
+        "      if x == y:",
+        "        return x",
+        "xs = [1, 2, 3]",
+        "ys = [3, 2]",
+        "r = find(xs, ys)",
+        "xs.append(4)",
+        "ys.append(4)");
+    assertThat(lookup("r")).isEqualTo(2);
+    assertThat(lookup("xs")).isEqualTo(MutableList.of(env, 1, 2, 3, 4));
+  }
+
+  @Test
+  public void testCollectionLockedDuringLoop() throws Exception {
+    checkEvalErrorContains("trying to mutate a locked object",
+        "def foo():",
+        "  xs = [1, 2, 3]",
+        "  for x in xs:",
+        "    xs.append(x)",
+        "foo()");
+  }
+
+  @Test
+  public void testErrorsMatchTreeWalkingInterpreter() throws Exception {
+    String[] program = {
+      "def fail_in_loop(xs):",
+      "  for x in xs:",
+      "    if x > 1:",
+      "      return x // 0",
+      "fail_in_loop([1, 2])"
+    };
+    String compiledError = evalError(program);
+    env = newEnvironment();
+    assertThat(evalError(program)).isEqualTo(compiledError);
+    assertThat(compiledError).contains("integer division by zero");
+  }
+
+  private String evalError(String... program) throws Exception {
+    try {
+      eval(program);
+    } catch (EvalException e) {
+      return e.print();
+    }
+    fail("evaluation did not fail");
+    return null;
+  }
+}
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.syntax;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.syntax.SkylarkList.MutableList;
 import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
 import java.util.ArrayList;
 import java.util.List;
@@ -104,6 +105,30 @@ public class FunctionTest extends EvaluationTestCase {
     assertThat(lookup("c")).isEqualTo(2);
   }
 
+  @Test
+  public void testFunctionDefLocalVariablesAreResolvedToSlots() throws Exception {
+    eval("def func(a):",
+        "  b = a",
+        "  return b\n");
+    UserDefinedFunction func = (UserDefinedFunction) lookup("func");
+    AssignmentStatement assignment = (AssignmentStatement) func.getStatements().get(0);
+    assertThat(((Identifier) assignment.getLValue().getExpression()).getLocalSlot()).isEqualTo(1);
+    assertThat(((Identifier) assignment.getExpression()).getLocalSlot()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFunctionDefCalleeDoesNotAffectCallerLocals() throws Exception {
+    eval("def inner(a):",
+        "  a = a * 2",
+        "  b = a",
+        "  return b",
+        "def outer(a):",
+        "  b = inner(a + 1)",
+        "  return [a, b]",
+        "c = outer(1)\n");
+    assertThat(lookup("c")).isEqualTo(MutableList.of(env, 1, 4));
+  }
+
   @Test
   public void testFunctionDefLocalVariableReferencedBeforeAssignment() throws Exception {
     checkEvalErrorContains("Variable 'a' is referenced before assignment.",
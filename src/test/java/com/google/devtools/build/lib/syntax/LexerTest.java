@@ -206,6 +206,40 @@ public class LexerTest {
     assertThat(values(tokens("0x12345g-"))).isEqualTo("INT(74565) IDENTIFIER(g) MINUS NEWLINE EOF");
   }
 
+  @Test
+  public void testLongDecimalIntegers() throws Exception {
+    assertThat(values(tokens("123456789-"))).isEqualTo("INT(123456789) MINUS NEWLINE EOF");
+    assertThat(values(tokens("1234567890-"))).isEqualTo("INT(1234567890) MINUS NEWLINE EOF");
+    assertThat(values(tokens("2147483647"))).isEqualTo("INT(2147483647) NEWLINE EOF");
+
+    assertThat(values(tokens("2147483648"))).isEqualTo("INT(0) NEWLINE EOF");
+    assertThat(lastError.toString())
+        .isEqualTo("/some/path.txt:1: invalid base-10 integer constant: 2147483648");
+  }
+
+  @Test
+  public void testKeywordsAndIdentifiers() throws Exception {
+    assertThat(values(tokens("in ins i if iff def define_ lambda for_x")))
+        .isEqualTo(
+            "IN IDENTIFIER(ins) IDENTIFIER(i) IF IDENTIFIER(iff) DEF IDENTIFIER(define_) LAMBDA "
+                + "IDENTIFIER(for_x) NEWLINE EOF");
+  }
+
+  @Test
+  public void testRepeatedIdentifiersShareTheirName() throws Exception {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      input.append("name").append(i).append(" = name").append(i).append('\n');
+    }
+    Token[] tokens = tokens(input.toString());
+    for (int i = 0; i < 1000; i++) {
+      Token first = tokens[4 * i];
+      Token second = tokens[4 * i + 2];
+      assertThat(first.value).isEqualTo("name" + i);
+      assertThat(second.value).isSameAs(first.value);
+    }
+  }
+
   @Test
   public void testIntegersAndDot() throws Exception {
     assertThat(values(tokens("1.2345"))).isEqualTo("INT(1) DOT INT(2345) NEWLINE EOF");
@@ -0,0 +1,198 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.syntax.Parser.Dialect.SKYLARK;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PersistentParseCache}. */
+@RunWith(JUnit4.class)
+public class PersistentParseCacheTest extends EvaluationTestCase {
+
+  private final Scratch scratch = new Scratch();
+  private Path cacheDir;
+  private PersistentParseCache cache;
+
+  @Before
+  public final void createCache() throws Exception {
+    cacheDir = scratch.dir("/cache");
+    cache = new PersistentParseCache(cacheDir, "v1");
+  }
+
+  @Test
+  public void testCachedTreeEvaluatesLikeParsedOne() throws Exception {
+    Path file =
+        scratch.file(
+            "/pkg/ext.bzl",
+            "# A comment",
+            "def f(x, *args, **kwargs):",
+            "  result = [y * 2 for y in args if y > x]",
+            "  for k in sorted(kwargs):",
+            "    if k == 'skip':",
+            "      continue",
+            "    result.append(kwargs[k])",
+            "  return result",
+            "r = f(1, 0, 2, 3, a = 'a', skip = 'b')",
+            "s = {k: v for k, v in [('x', 1)]}.get('x', -1) + (1 if r else 2)");
+    BuildFileAST parsed =
+        BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), cache);
+    BuildFileAST cached =
+        BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), cache);
+
+    assertThat(cached.getStatements()).isNotSameAs(parsed.getStatements());
+    assertThat(cached.prettyPrint()).isEqualTo(parsed.prettyPrint());
+    assertThat(cached.getComments()).hasSize(1);
+    assertThat(cached.getContentHashCode()).isEqualTo(parsed.getContentHashCode());
+    assertThat(cached.getStatements().get(0).getLocation().toString())
+        .isEqualTo(parsed.getStatements().get(0).getLocation().toString());
+
+    cached = cached.validate(env, getEventHandler());
+    assertThat(cached.containsErrors()).isFalse();
+    assertThat(cached.exec(env, getEventHandler())).isTrue();
+    assertThat(lookup("r")).isEqualTo(SkylarkList.MutableList.of(env, 4, 6, "a"));
+    assertThat(lookup("s")).isEqualTo(2);
+  }
+
+  @Test
+  public void testEntriesAreKeyedByContentAndPath() throws Exception {
+    Path file = scratch.file("/pkg/ext.bzl", "x = 1");
+    Path copy = scratch.file("/other/ext.bzl", "x = 1");
+    BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), cache);
+
+    assertThat(cache.get(SKYLARK, file.asFragment(), file.getDigest())).isNotNull();
+    assertThat(cache.get(SKYLARK, copy.asFragment(), copy.getDigest())).isNull();
+    assertThat(cache.get(Parser.Dialect.BUILD, file.asFragment(), file.getDigest())).isNull();
+
+    scratch.overwriteFile("/pkg/ext.bzl", "x = 2");
+    assertThat(cache.get(SKYLARK, file.asFragment(), file.getDigest())).isNull();
+    scratch.overwriteFile("/pkg/ext.bzl", "x = 1");
+    assertThat(cache.get(SKYLARK, file.asFragment(), file.getDigest())).isNotNull();
+    assertThat(
+            new PersistentParseCache(cacheDir, "v2")
+                .get(SKYLARK, file.asFragment(), file.getDigest()))
+        .isNull();
+  }
+
+  @Test
+  public void testFilesWithErrorsAreNotCached() throws Exception {
+    setFailFast(false);
+    Path file = scratch.file("/pkg/ext.bzl", "x = (1");
+    BuildFileAST ast =
+        BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), cache);
+
+    assertThat(ast.containsErrors()).isTrue();
+    assertThat(cacheDir.getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void testCorruptEntriesAreMisses() throws Exception {
+    Path file = scratch.file("/pkg/ext.bzl", "x = 1");
+    BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), cache);
+    assertThat(cacheDir.getDirectoryEntries()).hasSize(1);
+    for (Path entry : cacheDir.getDirectoryEntries()) {
+      FileSystemUtils.writeContentAsLatin1(entry, "garbage");
+    }
+
+    assertThat(cache.get(SKYLARK, file.asFragment(), file.getDigest())).isNull();
+    BuildFileAST ast =
+        BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), cache);
+    assertThat(ast.containsErrors()).isFalse();
+    assertThat(cache.get(SKYLARK, file.asFragment(), file.getDigest())).isNotNull();
+  }
+
+  @Test
+  public void testBuildFiles() throws Exception {
+    byte[] content = "cc_library(name = 'a', srcs = glob(['*.cc']))\n".getBytes();
+    Path file = scratch.file("/pkg/BUILD", content);
+    byte[] digest = PersistentParseCache.digestContent(content);
+    BuildFileAST parsed =
+        BuildFileAST.parseBuildFile(
+            ParserInputSource.create(file, file.getFileSize()),
+            digest,
+            /*preludeStatements=*/ BuildFileAST.parseBuildString(getEventHandler(), "y = 1")
+                .getStatements(),
+            getEventHandler(),
+            cache);
+    assertThat(parsed.getStatements()).hasSize(2);
+
+    // Preludes are not part of the cache entry.
+    BuildFileAST cached =
+        BuildFileAST.parseBuildFile(
+            ParserInputSource.create(file, file.getFileSize()),
+            digest,
+            /*preludeStatements=*/ ImmutableList.<Statement>of(),
+            getEventHandler(),
+            cache);
+    assertThat(cached.getStatements()).hasSize(1);
+    assertThat(cached.getStatements().get(0).prettyPrint())
+        .isEqualTo(parsed.getStatements().get(1).prettyPrint());
+  }
+
+  @Test
+  public void testPruneDeletesEntriesOfOtherVersions() throws Exception {
+    Path file = scratch.file("/pkg/ext.bzl", "x = 1");
+    PersistentParseCache otherCache = new PersistentParseCache(cacheDir, "v2");
+    BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), cache);
+    BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), otherCache);
+    scratch.file("/cache/leftover.tmp.1.1", "partial");
+    assertThat(cacheDir.getDirectoryEntries()).hasSize(3);
+
+    cache.prune(Long.MAX_VALUE);
+
+    assertThat(cacheDir.getDirectoryEntries()).hasSize(1);
+    assertThat(cache.get(SKYLARK, file.asFragment(), file.getDigest())).isNotNull();
+    assertThat(otherCache.get(SKYLARK, file.asFragment(), file.getDigest())).isNull();
+  }
+
+  @Test
+  public void testPruneDeletesLeastRecentlyUsedEntries() throws Exception {
+    Path first = scratch.file("/pkg/first.bzl", "x = 1");
+    Path second = scratch.file("/pkg/second.bzl", "x = 2");
+    Path third = scratch.file("/pkg/third.bzl", "x = 3");
+    long totalBytes = 0;
+    long time = 1000;
+    for (Path file : new Path[] {first, second, third}) {
+      BuildFileAST.parseSkylarkFile(file, file.getFileSize(), getEventHandler(), cache);
+      for (Path entry : cacheDir.getDirectoryEntries()) {
+        if (entry.getLastModifiedTime() > time) {
+          entry.setLastModifiedTime(time);
+          totalBytes += entry.getFileSize();
+        }
+      }
+      time += 1000;
+    }
+    // Using the oldest entry makes it the most recently used one.
+    assertThat(cache.get(SKYLARK, first.asFragment(), first.getDigest())).isNotNull();
+
+    cache.prune(totalBytes - 1);
+
+    assertThat(cacheDir.getDirectoryEntries()).hasSize(2);
+    assertThat(cache.get(SKYLARK, first.asFragment(), first.getDigest())).isNotNull();
+    assertThat(cache.get(SKYLARK, second.asFragment(), second.getDigest())).isNull();
+    assertThat(cache.get(SKYLARK, third.asFragment(), third.getDigest())).isNotNull();
+
+    cache.prune(0);
+    assertThat(cacheDir.getDirectoryEntries()).isEmpty();
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import com.google.protobuf.CodedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SkylarkCpuProfiler}. */
+@RunWith(JUnit4.class)
+public class SkylarkCpuProfilerTest extends EvaluationTestCase {
+
+  @After
+  public final void stopProfiler() throws Exception {
+    SkylarkCpuProfiler.stop();
+  }
+
+  @Test
+  public void testStackFrames() throws Exception {
+    BaseFunction stack =
+        new BaseFunction("stack") {
+          @Override
+          public Object call(
+              List<Object> args,
+              Map<String, Object> kwargs,
+              FuncallExpression ast,
+              Environment env) {
+            return SkylarkCpuProfiler.toFrames(env.getContinuation()).toString();
+          }
+        };
+    update(stack.getName(), stack);
+    eval(
+        "def inner():",
+        "  return stack()",
+        "def outer():",
+        "  return inner()",
+        "s = outer()");
+    assertThat(lookup("s")).isEqualTo("[inner:1, outer:4, <toplevel>:5]");
+  }
+
+  @Test
+  public void testProfileAttributesSamplesToFunctions() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // The sampler thread never wakes up during the test, samples are only taken by sample().
+    SkylarkCpuProfiler.start(out, TimeUnit.HOURS.toMillis(1));
+    BaseFunction sample =
+        new BaseFunction("sample") {
+          @Override
+          public Object call(
+              List<Object> args,
+              Map<String, Object> kwargs,
+              FuncallExpression ast,
+              Environment env) {
+            SkylarkCpuProfiler.sampleNow();
+            return Runtime.NONE;
+          }
+        };
+    update(sample.getName(), sample);
+    eval(
+        "def busy():",
+        "  for i in range(3):",
+        "    sample()",
+        "def idle():",
+        "  pass",
+        "busy()",
+        "idle()");
+    SkylarkCpuProfiler.stop();
+
+    List<String> strings = new ArrayList<>();
+    List<List<Long>> samples = new ArrayList<>();
+    CodedInputStream profile =
+        CodedInputStream.newInstance(
+            new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+    for (int tag = profile.readTag(); tag != 0; tag = profile.readTag()) {
+      switch (tag >>> 3) {
+        case 2:
+          samples.add(readSampleValues(profile.readBytes().newCodedInput()));
+          break;
+        case 6:
+          strings.add(profile.readString());
+          break;
+        default:
+          profile.skipField(tag);
+      }
+    }
+    // All three samples were taken in the same stack, and none after the evaluation.
+    assertThat(samples).hasSize(1);
+    assertThat(samples.get(0).get(0)).isEqualTo(3);
+    assertThat(strings)
+        .containsAllOf("samples", "cpu", "nanoseconds", "alloc_space", "busy", "<toplevel>");
+    assertThat(strings).doesNotContain("idle");
+    assertThat(strings.get(0)).isEmpty();
+  }
+
+  /** Returns the values of a serialized {@code Sample} message. */
+  private static List<Long> readSampleValues(CodedInputStream sample) throws Exception {
+    List<Long> values = new ArrayList<>();
+    for (int tag = sample.readTag(); tag != 0; tag = sample.readTag()) {
+      if (tag >>> 3 == 2) {
+        values.add(sample.readInt64());
+      } else {
+        sample.skipField(tag);
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void testStoppedProfilerReleasesStacks() throws Exception {
+    SkylarkCpuProfiler.start(new ByteArrayOutputStream(), TimeUnit.HOURS.toMillis(1));
+    BaseFunction stop =
+        new BaseFunction("stop") {
+          @Override
+          public Object call(
+              List<Object> args,
+              Map<String, Object> kwargs,
+              FuncallExpression ast,
+              Environment env) throws EvalException {
+            try {
+              SkylarkCpuProfiler.stop();
+            } catch (IOException e) {
+              throw new EvalException(ast.getLocation(), e);
+            }
+            return Runtime.NONE;
+          }
+        };
+    update(stop.getName(), stop);
+    // Stops the profiler while the thread is in f, so its stack was still published.
+    eval(
+        "def f():",
+        "  stop()",
+        "f()");
+    assertThat(SkylarkCpuProfiler.isRunning()).isFalse();
+    assertThat(SkylarkCpuProfiler.getPublishedStack()).isNull();
+  }
+
+  @Test
+  public void testStartTwiceFails() throws Exception {
+    SkylarkCpuProfiler.start(new ByteArrayOutputStream(), 10);
+    try {
+      SkylarkCpuProfiler.start(new ByteArrayOutputStream(), 10);
+      fail();
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+    assertThat(SkylarkCpuProfiler.isRunning()).isTrue();
+    SkylarkCpuProfiler.stop();
+    assertThat(SkylarkCpuProfiler.isRunning()).isFalse();
+  }
+}
@@ -682,6 +682,18 @@ public class SkylarkEvaluationTest extends EvaluationTest {
         .testLookup("b", Boolean.FALSE);
   }
 
+  @Test
+  public void testJavaCallSiteWithDifferentReceiverClasses() throws Exception {
+    new SkylarkTest()
+        .update("mock", new Mock())
+        .update("sub", new MockSubClass())
+        .setUp("def is_empty(x, s):",
+            "  return x.is_empty(s)",
+            "r = [is_empty(mock, ''), is_empty(sub, 'a'), is_empty(mock, 'a')]")
+        .testLookup("r", MutableList.of(null, true, false, false))
+        .testIfErrorContains("type 'int' has no method is_empty(string)", "is_empty(1, '')");
+  }
+
   @Test
   public void testJavaCallsOnInterface() throws Exception {
     new SkylarkTest()
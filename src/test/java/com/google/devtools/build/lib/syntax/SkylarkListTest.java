@@ -231,6 +231,65 @@ public class SkylarkListTest extends EvaluationTestCase {
     assertThat(lookup("v")).isEqualTo(0);
   }
 
+  @Test
+  public void testConcatResultsSharingElementsAreIndependent() throws Exception {
+    eval("a = [1, 2]",
+        "b = a + [3]",
+        "c = b + [4]",
+        "d = b + [5]",
+        "b.append(6)",
+        "c[0] = 0",
+        "e = c + c");
+    assertThat(listEval("a")).containsExactly(1, 2).inOrder();
+    assertThat(listEval("b")).containsExactly(1, 2, 3, 6).inOrder();
+    assertThat(listEval("c")).containsExactly(0, 2, 3, 4).inOrder();
+    assertThat(listEval("d")).containsExactly(1, 2, 3, 5).inOrder();
+    assertThat(listEval("e")).containsExactly(0, 2, 3, 4, 0, 2, 3, 4).inOrder();
+  }
+
+  @Test
+  public void testRepeatedConcatenation() throws Exception {
+    eval("def f():",
+        "  x = []",
+        "  prefixes = []",
+        "  for i in range(100):",
+        "    prefixes.append(x)",
+        "    x = x + [i]",
+        "    x += [i]",
+        "  return x, prefixes",
+        "x, prefixes = f()",
+        "lengths = [len(p) for p in prefixes]",
+        "last = prefixes[-1]");
+    assertThat(listEval("x")).hasSize(200);
+    assertThat(eval("lengths == list(range(0, 200, 2))")).isEqualTo(true);
+    assertThat(listEval("last")).containsExactlyElementsIn(listEval("x[:198]")).inOrder();
+  }
+
+  @Test
+  public void testConcatWhileIterating() throws Exception {
+    eval("def f():",
+        "  x = [1, 2, 3]",
+        "  y = x + []",
+        "  for e in x:",
+        "    y += [e]",
+        "  for e in y:",
+        "    x = x + [e]",
+        "  return x, y",
+        "x, y = f()");
+    assertThat(listEval("y")).containsExactly(1, 2, 3, 1, 2, 3).inOrder();
+    assertThat(listEval("x")).containsExactly(1, 2, 3, 1, 2, 3, 1, 2, 3).inOrder();
+  }
+
+  @Test
+  public void testConcatWithFrozenList() throws Exception {
+    SkylarkList<Object> frozen = SkylarkList.createImmutable(Tuple.of(1, 2));
+    update("frozen", frozen);
+    eval("x = frozen + [3]", "y = frozen + [4]");
+    assertThat(frozen).containsExactly(1, 2).inOrder();
+    assertThat(listEval("x")).containsExactly(1, 2, 3).inOrder();
+    assertThat(listEval("y")).containsExactly(1, 2, 4).inOrder();
+  }
+
   @Test
   public void testListComparison() throws Exception {
     assertThat(eval("(1, 'two', [3, 4]) == (1, 'two', [3, 4])")).isEqualTo(true);
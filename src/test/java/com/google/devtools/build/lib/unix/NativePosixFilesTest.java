@@ -111,4 +111,31 @@ public class NativePosixFilesTest {
       assertThat(e).hasMessage(foo + " (Read-only file system)");
     }
   }
+
+  @Test
+  public void errnoStatBatchReportsEachPath() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(testFile, "abc");
+    Path dir = workingDir.getRelative("dir");
+    dir.createDirectory();
+    Path link = workingDir.getRelative("link");
+    link.createSymbolicLink(testFile);
+    String[] paths = {
+      testFile.getPathString(),
+      dir.getPathString(),
+      workingDir.getRelative("missing").getPathString(),
+      link.getPathString(),
+    };
+
+    ErrnoFileStatus[] followed = NativePosixFiles.errnoStatBatch(paths, true);
+    assertThat(followed).hasLength(4);
+    assertThat(followed[0].hasError()).isFalse();
+    assertThat(followed[0].isRegularFile()).isTrue();
+    assertThat(followed[0].getSize()).isEqualTo(3);
+    assertThat(followed[1].isDirectory()).isTrue();
+    assertThat(followed[2].getErrno()).isEqualTo(ErrnoFileStatus.ENOENT);
+    assertThat(followed[3].isRegularFile()).isTrue();
+
+    ErrnoFileStatus[] notFollowed = NativePosixFiles.errnoStatBatch(paths, false);
+    assertThat(notFollowed[3].isSymbolicLink()).isTrue();
+  }
 }
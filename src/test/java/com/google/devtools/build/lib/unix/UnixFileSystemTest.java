@@ -16,12 +16,16 @@ package com.google.devtools.build.lib.unix;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.SymlinkAwareFileSystemTest;
 import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.IOException;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -77,4 +81,29 @@ public class UnixFileSystemTest extends SymlinkAwareFileSystemTest {
     assertThat(fifo.stat().isFile()).isTrue();
     assertThat(fifo.stat().isSpecialFile()).isTrue();
   }
+
+  @Test
+  public void testBatchStat() throws Exception {
+    Path file = absolutize("batch/file");
+    Path link = absolutize("batch/link");
+    file.getParentDirectory().createDirectory();
+    FileSystemUtils.writeContentAsLatin1(file, "content");
+    link.createSymbolicLink(file);
+
+    List<FileStatusWithDigest> stats =
+        new UnixBatchStat(file.getParentDirectory())
+            .batchStat(
+                /*includeDigest=*/ true,
+                /*includeLinks=*/ true,
+                ImmutableList.of(
+                    PathFragment.create("file"),
+                    PathFragment.create("missing"),
+                    PathFragment.create("link")));
+    assertThat(stats).hasSize(3);
+    assertThat(stats.get(0).isFile()).isTrue();
+    assertThat(stats.get(0).getSize()).isEqualTo(7);
+    assertThat(stats.get(0).getDigest()).isNull();
+    assertThat(stats.get(1)).isNull();
+    assertThat(stats.get(2).isSymbolicLink()).isTrue();
+  }
 }
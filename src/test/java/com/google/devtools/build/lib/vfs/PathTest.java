@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.vfs;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
 import com.google.common.testing.EqualsTester;
 import com.google.common.testing.GcFinalization;
@@ -242,6 +243,47 @@ public class PathTest {
     assertThat(childHashCode2).isEqualTo(childHashCode1);
   }
 
+  @Test
+  public void testManyChildrenAreCached() {
+    Path parent = filesystem.getPath("/many");
+    List<Path> children = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      children.add(parent.getChild("child" + i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertThat(parent.getChild("child" + i)).isSameAs(children.get(i));
+    }
+    final List<Path> visited = Lists.newArrayList();
+    parent.applyToChildren(
+        new Predicate<Path>() {
+          @Override
+          public boolean apply(Path child) {
+            visited.add(child);
+            return true;
+          }
+        });
+    assertThat(visited).containsExactlyElementsIn(children);
+  }
+
+  @Test
+  public void testCollectedChildrenAreRemovedAndRecreated() {
+    Path parent = filesystem.getPath("/collected");
+    Path kept = parent.getChild("kept");
+    List<WeakReference<Path>> refs = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      refs.add(new WeakReference<>(parent.getChild("dropped" + i)));
+    }
+    for (WeakReference<Path> ref : refs) {
+      GcFinalization.awaitClear(ref);
+    }
+    assertThat(parent.getChild("kept")).isSameAs(kept);
+    for (int i = 0; i < 100; i++) {
+      Path recreated = parent.getChild("dropped" + i);
+      assertThat(recreated.getPathString()).isEqualTo("/collected/dropped" + i);
+      assertThat(parent.getChild("dropped" + i)).isSameAs(recreated);
+    }
+  }
+
   @Test
   public void testSerialization() throws Exception {
     FileSystem oldFileSystem = Path.getFileSystemForSerialization();
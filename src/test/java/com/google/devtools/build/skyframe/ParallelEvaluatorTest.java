@@ -37,6 +37,7 @@ import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.events.ExtendedEventHandler.Postable;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.profiler.MetricsRegistry;
 import com.google.devtools.build.lib.testutil.TestThread;
 import com.google.devtools.build.lib.testutil.TestUtils;
 import com.google.devtools.build.skyframe.GraphTester.StringValue;
@@ -727,6 +728,44 @@ public class ParallelEvaluatorTest {
     assertWithMessage(result.toString()).that(result.errorMap().size()).isEqualTo(2);
   }
 
+  @Test
+  public void queuedEvaluationsGaugeIsRestoredAfterFailFast() throws Exception {
+    graph = new InMemoryGraphImpl();
+    MetricsRegistry.Gauge queuedEvaluations =
+        MetricsRegistry.instance()
+            .gauge(
+                "skyframe_queued_evaluations", "Skyframe nodes waiting for an evaluator thread.");
+    long queuedBefore = queuedEvaluations.get();
+    SkyKey errorKey = GraphTester.toSkyKey("error");
+    tester.getOrCreate(errorKey).setHasError(true);
+    // Slow leaves, so that most of them are still queued when the error stops the evaluation.
+    SkyFunction slowLeaf =
+        new SkyFunction() {
+          @Override
+          public SkyValue compute(SkyKey key, Environment env) throws InterruptedException {
+            Thread.sleep(10);
+            return new StringValue("leaf");
+          }
+
+          @Nullable
+          @Override
+          public String extractTag(SkyKey skyKey) {
+            return null;
+          }
+        };
+    List<SkyKey> keys = new ArrayList<>();
+    keys.add(errorKey);
+    for (int i = 0; i < 1000; i++) {
+      SkyKey key = GraphTester.toSkyKey("leaf" + i);
+      tester.getOrCreate(key).setBuilder(slowLeaf);
+      keys.add(key);
+    }
+    EvaluationResult<StringValue> result = eval(/*keepGoing=*/ false, keys);
+    assertThat(result.hasError()).isTrue();
+    // Evaluations dropped by the fail-fast shutdown must not stay counted as queued.
+    assertThat(queuedEvaluations.get()).isEqualTo(queuedBefore);
+  }
+
   @Test
   public void noKeepGoingAfterKeepGoingFails() throws Exception {
     graph = new InMemoryGraphImpl();
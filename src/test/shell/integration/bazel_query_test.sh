@@ -96,6 +96,55 @@ EOF
   assert_contains "//visibility:public" output_public
 }
 
+# Extracts the labels of the targets in a proto query output, in order.
+function proto_output_labels() {
+  "${protoc_compiler}" --decode_raw < "$1" > "$1.decoded" \
+      || fail "Expected $1 to parse as one message"
+  # The name is the first field of the rule or source file of each target.
+  sed -n 's/^    1: "\(\/\/[^"]*\)"$/\1/p' "$1.decoded"
+}
+
+# Extracts the labels of the targets in an XML query output, in order.
+function xml_output_labels() {
+  python -c '
+import sys, xml.dom.minidom
+for node in xml.dom.minidom.parse(sys.argv[1]).documentElement.childNodes:
+  if node.nodeType == node.ELEMENT_NODE:
+    print(node.getAttribute("name"))
+' "$1" || fail "Expected $1 to be well-formed XML"
+}
+
+function test_proto_and_xml_output_of_many_targets() {
+  mkdir -p many || fail "Couldn't mkdir"
+  # Enough targets for the proto conversion to be split across threads.
+  echo "sh_library(name = 't0001')" > many/BUILD || fail "Couldn't write BUILD"
+  for i in $(seq -w 2 1000); do
+    echo "sh_library(name = 't$i', deps = [':t0001'])" >> many/BUILD \
+        || fail "Couldn't write BUILD"
+  done
+
+  bazel query '//many:*' > output_labels || fail "Expected success"
+  [ "$(wc -l < output_labels)" -eq 1001 ] || fail "Expected 1001 targets"
+
+  bazel query --output=proto '//many:*' > output_proto || fail "Expected success"
+  diff output_labels <(proto_output_labels output_proto) \
+      || fail "Expected the proto output to list the targets in order"
+  bazel query --output=xml '//many:*' > output_xml || fail "Expected success"
+  diff output_labels <(xml_output_labels output_xml) \
+      || fail "Expected the XML output to list the targets in order"
+
+  # Sky query streams the results in batches, in no particular order.
+  local sky_query_flags="--universe_scope=//many:* --order_output=no"
+  bazel query $sky_query_flags --output=proto 'allrdeps(//many:t0001)' > output_proto \
+      || fail "Expected success"
+  diff <(grep -v BUILD output_labels) <(proto_output_labels output_proto | sort) \
+      || fail "Expected the proto output to list every target once"
+  bazel query $sky_query_flags --output=xml 'allrdeps(//many:t0001)' > output_xml \
+      || fail "Expected success"
+  diff <(grep -v BUILD output_labels) <(xml_output_labels output_xml | sort) \
+      || fail "Expected the XML output to list every target once"
+}
+
 function make_depth_tests() {
   mkdir -p depth depth2 || die "Could not create test directory"
   cat > "depth/BUILD" <<EOF
@@ -195,6 +244,44 @@ EOF
   expect_not_log "//bar:top"
 }
 
+function test_graph_index_matches_graph_walk() {
+  mkdir -p foo bar || fail "Couldn't mkdir"
+  cat <<'EOF' > foo/BUILD || fail "Couldn't write BUILD"
+sh_library(name = 'top', deps = [':left', ':right'])
+sh_library(name = 'left', deps = ['//bar:middle'])
+sh_library(name = 'right', deps = ['//bar:middle', '//bar:other'])
+sh_library(name = 'chain', deps = [':link'])
+sh_library(name = 'link', deps = ['//bar:other'])
+EOF
+  cat <<'EOF' > bar/BUILD || fail "Couldn't write BUILD"
+sh_library(name = 'middle', deps = [':leaf'])
+sh_library(name = 'other', deps = [':leaf'])
+sh_library(name = 'leaf')
+sh_library(name = 'dep')
+sh_library(name = 'outside', deps = [':dep'])
+EOF
+  for query_string in 'allrdeps(//bar:leaf)' 'allrdeps(//bar:leaf, 2)' \
+      'rdeps(//foo:*, //bar:leaf, 2)' 'rdeps(//foo:*, //bar:other)' \
+      'somepath(//foo:chain, //bar:leaf)' 'allrdeps(//bar:dep)' \
+      'allrdeps(//bar:dep + //bar:leaf, 1)' \
+      'allrdeps(//bar:leaf) except //foo:*' \
+      'allrdeps(//bar:leaf) except allrdeps(//bar:middle) except //bar:leaf' \
+      'allrdeps(//bar:leaf) intersect allrdeps(//bar:other)' \
+      '//foo:* ^ allrdeps(//bar:middle) ^ allrdeps(//bar:other)' \
+      '(//bar:dep + //foo:top + //foo:chain) except (//bar:dep + //foo:top)' \
+      '(//bar:dep + //bar:leaf) intersect (//bar:dep + allrdeps(//bar:middle))'
+  do
+    bazel query --order_output=no --universe_scope=//foo/...:* \
+        "$query_string" > output_walk || fail "Expected success: $query_string"
+    bazel query --order_output=no --universe_scope=//foo/...:* \
+        --experimental_graph_index "$query_string" > output_index \
+        || fail "Expected success with the index: $query_string"
+    [ -s output_walk ] || fail "Expected results for $query_string"
+    diff <(sort output_walk) <(sort output_index) \
+        || fail "Results differ with the index: $query_string"
+  done
+}
+
 # Since all targets in deps(..., n) are accessible n steps away, none should
 # have a minrank greater than n.
 function test_minrank_le_depth_bound() {